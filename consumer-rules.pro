@@ -0,0 +1,4 @@
+# HttpPlatform通过反射创建Android平台实现
+-keep class com.seagle.net.android.httphelper.AndroidPlatform {
+    <init>();
+}
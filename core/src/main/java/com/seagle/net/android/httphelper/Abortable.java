@@ -0,0 +1,14 @@
+package com.seagle.net.android.httphelper;
+
+/**
+ * 可以从其他线程中止的请求任务.
+ * 取消会话时，除了中断执行线程，还要断开正在使用的连接，阻塞中的读写才会立即结束。
+ * Created by seagle on 2018/4/10.
+ */
+interface Abortable {
+
+    /**
+     * 中止任务，断开正在使用的连接
+     */
+    void abort();
+}
@@ -0,0 +1,112 @@
+package com.seagle.net.android.httphelper;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.Callable;
+
+/**
+ * 带认证的请求任务.
+ * 发送前添加认证请求头；收到认证失败的响应时通过认证器刷新令牌，使用新的令牌重新发送一次。
+ * 无法刷新时返回原来的响应。
+ * Created by seagle on 2018/4/10.
+ */
+class HttpAuthTask<T> implements Callable<HttpResponse<T>>, StagedTask<T>, Abortable, TraceableTask {
+
+    /**
+     * 第一次发送的请求任务
+     */
+    private final Callable<HttpResponse<T>> mTask;
+
+    /**
+     * 刷新令牌后重新发送的请求任务
+     */
+    private final Callable<HttpResponse<T>> mReplayTask;
+
+    private final HttpAuthenticator mAuthenticator;
+    private final HttpRequest mRequest;
+
+    /**
+     * 最后执行的请求任务
+     */
+    private volatile Callable<HttpResponse<T>> mCurrentTask;
+    private volatile boolean mAborted;
+
+    HttpAuthTask(Callable<HttpResponse<T>> task, Callable<HttpResponse<T>> replayTask, HttpAuthenticator authenticator,
+                 HttpRequest request) {
+        mTask = task;
+        mReplayTask = replayTask;
+        mAuthenticator = authenticator;
+        mRequest = request;
+        mCurrentTask = task;
+    }
+
+    @Override
+    public void abort() {
+        mAborted = true;
+        Callable<HttpResponse<T>> task = mCurrentTask;
+        if (task instanceof Abortable) {
+            ((Abortable) task).abort();
+        }
+    }
+
+    @Override
+    public long getRequestBytes() {
+        Callable<HttpResponse<T>> task = mCurrentTask;
+        return task instanceof TraceableTask ? ((TraceableTask) task).getRequestBytes() : -1;
+    }
+
+    @Override
+    public long getResponseBytes() {
+        Callable<HttpResponse<T>> task = mCurrentTask;
+        return task instanceof TraceableTask ? ((TraceableTask) task).getResponseBytes() : -1;
+    }
+
+    @Override
+    public int getStatusCode() {
+        Callable<HttpResponse<T>> task = mCurrentTask;
+        return task instanceof TraceableTask ? ((TraceableTask) task).getStatusCode() : 0;
+    }
+
+    @Override
+    public HttpResponse<T> call() throws Exception {
+        return fetch().call();
+    }
+
+    @Override
+    public Callable<HttpResponse<T>> fetch() throws Exception {
+        String authorization = mAuthenticator.authorize(mRequest);
+        Callable<HttpResponse<T>> stage = fetch(mTask);
+        if (mAborted || !mAuthenticator.isAuthFailure(getStatusCode())) {
+            return stage;
+        }
+        if (mAuthenticator.refresh(mRequest, authorization) == null || mAborted) {
+            return stage;
+        }
+        close(stage);
+        mCurrentTask = mReplayTask;
+        if (mAborted) {
+            abort();
+        }
+        return fetch(mReplayTask);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> Callable<HttpResponse<T>> fetch(Callable<HttpResponse<T>> task) throws Exception {
+        return task instanceof StagedTask ? ((StagedTask<T>) task).fetch() : task;
+    }
+
+    /**
+     * 释放认证失败的响应
+     *
+     * @param stage 解码阶段
+     */
+    private static void close(Callable<?> stage) {
+        if (stage instanceof Closeable) {
+            try {
+                ((Closeable) stage).close();
+            } catch (IOException ex) {
+                ex.printStackTrace();
+            }
+        }
+    }
+}
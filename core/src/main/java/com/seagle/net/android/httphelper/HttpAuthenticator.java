@@ -0,0 +1,270 @@
+package com.seagle.net.android.httphelper;
+
+import java.net.HttpURLConnection;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <h1>认证令牌刷新.</h1>
+ * 访问令牌过期后，正在进行的请求会同时收到401。认证器保证同一时间只有一个请求执行刷新，
+ * 其它收到401的请求等待刷新结束，使用新的令牌重新发送一次；刷新期间提交的请求也等待刷新结束后再发送。
+ * <p>
+ * 等待刷新的请求数和等待时间都有上限。超出上限、等待超时、刷新失败或者重新发送后仍然是401时，
+ * 请求按原来的方式返回{@link HttpResponse#ERROR_CODE_HTTP}。
+ * 通过{@link HttpHelper#setAuthenticator(HttpAuthenticator)}启用，请求头{@link #HEADER_AUTHORIZATION}由认证器管理。
+ *
+ * @author : yuanxiudong66@sina.com
+ */
+public abstract class HttpAuthenticator {
+
+    /**
+     * 认证请求头
+     */
+    public static final String HEADER_AUTHORIZATION = "Authorization";
+
+    /**
+     * 默认的等待刷新时间，单位：ms
+     */
+    public static final long DEFAULT_WAIT_TIMEOUT = 10000;
+
+    /**
+     * 默认的最大等待请求数
+     */
+    public static final int DEFAULT_MAX_WAITERS = 64;
+
+    private final long mWaitTimeoutNanos;
+    private final int mMaxWaiters;
+
+    private String mAuthorization;
+
+    /**
+     * 是否正在刷新
+     */
+    private boolean mRefreshing;
+
+    /**
+     * 刷新次数，每次刷新结束加一，等待的请求据此判断刷新是否结束
+     */
+    private long mRefreshCount;
+    private int mWaiterCount;
+
+    private long mRefreshFailureCount;
+    private long mReplayCount;
+    private long mRejectedCount;
+
+    /**
+     * @param authorization 当前的认证请求头，例如"Bearer xxx"，为空时不添加
+     */
+    public HttpAuthenticator(String authorization) {
+        this(authorization, DEFAULT_WAIT_TIMEOUT, DEFAULT_MAX_WAITERS);
+    }
+
+    /**
+     * @param authorization     当前的认证请求头，例如"Bearer xxx"，为空时不添加
+     * @param waitTimeoutMillis 等待刷新的最长时间，单位：ms
+     * @param maxWaiters        同时等待刷新的最大请求数
+     */
+    public HttpAuthenticator(String authorization, long waitTimeoutMillis, int maxWaiters) {
+        if (waitTimeoutMillis <= 0) {
+            throw new IllegalArgumentException("Invalid wait timeout: " + waitTimeoutMillis);
+        }
+        if (maxWaiters < 0) {
+            throw new IllegalArgumentException("Invalid max waiters: " + maxWaiters);
+        }
+        mAuthorization = authorization;
+        mWaitTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(waitTimeoutMillis);
+        mMaxWaiters = maxWaiters;
+    }
+
+    /**
+     * 刷新令牌，在收到401的请求的I/O线程中执行，同一时间只有一个刷新.
+     * 可以在这里同步请求刷新接口，不要通过同一个认证器的HttpHelper发送，避免刷新请求等待自己。
+     *
+     * @param failedAuthorization 收到401的请求使用的认证请求头
+     * @return 新的认证请求头，无法刷新（例如需要重新登录）时返回null
+     * @throws Exception 刷新失败，按返回null处理
+     */
+    protected abstract String refreshAuthorization(String failedAuthorization) throws Exception;
+
+    /**
+     * 是否为认证失败，默认为401
+     *
+     * @param statusCode HTTP状态码
+     * @return 是否需要刷新令牌
+     */
+    protected boolean isAuthFailure(int statusCode) {
+        return statusCode == HttpURLConnection.HTTP_UNAUTHORIZED;
+    }
+
+    /**
+     * 获取当前的认证请求头
+     *
+     * @return 认证请求头
+     */
+    public synchronized String getAuthorization() {
+        return mAuthorization;
+    }
+
+    /**
+     * 设置认证请求头，例如重新登录之后，只影响之后发送的请求
+     *
+     * @param authorization 认证请求头
+     */
+    public synchronized void setAuthorization(String authorization) {
+        mAuthorization = authorization;
+    }
+
+    /**
+     * 获取刷新次数
+     *
+     * @return 次数
+     */
+    public synchronized long getRefreshCount() {
+        return mRefreshCount;
+    }
+
+    /**
+     * 获取刷新失败的次数
+     *
+     * @return 次数
+     */
+    public synchronized long getRefreshFailureCount() {
+        return mRefreshFailureCount;
+    }
+
+    /**
+     * 获取使用新令牌重新发送的请求数
+     *
+     * @return 请求数
+     */
+    public synchronized long getReplayCount() {
+        return mReplayCount;
+    }
+
+    /**
+     * 获取等待请求数超出上限或者等待超时的次数
+     *
+     * @return 次数
+     */
+    public synchronized long getRejectedCount() {
+        return mRejectedCount;
+    }
+
+    /**
+     * 发送前添加认证请求头，正在刷新时先等待刷新结束
+     *
+     * @param request 请求
+     * @return 使用的认证请求头
+     */
+    String authorize(HttpRequest request) {
+        String authorization;
+        synchronized (this) {
+            if (mRefreshing) {
+                awaitRefresh();
+            }
+            authorization = mAuthorization;
+        }
+        if (HttpUtils.isEmpty(authorization)) {
+            //令牌已经清除，去掉上一次请求留下的认证请求头
+            request.removeRequestHeaderProperty(HEADER_AUTHORIZATION);
+        } else {
+            request.addRequestHeaderProperty(HEADER_AUTHORIZATION, authorization);
+        }
+        return authorization;
+    }
+
+    /**
+     * 请求收到401后刷新令牌.
+     * 令牌已经被其它请求刷新时直接返回新的令牌；正在刷新时等待刷新结束；否则由当前线程执行刷新。
+     *
+     * @param request             请求，刷新成功时更新认证请求头
+     * @param failedAuthorization 收到401的请求使用的认证请求头
+     * @return 新的认证请求头，无法刷新时为null
+     */
+    String refresh(HttpRequest request, String failedAuthorization) {
+        String authorization = null;
+        boolean leader = false;
+        synchronized (this) {
+            if (!HttpUtils.equals(failedAuthorization, mAuthorization)) {
+                //其它请求已经刷新
+                authorization = mAuthorization;
+            } else if (mRefreshing) {
+                if (awaitRefresh() && !HttpUtils.equals(failedAuthorization, mAuthorization)) {
+                    authorization = mAuthorization;
+                }
+            } else {
+                mRefreshing = true;
+                leader = true;
+            }
+        }
+        if (leader) {
+            authorization = runRefresh(failedAuthorization);
+        }
+        if (authorization == null) {
+            return null;
+        }
+        synchronized (this) {
+            mReplayCount++;
+        }
+        request.addRequestHeaderProperty(HEADER_AUTHORIZATION, authorization);
+        return authorization;
+    }
+
+    /**
+     * 执行刷新，结束后唤醒等待的请求
+     *
+     * @param failedAuthorization 收到401的请求使用的认证请求头
+     * @return 新的认证请求头，刷新失败时为null
+     */
+    private String runRefresh(String failedAuthorization) {
+        String authorization = null;
+        try {
+            authorization = refreshAuthorization(failedAuthorization);
+        } catch (Exception ex) {
+            ex.printStackTrace();
+        } finally {
+            synchronized (this) {
+                if (HttpUtils.isEmpty(authorization)) {
+                    authorization = null;
+                    mRefreshFailureCount++;
+                } else {
+                    mAuthorization = authorization;
+                }
+                mRefreshing = false;
+                mRefreshCount++;
+                notifyAll();
+            }
+        }
+        return authorization;
+    }
+
+    /**
+     * 等待正在进行的刷新结束，调用时持有锁
+     *
+     * @return 刷新是否在等待时间内结束
+     */
+    private boolean awaitRefresh() {
+        if (mWaiterCount >= mMaxWaiters) {
+            mRejectedCount++;
+            return false;
+        }
+        long refreshCount = mRefreshCount;
+        long deadline = System.nanoTime() + mWaitTimeoutNanos;
+        mWaiterCount++;
+        try {
+            while (mRefreshCount == refreshCount) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    mRejectedCount++;
+                    return false;
+                }
+                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            }
+            return true;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            mWaiterCount--;
+        }
+    }
+}
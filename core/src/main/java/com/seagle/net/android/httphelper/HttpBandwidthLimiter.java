@@ -0,0 +1,354 @@
+package com.seagle.net.android.httphelper;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <h1>带宽限制.</h1>
+ * 限制一个方向（上传或者下载）所有请求体传输的总速率，通过{@link HttpHelper#setBandwidthLimiters(HttpBandwidthLimiter, HttpBandwidthLimiter)}设置。
+ * 同时进行的传输按{@link HttpRequest#setBandwidthWeight(int)}设置的权重分配总速率；
+ * 通过{@link HttpRequest#setBandwidthLimit(long)}设置了上限的传输最多使用上限，剩余的速率分配给其它传输。
+ * <p>
+ * 总速率、单个请求的上限和权重都可以在传输过程中修改，在之后的读写中生效。
+ * 每次读写最多传输约50ms的数据，低速率时也能及时响应修改和取消。
+ * 只限制请求体和响应体的读写，连接、请求头和响应头不受限制。
+ *
+ * @author : yuanxiudong66@sina.com
+ */
+public final class HttpBandwidthLimiter {
+
+    /**
+     * 空闲后允许的突发传输时间，单位：ns
+     */
+    private static final long BURST_NANOS = 50000000L;
+
+    /**
+     * 每次读写的最小和最大字节数
+     */
+    private static final int MIN_CHUNK_BYTES = 512;
+    private static final int MAX_CHUNK_BYTES = 64 * 1024;
+
+    private long mBytesPerSecond;
+
+    /**
+     * 正在进行的传输
+     */
+    private final List<Transfer> mTransfers = new ArrayList<>();
+
+    private long mTransferredBytes;
+
+    /**
+     * @param bytesPerSecond 总速率，单位：byte/s，小于等于0表示不限制总速率，只限制单个请求的上限
+     */
+    public HttpBandwidthLimiter(long bytesPerSecond) {
+        mBytesPerSecond = Math.max(0, bytesPerSecond);
+    }
+
+    /**
+     * 修改总速率，对正在进行的传输立即生效
+     *
+     * @param bytesPerSecond 总速率，单位：byte/s，小于等于0表示不限制
+     */
+    public synchronized void setRate(long bytesPerSecond) {
+        mBytesPerSecond = Math.max(0, bytesPerSecond);
+        allocate();
+    }
+
+    /**
+     * 获取总速率
+     *
+     * @return 总速率，单位：byte/s，0表示不限制
+     */
+    public synchronized long getRate() {
+        return mBytesPerSecond;
+    }
+
+    /**
+     * 获取正在进行的传输数
+     *
+     * @return 传输数
+     */
+    public synchronized int getActiveCount() {
+        return mTransfers.size();
+    }
+
+    /**
+     * 获取已经传输的字节数
+     *
+     * @return 字节数
+     */
+    public synchronized long getTransferredBytes() {
+        return mTransferredBytes;
+    }
+
+    /**
+     * 开始一个传输
+     *
+     * @param limiter 带宽限制，可以为空，为空时只限制请求自身的上限
+     * @param request 请求
+     * @return 传输，没有任何限制时为null
+     */
+    static Transfer open(HttpBandwidthLimiter limiter, HttpRequest request) {
+        if (limiter == null && request.getBandwidthLimit() <= 0) {
+            return null;
+        }
+        Transfer transfer = new Transfer(limiter, request);
+        if (limiter != null) {
+            limiter.add(transfer);
+        }
+        return transfer;
+    }
+
+    private synchronized void add(Transfer transfer) {
+        mTransfers.add(transfer);
+        allocate();
+    }
+
+    private synchronized void remove(Transfer transfer) {
+        if (mTransfers.remove(transfer)) {
+            allocate();
+        }
+    }
+
+    private synchronized void onTransferred(int bytes) {
+        mTransferredBytes += bytes;
+    }
+
+    /**
+     * 传输的上限或者权重已经修改，重新分配
+     *
+     * @param transfer 传输
+     * @param limit    上限
+     * @param weight   权重
+     * @return 分配的速率
+     */
+    private synchronized long update(Transfer transfer, long limit, int weight) {
+        if (transfer.mLimit != limit || transfer.mWeight != weight) {
+            transfer.mLimit = limit;
+            transfer.mWeight = weight;
+            allocate();
+        }
+        return transfer.mRate;
+    }
+
+    /**
+     * 按权重分配总速率.
+     * 分配额超过自身上限的传输只分配上限，剩余的速率在其它传输之间继续按权重分配。
+     */
+    private void allocate() {
+        if (mBytesPerSecond <= 0) {
+            for (Transfer transfer : mTransfers) {
+                transfer.mRate = transfer.mLimit;
+            }
+            return;
+        }
+        List<Transfer> pending = new ArrayList<>(mTransfers);
+        long remaining = mBytesPerSecond;
+        boolean changed = true;
+        while (changed && !pending.isEmpty()) {
+            changed = false;
+            long totalWeight = 0;
+            for (Transfer transfer : pending) {
+                totalWeight += transfer.mWeight;
+            }
+            for (int i = pending.size() - 1; i >= 0; i--) {
+                Transfer transfer = pending.get(i);
+                if (transfer.mLimit > 0 && transfer.mLimit * totalWeight < remaining * transfer.mWeight) {
+                    transfer.mRate = transfer.mLimit;
+                    remaining -= transfer.mLimit;
+                    pending.remove(i);
+                    changed = true;
+                }
+            }
+            if (!changed) {
+                for (Transfer transfer : pending) {
+                    transfer.mRate = Math.max(1, remaining * transfer.mWeight / totalWeight);
+                }
+            }
+        }
+    }
+
+    /**
+     * 一个请求的传输，可以被多个线程同时使用，例如分段下载
+     */
+    static final class Transfer {
+        private final HttpBandwidthLimiter mLimiter;
+        private final HttpRequest mRequest;
+
+        /**
+         * 以下字段由带宽限制同步访问
+         */
+        private long mLimit;
+        private int mWeight;
+        private long mRate;
+
+        /**
+         * 下一次可以传输的时间
+         */
+        private long mNextNanos = System.nanoTime();
+        private long mTransferredBytes;
+
+        private Transfer(HttpBandwidthLimiter limiter, HttpRequest request) {
+            mLimiter = limiter;
+            mRequest = request;
+            mLimit = request.getBandwidthLimit();
+            mWeight = request.getBandwidthWeight();
+            mRate = mLimit;
+        }
+
+        /**
+         * 获取当前速率
+         *
+         * @return 速率，单位：byte/s，0表示不限制
+         */
+        private long currentRate() {
+            long limit = mRequest.getBandwidthLimit();
+            int weight = mRequest.getBandwidthWeight();
+            if (mLimiter == null) {
+                return limit;
+            }
+            return mLimiter.update(this, limit, weight);
+        }
+
+        /**
+         * 获取下一次读写的最大字节数，约50ms的数据
+         *
+         * @param length 需要读写的字节数
+         * @return 字节数
+         */
+        int chunkSize(int length) {
+            long rate = currentRate();
+            if (rate <= 0) {
+                return length;
+            }
+            long chunk = Math.max(MIN_CHUNK_BYTES, Math.min(MAX_CHUNK_BYTES, rate / 20));
+            return (int) Math.min(length, chunk);
+        }
+
+        /**
+         * 传输了指定的字节数，超过速率时等待
+         *
+         * @param bytes 字节数
+         * @throws InterruptedIOException 等待时被中断
+         */
+        void acquire(int bytes) throws InterruptedIOException {
+            if (bytes <= 0) {
+                return;
+            }
+            long rate = currentRate();
+            if (mLimiter != null) {
+                mLimiter.onTransferred(bytes);
+            }
+            long waitNanos;
+            synchronized (this) {
+                mTransferredBytes += bytes;
+                long now = System.nanoTime();
+                if (rate <= 0) {
+                    mNextNanos = now;
+                    return;
+                }
+                if (mNextNanos < now - BURST_NANOS) {
+                    mNextNanos = now - BURST_NANOS;
+                }
+                mNextNanos += bytes * 1000000000L / rate;
+                waitNanos = mNextNanos - now;
+            }
+            if (waitNanos > 0) {
+                try {
+                    Thread.sleep(waitNanos / 1000000L, (int) (waitNanos % 1000000L));
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Bandwidth wait interrupted");
+                }
+            }
+        }
+
+        /**
+         * 获取已经传输的字节数
+         *
+         * @return 字节数
+         */
+        synchronized long getTransferredBytes() {
+            return mTransferredBytes;
+        }
+
+        /**
+         * 传输结束
+         */
+        void close() {
+            if (mLimiter != null) {
+                mLimiter.remove(this);
+            }
+        }
+    }
+
+    /**
+     * 限速的输入流
+     */
+    static final class LimitedInputStream extends FilterInputStream {
+        private final Transfer mTransfer;
+
+        LimitedInputStream(InputStream inStream, Transfer transfer) {
+            super(inStream);
+            mTransfer = transfer;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                mTransfer.acquire(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int bytes = in.read(buffer, offset, mTransfer.chunkSize(length));
+            mTransfer.acquire(bytes);
+            return bytes;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long bytes = super.skip(Math.min(n, mTransfer.chunkSize(Integer.MAX_VALUE)));
+            mTransfer.acquire((int) bytes);
+            return bytes;
+        }
+    }
+
+    /**
+     * 限速的输出流
+     */
+    static final class LimitedOutputStream extends FilterOutputStream {
+        private final Transfer mTransfer;
+
+        LimitedOutputStream(OutputStream outStream, Transfer transfer) {
+            super(outStream);
+            mTransfer = transfer;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            mTransfer.acquire(1);
+        }
+
+        @Override
+        public void write(byte[] buffer, int offset, int length) throws IOException {
+            while (length > 0) {
+                int bytes = mTransfer.chunkSize(length);
+                out.write(buffer, offset, bytes);
+                mTransfer.acquire(bytes);
+                offset += bytes;
+                length -= bytes;
+            }
+        }
+    }
+}
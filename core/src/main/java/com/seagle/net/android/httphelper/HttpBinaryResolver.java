@@ -0,0 +1,26 @@
+package com.seagle.net.android.httphelper;
+
+import java.nio.ByteBuffer;
+
+/**
+ * <h1>二进制响应解析</h1>
+ * <p>直接从原始响应体解析用户数据对象，例如图片、protobuf、msgpack等二进制格式。
+ * 响应体不会被转换成字符串，{@link HttpResponse#getRawData()}为null，原始数据通过{@link HttpResponse#getBody()}获取。</P>
+ *
+ * @author : yuanxiudong66@sina.com
+ */
+public abstract class HttpBinaryResolver<Result> extends HttpResultResolver<Result> {
+
+    public HttpBinaryResolver(Class<Result> resultClass) {
+        super(resultClass);
+    }
+
+    /**
+     * 处理HTTP响应体.
+     *
+     * @param httpRespBody 只读的原始响应体
+     * @param contentType  响应的Content-Type，服务器没有返回时为null
+     * @hide
+     */
+    protected abstract Result resolverHttpRespBody(ByteBuffer httpRespBody, String contentType) throws Exception;
+}
@@ -0,0 +1,97 @@
+package com.seagle.net.android.httphelper;
+
+import java.io.File;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 响应体内存预算.
+ * 限制单个响应体以及所有并发请求的响应体在内存中占用的总字节数，记录占用的峰值。
+ * 超出限制的响应体保存到临时文件，没有配置临时目录时拒绝。
+ *
+ * @author : yuanxiudong66@sina.com
+ */
+final class HttpBodyBudget {
+
+    /**
+     * 单个响应体在内存中的上限，小于等于0表示不限制
+     */
+    private volatile long mMaxRequestBytes;
+
+    /**
+     * 所有响应体在内存中的总上限，小于等于0表示不限制
+     */
+    private volatile long mMaxTotalBytes;
+
+    /**
+     * 超出上限的响应体保存的目录，为空时拒绝
+     */
+    private volatile File mSpillDirectory;
+
+    private final AtomicLong mUsedBytes = new AtomicLong();
+    private final AtomicLong mPeakBytes = new AtomicLong();
+
+    void setLimits(long maxRequestBytes, long maxTotalBytes) {
+        mMaxRequestBytes = maxRequestBytes;
+        mMaxTotalBytes = maxTotalBytes;
+    }
+
+    long getMaxRequestBytes() {
+        return mMaxRequestBytes;
+    }
+
+    void setSpillDirectory(File spillDirectory) {
+        mSpillDirectory = spillDirectory;
+    }
+
+    File getSpillDirectory() {
+        return mSpillDirectory;
+    }
+
+    long getUsedBytes() {
+        return mUsedBytes.get();
+    }
+
+    long getPeakBytes() {
+        return mPeakBytes.get();
+    }
+
+    /**
+     * 申请内存
+     *
+     * @param bytes 字节数
+     * @return 超出总上限时返回false
+     */
+    boolean tryReserve(long bytes) {
+        long maxTotalBytes = mMaxTotalBytes;
+        long used;
+        do {
+            used = mUsedBytes.get();
+            if (maxTotalBytes > 0 && used + bytes > maxTotalBytes) {
+                return false;
+            }
+        } while (!mUsedBytes.compareAndSet(used, used + bytes));
+        updatePeak(used + bytes);
+        return true;
+    }
+
+    /**
+     * 释放内存
+     *
+     * @param bytes 字节数
+     */
+    void release(long bytes) {
+        if (bytes > 0) {
+            mUsedBytes.addAndGet(-bytes);
+        }
+    }
+
+    private void updatePeak(long used) {
+        long peak;
+        do {
+            peak = mPeakBytes.get();
+            if (used <= peak) {
+                return;
+            }
+        } while (!mPeakBytes.compareAndSet(peak, used));
+    }
+}
@@ -0,0 +1,262 @@
+package com.seagle.net.android.httphelper;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Map;
+
+/**
+ * 请求体编码.
+ * 表单参数、multipart分隔符、分段头部和参数值直接以UTF-8编码写入一个缓冲区，文件内容也读入同一个缓冲区，
+ * 只在缓冲区满和请求体结束时写入连接，避免每个参数一次写入。分块传输时每次写入都是一个chunk和一次系统调用。
+ * Created by seagle on 2018/4/10.
+ */
+final class HttpBodyEncoder {
+
+    /**
+     * 默认缓冲区大小
+     */
+    static final int BUFFER_SIZE = 8 * 1024;
+
+    private static final byte[] HEX_DIGITS = {'0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'A', 'B', 'C', 'D', 'E', 'F'};
+
+    private final OutputStream mOutStream;
+    private final byte[] mBuffer;
+    private int mCount;
+
+    /**
+     * 已经编码的字节数
+     */
+    private long mByteCount;
+
+    /**
+     * 写入连接的次数
+     */
+    private int mWriteCount;
+
+    /**
+     * 编码UTF-8字符的临时空间
+     */
+    private final byte[] mCharBytes = new byte[4];
+
+    HttpBodyEncoder(OutputStream outStream) {
+        this(outStream, BUFFER_SIZE);
+    }
+
+    HttpBodyEncoder(OutputStream outStream, int bufferSize) {
+        if (bufferSize <= 0) {
+            throw new IllegalArgumentException("Buffer size must be positive");
+        }
+        mOutStream = outStream;
+        mBuffer = new byte[bufferSize];
+    }
+
+    /**
+     * 获取已经编码的字节数
+     *
+     * @return 字节数
+     */
+    long getByteCount() {
+        return mByteCount;
+    }
+
+    /**
+     * 获取写入连接的次数
+     *
+     * @return 次数
+     */
+    int getWriteCount() {
+        return mWriteCount;
+    }
+
+    /**
+     * 写入application/x-www-form-urlencoded格式的参数，编码规则与URLEncoder相同
+     *
+     * @param params 参数
+     * @throws IOException 输出异常
+     */
+    void writeFormParams(Map<String, String> params) throws IOException {
+        boolean first = true;
+        for (Map.Entry<String, String> param : params.entrySet()) {
+            if (!first) {
+                writeByte('&');
+            }
+            first = false;
+            writeUtf8(param.getKey(), true);
+            writeByte('=');
+            writeUtf8(param.getValue(), true);
+        }
+    }
+
+    /**
+     * 写入multipart的普通参数
+     *
+     * @param boundary 分隔符
+     * @param name     参数名
+     * @param value    参数值
+     * @throws IOException 输出异常
+     */
+    void writeMultipartField(String boundary, String name, String value) throws IOException {
+        writeString("--");
+        writeString(boundary);
+        writeString("\r\nContent-Disposition: form-data; name=\"");
+        writeString(name);
+        writeString("\"\r\nContent-Type:text/plain;charset=UTF-8\r\n\r\n");
+        writeString(value);
+        writeString("\r\n");
+    }
+
+    /**
+     * 写入multipart的文件
+     *
+     * @param boundary    分隔符
+     * @param name        参数名
+     * @param file        文件
+     * @param contentType 文件类型
+     * @throws IOException 输出异常
+     */
+    void writeMultipartFile(String boundary, String name, File file, String contentType) throws IOException {
+        writeString("--");
+        writeString(boundary);
+        writeString("\r\nContent-Disposition: form-data; name=\"");
+        writeString(name);
+        writeString("\"; filename=\"");
+        writeString(file.getName());
+        writeString("\"\r\nContent-Type:");
+        writeString(contentType);
+        writeString("\r\nContent-Transfer-Encoding: binary\r\n\r\n");
+        InputStream inStream = new FileInputStream(file);
+        try {
+            writeStream(inStream);
+        } finally {
+            inStream.close();
+        }
+    }
+
+    /**
+     * 写入multipart的结尾
+     *
+     * @param boundary 分隔符
+     * @throws IOException 输出异常
+     */
+    void writeMultipartEnd(String boundary) throws IOException {
+        writeString("\r\n--");
+        writeString(boundary);
+        writeString("--\r\n");
+    }
+
+    /**
+     * 以UTF-8编码写入字符串
+     *
+     * @param str 字符串
+     * @throws IOException 输出异常
+     */
+    void writeString(String str) throws IOException {
+        writeUtf8(str, false);
+    }
+
+    /**
+     * 把输入流的内容直接读入缓冲区
+     *
+     * @param inStream 输入流
+     * @throws IOException 输入输出异常
+     */
+    void writeStream(InputStream inStream) throws IOException {
+        while (true) {
+            if (mCount == mBuffer.length) {
+                flushBuffer();
+            }
+            int bytes = inStream.read(mBuffer, mCount, mBuffer.length - mCount);
+            if (bytes == -1) {
+                return;
+            }
+            mCount += bytes;
+            mByteCount += bytes;
+        }
+    }
+
+    /**
+     * 请求体结束，写入缓冲区剩余的数据
+     *
+     * @throws IOException 输出异常
+     */
+    void finish() throws IOException {
+        flushBuffer();
+        mOutStream.flush();
+    }
+
+    private void writeUtf8(String str, boolean urlEncode) throws IOException {
+        int length = str.length();
+        for (int i = 0; i < length; i++) {
+            char c = str.charAt(i);
+            if (c < 0x80) {
+                writeChar(c, urlEncode);
+                continue;
+            }
+            int count;
+            if (c < 0x800) {
+                mCharBytes[0] = (byte) (0xC0 | (c >> 6));
+                mCharBytes[1] = (byte) (0x80 | (c & 0x3F));
+                count = 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(str.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, str.charAt(++i));
+                mCharBytes[0] = (byte) (0xF0 | (codePoint >> 18));
+                mCharBytes[1] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                mCharBytes[2] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                mCharBytes[3] = (byte) (0x80 | (codePoint & 0x3F));
+                count = 4;
+            } else if (Character.isSurrogate(c)) {
+                //不成对的代理字符，与String.getBytes一致替换为'?'
+                writeChar('?', urlEncode);
+                continue;
+            } else {
+                mCharBytes[0] = (byte) (0xE0 | (c >> 12));
+                mCharBytes[1] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                mCharBytes[2] = (byte) (0x80 | (c & 0x3F));
+                count = 3;
+            }
+            for (int j = 0; j < count; j++) {
+                if (urlEncode) {
+                    writePercentEncoded(mCharBytes[j]);
+                } else {
+                    writeByte(mCharBytes[j]);
+                }
+            }
+        }
+    }
+
+    private void writeChar(char c, boolean urlEncode) throws IOException {
+        if (!urlEncode || (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+                || c == '.' || c == '-' || c == '*' || c == '_') {
+            writeByte(c);
+        } else if (c == ' ') {
+            writeByte('+');
+        } else {
+            writePercentEncoded((byte) c);
+        }
+    }
+
+    private void writePercentEncoded(byte b) throws IOException {
+        writeByte('%');
+        writeByte(HEX_DIGITS[(b >> 4) & 0x0F]);
+        writeByte(HEX_DIGITS[b & 0x0F]);
+    }
+
+    private void writeByte(int b) throws IOException {
+        if (mCount == mBuffer.length) {
+            flushBuffer();
+        }
+        mBuffer[mCount++] = (byte) b;
+        mByteCount++;
+    }
+
+    private void flushBuffer() throws IOException {
+        if (mCount > 0) {
+            mOutStream.write(mBuffer, 0, mCount);
+            mWriteCount++;
+            mCount = 0;
+        }
+    }
+}
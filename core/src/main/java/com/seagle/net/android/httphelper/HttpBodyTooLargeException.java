@@ -0,0 +1,47 @@
+package com.seagle.net.android.httphelper;
+
+import java.io.IOException;
+
+/**
+ * <h1>响应体超出上限.</h1>
+ * 把响应体完整读入内存的传输层（例如{@link NioHttpTransport}）在响应体超出
+ * {@link HttpTransportRequest#getMaxBodyBytes()}时抛出，不再继续读取，连接不再复用。
+ * 请求返回{@link HttpResponse#ERROR_CODE_BODY_TOO_LARGE}。
+ *
+ * @author : yuanxiudong66@sina.com
+ */
+public class HttpBodyTooLargeException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int mCode;
+    private final long mLength;
+
+    /**
+     * @param code   HTTP响应码
+     * @param length 已知的响应体长度，或者超出上限时已经读取的长度
+     */
+    public HttpBodyTooLargeException(int code, long length) {
+        super("Response body too large: " + length + " bytes");
+        mCode = code;
+        mLength = length;
+    }
+
+    /**
+     * 获取HTTP响应码
+     *
+     * @return 响应码
+     */
+    public int getCode() {
+        return mCode;
+    }
+
+    /**
+     * 获取响应体长度
+     *
+     * @return 长度，单位：字节
+     */
+    public long getLength() {
+        return mLength;
+    }
+}
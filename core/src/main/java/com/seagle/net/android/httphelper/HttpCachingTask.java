@@ -0,0 +1,185 @@
+package com.seagle.net.android.httphelper;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 带缓存的GET请求任务.
+ * 请求成功时把响应体保存到缓存；网络错误或者服务器5xx错误时，返回stale-if-error窗口内的过期缓存。
+ * 作为后台刷新请求时，结束后通知缓存可以再次刷新。
+ * Created by seagle on 2018/4/10.
+ */
+class HttpCachingTask<T> implements Callable<HttpResponse<T>>, StagedTask<T>, Abortable, TraceableTask {
+
+    /**
+     * 网络请求任务
+     */
+    private final Callable<HttpResponse<T>> mTask;
+
+    /**
+     * 用于解析缓存的响应
+     */
+    private final HttpRequestTask<T> mRequestTask;
+
+    private final HttpResponseCache mCache;
+    private final String mKey;
+
+    /**
+     * 请求失败时可以返回的缓存的最大存在时间
+     */
+    private final long mStaleIfErrorAge;
+
+    /**
+     * 是否为后台刷新请求
+     */
+    private final boolean mRevalidate;
+    private final AtomicBoolean mFinished = new AtomicBoolean();
+
+    HttpCachingTask(Callable<HttpResponse<T>> task, HttpRequestTask<T> requestTask, HttpResponseCache cache, String key,
+                    long staleIfErrorAge, boolean revalidate) {
+        mTask = task;
+        mRequestTask = requestTask;
+        mCache = cache;
+        mKey = key;
+        mStaleIfErrorAge = staleIfErrorAge;
+        mRevalidate = revalidate;
+    }
+
+    @Override
+    public void abort() {
+        if (mTask instanceof Abortable) {
+            ((Abortable) mTask).abort();
+        }
+    }
+
+    @Override
+    public long getRequestBytes() {
+        return mTask instanceof TraceableTask ? ((TraceableTask) mTask).getRequestBytes() : -1;
+    }
+
+    @Override
+    public long getResponseBytes() {
+        return mTask instanceof TraceableTask ? ((TraceableTask) mTask).getResponseBytes() : -1;
+    }
+
+    @Override
+    public int getStatusCode() {
+        return mTask instanceof TraceableTask ? ((TraceableTask) mTask).getStatusCode() : 0;
+    }
+
+    @Override
+    public HttpResponse<T> call() throws Exception {
+        return fetch().call();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Callable<HttpResponse<T>> fetch() throws Exception {
+        Callable<HttpResponse<T>> stage;
+        try {
+            stage = mTask instanceof StagedTask ? ((StagedTask<T>) mTask).fetch() : mTask;
+        } catch (Exception ex) {
+            finish();
+            Callable<HttpResponse<T>> staleStage = newStaleStage();
+            if (staleStage == null) {
+                throw ex;
+            }
+            return staleStage;
+        }
+        return new StoreStage(stage);
+    }
+
+    /**
+     * 构建返回过期缓存的解码阶段
+     *
+     * @return 解码阶段，没有可用的缓存时为null
+     */
+    private Callable<HttpResponse<T>> newStaleStage() {
+        HttpResponseCache.Entry entry = mCache.get(mKey);
+        if (entry == null) {
+            return null;
+        }
+        long age = entry.getAge(System.currentTimeMillis());
+        if (age > mStaleIfErrorAge) {
+            return null;
+        }
+        mCache.onStaleIfError();
+        return mRequestTask.newCachedStage(entry, HttpResponse.CACHE_STALE, age);
+    }
+
+    /**
+     * 请求结束，后台刷新请求通知缓存可以再次刷新
+     */
+    private void finish() {
+        if (mRevalidate && mFinished.compareAndSet(false, true)) {
+            mCache.finishRevalidate(mKey);
+        }
+    }
+
+    /**
+     * 是否为网络或者服务器错误，业务错误和解析错误不返回过期缓存
+     *
+     * @param response 响应
+     * @return 是否可以返回过期缓存
+     */
+    private static boolean isServerFailure(HttpResponse<?> response) {
+        int code = response.getCode();
+        return code == HttpResponse.ERROR_CODE_REQUEST_FAILED || code == HttpResponse.ERROR_CODE_TIME_OUT
+                || (code == HttpResponse.ERROR_CODE_HTTP && response.getResultCode() >= 500);
+    }
+
+    /**
+     * 解码后保存成功的响应
+     */
+    private final class StoreStage implements Callable<HttpResponse<T>>, Closeable {
+        private final Callable<HttpResponse<T>> mStage;
+
+        private StoreStage(Callable<HttpResponse<T>> stage) {
+            mStage = stage;
+        }
+
+        @Override
+        public HttpResponse<T> call() throws Exception {
+            try {
+                HttpResponse<T> response;
+                try {
+                    response = mStage.call();
+                } catch (Exception ex) {
+                    Callable<HttpResponse<T>> staleStage = newStaleStage();
+                    if (staleStage == null) {
+                        throw ex;
+                    }
+                    return staleStage.call();
+                }
+                if (response.isSuccess()) {
+                    byte[] body = response.getBodyBytes();
+                    if (body != null) {
+                        mCache.put(mKey, new HttpResponseCache.Entry(response.getMessage(), response.getContentType(),
+                                body, System.currentTimeMillis()));
+                    }
+                } else if (isServerFailure(response)) {
+                    Callable<HttpResponse<T>> staleStage = newStaleStage();
+                    if (staleStage != null) {
+                        return staleStage.call();
+                    }
+                }
+                return response;
+            } finally {
+                finish();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                if (mStage instanceof Closeable) {
+                    ((Closeable) mStage).close();
+                }
+            } finally {
+                finish();
+            }
+        }
+    }
+}
@@ -1,6 +1,6 @@
 package com.seagle.net.android.httphelper;
 
-import android.os.Bundle;
+import java.util.Map;
 
 /**
  * HTTP请求回调.
@@ -31,7 +31,7 @@ public abstract class HttpCallback<T> {
      * @param progress 进度
      */
     @SuppressWarnings("unused")
-    protected void onProgressUpdate(Bundle progress) {
+    protected void onProgressUpdate(Map<String, Object> progress) {
 
     }
 }
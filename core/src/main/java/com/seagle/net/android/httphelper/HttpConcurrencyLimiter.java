@@ -0,0 +1,280 @@
+package com.seagle.net.android.httphelper;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <h1>按服务器自适应并发限制.</h1>
+ * 以{@link HttpRequest#getRequestHost()}为键，根据请求I/O阶段的耗时（RTT）自动调整每个服务器的并发上限：
+ * 短期RTT接近长期RTT时逐步提高上限，短期RTT明显变大（服务器排队）时按比例降低上限，请求失败时乘性降低。
+ * 并发数达到上限的请求在限制器中排队，不占用线程池的线程。
+ * 通过{@link HttpHelper#setConcurrencyLimiter(HttpConcurrencyLimiter)}启用，可以与{@link HttpRateLimiter}同时使用。
+ *
+ * @author : yuanxiudong66@sina.com
+ */
+public final class HttpConcurrencyLimiter {
+
+    /**
+     * 短期RTT变大到长期RTT的多少倍以内不降低上限
+     */
+    private static final double RTT_TOLERANCE = 1.5;
+
+    /**
+     * 新上限的平滑系数
+     */
+    private static final double SMOOTHING = 0.2;
+
+    /**
+     * 短期RTT的平滑系数
+     */
+    private static final double SHORT_RTT_ALPHA = 0.1;
+
+    /**
+     * 长期RTT的平滑系数，约600个样本
+     */
+    private static final double LONG_RTT_ALPHA = 1.0 / 600;
+
+    /**
+     * 请求失败时上限的降低比例
+     */
+    private static final double BACKOFF_RATIO = 0.9;
+
+    /**
+     * 各个服务器的并发限制
+     */
+    private final ConcurrentHashMap<String, HostLimit> mHosts = new ConcurrentHashMap<>();
+
+    private final int mMinLimit;
+    private final int mMaxLimit;
+    private final int mInitialLimit;
+
+    public HttpConcurrencyLimiter() {
+        this(1, 64, 8);
+    }
+
+    /**
+     * 构造限制器
+     *
+     * @param minLimit     并发上限的下界
+     * @param maxLimit     并发上限的上界
+     * @param initialLimit 初始并发上限
+     */
+    public HttpConcurrencyLimiter(int minLimit, int maxLimit, int initialLimit) {
+        if (minLimit < 1 || maxLimit < minLimit) {
+            throw new IllegalArgumentException("Invalid limit bounds: " + minLimit + ", " + maxLimit);
+        }
+        mMinLimit = minLimit;
+        mMaxLimit = maxLimit;
+        mInitialLimit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+    }
+
+    /**
+     * 获取服务器当前的并发上限
+     *
+     * @param host 服务器地址，与{@link HttpRequest#getRequestHost()}一致
+     * @return 并发上限
+     */
+    public int getLimit(String host) {
+        HostLimit hostLimit = mHosts.get(host);
+        return hostLimit == null ? mInitialLimit : hostLimit.getLimit();
+    }
+
+    /**
+     * 获取服务器正在执行的请求数
+     *
+     * @param host 服务器地址
+     * @return 请求数
+     */
+    public int getInFlightCount(String host) {
+        HostLimit hostLimit = mHosts.get(host);
+        return hostLimit == null ? 0 : hostLimit.getInFlightCount();
+    }
+
+    /**
+     * 获取服务器当前排队中的请求数
+     *
+     * @param host 服务器地址
+     * @return 请求数
+     */
+    public int getQueuedCount(String host) {
+        HostLimit hostLimit = mHosts.get(host);
+        return hostLimit == null ? 0 : hostLimit.getQueuedCount();
+    }
+
+    /**
+     * 获取服务器的短期RTT，单位：ms
+     *
+     * @param host 服务器地址
+     * @return RTT，还没有样本时为0
+     */
+    public double getRttMillis(String host) {
+        HostLimit hostLimit = mHosts.get(host);
+        return hostLimit == null ? 0 : hostLimit.getRttMillis();
+    }
+
+    /**
+     * 提交任务，并发数未达到上限时直接提交到线程池，否则排队.
+     * 任务执行完成后必须调用{@link #release(String, long, boolean, boolean)}。
+     *
+     * @param host     服务器地址
+     * @param task     任务
+     * @param executor 线程池
+     */
+    void dispatch(String host, Runnable task, Executor executor) {
+        getHostLimit(host).dispatch(new PendingTask(task, executor));
+    }
+
+    /**
+     * 任务执行完成，释放并发数并提交排队的任务
+     *
+     * @param host     服务器地址
+     * @param rttNanos 请求耗时，单位：ns
+     * @param sampled  耗时是否作为RTT样本
+     * @param dropped  请求是否失败
+     */
+    void release(String host, long rttNanos, boolean sampled, boolean dropped) {
+        getHostLimit(host).release(rttNanos, sampled, dropped);
+    }
+
+    private HostLimit getHostLimit(String host) {
+        HostLimit hostLimit = mHosts.get(host);
+        if (hostLimit == null) {
+            hostLimit = new HostLimit();
+            HostLimit oldHostLimit = mHosts.putIfAbsent(host, hostLimit);
+            if (oldHostLimit != null) {
+                hostLimit = oldHostLimit;
+            }
+        }
+        return hostLimit;
+    }
+
+    /**
+     * 排队中的任务
+     */
+    private static final class PendingTask {
+        private final Runnable mTask;
+        private final Executor mExecutor;
+
+        private PendingTask(Runnable task, Executor executor) {
+            mTask = task;
+            mExecutor = executor;
+        }
+
+        /**
+         * 任务在排队期间被取消
+         */
+        private boolean isCancelled() {
+            return mTask instanceof Future && ((Future<?>) mTask).isCancelled();
+        }
+    }
+
+    /**
+     * 单个服务器的并发限制
+     */
+    private final class HostLimit {
+        private final Queue<PendingTask> mPendingTasks = new ArrayDeque<>();
+        private double mLimit = mInitialLimit;
+        private int mInFlight;
+        private double mShortRttNanos;
+        private double mLongRttNanos;
+
+        private void dispatch(PendingTask task) {
+            synchronized (this) {
+                if (!mPendingTasks.isEmpty() || mInFlight >= (int) mLimit) {
+                    mPendingTasks.add(task);
+                    return;
+                }
+                mInFlight++;
+            }
+            task.mExecutor.execute(task.mTask);
+        }
+
+        private void release(long rttNanos, boolean sampled, boolean dropped) {
+            List<PendingTask> readyTasks;
+            synchronized (this) {
+                if (dropped) {
+                    mLimit = Math.max(mMinLimit, mLimit * BACKOFF_RATIO);
+                } else if (sampled && rttNanos > 0) {
+                    update(rttNanos);
+                }
+                mInFlight--;
+                readyTasks = drain();
+            }
+            for (PendingTask task : readyTasks) {
+                task.mExecutor.execute(task.mTask);
+            }
+        }
+
+        /**
+         * 根据RTT样本调整上限
+         *
+         * @param rttNanos RTT
+         */
+        private void update(long rttNanos) {
+            if (mLongRttNanos == 0) {
+                mShortRttNanos = rttNanos;
+                mLongRttNanos = rttNanos;
+            } else {
+                mShortRttNanos += (rttNanos - mShortRttNanos) * SHORT_RTT_ALPHA;
+                mLongRttNanos += (rttNanos - mLongRttNanos) * LONG_RTT_ALPHA;
+            }
+            //高负载结束后延迟恢复正常，长期RTT跟随下降
+            if (mLongRttNanos > mShortRttNanos * 2) {
+                mLongRttNanos *= 0.95;
+            }
+            //并发数远未用满时RTT不能说明上限是否合适
+            if (mInFlight < mLimit / 2) {
+                return;
+            }
+            double gradient = Math.max(0.5, Math.min(1.0, RTT_TOLERANCE * mLongRttNanos / mShortRttNanos));
+            double newLimit = mLimit * gradient + Math.sqrt(mLimit);
+            newLimit = mLimit * (1 - SMOOTHING) + newLimit * SMOOTHING;
+            mLimit = Math.max(mMinLimit, Math.min(mMaxLimit, newLimit));
+        }
+
+        /**
+         * 取出可以执行的排队任务
+         *
+         * @return 任务
+         */
+        private List<PendingTask> drain() {
+            List<PendingTask> readyTasks = new ArrayList<>();
+            PendingTask task;
+            while ((task = mPendingTasks.peek()) != null) {
+                if (task.isCancelled()) {
+                    mPendingTasks.poll();
+                    continue;
+                }
+                if (mInFlight >= (int) mLimit) {
+                    break;
+                }
+                mPendingTasks.poll();
+                mInFlight++;
+                readyTasks.add(task);
+            }
+            return readyTasks;
+        }
+
+        private synchronized int getLimit() {
+            return (int) mLimit;
+        }
+
+        private synchronized int getInFlightCount() {
+            return mInFlight;
+        }
+
+        private synchronized int getQueuedCount() {
+            return mPendingTasks.size();
+        }
+
+        private synchronized double getRttMillis() {
+            return mShortRttNanos / TimeUnit.MILLISECONDS.toNanos(1);
+        }
+    }
+}
@@ -0,0 +1,498 @@
+package com.seagle.net.android.httphelper;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * Http分段下载任务.
+ * 先通过HEAD请求探测文件长度以及服务器是否支持Range请求，支持则把文件分成多段，
+ * 通过线程池并发下载，每一段直接写入预分配文件的对应位置；否则单连接下载。
+ * 服务器声明支持Range但是分段请求返回200时，改为单连接下载。
+ * Created by seagle on 2018/4/10.
+ */
+class HttpDownloadTask implements Callable<HttpResponse<File>>, Abortable {
+
+    /**
+     * 每一段最小的长度，文件太小时分段没有意义
+     */
+    private static final long MIN_SEGMENT_SIZE = 256 * 1024;
+
+    /**
+     * 读写缓冲区大小
+     */
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    /**
+     * 请求
+     */
+    private final HttpRequest mRequest;
+
+    /**
+     * 保存的文件
+     */
+    private final File mFile;
+
+    /**
+     * 是否是HTTPS请求
+     */
+    private final boolean mHttps;
+
+    /**
+     * 分段数
+     */
+    private final int mSegmentCount;
+
+    /**
+     * 文件的MD5校验值
+     */
+    private final String mMd5;
+
+    /**
+     * 分段下载线程池
+     */
+    private final Executor mExecutor;
+
+    /**
+     * 正在使用的连接，中止时全部断开
+     */
+    private final Set<HttpURLConnection> mConnections = Collections.newSetFromMap(new ConcurrentHashMap<HttpURLConnection, Boolean>());
+
+    /**
+     * 任务是否已经中止
+     */
+    private volatile boolean mAborted;
+
+    private HttpsSSLConfig mSSLConfig;
+
+    /**
+     * 下载的带宽限制，可以为空
+     */
+    private HttpBandwidthLimiter mBandwidthLimiter;
+
+    /**
+     * 所有分段共用的传输，没有限速时为空
+     */
+    private volatile HttpBandwidthLimiter.Transfer mTransfer;
+
+    HttpDownloadTask(HttpRequest request, File file, boolean https, int segmentCount, String md5, Executor executor) {
+        mRequest = request;
+        mFile = file;
+        mHttps = https;
+        mSegmentCount = segmentCount;
+        mMd5 = md5;
+        mExecutor = executor;
+    }
+
+    public void setSSLConfig(HttpsSSLConfig SSLConfig) {
+        mSSLConfig = SSLConfig;
+    }
+
+    void setBandwidthLimiter(HttpBandwidthLimiter bandwidthLimiter) {
+        mBandwidthLimiter = bandwidthLimiter;
+    }
+
+    @Override
+    public void abort() {
+        mAborted = true;
+        for (HttpURLConnection connection : mConnections) {
+            connection.disconnect();
+        }
+    }
+
+    @Override
+    public HttpResponse<File> call() throws Exception {
+        String requestUrl = buildRequestUrl();
+        long contentLength = -1;
+        boolean acceptRanges = false;
+
+        //探测文件长度以及是否支持Range，探测失败直接走单连接下载
+        if (mSegmentCount > 1) {
+            HttpURLConnection connection = null;
+            try {
+                connection = openConnection(requestUrl, "HEAD");
+                if (HttpURLConnection.HTTP_OK == connection.getResponseCode()) {
+                    contentLength = parseLong(connection.getHeaderField("Content-Length"));
+                    acceptRanges = "bytes".equalsIgnoreCase(connection.getHeaderField("Accept-Ranges"));
+                }
+            } catch (IOException ex) {
+                ex.printStackTrace();
+            } finally {
+                if (connection != null) {
+                    closeConnection(connection);
+                }
+            }
+        }
+
+        HttpResponse<File> response;
+        mTransfer = HttpBandwidthLimiter.open(mBandwidthLimiter, mRequest);
+        try {
+            response = null;
+            if (acceptRanges && contentLength >= MIN_SEGMENT_SIZE * 2) {
+                response = doSegmentedDownload(requestUrl, contentLength);
+            }
+            if (response == null) {
+                response = doSingleDownload(requestUrl);
+            }
+        } finally {
+            if (mTransfer != null) {
+                mTransfer.close();
+            }
+        }
+        if (!response.isSuccess()) {
+            mFile.delete();
+        }
+        return response;
+    }
+
+    /**
+     * 分段下载
+     *
+     * @param requestUrl    请求地址
+     * @param contentLength 文件长度
+     * @return 响应，服务器忽略Range返回200时为null
+     * @throws Exception exception
+     */
+    private HttpResponse<File> doSegmentedDownload(final String requestUrl, long contentLength) throws Exception {
+        int segmentCount = (int) Math.min(mSegmentCount, contentLength / MIN_SEGMENT_SIZE);
+        long segmentSize = contentLength / segmentCount;
+        final Queue<Segment> segments = new ConcurrentLinkedQueue<>();
+        for (int i = 0; i < segmentCount; i++) {
+            long start = i * segmentSize;
+            long end = (i == segmentCount - 1) ? contentLength - 1 : start + segmentSize - 1;
+            segments.add(new Segment(start, end));
+        }
+
+        RandomAccessFile randomAccessFile = new RandomAccessFile(mFile, "rw");
+        try {
+            randomAccessFile.setLength(contentLength);
+            final FileChannel channel = randomAccessFile.getChannel();
+            final CountDownLatch latch = new CountDownLatch(segmentCount);
+            final AtomicReference<Exception> failure = new AtomicReference<>();
+            Runnable worker = new Runnable() {
+                @Override
+                public void run() {
+                    Segment segment;
+                    while ((segment = segments.poll()) != null) {
+                        try {
+                            if (failure.get() == null) {
+                                downloadSegment(requestUrl, segment, channel);
+                            }
+                        } catch (Exception ex) {
+                            failure.compareAndSet(null, ex);
+                        } finally {
+                            latch.countDown();
+                        }
+                    }
+                }
+            };
+
+            //当前线程也参与下载，线程池繁忙时剩余的分段由当前线程完成，避免互相等待
+            for (int i = 1; i < segmentCount; i++) {
+                try {
+                    mExecutor.execute(worker);
+                } catch (RejectedExecutionException ex) {
+                    break;
+                }
+            }
+            try {
+                worker.run();
+                latch.await();
+            } catch (InterruptedException ex) {
+                failure.compareAndSet(null, ex);
+                throw ex;
+            }
+
+            Exception ex = failure.get();
+            if (ex instanceof HttpStatusException) {
+                HttpStatusException statusEx = (HttpStatusException) ex;
+                if (HttpURLConnection.HTTP_OK == statusEx.mCode) {
+                    //服务器忽略了Range请求头，改为单连接下载
+                    return null;
+                }
+                HttpResponse<File> response = new HttpResponse<>(HttpResponse.ERROR_CODE_HTTP, statusEx.getMessage(), null);
+                response.setResultCode(statusEx.mCode);
+                return response;
+            } else if (ex != null) {
+                throw ex;
+            }
+            channel.force(false);
+        } finally {
+            randomAccessFile.close();
+        }
+        return verifyFile(contentLength);
+    }
+
+    /**
+     * 下载一个分段并写入文件对应位置
+     *
+     * @param requestUrl 请求地址
+     * @param segment    分段
+     * @param channel    文件
+     * @throws IOException IO异常
+     */
+    private void downloadSegment(String requestUrl, Segment segment, FileChannel channel) throws IOException {
+        HttpURLConnection connection = openConnection(requestUrl, HttpRequest.HTTP_GET);
+        try {
+            connection.setRequestProperty("Range", "bytes=" + segment.mStart + "-" + segment.mEnd);
+            int code = connection.getResponseCode();
+            if (HttpURLConnection.HTTP_PARTIAL != code) {
+                throw new HttpStatusException(code, connection.getResponseMessage());
+            }
+            InputStream inStream = getInputStream(connection);
+            try {
+                ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+                long position = segment.mStart;
+                int bytes;
+                while (position <= segment.mEnd && (bytes = inStream.read(buffer.array())) != -1) {
+                    bytes = (int) Math.min(bytes, segment.mEnd - position + 1);
+                    buffer.limit(bytes);
+                    buffer.position(0);
+                    while (buffer.hasRemaining()) {
+                        position += channel.write(buffer, position);
+                    }
+                    buffer.clear();
+                }
+                if (position != segment.mEnd + 1) {
+                    throw new IOException("Segment incomplete: " + segment.mStart + "-" + segment.mEnd);
+                }
+            } finally {
+                inStream.close();
+            }
+        } finally {
+            closeConnection(connection);
+        }
+    }
+
+    /**
+     * 单连接下载
+     *
+     * @param requestUrl 请求地址
+     * @return 响应
+     * @throws Exception exception
+     */
+    private HttpResponse<File> doSingleDownload(String requestUrl) throws Exception {
+        HttpURLConnection connection = openConnection(requestUrl, HttpRequest.HTTP_GET);
+        try {
+            int code = connection.getResponseCode();
+            String message = connection.getResponseMessage();
+            if (HttpURLConnection.HTTP_OK != code) {
+                HttpResponse<File> response = new HttpResponse<>(HttpResponse.ERROR_CODE_HTTP, message, null);
+                response.setResultCode(code);
+                return response;
+            }
+            long contentLength = parseLong(connection.getHeaderField("Content-Length"));
+            InputStream inStream = getInputStream(connection);
+            RandomAccessFile randomAccessFile = new RandomAccessFile(mFile, "rw");
+            try {
+                randomAccessFile.setLength(0);
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int bytes;
+                while ((bytes = inStream.read(buffer)) != -1) {
+                    randomAccessFile.write(buffer, 0, bytes);
+                }
+                randomAccessFile.getChannel().force(false);
+            } finally {
+                randomAccessFile.close();
+                inStream.close();
+            }
+            return verifyFile(contentLength);
+        } finally {
+            closeConnection(connection);
+        }
+    }
+
+    /**
+     * 获取响应体流，设置了带宽限制时限速读取
+     *
+     * @param connection 连接
+     * @return 响应体流
+     * @throws IOException IO异常
+     */
+    private InputStream getInputStream(HttpURLConnection connection) throws IOException {
+        InputStream inStream = connection.getInputStream();
+        HttpBandwidthLimiter.Transfer transfer = mTransfer;
+        return transfer != null ? new HttpBandwidthLimiter.LimitedInputStream(inStream, transfer) : inStream;
+    }
+
+    /**
+     * 校验下载的文件
+     *
+     * @param contentLength 文件长度，小于0表示未知
+     * @return 响应
+     * @throws Exception exception
+     */
+    private HttpResponse<File> verifyFile(long contentLength) throws Exception {
+        if (contentLength >= 0 && mFile.length() != contentLength) {
+            return new HttpResponse<>(HttpResponse.ERROR_CODE_VERIFY_FAILED, "Length mismatch: expect " + contentLength + " but " + mFile.length(), null);
+        }
+        if (!HttpUtils.isEmpty(mMd5)) {
+            String md5 = computeMd5(mFile);
+            if (!mMd5.equalsIgnoreCase(md5)) {
+                return new HttpResponse<>(HttpResponse.ERROR_CODE_VERIFY_FAILED, "MD5 mismatch: expect " + mMd5 + " but " + md5, null);
+            }
+        }
+        HttpResponse<File> response = new HttpResponse<>(HttpResponse.SUCCESS, null, null);
+        response.setResult(mFile);
+        return response;
+    }
+
+    /**
+     * 计算文件MD5
+     *
+     * @param file 文件
+     * @return 十六进制MD5
+     * @throws Exception exception
+     */
+    private static String computeMd5(File file) throws Exception {
+        MessageDigest digest = MessageDigest.getInstance("MD5");
+        InputStream inStream = new FileInputStream(file);
+        try {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int bytes;
+            while ((bytes = inStream.read(buffer)) != -1) {
+                digest.update(buffer, 0, bytes);
+            }
+        } finally {
+            inStream.close();
+        }
+        StringBuilder hexBuilder = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hexBuilder.append(String.format("%02x", b & 0xFF));
+        }
+        return hexBuilder.toString();
+    }
+
+    /**
+     * 打开连接，配置超时、请求头以及HTTPS
+     *
+     * @param requestUrl 请求地址
+     * @param method     请求方法
+     * @return 连接
+     * @throws IOException IO异常
+     */
+    private HttpURLConnection openConnection(String requestUrl, String method) throws IOException {
+        if (mAborted) {
+            throw new InterruptedIOException("Download aborted!");
+        }
+        HttpURLConnection connection = (HttpURLConnection) new URL(requestUrl).openConnection();
+        mConnections.add(connection);
+        connection.setRequestMethod(method);
+        connection.setDoInput(true);
+        connection.setReadTimeout(mRequest.getRequestTimeout());
+        connection.setConnectTimeout(mRequest.getRequestTimeout());
+        Map<String, String> headers = mRequest.getRequestHeaders();
+        for (String key : headers.keySet()) {
+            connection.setRequestProperty(key, headers.get(key));
+        }
+        //分段下载需要拿到原始长度，不能压缩
+        connection.setRequestProperty("Accept-Encoding", "identity");
+
+        //处理HTTPS请求
+        if (mHttps && mSSLConfig != null) {
+            SSLSocketFactory sslSocketFactory = mSSLConfig.getSSLSocketFactory();
+            if (sslSocketFactory != null) {
+                ((HttpsURLConnection) connection).setSSLSocketFactory(sslSocketFactory);
+                ((HttpsURLConnection) connection).setHostnameVerifier(mSSLConfig);
+            }
+        }
+        return connection;
+    }
+
+    /**
+     * 断开连接
+     *
+     * @param connection 连接
+     */
+    private void closeConnection(HttpURLConnection connection) {
+        mConnections.remove(connection);
+        connection.disconnect();
+    }
+
+    /**
+     * 构建请求地址，请求参数拼接在地址后
+     *
+     * @return 请求地址
+     * @throws UnsupportedEncodingException 编码异常
+     */
+    private String buildRequestUrl() throws UnsupportedEncodingException {
+        String httpScheme = mHttps ? "https" : "http";
+        StringBuilder urlBuilder = new StringBuilder();
+        urlBuilder.append(httpScheme).append("://").append(mRequest.getRequestHost());
+        if (!HttpUtils.isEmpty(mRequest.getRequestPath())) {
+            urlBuilder.append(mRequest.getRequestPath());
+        }
+        Map<String, String> params = mRequest.getRequestParams();
+        if (params != null && !params.isEmpty()) {
+            char separator = '?';
+            for (String key : params.keySet()) {
+                urlBuilder.append(separator);
+                urlBuilder.append(URLEncoder.encode(key, "UTF-8")).append("=").append(URLEncoder.encode(params.get(key), "UTF-8"));
+                separator = '&';
+            }
+        }
+        return urlBuilder.toString();
+    }
+
+    private static long parseLong(String value) {
+        if (HttpUtils.isEmpty(value)) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException ex) {
+            return -1;
+        }
+    }
+
+    /**
+     * 下载分段，闭区间[mStart, mEnd]
+     */
+    private static final class Segment {
+        private final long mStart;
+        private final long mEnd;
+
+        private Segment(long start, long end) {
+            mStart = start;
+            mEnd = end;
+        }
+    }
+
+    /**
+     * 分段请求返回了非206的响应
+     */
+    private static final class HttpStatusException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        private final int mCode;
+
+        private HttpStatusException(int code, String message) {
+            super(message);
+            mCode = code;
+        }
+    }
+}
@@ -0,0 +1,358 @@
+package com.seagle.net.android.httphelper;
+
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <h1>服务器组.</h1>
+ * 一个逻辑服务由多个服务器（host:port）提供，通过{@link HttpHelper#addEndpointGroup(HttpEndpointGroup)}注册后，
+ * 服务器地址为组名的请求在组内选择服务器发送。
+ * <p>
+ * 每次随机取两个可用的服务器，选择负载较低的一个，负载为请求耗时的指数加权平均值乘以正在进行的请求数加一，
+ * 再乘以连续失败次数加一，慢的、繁忙的和正在失败的服务器分到较少的请求。
+ * 还没有成功请求的服务器按其它服务器的平均耗时计算。
+ * 连续失败（网络错误或者5xx）达到阈值的服务器暂时剔除，剔除时间到期后恢复，恢复后再次失败时立即剔除并加倍剔除时间。
+ * 所有服务器都被剔除时，使用最早恢复的服务器。
+ * <p>
+ * GET请求连接失败时（请求还没有发出），换一个服务器重新发送；POST请求不是幂等的，不重新发送。
+ *
+ * @author : yuanxiudong66@sina.com
+ */
+public final class HttpEndpointGroup {
+
+    /**
+     * 默认的剔除阈值，连续失败次数
+     */
+    public static final int DEFAULT_FAILURE_THRESHOLD = 3;
+
+    /**
+     * 默认的剔除时间，单位：ms
+     */
+    public static final long DEFAULT_EJECT_MILLIS = 10000;
+
+    /**
+     * 最长剔除时间相对于剔除时间的倍数
+     */
+    private static final int MAX_EJECT_MULTIPLIER = 16;
+
+    /**
+     * 请求耗时的指数加权平均系数
+     */
+    private static final double EWMA_ALPHA = 0.3;
+
+    private final String mName;
+    private final List<Endpoint> mEndpoints;
+    private final Random mRandom = new Random();
+
+    private int mFailureThreshold = DEFAULT_FAILURE_THRESHOLD;
+    private long mEjectNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_EJECT_MILLIS);
+    private int mMaxAttempts;
+    private long mFailoverCount;
+
+    /**
+     * @param name  组名，请求的服务器地址为组名时使用这个组
+     * @param hosts 服务器地址，包括端口
+     */
+    public HttpEndpointGroup(String name, String... hosts) {
+        if (HttpUtils.isEmpty(name)) {
+            throw new IllegalArgumentException("Group name should not be null!");
+        }
+        if (hosts == null || hosts.length == 0) {
+            throw new IllegalArgumentException("Group needs at least one host");
+        }
+        List<Endpoint> endpoints = new ArrayList<>();
+        for (String host : hosts) {
+            if (HttpUtils.isEmpty(host)) {
+                throw new IllegalArgumentException("Host should not be null!");
+            }
+            endpoints.add(new Endpoint(host));
+        }
+        mName = name;
+        mEndpoints = Collections.unmodifiableList(endpoints);
+        mMaxAttempts = Math.min(3, endpoints.size());
+    }
+
+    /**
+     * 获取组名
+     *
+     * @return 组名
+     */
+    public String getName() {
+        return mName;
+    }
+
+    /**
+     * 获取服务器
+     *
+     * @return 服务器
+     */
+    public List<Endpoint> getEndpoints() {
+        return mEndpoints;
+    }
+
+    /**
+     * 设置剔除策略
+     *
+     * @param failureThreshold 连续失败多少次后剔除
+     * @param ejectMillis      剔除时间，单位：ms，再次剔除时加倍，最多16倍
+     */
+    public synchronized void setEjectionPolicy(int failureThreshold, long ejectMillis) {
+        if (failureThreshold <= 0 || ejectMillis <= 0) {
+            throw new IllegalArgumentException("Invalid ejection policy: " + failureThreshold + ", " + ejectMillis);
+        }
+        mFailureThreshold = failureThreshold;
+        mEjectNanos = TimeUnit.MILLISECONDS.toNanos(ejectMillis);
+    }
+
+    /**
+     * 设置GET请求连接失败时最多尝试的服务器数，默认为服务器数，最多3个
+     *
+     * @param maxAttempts 尝试的服务器数，1表示不换服务器
+     */
+    public synchronized void setMaxAttempts(int maxAttempts) {
+        if (maxAttempts <= 0) {
+            throw new IllegalArgumentException("Invalid max attempts: " + maxAttempts);
+        }
+        mMaxAttempts = maxAttempts;
+    }
+
+    /**
+     * 获取GET请求连接失败时最多尝试的服务器数
+     *
+     * @return 服务器数
+     */
+    public synchronized int getMaxAttempts() {
+        return mMaxAttempts;
+    }
+
+    /**
+     * 获取换服务器重新发送的次数
+     *
+     * @return 次数
+     */
+    public synchronized long getFailoverCount() {
+        return mFailoverCount;
+    }
+
+    /**
+     * 选择服务器
+     *
+     * @param tried 这个请求已经尝试过的服务器，可以为空
+     * @return 服务器，已经计入正在进行的请求
+     */
+    synchronized Endpoint select(Collection<Endpoint> tried) {
+        long now = System.nanoTime();
+        boolean failover = tried != null && !tried.isEmpty();
+        if (failover && tried.containsAll(mEndpoints)) {
+            //所有服务器都已经尝试过，重新在全部服务器中选择
+            tried = null;
+        }
+        List<Endpoint> candidates = new ArrayList<>(mEndpoints.size());
+        Endpoint earliest = null;
+        double latencySum = 0;
+        int sampledCount = 0;
+        for (Endpoint endpoint : mEndpoints) {
+            if (endpoint.mSampled) {
+                latencySum += endpoint.mLatencyNanos;
+                sampledCount++;
+            }
+            if (tried != null && tried.contains(endpoint)) {
+                continue;
+            }
+            if (endpoint.mEjectedUntilNanos - now <= 0) {
+                candidates.add(endpoint);
+            } else if (earliest == null || endpoint.mEjectedUntilNanos - earliest.mEjectedUntilNanos < 0) {
+                earliest = endpoint;
+            }
+        }
+        Endpoint selected;
+        double defaultLatency = sampledCount > 0 ? latencySum / sampledCount : 0;
+        if (candidates.isEmpty()) {
+            selected = earliest;
+        } else if (candidates.size() == 1) {
+            selected = candidates.get(0);
+        } else {
+            int first = mRandom.nextInt(candidates.size());
+            int second = mRandom.nextInt(candidates.size() - 1);
+            if (second >= first) {
+                second++;
+            }
+            Endpoint a = candidates.get(first);
+            Endpoint b = candidates.get(second);
+            selected = b.cost(defaultLatency) < a.cost(defaultLatency) ? b : a;
+        }
+        selected.mActiveCount++;
+        selected.mRequestCount++;
+        if (failover) {
+            mFailoverCount++;
+        }
+        return selected;
+    }
+
+    /**
+     * 请求结束
+     *
+     * @param endpoint     服务器
+     * @param elapsedNanos 请求耗时
+     * @param success      是否成功，网络错误和5xx为失败
+     */
+    synchronized void onResult(Endpoint endpoint, long elapsedNanos, boolean success) {
+        endpoint.mActiveCount--;
+        if (success) {
+            endpoint.mLatencyNanos = endpoint.mSampled
+                    ? endpoint.mLatencyNanos + EWMA_ALPHA * (elapsedNanos - endpoint.mLatencyNanos) : elapsedNanos;
+            endpoint.mSampled = true;
+            endpoint.mConsecutiveFailures = 0;
+            endpoint.mEjectionCount = 0;
+            endpoint.mProbation = false;
+            return;
+        }
+        endpoint.mFailureCount++;
+        endpoint.mConsecutiveFailures++;
+        long now = System.nanoTime();
+        if (endpoint.mEjectedUntilNanos - now > 0) {
+            //已经被剔除
+            return;
+        }
+        if (endpoint.mProbation || endpoint.mConsecutiveFailures >= mFailureThreshold) {
+            long multiplier = Math.min(MAX_EJECT_MULTIPLIER, 1L << Math.min(endpoint.mEjectionCount, 30));
+            endpoint.mEjectedUntilNanos = now + mEjectNanos * multiplier;
+            endpoint.mEjectionCount++;
+            endpoint.mConsecutiveFailures = 0;
+            endpoint.mProbation = true;
+        }
+    }
+
+    /**
+     * 是否为连接失败，请求还没有发出，可以换服务器重新发送
+     *
+     * @param ex 异常
+     * @return 是否为连接失败
+     */
+    static boolean isConnectFailure(Exception ex) {
+        if (ex instanceof ConnectException || ex instanceof NoRouteToHostException || ex instanceof UnknownHostException) {
+            return true;
+        }
+        String message = ex.getMessage();
+        return ex instanceof SocketTimeoutException && message != null
+                && message.toLowerCase(Locale.US).startsWith("connect timed out");
+    }
+
+    @Override
+    public String toString() {
+        return mName + Arrays.toString(mEndpoints.toArray());
+    }
+
+    /**
+     * 组内的一个服务器
+     */
+    public final class Endpoint {
+        private final String mHost;
+
+        /**
+         * 以下字段由服务器组同步访问
+         */
+        private double mLatencyNanos;
+        private boolean mSampled;
+        private int mActiveCount;
+        private int mConsecutiveFailures;
+        private int mEjectionCount;
+        private boolean mProbation;
+        private long mEjectedUntilNanos = System.nanoTime();
+        private long mRequestCount;
+        private long mFailureCount;
+
+        private Endpoint(String host) {
+            mHost = host;
+        }
+
+        /**
+         * 负载，连续失败的服务器按失败次数加倍
+         *
+         * @param defaultLatency 没有成功请求时使用的耗时
+         */
+        private double cost(double defaultLatency) {
+            double latency = mSampled ? mLatencyNanos : defaultLatency;
+            return latency * (mActiveCount + 1) * (mConsecutiveFailures + 1);
+        }
+
+        /**
+         * 获取服务器地址
+         *
+         * @return 地址，包括端口
+         */
+        public String getHost() {
+            return mHost;
+        }
+
+        /**
+         * 获取请求耗时的指数加权平均值
+         *
+         * @return 耗时，单位：ms，没有成功的请求时为0
+         */
+        public double getLatencyMillis() {
+            synchronized (HttpEndpointGroup.this) {
+                return mLatencyNanos / 1e6;
+            }
+        }
+
+        /**
+         * 获取正在进行的请求数
+         *
+         * @return 请求数
+         */
+        public int getActiveCount() {
+            synchronized (HttpEndpointGroup.this) {
+                return mActiveCount;
+            }
+        }
+
+        /**
+         * 获取发送到这个服务器的请求数
+         *
+         * @return 请求数
+         */
+        public long getRequestCount() {
+            synchronized (HttpEndpointGroup.this) {
+                return mRequestCount;
+            }
+        }
+
+        /**
+         * 获取失败的请求数
+         *
+         * @return 请求数
+         */
+        public long getFailureCount() {
+            synchronized (HttpEndpointGroup.this) {
+                return mFailureCount;
+            }
+        }
+
+        /**
+         * 是否被剔除
+         *
+         * @return 是否被剔除
+         */
+        public boolean isEjected() {
+            synchronized (HttpEndpointGroup.this) {
+                return mEjectedUntilNanos - System.nanoTime() > 0;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return mHost;
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package com.seagle.net.android.httphelper;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * <h1>请求线程池.</h1>
+ * 用于{@link HttpHelper#HttpHelper(java.util.concurrent.Executor)}。
+ * 在支持虚拟线程的JVM（Java 21及以上）上可以让每个请求运行在单独的虚拟线程中，
+ * 阻塞的网络读写不占用平台线程，同一个HttpHelper即可支撑几万个并发请求。
+ *
+ * @author : yuanxiudong66@sina.com
+ */
+public final class HttpExecutors {
+
+    /**
+     * 创建虚拟线程的方法，不支持时为空
+     */
+    private static final Method NEW_VIRTUAL_THREAD_EXECUTOR = findVirtualThreadFactory();
+
+    private HttpExecutors() {
+    }
+
+    private static Method findVirtualThreadFactory() {
+        try {
+            return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * 当前运行环境是否支持虚拟线程
+     *
+     * @return true or false
+     */
+    public static boolean isVirtualThreadSupported() {
+        return NEW_VIRTUAL_THREAD_EXECUTOR != null;
+    }
+
+    /**
+     * 创建每个任务一个虚拟线程的线程池.
+     *
+     * @return 线程池
+     * @throws UnsupportedOperationException 运行环境不支持虚拟线程
+     */
+    public static ExecutorService newVirtualThreadExecutor() {
+        if (NEW_VIRTUAL_THREAD_EXECUTOR == null) {
+            throw new UnsupportedOperationException("Virtual threads are not supported");
+        }
+        try {
+            return (ExecutorService) NEW_VIRTUAL_THREAD_EXECUTOR.invoke(null);
+        } catch (IllegalAccessException | InvocationTargetException ex) {
+            throw new UnsupportedOperationException("Virtual threads are not supported", ex);
+        }
+    }
+}
@@ -0,0 +1,278 @@
+package com.seagle.net.android.httphelper;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <h1>GET请求对冲策略.</h1>
+ * GET请求在对冲延迟内没有完成时，再发送一个相同的请求，先完成的请求作为结果，另一个请求被中止并释放连接。
+ * 对冲延迟可以是固定值，也可以是服务器最近请求耗时的百分位（例如P95）。
+ * 对冲预算限制额外的负载：每个请求积累一定比例的预算，每次对冲消耗一个，预算不足时不对冲。
+ * 通过{@link HttpHelper#setHedgePolicy(HttpHedgePolicy)}启用，只对GET请求生效。
+ *
+ * @author : yuanxiudong66@sina.com
+ */
+public final class HttpHedgePolicy {
+
+    /**
+     * 每个服务器保留的耗时样本数
+     */
+    private static final int WINDOW_SIZE = 128;
+
+    /**
+     * 按百分位计算延迟前需要的最少样本数
+     */
+    private static final int MIN_SAMPLES = 20;
+
+    /**
+     * 最多积累的预算，即允许连续对冲的请求数
+     */
+    private static final double MAX_BALANCE = 10;
+
+    /**
+     * 各个服务器最近的请求耗时
+     */
+    private final ConcurrentHashMap<String, LatencyWindow> mLatencies = new ConcurrentHashMap<>();
+
+    /**
+     * 发起对冲的定时器
+     */
+    private final ScheduledThreadPoolExecutor mScheduler;
+
+    private final long mDelayMillis;
+    private final double mPercentile;
+    private final double mBudgetRatio;
+    private double mBalance;
+
+    private final AtomicLong mRequestCount = new AtomicLong();
+    private final AtomicLong mHedgeCount = new AtomicLong();
+    private final AtomicLong mHedgeWinCount = new AtomicLong();
+    private final AtomicLong mBudgetExhaustedCount = new AtomicLong();
+
+    private HttpHedgePolicy(long delayMillis, double percentile, double budgetRatio) {
+        if (delayMillis <= 0) {
+            throw new IllegalArgumentException("Invalid hedge delay: " + delayMillis);
+        }
+        if (budgetRatio <= 0) {
+            throw new IllegalArgumentException("Invalid hedge budget: " + budgetRatio);
+        }
+        mDelayMillis = delayMillis;
+        mPercentile = percentile;
+        mBudgetRatio = budgetRatio;
+        mScheduler = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "HttpHedgePolicy");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        try {
+            //主请求先完成时取消的对冲定时任务立即移出队列，不再持有请求任务
+            mScheduler.setRemoveOnCancelPolicy(true);
+        } catch (NoSuchMethodError ex) {
+            //Android 5.0以下没有这个方法，取消的任务在到期时移出
+        }
+    }
+
+    /**
+     * 固定对冲延迟
+     *
+     * @param delayMillis 对冲延迟，单位：ms
+     * @param budgetRatio 对冲预算，对冲请求数最多占请求数的比例，例如0.05
+     * @return 对冲策略
+     */
+    public static HttpHedgePolicy fixedDelay(long delayMillis, double budgetRatio) {
+        return new HttpHedgePolicy(delayMillis, 0, budgetRatio);
+    }
+
+    /**
+     * 按服务器请求耗时的百分位对冲
+     *
+     * @param percentile         百分位，例如0.95
+     * @param defaultDelayMillis 样本不足时的对冲延迟，单位：ms
+     * @param budgetRatio        对冲预算，对冲请求数最多占请求数的比例，例如0.05
+     * @return 对冲策略
+     */
+    public static HttpHedgePolicy percentileDelay(double percentile, long defaultDelayMillis, double budgetRatio) {
+        if (percentile <= 0 || percentile >= 1) {
+            throw new IllegalArgumentException("Invalid percentile: " + percentile);
+        }
+        return new HttpHedgePolicy(defaultDelayMillis, percentile, budgetRatio);
+    }
+
+    /**
+     * 获取服务器当前的对冲延迟，单位：ms
+     *
+     * @param host 服务器地址，与{@link HttpRequest#getRequestHost()}一致
+     * @return 对冲延迟
+     */
+    public long getDelayMillis(String host) {
+        if (mPercentile <= 0) {
+            return mDelayMillis;
+        }
+        LatencyWindow window = mLatencies.get(host);
+        long delay = window == null ? -1 : window.getPercentile(mPercentile);
+        return delay > 0 ? delay : mDelayMillis;
+    }
+
+    /**
+     * 获取经过对冲策略的请求数
+     *
+     * @return 请求数
+     */
+    public long getRequestCount() {
+        return mRequestCount.get();
+    }
+
+    /**
+     * 获取发起的对冲请求数，排队期间主请求已经结束、没有发出的对冲请求不计入
+     *
+     * @return 请求数
+     */
+    public long getHedgeCount() {
+        return mHedgeCount.get();
+    }
+
+    /**
+     * 获取对冲请求先完成的次数
+     *
+     * @return 次数
+     */
+    public long getHedgeWinCount() {
+        return mHedgeWinCount.get();
+    }
+
+    /**
+     * 获取因为预算不足没有对冲的次数
+     *
+     * @return 次数
+     */
+    public long getBudgetExhaustedCount() {
+        return mBudgetExhaustedCount.get();
+    }
+
+    /**
+     * 获取对冲请求的胜率
+     *
+     * @return 对冲请求先完成的比例，没有对冲时为0
+     */
+    public double getHedgeWinRate() {
+        long hedgeCount = mHedgeCount.get();
+        return hedgeCount == 0 ? 0 : (double) mHedgeWinCount.get() / hedgeCount;
+    }
+
+    /**
+     * 请求开始，积累预算
+     */
+    void onRequest() {
+        mRequestCount.incrementAndGet();
+        synchronized (this) {
+            mBalance = Math.min(MAX_BALANCE, mBalance + mBudgetRatio);
+        }
+    }
+
+    /**
+     * 申请一次对冲
+     *
+     * @return 预算是否足够
+     */
+    boolean tryAcquireHedge() {
+        synchronized (this) {
+            if (mBalance < 1) {
+                mBudgetExhaustedCount.incrementAndGet();
+                return false;
+            }
+            mBalance -= 1;
+        }
+        mHedgeCount.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * 对冲请求在排队期间被取消，没有发出，退还预算
+     */
+    void refundHedge() {
+        synchronized (this) {
+            mBalance = Math.min(MAX_BALANCE, mBalance + 1);
+        }
+        mHedgeCount.decrementAndGet();
+    }
+
+    /**
+     * 对冲请求先完成
+     */
+    void onHedgeWon() {
+        mHedgeWinCount.incrementAndGet();
+    }
+
+    /**
+     * 记录请求耗时
+     *
+     * @param host          服务器地址
+     * @param latencyMillis 耗时，单位：ms
+     */
+    void recordLatency(String host, long latencyMillis) {
+        if (mPercentile <= 0) {
+            return;
+        }
+        LatencyWindow window = mLatencies.get(host);
+        if (window == null) {
+            window = new LatencyWindow();
+            LatencyWindow oldWindow = mLatencies.putIfAbsent(host, window);
+            if (oldWindow != null) {
+                window = oldWindow;
+            }
+        }
+        window.add(latencyMillis);
+    }
+
+    /**
+     * 在对冲延迟后执行任务
+     *
+     * @param task        任务
+     * @param delayMillis 延迟，单位：ms
+     * @return 定时任务，用于取消
+     */
+    ScheduledFuture<?> schedule(Runnable task, long delayMillis) {
+        return mScheduler.schedule(task, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 最近的请求耗时
+     */
+    private static final class LatencyWindow {
+        private final long[] mSamples = new long[WINDOW_SIZE];
+        private int mCount;
+        private int mNext;
+
+        private synchronized void add(long latencyMillis) {
+            mSamples[mNext] = latencyMillis;
+            mNext = (mNext + 1) % WINDOW_SIZE;
+            mCount = Math.min(WINDOW_SIZE, mCount + 1);
+        }
+
+        /**
+         * 计算百分位
+         *
+         * @param percentile 百分位
+         * @return 耗时，样本不足时为-1
+         */
+        private long getPercentile(double percentile) {
+            long[] samples;
+            synchronized (this) {
+                if (mCount < MIN_SAMPLES) {
+                    return -1;
+                }
+                samples = Arrays.copyOf(mSamples, mCount);
+            }
+            Arrays.sort(samples);
+            return samples[Math.min(samples.length - 1, (int) Math.ceil(percentile * samples.length) - 1)];
+        }
+    }
+}
@@ -0,0 +1,267 @@
+package com.seagle.net.android.httphelper;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+
+/**
+ * 对冲的GET请求任务.
+ * 主请求在当前I/O线程中执行，对冲延迟后仍未完成时在线程池中发送相同的对冲请求，
+ * 先成功完成I/O阶段的请求作为结果，另一个请求被中止，已经读取的响应体被释放。
+ * 对冲请求与普通请求一样经过限流器和并发限制器排队；主请求结束时还在排队的对冲请求被取消，退还对冲预算。
+ * Created by seagle on 2018/4/10.
+ */
+class HttpHedgedTask<T> implements Callable<HttpResponse<T>>, StagedTask<T>, Abortable, TraceableTask {
+
+    /**
+     * 主请求
+     */
+    private final HttpRequestTask<T> mPrimary;
+
+    /**
+     * 对冲请求
+     */
+    private final HttpRequestTask<T> mHedge;
+
+    private final HttpHedgePolicy mPolicy;
+
+    /**
+     * 执行对冲请求的线程池，经过限流器和并发限制器
+     */
+    private final Executor mExecutor;
+
+    private final String mHost;
+
+    private final Object mLock = new Object();
+
+    /**
+     * 先完成的请求的解码阶段
+     */
+    private Callable<HttpResponse<T>> mResult;
+    private boolean mHedgeWon;
+    private boolean mPrimaryDone;
+    private boolean mHedgeStarted;
+
+    /**
+     * 排队中的对冲请求，主请求结束时取消，限流器和并发限制器跳过已经取消的任务
+     */
+    private FutureTask<Void> mHedgeFuture;
+
+    /**
+     * 对冲请求已经在线程池中开始执行，还在排队时为false
+     */
+    private boolean mHedgeRunning;
+    private boolean mHedgeDone;
+    private volatile boolean mAborted;
+
+    HttpHedgedTask(HttpRequestTask<T> primary, HttpRequestTask<T> hedge, HttpHedgePolicy policy, Executor executor, String host) {
+        mPrimary = primary;
+        mHedge = hedge;
+        mPolicy = policy;
+        mExecutor = executor;
+        mHost = host;
+    }
+
+    @Override
+    public long getRequestBytes() {
+        return getWinner().getRequestBytes();
+    }
+
+    @Override
+    public long getResponseBytes() {
+        return getWinner().getResponseBytes();
+    }
+
+    @Override
+    public int getStatusCode() {
+        return getWinner().getStatusCode();
+    }
+
+    /**
+     * 获取作为结果的请求，对冲请求没有先完成时为主请求
+     */
+    private HttpRequestTask<T> getWinner() {
+        synchronized (mLock) {
+            return mHedgeWon ? mHedge : mPrimary;
+        }
+    }
+
+    @Override
+    public void abort() {
+        mAborted = true;
+        mPrimary.abort();
+        mHedge.abort();
+    }
+
+    @Override
+    public HttpResponse<T> call() throws Exception {
+        return fetch().call();
+    }
+
+    @Override
+    public Callable<HttpResponse<T>> fetch() throws Exception {
+        mPolicy.onRequest();
+        final long startTime = System.currentTimeMillis();
+        ScheduledFuture<?> hedgeTimer = mPolicy.schedule(new Runnable() {
+            @Override
+            public void run() {
+                startHedge();
+            }
+        }, mPolicy.getDelayMillis(mHost));
+
+        Callable<HttpResponse<T>> stage = null;
+        Exception error = null;
+        try {
+            stage = mPrimary.fetch();
+        } catch (Exception ex) {
+            error = ex;
+        }
+        hedgeTimer.cancel(false);
+
+        Callable<HttpResponse<T>> result;
+        boolean hedgeWon;
+        boolean abortHedge = false;
+        FutureTask<Void> queuedHedge;
+        synchronized (mLock) {
+            mPrimaryDone = true;
+            if (mResult == null && stage != null) {
+                mResult = stage;
+                stage = null;
+                abortHedge = mHedgeStarted;
+            }
+            queuedHedge = abandonQueuedHedge() ? mHedgeFuture : null;
+            //主请求失败时等待正在执行的对冲请求的结果；对冲请求还在排队时不等待，
+            //线程池有界时它可能排在当前线程之后，等待会导致死锁
+            while (mResult == null && mHedgeRunning && !mHedgeDone) {
+                mLock.wait();
+            }
+            result = mResult;
+            hedgeWon = mHedgeWon;
+        }
+        if (queuedHedge != null) {
+            queuedHedge.cancel(false);
+        }
+        if (abortHedge) {
+            mHedge.abort();
+        }
+        discard(stage);
+        if (mAborted) {
+            discard(result);
+            throw new InterruptedIOException("Request aborted!");
+        }
+        if (result == null) {
+            throw error;
+        }
+        mPolicy.recordLatency(mHost, System.currentTimeMillis() - startTime);
+        if (hedgeWon) {
+            mPolicy.onHedgeWon();
+        }
+        return result;
+    }
+
+    /**
+     * 对冲延迟到达，预算足够时发送对冲请求
+     */
+    private void startHedge() {
+        FutureTask<Void> hedgeFuture = new FutureTask<>(new Runnable() {
+            @Override
+            public void run() {
+                runHedge();
+            }
+        }, null);
+        synchronized (mLock) {
+            if (mPrimaryDone || mAborted || !mPolicy.tryAcquireHedge()) {
+                return;
+            }
+            mHedgeStarted = true;
+            mHedgeFuture = hedgeFuture;
+        }
+        try {
+            mExecutor.execute(hedgeFuture);
+        } catch (RejectedExecutionException ex) {
+            synchronized (mLock) {
+                abandonQueuedHedge();
+                mLock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * 放弃已经申请预算、还没有开始执行的对冲请求，退还预算.
+     * 调用时需要持有mLock。
+     *
+     * @return 是否放弃了对冲请求，没有对冲请求或者已经开始执行时返回false
+     */
+    private boolean abandonQueuedHedge() {
+        if (!mHedgeStarted || mHedgeRunning || mHedgeDone) {
+            return false;
+        }
+        mHedgeDone = true;
+        mPolicy.refundHedge();
+        return true;
+    }
+
+    /**
+     * 执行对冲请求
+     */
+    private void runHedge() {
+        synchronized (mLock) {
+            if (mPrimaryDone || mAborted) {
+                //主请求已经结束，不再需要对冲请求
+                abandonQueuedHedge();
+                return;
+            }
+            mHedgeRunning = true;
+        }
+        Callable<HttpResponse<T>> stage = null;
+        try {
+            stage = mHedge.fetch();
+        } catch (Exception ex) {
+            HttpPlatform.get().log("HttpHedgedTask", "Hedge request failed: " + ex);
+        }
+        onHedgeDone(stage);
+    }
+
+    /**
+     * 对冲请求结束
+     *
+     * @param stage 解码阶段，请求失败时为空
+     */
+    private void onHedgeDone(Callable<HttpResponse<T>> stage) {
+        boolean abortPrimary = false;
+        synchronized (mLock) {
+            mHedgeDone = true;
+            if (mResult == null && stage != null) {
+                mResult = stage;
+                mHedgeWon = true;
+                stage = null;
+                abortPrimary = !mPrimaryDone;
+            }
+            mLock.notifyAll();
+        }
+        if (abortPrimary) {
+            mPrimary.abort();
+        }
+        discard(stage);
+    }
+
+    /**
+     * 释放没有使用的解码阶段持有的响应体
+     *
+     * @param stage 解码阶段，可以为空
+     */
+    private static void discard(Callable<?> stage) {
+        if (stage instanceof Closeable) {
+            try {
+                ((Closeable) stage).close();
+            } catch (IOException ex) {
+                HttpPlatform.get().log("HttpHedgedTask", "Discard response body failed: " + ex);
+            }
+        }
+    }
+}
@@ -0,0 +1,1361 @@
+package com.seagle.net.android.httphelper;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <h1>HTTP请求协助类.</h1>
+ * HttpHelper提供了一套HTTP请求的接口，包括HTTP和HTTPS以及GET和POST提交方式。
+ * HttpHelper同时支持同步和异步。每一次提交返回一个HttpSession。
+ * 同时每个提交的接口也有一个callback接口。
+ * 同步调用：HttpSession.getResponse(),可以将callback置为空。
+ * 异步调用：通过callback的回调得到请求的响应
+ *
+ * @author : yuanxiudong66@sina.com
+ */
+public final class HttpHelper {
+
+    /**
+     * 解码线程池默认的线程数，与CPU核数相同.
+     */
+    private static final int DEFAULT_DECODE_THREADS = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * 解码线程池默认的队列长度.
+     */
+    private static final int DEFAULT_DECODE_QUEUE_CAPACITY = 64;
+
+    /**
+     * HTTPS相关验证类.
+     * 主要是证书验证和域名验证。
+     */
+    private volatile HttpsSSLConfig mHttpsSSLConfig;
+
+    /**
+     * 请求执行线程池，即I/O阶段线程池.
+     */
+    private final Executor mExecutor;
+
+    /**
+     * 解码阶段线程池，为空时在I/O线程中解码.
+     */
+    private volatile ThreadPoolExecutor mDecodeExecutor;
+
+    /**
+     * 等待I/O线程的请求数.
+     */
+    private final AtomicInteger mIoQueued = new AtomicInteger();
+
+    /**
+     * 正在执行I/O阶段的请求数.
+     */
+    private final AtomicInteger mIoActive = new AtomicInteger();
+
+    /**
+     * 等待解码线程的请求数.
+     */
+    private final AtomicInteger mDecodeQueued = new AtomicInteger();
+
+    /**
+     * 正在解码的请求数.
+     */
+    private final AtomicInteger mDecodeActive = new AtomicInteger();
+
+    /**
+     * 传输层.
+     */
+    private volatile HttpTransport mTransport = new UrlConnectionTransport();
+
+    /**
+     * 按服务器限流，为空时不限流.
+     */
+    private volatile HttpRateLimiter mRateLimiter;
+
+    /**
+     * 按服务器自适应并发限制，为空时不限制.
+     */
+    private volatile HttpConcurrencyLimiter mConcurrencyLimiter;
+
+    /**
+     * GET请求对冲策略，为空时不对冲.
+     */
+    private volatile HttpHedgePolicy mHedgePolicy;
+
+    /**
+     * 流量轨迹记录，为空时不记录.
+     */
+    private volatile HttpTraceRecorder mTraceRecorder;
+
+    /**
+     * GET请求的响应缓存，为空时不缓存.
+     */
+    private volatile HttpResponseCache mResponseCache;
+
+    /**
+     * 预取，为空时不支持预取.
+     */
+    private volatile HttpPrefetcher mPrefetcher;
+
+    /**
+     * 上传和下载的带宽限制，为空时只限制设置了上限的请求.
+     */
+    private volatile HttpBandwidthLimiter mUploadLimiter;
+    private volatile HttpBandwidthLimiter mDownloadLimiter;
+
+    /**
+     * 认证令牌刷新，为空时不处理认证失败.
+     */
+    private volatile HttpAuthenticator mAuthenticator;
+
+    /**
+     * 组名与服务器组.
+     */
+    private final ConcurrentHashMap<String, HttpEndpointGroup> mEndpointGroups = new ConcurrentHashMap<>();
+
+    /**
+     * 未结束的前台请求数，为0时执行预取.
+     */
+    private final AtomicInteger mForegroundCount = new AtomicInteger();
+
+    /**
+     * 回调执行器，为空时在完成请求的线程中回调.
+     */
+    private volatile Executor mCallbackExecutor = HttpPlatform.get().getCallbackExecutor();
+
+    /**
+     * 响应体内存预算.
+     */
+    private final HttpBodyBudget mBodyBudget = new HttpBodyBudget();
+
+    /**
+     * 标签与未结束会话的索引，用于批量取消.
+     */
+    private final ConcurrentHashMap<String, Set<HttpSession<?>>> mTaggedSessions = new ConcurrentHashMap<>();
+
+    public HttpHelper() {
+        mExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "HttpThread");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        mDecodeExecutor = newDecodeExecutor(DEFAULT_DECODE_THREADS, DEFAULT_DECODE_QUEUE_CAPACITY);
+    }
+
+    public HttpHelper(Executor executor) {
+        mExecutor = executor;
+        mDecodeExecutor = newDecodeExecutor(DEFAULT_DECODE_THREADS, DEFAULT_DECODE_QUEUE_CAPACITY);
+    }
+
+    /**
+     * 提交HTTP POST请求.
+     *
+     * @param <T>      响应类型
+     * @param request  http请求
+     * @param resolver 响应数据解析器
+     * @param callback 回调，可以为空
+     * @return HTTP响应
+     */
+    public <T> HttpSession<T> doHttpPost(HttpRequest request, HttpResultResolver<T> resolver, HttpCallback<T> callback) {
+        request.setRequestMethod(HttpRequest.HTTP_POST);
+        return doHttpRequest(request, resolver, callback, false);
+    }
+
+    /**
+     * 提交HTTP GET请求.
+     *
+     * @param <T>      响应类型
+     * @param request  http请求
+     * @param resolver 响应数据解析器
+     * @param callback 回调，可以为空
+     * @return HTTP响应
+     */
+    public <T> HttpSession<T> doHttpGet(HttpRequest request, HttpResultResolver<T> resolver, HttpCallback<T> callback) {
+        request.setRequestMethod(HttpRequest.HTTP_GET);
+        return doHttpRequest(request, resolver, callback, false);
+    }
+
+    /**
+     * 提交HTTPS POST请求.
+     *
+     * @param <T>      响应类型
+     * @param request  http请求
+     * @param resolver 响应数据解析器
+     * @param callback 回调，可以为空
+     * @return HTTP响应
+     */
+    public <T> HttpSession<T> doHttpsPost(HttpRequest request, HttpResultResolver<T> resolver, HttpCallback<T> callback) {
+        request.setRequestMethod(HttpRequest.HTTP_POST);
+        return doHttpRequest(request, resolver, callback, true);
+    }
+
+    /**
+     * 提交HTTPS GET请求.
+     *
+     * @param <T>      响应类型
+     * @param request  http请求
+     * @param resolver 响应数据解析器
+     * @param callback 回调，可以为空
+     * @return HTTP响应
+     */
+    public <T> HttpSession<T> doHttpsGet(HttpRequest request, HttpResultResolver<T> resolver, HttpCallback<T> callback) {
+        request.setRequestMethod(HttpRequest.HTTP_GET);
+        return doHttpRequest(request, resolver, callback, true);
+    }
+
+    /**
+     * 预取HTTP GET请求.
+     * 预取在没有前台请求时执行，成功的响应保存在内存中，之后相同的GET请求直接从内存返回。
+     * 需要先通过{@link #setPrefetcher(HttpPrefetcher)}设置预取预算。
+     *
+     * @param <T>      响应类型
+     * @param request  http请求
+     * @param resolver 响应数据解析器，只有解析成功的响应被保存
+     * @return 是否加入预取队列，没有设置预取、预算不足或者已经预取过时返回false
+     */
+    public <T> boolean prefetch(HttpRequest request, HttpResultResolver<T> resolver) {
+        return doPrefetch(request, resolver, false);
+    }
+
+    /**
+     * 预取HTTPS GET请求.
+     *
+     * @param <T>      响应类型
+     * @param request  http请求
+     * @param resolver 响应数据解析器，只有解析成功的响应被保存
+     * @return 是否加入预取队列
+     * @see #prefetch(HttpRequest, HttpResultResolver)
+     */
+    public <T> boolean prefetchHttps(HttpRequest request, HttpResultResolver<T> resolver) {
+        return doPrefetch(request, resolver, true);
+    }
+
+    /**
+     * 打开HTTP流式请求.
+     * 以GET方式连接，按text/event-stream（Server-Sent Events）或者NDJSON增量解析响应体，每个事件到达时立即回调，
+     * 断开后自动重连，直到调用{@link HttpStream#close()}。
+     * 流式请求长期占用一个线程，不经过限流和并发限制。
+     *
+     * @param request  http请求
+     * @param policy   流式请求配置，为空时使用默认配置
+     * @param callback 回调
+     * @return 流
+     */
+    public HttpStream doHttpStream(HttpRequest request, HttpStreamPolicy policy, HttpStreamCallback callback) {
+        return doStreamRequest(request, policy, callback, false);
+    }
+
+    /**
+     * 打开HTTPS流式请求.
+     *
+     * @param request  http请求
+     * @param policy   流式请求配置，为空时使用默认配置
+     * @param callback 回调
+     * @return 流
+     * @see #doHttpStream(HttpRequest, HttpStreamPolicy, HttpStreamCallback)
+     */
+    public HttpStream doHttpsStream(HttpRequest request, HttpStreamPolicy policy, HttpStreamCallback callback) {
+        return doStreamRequest(request, policy, callback, true);
+    }
+
+    /**
+     * 提交HTTP分段下载请求.
+     * 服务器支持Range请求时，会将文件分成多段并发下载，每一段直接写入预分配文件的对应位置；
+     * 服务器不支持Range请求时，退化为单连接下载。
+     * 下载完成后校验文件长度，如果指定了MD5还会校验文件摘要。
+     * 响应结果为下载完成的文件。
+     *
+     * @param request      http请求
+     * @param file         保存的文件
+     * @param segmentCount 并发下载的分段数，小于等于1时单连接下载
+     * @param md5          文件MD5校验值（十六进制），可以为空
+     * @param callback     回调，可以为空
+     * @return HTTP响应
+     */
+    public HttpSession<File> doHttpDownload(HttpRequest request, File file, int segmentCount, String md5, HttpCallback<File> callback) {
+        return doDownloadRequest(request, file, segmentCount, md5, callback, false);
+    }
+
+    /**
+     * 提交HTTPS分段下载请求.
+     *
+     * @param request      http请求
+     * @param file         保存的文件
+     * @param segmentCount 并发下载的分段数，小于等于1时单连接下载
+     * @param md5          文件MD5校验值（十六进制），可以为空
+     * @param callback     回调，可以为空
+     * @return HTTP响应
+     * @see #doHttpDownload(HttpRequest, File, int, String, HttpCallback)
+     */
+    public HttpSession<File> doHttpsDownload(HttpRequest request, File file, int segmentCount, String md5, HttpCallback<File> callback) {
+        return doDownloadRequest(request, file, segmentCount, md5, callback, true);
+    }
+
+    /**
+     * 设置HTTPS的配置.
+     * 这个配置用于配置HTTPS的证书验证和域名验证。
+     *
+     * @param httpsSSLConfig 配置
+     */
+    public void setHttpsSSLConfig(HttpsSSLConfig httpsSSLConfig) {
+        mHttpsSSLConfig = httpsSSLConfig;
+    }
+
+    /**
+     * 设置传输层.
+     * 默认使用HttpURLConnection，可以替换为{@link NioHttpTransport}或者自定义的实现。
+     *
+     * @param transport 传输层，为空时恢复默认实现
+     */
+    public void setTransport(HttpTransport transport) {
+        mTransport = transport != null ? transport : new UrlConnectionTransport();
+    }
+
+    /**
+     * 设置按服务器限流.
+     * 被限流的请求在限流器中排队，不占用线程池的线程。
+     *
+     * @param rateLimiter 限流器，为空时不限流
+     */
+    public void setRateLimiter(HttpRateLimiter rateLimiter) {
+        mRateLimiter = rateLimiter;
+    }
+
+    /**
+     * 设置按服务器自适应并发限制.
+     * 限制器根据请求I/O阶段的耗时调整每个服务器的并发上限，超过上限的请求排队，不占用线程池的线程。
+     * 只影响之后提交的请求。
+     *
+     * @param concurrencyLimiter 并发限制器，为空时不限制
+     */
+    public void setConcurrencyLimiter(HttpConcurrencyLimiter concurrencyLimiter) {
+        mConcurrencyLimiter = concurrencyLimiter;
+    }
+
+    /**
+     * 设置GET请求对冲策略.
+     * GET请求在对冲延迟内没有完成时再发送一个相同的请求，先完成的请求作为结果，用于降低长尾延迟。
+     * 只对GET请求生效，POST请求不是幂等的，不会对冲。
+     *
+     * @param hedgePolicy 对冲策略，为空时不对冲
+     */
+    public void setHedgePolicy(HttpHedgePolicy hedgePolicy) {
+        mHedgePolicy = hedgePolicy;
+    }
+
+    /**
+     * 设置流量轨迹记录.
+     * 每个请求完成后记录请求的形状和各阶段耗时，不记录请求和响应的内容。只影响之后提交的请求。
+     *
+     * @param traceRecorder 轨迹记录，为空时不记录
+     */
+    public void setTraceRecorder(HttpTraceRecorder traceRecorder) {
+        mTraceRecorder = traceRecorder;
+    }
+
+    /**
+     * 设置响应缓存.
+     * 只缓存设置了{@link HttpRequest#setCachePolicy(long, long, long)}的GET请求。
+     *
+     * @param responseCache 响应缓存，为空时不缓存
+     */
+    public void setResponseCache(HttpResponseCache responseCache) {
+        mResponseCache = responseCache;
+    }
+
+    /**
+     * 设置预取.
+     *
+     * @param prefetcher 预取，为空时不支持预取
+     */
+    public void setPrefetcher(HttpPrefetcher prefetcher) {
+        mPrefetcher = prefetcher;
+    }
+
+    /**
+     * 设置上传和下载的带宽限制.
+     * 请求体的写入和响应体的读取按限制的速率进行，同时进行的传输按{@link HttpRequest#setBandwidthWeight(int)}分配速率，
+     * 避免大文件上传下载占满带宽，影响对延迟敏感的请求。单个请求可以通过{@link HttpRequest#setBandwidthLimit(long)}单独限速。
+     * 只影响之后开始传输的请求。
+     *
+     * @param uploadLimiter   上传的带宽限制，为空时不限制总速率
+     * @param downloadLimiter 下载的带宽限制，为空时不限制总速率
+     */
+    public void setBandwidthLimiters(HttpBandwidthLimiter uploadLimiter, HttpBandwidthLimiter downloadLimiter) {
+        if (uploadLimiter != null && uploadLimiter == downloadLimiter) {
+            throw new IllegalArgumentException("Upload and download need separate limiters");
+        }
+        mUploadLimiter = uploadLimiter;
+        mDownloadLimiter = downloadLimiter;
+    }
+
+    /**
+     * 设置认证令牌刷新.
+     * 请求收到认证失败的响应时只执行一次刷新，其它请求等待刷新结束后使用新的令牌重新发送。
+     * 对GET和POST请求生效，包括缓存的后台刷新和预取，不包括下载和流式请求。只影响之后提交的请求。
+     *
+     * @param authenticator 认证器，为空时不处理认证失败
+     */
+    public void setAuthenticator(HttpAuthenticator authenticator) {
+        mAuthenticator = authenticator;
+    }
+
+    /**
+     * 注册服务器组.
+     * 服务器地址为组名的GET和POST请求在组内按负载选择服务器，不包括下载和流式请求。
+     * 限流、并发限制、对冲和缓存仍然以组名为服务器地址。
+     *
+     * @param endpointGroup 服务器组，替换同名的组
+     */
+    public void addEndpointGroup(HttpEndpointGroup endpointGroup) {
+        mEndpointGroups.put(endpointGroup.getName(), endpointGroup);
+    }
+
+    /**
+     * 移除服务器组
+     *
+     * @param name 组名
+     */
+    public void removeEndpointGroup(String name) {
+        mEndpointGroups.remove(name);
+    }
+
+    /**
+     * 设置回调执行器.
+     * 默认在Android上回调运行在主线程，在普通JVM上运行在完成请求的线程。
+     * 在Android上可以设置HttpCallbackDispatcher，大量请求同时完成时按帧批量回调，避免主线程掉帧。
+     * 只影响之后提交的请求。
+     *
+     * @param callbackExecutor 回调执行器，为空时恢复平台默认的回调线程
+     */
+    public void setCallbackExecutor(Executor callbackExecutor) {
+        mCallbackExecutor = callbackExecutor != null ? callbackExecutor : HttpPlatform.get().getCallbackExecutor();
+    }
+
+    /**
+     * 设置响应体在内存中的上限.
+     * 单个响应体超出上限，或者所有并发请求的响应体总和超出上限时，
+     * 如果解析器支持流并且设置了临时目录，响应体保存到临时文件，通过{@link HttpResultResolver#resolverHttpRespStream}解析；
+     * 否则停止读取，返回{@link HttpResponse#ERROR_CODE_BODY_TOO_LARGE}。
+     * 把响应体完整读入内存的传输层（例如{@link NioHttpTransport}）在读取时只检查单个响应体的上限，
+     * 可以保存到临时文件时先完整读入内存再保存，总上限在读取完成后检查。
+     * 单个请求可以通过{@link HttpRequest#setMaxMemoryBodySize(long)}单独设置上限。
+     *
+     * @param maxRequestBytes 单个响应体的上限，小于等于0表示不限制
+     * @param maxTotalBytes   所有响应体的总上限，小于等于0表示不限制
+     */
+    public void setBodyMemoryLimit(long maxRequestBytes, long maxTotalBytes) {
+        mBodyBudget.setLimits(maxRequestBytes, maxTotalBytes);
+    }
+
+    /**
+     * 设置超出内存上限的响应体保存的临时目录
+     *
+     * @param spillDirectory 临时目录，为空时超出上限的响应体被拒绝
+     */
+    public void setBodySpillDirectory(File spillDirectory) {
+        mBodyBudget.setSpillDirectory(spillDirectory);
+    }
+
+    /**
+     * 获取响应体当前在内存中占用的字节数
+     *
+     * @return 字节数
+     */
+    public long getBodyMemoryUsage() {
+        return mBodyBudget.getUsedBytes();
+    }
+
+    /**
+     * 获取响应体在内存中占用的峰值字节数
+     *
+     * @return 字节数
+     */
+    public long getPeakBodyMemoryUsage() {
+        return mBodyBudget.getPeakBytes();
+    }
+
+    /**
+     * 设置解码阶段.
+     * 请求分为两个阶段：I/O阶段在请求线程池中完成网络读写，读取完整的响应体后交给解码线程池，
+     * 由HttpResultResolver解析，解析完成后回调。解析耗时的响应不会占用I/O线程，
+     * I/O并发数也不再决定CPU的并发数。
+     * 解码队列已满时由I/O线程自己解码，反过来限制I/O阶段的速度。
+     * 默认线程数与CPU核数相同，队列长度为64。
+     *
+     * @param threads       解码线程数，小于等于0时不使用解码线程池，在I/O线程中解码
+     * @param queueCapacity 解码队列长度
+     */
+    public void setDecodeStage(int threads, int queueCapacity) {
+        ThreadPoolExecutor oldExecutor = mDecodeExecutor;
+        mDecodeExecutor = threads > 0 ? newDecodeExecutor(threads, queueCapacity) : null;
+        if (oldExecutor != null) {
+            oldExecutor.shutdown();
+        }
+    }
+
+    /**
+     * 获取等待I/O线程的请求数
+     *
+     * @return 请求数
+     */
+    public int getIoQueueDepth() {
+        return mIoQueued.get();
+    }
+
+    /**
+     * 获取正在执行I/O阶段的请求数
+     *
+     * @return 请求数
+     */
+    public int getIoActiveCount() {
+        return mIoActive.get();
+    }
+
+    /**
+     * 获取等待解码线程的请求数
+     *
+     * @return 请求数
+     */
+    public int getDecodeQueueDepth() {
+        return mDecodeQueued.get();
+    }
+
+    /**
+     * 获取正在解码的请求数
+     *
+     * @return 请求数
+     */
+    public int getDecodeActiveCount() {
+        return mDecodeActive.get();
+    }
+
+    /**
+     * 取消标签下的全部请求.
+     * 还在排队的请求不会再执行，正在执行的请求会断开连接。
+     * 注意：取消仅仅代表请求不会再返回响应，对服务器提交的修改可能已经生效。
+     *
+     * @param tag 请求标签，参考{@link HttpRequest#setTag(String)}
+     * @return 取消的会话个数
+     */
+    public int cancelAll(String tag) {
+        if (HttpUtils.isEmpty(tag)) {
+            return 0;
+        }
+        Set<HttpSession<?>> sessions = mTaggedSessions.remove(tag);
+        if (sessions == null) {
+            return 0;
+        }
+        int count = 0;
+        for (HttpSession<?> session : sessions) {
+            if (!session.isCompleted()) {
+                session.cancelTask();
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 执行HTTP请求.
+     *
+     * @param request  请求对象
+     * @param resolver 结果解析器
+     * @param callback 回调
+     * @param https    是否走HTTPS
+     * @param <T>      请求结果
+     * @return 请求会话
+     */
+    private <T> HttpSession<T> doHttpRequest(HttpRequest request, HttpResultResolver<T> resolver, HttpCallback<T> callback, boolean https) {
+        final HttpRequestTask<T> requestTask = newRequestTask(request, resolver, https);
+        boolean get = HttpRequest.HTTP_GET.equalsIgnoreCase(request.getRequestMethod());
+        Callable<HttpResponse<T>> task = requestTask;
+        HttpHedgePolicy hedgePolicy = mHedgePolicy;
+        if (hedgePolicy != null && get) {
+            task = new HttpHedgedTask<>(requestTask, newRequestTask(request, resolver, https),
+                    hedgePolicy, newHedgeExecutor(request.getRequestHost()), request.getRequestHost());
+        }
+        task = withAuthenticator(request, task, resolver, https);
+        HttpResponseCache responseCache = mResponseCache;
+        HttpPrefetcher prefetcher = mPrefetcher;
+        if (prefetcher != null && get) {
+            String key = HttpResponseCache.keyOf(request, https);
+            HttpResponseCache.Entry entry = prefetcher.take(key);
+            if (entry != null) {
+                if (responseCache != null && request.getCacheMaxAge() >= 0) {
+                    responseCache.put(key, entry);
+                }
+                long age = entry.getAge(System.currentTimeMillis());
+                return submitCachedTask(request, requestTask.newCachedStage(entry, HttpResponse.CACHE_FRESH, age), callback);
+            }
+        }
+        if (responseCache != null && get && request.getCacheMaxAge() >= 0) {
+            return doCachedRequest(request, requestTask, task, responseCache, callback, https);
+        }
+        return submitTask(request, task, callback);
+    }
+
+    /**
+     * 执行带缓存的GET请求.
+     * 缓存有效时从缓存读取；过期时间在stale-while-revalidate窗口内时返回过期缓存，同时在后台刷新；
+     * 否则请求网络，请求失败时返回stale-if-error窗口内的过期缓存。
+     *
+     * @param request       请求对象
+     * @param requestTask   请求任务，用于解析缓存的响应
+     * @param task          网络请求任务
+     * @param responseCache 响应缓存
+     * @param callback      回调
+     * @param https         是否走HTTPS
+     * @param <T>           请求结果
+     * @return 请求会话
+     */
+    private <T> HttpSession<T> doCachedRequest(HttpRequest request, HttpRequestTask<T> requestTask, Callable<HttpResponse<T>> task,
+                                               HttpResponseCache responseCache, HttpCallback<T> callback, boolean https) {
+        String key = HttpResponseCache.keyOf(request, https);
+        long maxAge = request.getCacheMaxAge();
+        long staleIfErrorAge = maxAge + request.getCacheStaleIfError();
+        HttpResponseCache.Entry entry = responseCache.get(key);
+        if (entry != null) {
+            long age = entry.getAge(System.currentTimeMillis());
+            if (age <= maxAge) {
+                responseCache.onHit();
+                return submitCachedTask(request, requestTask.newCachedStage(entry, HttpResponse.CACHE_FRESH, age), callback);
+            }
+            if (age <= maxAge + request.getCacheStaleWhileRevalidate()) {
+                responseCache.onStaleHit();
+                if (responseCache.tryStartRevalidate(key)) {
+                    //后台刷新不解析结果，避免与返回给调用者的过期响应同时使用解析器；
+                    //不计入前台请求，不中止正在执行的预取
+                    HttpRequestTask<T> revalidateTask = newRequestTask(request, null, https);
+                    submitTask(request, new HttpCachingTask<>(withAuthenticator(request, revalidateTask, null, https),
+                            revalidateTask, responseCache, key, staleIfErrorAge, true), null, false);
+                }
+                return submitCachedTask(request, requestTask.newCachedStage(entry, HttpResponse.CACHE_STALE, age), callback);
+            }
+        }
+        responseCache.onMiss();
+        return submitTask(request, new HttpCachingTask<>(task, requestTask, responseCache, key, staleIfErrorAge, false), callback);
+    }
+
+    /**
+     * 打开流式请求.
+     *
+     * @param request  请求对象
+     * @param policy   流式请求配置
+     * @param callback 回调
+     * @param https    是否走HTTPS
+     * @return 流
+     */
+    private HttpStream doStreamRequest(HttpRequest request, HttpStreamPolicy policy, HttpStreamCallback callback, boolean https) {
+        if (callback == null) {
+            throw new IllegalArgumentException("Stream callback must not be null");
+        }
+        request.setRequestMethod(HttpRequest.HTTP_GET);
+        HttpStreamPolicy streamPolicy = policy != null ? policy : new HttpStreamPolicy();
+        HttpStream stream = new HttpStream(request, https, mTransport, mHttpsSSLConfig, streamPolicy, callback,
+                streamPolicy.getCallbackExecutor(mCallbackExecutor));
+        stream.start(mExecutor);
+        return stream;
+    }
+
+    /**
+     * 加入预取队列，空闲时执行.
+     *
+     * @param request  请求对象
+     * @param resolver 结果解析器
+     * @param https    是否走HTTPS
+     * @param <T>      请求结果
+     * @return 是否加入预取队列
+     */
+    private <T> boolean doPrefetch(final HttpRequest request, final HttpResultResolver<T> resolver, final boolean https) {
+        final HttpPrefetcher prefetcher = mPrefetcher;
+        if (prefetcher == null) {
+            return false;
+        }
+        request.setRequestMethod(HttpRequest.HTTP_GET);
+        String key = HttpResponseCache.keyOf(request, https);
+        HttpResponseCache responseCache = mResponseCache;
+        if (responseCache != null && request.getCacheMaxAge() >= 0) {
+            HttpResponseCache.Entry entry = responseCache.get(key);
+            if (entry != null && entry.getAge(System.currentTimeMillis()) <= request.getCacheMaxAge()) {
+                //缓存仍然有效，不需要预取
+                return false;
+            }
+        }
+        HttpPrefetcher.Prefetch prefetch = new HttpPrefetcher.Prefetch(key) {
+            @Override
+            HttpSession<?> start() {
+                Callable<HttpResponse<T>> task = withAuthenticator(request, newRequestTask(request, resolver, https), resolver, https);
+                return submitTask(request, prefetcher.newFetchTask(this, task), null);
+            }
+        };
+        if (!prefetcher.offer(prefetch)) {
+            return false;
+        }
+        runPrefetch(prefetcher);
+        return true;
+    }
+
+    /**
+     * 没有前台请求时执行下一个预取
+     *
+     * @param prefetcher 预取
+     */
+    private void runPrefetch(final HttpPrefetcher prefetcher) {
+        if (mForegroundCount.get() > 0) {
+            return;
+        }
+        final HttpPrefetcher.Prefetch prefetch = prefetcher.next();
+        if (prefetch == null) {
+            return;
+        }
+        final HttpSession<?> session = prefetch.start();
+        if (prefetcher.onStarted(prefetch, session)) {
+            //提交时前台请求已经到达
+            session.cancelTask();
+        }
+        session.addFinishHook(new Runnable() {
+            @Override
+            public void run() {
+                prefetcher.onFinished(prefetch, session);
+                runPrefetch(prefetcher);
+            }
+        });
+    }
+
+    /**
+     * 记录前台请求，中止正在执行的预取，前台请求全部结束后继续预取
+     *
+     * @param prefetcher  预取
+     * @param httpSession 前台请求会话
+     */
+    private void addForegroundSession(final HttpPrefetcher prefetcher, HttpSession<?> httpSession) {
+        mForegroundCount.incrementAndGet();
+        HttpSession<?> preempted = prefetcher.preempt();
+        if (preempted != null) {
+            preempted.cancelTask();
+        }
+        httpSession.addFinishHook(new Runnable() {
+            @Override
+            public void run() {
+                if (mForegroundCount.decrementAndGet() == 0) {
+                    runPrefetch(prefetcher);
+                }
+            }
+        });
+    }
+
+    /**
+     * 构建请求任务
+     *
+     * @param request  请求对象
+     * @param resolver 结果解析器
+     * @param https    是否走HTTPS
+     * @param <T>      请求结果
+     * @return 请求任务
+     */
+    private <T> HttpRequestTask<T> newRequestTask(HttpRequest request, HttpResultResolver<T> resolver, boolean https) {
+        HttpRequestTask<T> requestTask = new HttpRequestTask<>(request, resolver, https, mTransport);
+        requestTask.setSSLConfig(mHttpsSSLConfig);
+        requestTask.setBodyBudget(mBodyBudget);
+        requestTask.setBandwidthLimiters(mUploadLimiter, mDownloadLimiter);
+        requestTask.setEndpointGroup(mEndpointGroups.get(request.getRequestHost()));
+        return requestTask;
+    }
+
+    /**
+     * 设置了认证器时，为请求任务添加认证，认证失败时刷新令牌后重新发送.
+     * 前台请求、缓存的后台刷新和预取都经过这里。
+     *
+     * @param request  请求对象
+     * @param task     请求任务
+     * @param resolver 结果解析器，用于重新发送的请求
+     * @param https    是否走HTTPS
+     * @param <T>      请求结果
+     * @return 请求任务
+     */
+    private <T> Callable<HttpResponse<T>> withAuthenticator(HttpRequest request, Callable<HttpResponse<T>> task,
+                                                            HttpResultResolver<T> resolver, boolean https) {
+        HttpAuthenticator authenticator = mAuthenticator;
+        if (authenticator == null) {
+            return task;
+        }
+        return new HttpAuthTask<>(task, newRequestTask(request, resolver, https), authenticator, request);
+    }
+
+    /**
+     * 提交任务到线程池执行，并构建会话.
+     * 设置了限流器时，任务先经过限流器再进入线程池；设置了并发限制器时，任务在限流之后按并发上限排队。
+     * 分阶段的任务先在I/O线程中完成I/O阶段，再进入解码线程池执行解码阶段。
+     *
+     * @param request  请求对象
+     * @param task     任务
+     * @param callback 回调
+     * @param <T>      请求结果
+     * @return 请求会话
+     */
+    private <T> HttpSession<T> submitTask(HttpRequest request, Callable<HttpResponse<T>> task, HttpCallback<T> callback) {
+        return submitTask(request, task, callback, !(task instanceof HttpPrefetcher.FetchTask));
+    }
+
+    /**
+     * 提交任务到线程池执行，并构建会话.
+     * 前台请求执行期间暂停预取；预取和缓存的后台刷新不是前台请求。
+     *
+     * @param request    请求对象
+     * @param task       任务
+     * @param callback   回调
+     * @param foreground 是否是前台请求
+     * @param <T>        请求结果
+     * @return 请求会话
+     */
+    private <T> HttpSession<T> submitTask(HttpRequest request, Callable<HttpResponse<T>> task, HttpCallback<T> callback,
+                                          boolean foreground) {
+        final RequestSession<T> requestSession = newRequestSession(request, task, callback);
+        final HttpSession<T> httpSession = requestSession.mHttpSession;
+        HttpPrefetcher prefetcher = mPrefetcher;
+        if (prefetcher != null && foreground) {
+            addForegroundSession(prefetcher, httpSession);
+        }
+        final String host = request.getRequestHost();
+        final HttpConcurrencyLimiter concurrencyLimiter = mConcurrencyLimiter;
+        Executor ioExecutor = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                dispatchIoStage(requestSession, concurrencyLimiter, host);
+            }
+        };
+        newLimitedExecutor(host, concurrencyLimiter, ioExecutor, httpSession).execute(requestSession);
+        return httpSession;
+    }
+
+    /**
+     * 构建经过限流器和并发限制器的执行器.
+     * 任务先经过限流器，再按并发上限排队，最后交给ioExecutor；已经取消的Future在排队时被跳过。
+     *
+     * @param host               服务器地址
+     * @param concurrencyLimiter 并发限制器，为空时不限制，ioExecutor需要在任务结束后释放并发数
+     * @param ioExecutor         执行任务的执行器
+     * @param session            会话，用于记录限流排队时间，可以为空
+     * @return 执行器
+     */
+    private Executor newLimitedExecutor(final String host, final HttpConcurrencyLimiter concurrencyLimiter,
+                                        final Executor ioExecutor, final HttpSession<?> session) {
+        final Executor limitedExecutor = concurrencyLimiter == null ? ioExecutor : new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                concurrencyLimiter.dispatch(host, command, ioExecutor);
+            }
+        };
+        final HttpRateLimiter rateLimiter = mRateLimiter;
+        return rateLimiter == null ? limitedExecutor : new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                rateLimiter.dispatch(host, command, limitedExecutor, session);
+            }
+        };
+    }
+
+    /**
+     * 构建执行对冲请求的执行器，对冲请求与普通请求一样经过限流器和并发限制器
+     *
+     * @param host 服务器地址
+     * @return 执行器
+     */
+    private Executor newHedgeExecutor(final String host) {
+        final HttpConcurrencyLimiter concurrencyLimiter = mConcurrencyLimiter;
+        Executor ioExecutor = concurrencyLimiter == null ? mExecutor : new Executor() {
+            @Override
+            public void execute(final Runnable command) {
+                try {
+                    mExecutor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            try {
+                                command.run();
+                            } finally {
+                                //对冲请求经常在完成前被中止，耗时不作为RTT样本
+                                concurrencyLimiter.release(host, 0, false, false);
+                            }
+                        }
+                    });
+                } catch (RejectedExecutionException ex) {
+                    concurrencyLimiter.release(host, 0, false, false);
+                    throw ex;
+                }
+            }
+        };
+        return newLimitedExecutor(host, concurrencyLimiter, ioExecutor, null);
+    }
+
+    /**
+     * 提交从缓存读取响应的任务.
+     * 不经过限流器和并发限制器，设置了解码线程池时在解码线程池中执行。
+     *
+     * @param request     请求对象
+     * @param cachedStage 读取缓存的任务
+     * @param callback    回调
+     * @param <T>         请求结果
+     * @return 请求会话
+     */
+    private <T> HttpSession<T> submitCachedTask(HttpRequest request, Callable<HttpResponse<T>> cachedStage, HttpCallback<T> callback) {
+        RequestSession<T> requestSession = newRequestSession(request, cachedStage, callback);
+        if (mDecodeExecutor != null) {
+            dispatchDecodeStage(requestSession);
+        } else {
+            mExecutor.execute(requestSession);
+        }
+        return requestSession.mHttpSession;
+    }
+
+    /**
+     * 构建请求会话
+     *
+     * @param request  请求对象
+     * @param task     任务
+     * @param callback 回调
+     * @param <T>      请求结果
+     * @return 异步任务
+     */
+    private <T> RequestSession<T> newRequestSession(HttpRequest request, Callable<HttpResponse<T>> task, HttpCallback<T> callback) {
+        HttpSession<T> httpSession = new HttpSession<>();
+        RequestSession<T> requestSession = new RequestSession<>(new RequestCall<>(task), httpSession, mCallbackExecutor);
+        HttpTraceRecorder traceRecorder = mTraceRecorder;
+        if (traceRecorder != null) {
+            requestSession.setTraceRecorder(traceRecorder, request);
+        }
+        httpSession.setCallback(callback);
+        httpSession.setTask(requestSession);
+        if (task instanceof Abortable) {
+            httpSession.setAbortable((Abortable) task);
+        }
+        addTaggedSession(request.getTag(), httpSession);
+        return requestSession;
+    }
+
+    /**
+     * 在I/O线程池中执行I/O阶段，完成后把任务交给解码阶段.
+     * 设置了并发限制器时，I/O阶段结束后释放并发数，I/O阶段的耗时作为RTT样本。
+     *
+     * @param session            请求会话
+     * @param concurrencyLimiter 并发限制器，为空时不限制
+     * @param host               服务器地址
+     */
+    private void dispatchIoStage(final RequestSession<?> session, final HttpConcurrencyLimiter concurrencyLimiter,
+                                 final String host) {
+        mIoQueued.incrementAndGet();
+        try {
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    mIoQueued.decrementAndGet();
+                    if (session.isCancelled()) {
+                        releaseConcurrency(concurrencyLimiter, host, 0, false, false);
+                        return;
+                    }
+                    boolean decode = false;
+                    boolean sampled = false;
+                    mIoActive.incrementAndGet();
+                    long startTime = System.nanoTime();
+                    session.mIoStartNanos = startTime;
+                    try {
+                        if (!session.isStaged()) {
+                            session.run();
+                            return;
+                        }
+                        decode = session.runIoStage();
+                        session.mIoEndNanos = System.nanoTime();
+                        sampled = !session.isCancelled();
+                    } finally {
+                        mIoActive.decrementAndGet();
+                        releaseConcurrency(concurrencyLimiter, host, System.nanoTime() - startTime, sampled,
+                                sampled && !decode);
+                    }
+                    if (session.isCancelled()) {
+                        session.discardDecodeStage();
+                    } else if (decode) {
+                        dispatchDecodeStage(session);
+                    } else {
+                        session.run();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            mIoQueued.decrementAndGet();
+            releaseConcurrency(concurrencyLimiter, host, 0, false, false);
+            throw ex;
+        }
+    }
+
+    /**
+     * 释放并发限制器的并发数
+     *
+     * @param concurrencyLimiter 并发限制器，为空时忽略
+     * @param host               服务器地址
+     * @param rttNanos           I/O阶段耗时，单位：ns
+     * @param sampled            耗时是否作为RTT样本
+     * @param dropped            请求是否失败
+     */
+    private static void releaseConcurrency(HttpConcurrencyLimiter concurrencyLimiter, String host, long rttNanos,
+                                           boolean sampled, boolean dropped) {
+        if (concurrencyLimiter != null) {
+            concurrencyLimiter.release(host, rttNanos, sampled, dropped);
+        }
+    }
+
+    /**
+     * 在解码线程池中执行解码阶段
+     *
+     * @param session 请求会话
+     */
+    private void dispatchDecodeStage(final RequestSession<?> session) {
+        ThreadPoolExecutor decodeExecutor = mDecodeExecutor;
+        if (decodeExecutor == null) {
+            runDecodeStage(session);
+            return;
+        }
+        mDecodeQueued.incrementAndGet();
+        decodeExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                mDecodeQueued.decrementAndGet();
+                runDecodeStage(session);
+            }
+        });
+    }
+
+    private void runDecodeStage(RequestSession<?> session) {
+        mDecodeActive.incrementAndGet();
+        try {
+            session.run();
+        } finally {
+            mDecodeActive.decrementAndGet();
+        }
+    }
+
+    /**
+     * 创建解码线程池.
+     * 队列已满或者线程池已经关闭时由提交的线程直接执行。
+     *
+     * @param threads       线程数
+     * @param queueCapacity 队列长度
+     * @return 线程池
+     */
+    private static ThreadPoolExecutor newDecodeExecutor(int threads, int queueCapacity) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(Math.max(1, queueCapacity)), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "HttpDecodeThread");
+                thread.setDaemon(true);
+                return thread;
+            }
+        }, new RejectedExecutionHandler() {
+            @Override
+            public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+                r.run();
+            }
+        });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+
+    /**
+     * 把会话加入标签索引，会话结束时自动移除
+     *
+     * @param tag     标签
+     * @param session 会话
+     */
+    private void addTaggedSession(final String tag, final HttpSession<?> session) {
+        if (HttpUtils.isEmpty(tag)) {
+            return;
+        }
+        Set<HttpSession<?>> sessions;
+        do {
+            sessions = mTaggedSessions.get(tag);
+            if (sessions == null) {
+                sessions = Collections.newSetFromMap(new ConcurrentHashMap<HttpSession<?>, Boolean>());
+                Set<HttpSession<?>> oldSessions = mTaggedSessions.putIfAbsent(tag, sessions);
+                if (oldSessions != null) {
+                    sessions = oldSessions;
+                }
+            }
+            sessions.add(session);
+            //集合可能刚好因为变空被移除，重新加入
+        } while (mTaggedSessions.get(tag) != sessions);
+        final Set<HttpSession<?>> taggedSessions = sessions;
+        session.addFinishHook(new Runnable() {
+            @Override
+            public void run() {
+                taggedSessions.remove(session);
+                if (taggedSessions.isEmpty()) {
+                    mTaggedSessions.remove(tag, taggedSessions);
+                }
+            }
+        });
+    }
+
+    /**
+     * 执行下载请求.
+     *
+     * @param request      请求对象
+     * @param file         保存的文件
+     * @param segmentCount 分段数
+     * @param md5          MD5校验值
+     * @param callback     回调
+     * @param https        是否走HTTPS
+     * @return 请求会话
+     */
+    private HttpSession<File> doDownloadRequest(HttpRequest request, File file, int segmentCount, String md5, HttpCallback<File> callback, boolean https) {
+        request.setRequestMethod(HttpRequest.HTTP_GET);
+        HttpDownloadTask downloadTask = new HttpDownloadTask(request, file, https, segmentCount, md5, mExecutor);
+        downloadTask.setSSLConfig(mHttpsSSLConfig);
+        downloadTask.setBandwidthLimiter(mDownloadLimiter);
+        return submitTask(request, downloadTask, callback);
+    }
+
+    /**
+     * 请求的执行过程.
+     * 不分阶段的任务直接执行；分阶段的任务先在I/O线程中执行I/O阶段，再由call()执行解码阶段。
+     *
+     * @param <T>
+     */
+    private static class RequestCall<T> implements Callable<HttpResponse<T>> {
+        private final Callable<HttpResponse<T>> mRequestTask;
+
+        /**
+         * I/O阶段完成后的解码阶段
+         */
+        private volatile Callable<HttpResponse<T>> mDecodeStage;
+
+        private RequestCall(Callable<HttpResponse<T>> requestTask) {
+            mRequestTask = requestTask;
+        }
+
+        /**
+         * 执行I/O阶段，在I/O线程中调用
+         *
+         * @return 是否需要解码阶段，请求失败时不需要
+         */
+        @SuppressWarnings("unchecked")
+        private boolean runIoStage() {
+            try {
+                mDecodeStage = ((StagedTask<T>) mRequestTask).fetch();
+                return true;
+            } catch (final Exception ex) {
+                mDecodeStage = new Callable<HttpResponse<T>>() {
+                    @Override
+                    public HttpResponse<T> call() throws Exception {
+                        throw ex;
+                    }
+                };
+                return false;
+            }
+        }
+
+        /**
+         * 释放解码阶段持有的响应体
+         */
+        private void discardDecodeStage() {
+            Callable<HttpResponse<T>> decodeStage = mDecodeStage;
+            if (decodeStage instanceof Closeable) {
+                try {
+                    ((Closeable) decodeStage).close();
+                } catch (IOException ex) {
+                    ex.printStackTrace();
+                }
+            }
+        }
+
+        @Override
+        public HttpResponse<T> call() {
+            HttpResponse<T> httpResponse;
+            try {
+                Callable<HttpResponse<T>> decodeStage = mDecodeStage;
+                httpResponse = decodeStage != null ? decodeStage.call() : mRequestTask.call();
+            } catch (Exception e) {
+                e.printStackTrace();
+                httpResponse = new HttpResponse<>(HttpResponse.ERROR_CODE_REQUEST_FAILED, e.getMessage(), null);
+            }
+            return httpResponse;
+        }
+    }
+
+    /**
+     * 异步任务类构建请求的会话.
+     * 任务完成或者取消后通过回调执行器通知会话。
+     *
+     * @param <T>
+     */
+    private static class RequestSession<T> extends FutureTask<HttpResponse<T>> {
+        private final RequestCall<T> mRequestCall;
+        private final HttpSession<T> mHttpSession;
+
+        /**
+         * 回调执行器，为空时在完成任务的线程中回调
+         */
+        private final Executor mCallbackExecutor;
+
+        /**
+         * 流量轨迹记录，为空时不记录
+         */
+        private HttpTraceRecorder mTraceRecorder;
+        private HttpRequest mRequest;
+        private long mSubmitTime;
+        private long mSubmitNanos;
+
+        /**
+         * I/O阶段的开始和结束时间，System.nanoTime()
+         */
+        private volatile long mIoStartNanos;
+        private volatile long mIoEndNanos;
+
+        private RequestSession(RequestCall<T> requestCall, HttpSession<T> httpSession, Executor callbackExecutor) {
+            super(requestCall);
+            mRequestCall = requestCall;
+            mHttpSession = httpSession;
+            mCallbackExecutor = callbackExecutor;
+        }
+
+        /**
+         * 记录这个请求的流量轨迹，在提交之前调用
+         *
+         * @param traceRecorder 轨迹记录
+         * @param request       请求
+         */
+        private void setTraceRecorder(HttpTraceRecorder traceRecorder, HttpRequest request) {
+            mTraceRecorder = traceRecorder;
+            mRequest = request;
+            mSubmitTime = System.currentTimeMillis();
+            mSubmitNanos = System.nanoTime();
+        }
+
+        /**
+         * 记录请求的形状和各阶段耗时
+         *
+         * @param code 响应码
+         */
+        private void trace(int code) {
+            long now = System.nanoTime();
+            long ioStart = mIoStartNanos != 0 ? mIoStartNanos : now;
+            long ioEnd = mIoEndNanos != 0 ? mIoEndNanos : now;
+            HttpTraceRecorder.Entry entry = new HttpTraceRecorder.Entry();
+            entry.mTimestamp = mSubmitTime;
+            entry.mHost = mRequest.getRequestHost();
+            entry.mPath = HttpTraceRecorder.toPathTemplate(mRequest.getRequestPath());
+            entry.mMethod = mRequest.getRequestMethod();
+            Callable<HttpResponse<T>> requestTask = mRequestCall.mRequestTask;
+            if (requestTask instanceof TraceableTask) {
+                TraceableTask traceableTask = (TraceableTask) requestTask;
+                entry.mRequestBytes = traceableTask.getRequestBytes();
+                entry.mResponseBytes = traceableTask.getResponseBytes();
+                entry.mStatusCode = traceableTask.getStatusCode();
+            }
+            entry.mCode = code;
+            entry.mQueueMicros = TimeUnit.NANOSECONDS.toMicros(ioStart - mSubmitNanos);
+            entry.mIoMicros = TimeUnit.NANOSECONDS.toMicros(Math.max(0, ioEnd - ioStart));
+            entry.mDecodeMicros = TimeUnit.NANOSECONDS.toMicros(Math.max(0, now - ioEnd));
+            entry.mTotalMicros = TimeUnit.NANOSECONDS.toMicros(now - mSubmitNanos);
+            mTraceRecorder.record(entry);
+        }
+
+        /**
+         * 任务是否分为I/O和解码两个阶段
+         *
+         * @return true or false
+         */
+        private boolean isStaged() {
+            return mRequestCall.mRequestTask instanceof StagedTask;
+        }
+
+        /**
+         * 执行I/O阶段，在I/O线程中调用
+         *
+         * @return 是否需要解码阶段，请求失败时不需要
+         */
+        private boolean runIoStage() {
+            return mRequestCall.runIoStage();
+        }
+
+        /**
+         * 任务取消后释放解码阶段持有的响应体
+         */
+        private void discardDecodeStage() {
+            mRequestCall.discardDecodeStage();
+        }
+
+        @Override
+        protected void set(HttpResponse<T> response) {
+            //在唤醒等待结果的线程之前记录，拿到响应时轨迹已经写入
+            if (mTraceRecorder != null && !isCancelled()) {
+                trace(response != null ? response.getCode() : HttpResponse.ERROR_CODE_REQUEST_FAILED);
+            }
+            super.set(response);
+        }
+
+        @Override
+        protected void setException(Throwable t) {
+            if (mTraceRecorder != null && !isCancelled()) {
+                trace(HttpResponse.ERROR_CODE_REQUEST_FAILED);
+            }
+            super.setException(t);
+        }
+
+        @Override
+        protected void done() {
+            Runnable delivery;
+            if (isCancelled()) {
+                discardDecodeStage();
+                if (mTraceRecorder != null) {
+                    trace(HttpTraceRecorder.CODE_CANCELLED);
+                }
+                delivery = new Runnable() {
+                    @Override
+                    public void run() {
+                        mHttpSession.callOnCancelled();
+                    }
+                };
+            } else {
+                HttpResponse<T> response;
+                try {
+                    response = get();
+                } catch (InterruptedException | ExecutionException e) {
+                    e.printStackTrace();
+                    response = new HttpResponse<>(HttpResponse.ERROR_CODE_REQUEST_FAILED, e.getMessage(), null);
+                }
+                final HttpResponse<T> result = response;
+                delivery = new Runnable() {
+                    @Override
+                    public void run() {
+                        mHttpSession.callOnRequestComplete(result);
+                    }
+                };
+            }
+            Executor callbackExecutor = mCallbackExecutor;
+            if (callbackExecutor != null) {
+                callbackExecutor.execute(delivery);
+            } else {
+                delivery.run();
+            }
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.seagle.net.android.httphelper;
+
+import java.util.concurrent.Executor;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * 运行平台.
+ * 核心模块不依赖android.*，与平台相关的行为（回调线程、日志以及系统缺陷的规避）由平台提供。
+ * 类路径中存在Android适配模块的AndroidPlatform时使用它，否则，或者它无法创建时（例如在JVM上运行的Android单元测试），使用普通JVM的默认实现。
+ *
+ * @author : yuanxiudong66@sina.com
+ */
+class HttpPlatform {
+
+    /**
+     * Android适配模块中的平台实现
+     */
+    private static final String ANDROID_PLATFORM = "com.seagle.net.android.httphelper.AndroidPlatform";
+
+    private static final HttpPlatform PLATFORM = findPlatform();
+
+    static HttpPlatform get() {
+        return PLATFORM;
+    }
+
+    private static HttpPlatform findPlatform() {
+        try {
+            return (HttpPlatform) Class.forName(ANDROID_PLATFORM).newInstance();
+        } catch (ClassNotFoundException | InstantiationException | IllegalAccessException | LinkageError ex) {
+            return new HttpPlatform();
+        } catch (RuntimeException ex) {
+            //在JVM上运行Android单元测试时，android.jar的桩方法抛出RuntimeException
+            return new HttpPlatform();
+        }
+    }
+
+    /**
+     * 获取默认的回调执行器.
+     * 为空时回调在完成请求的线程中执行。
+     *
+     * @return 回调执行器
+     */
+    Executor getCallbackExecutor() {
+        return null;
+    }
+
+    /**
+     * 平台的HTTP实现是否能正确复用连接
+     *
+     * @return true or false
+     */
+    boolean isKeepAliveSupported() {
+        return true;
+    }
+
+    /**
+     * 输出日志
+     *
+     * @param tag     标签
+     * @param message 日志
+     */
+    void log(String tag, String message) {
+        Logger.getLogger(tag).log(Level.FINE, message);
+    }
+}
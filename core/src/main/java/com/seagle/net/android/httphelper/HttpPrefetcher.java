@@ -0,0 +1,430 @@
+package com.seagle.net.android.httphelper;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+/**
+ * <h1>预取.</h1>
+ * 通过{@link HttpHelper#prefetch(HttpRequest, HttpResultResolver)}提交可能马上用到的GET请求。
+ * 预取请求只在没有前台请求时执行，同时只执行一个；前台请求到达时正在执行的预取被中止，重新排队等待空闲。
+ * 预取成功的响应体保存在内存中，之后相同的GET请求直接从内存返回，不再请求网络，每个预取结果只使用一次。
+ * <p>
+ * 预算限制还没有被使用的预取：排队、执行中和已保存的预取请求数不超过maxRequests，
+ * 已保存的响应体总大小不超过maxBytes，超出时淘汰最早保存的结果；超过有效时间没有被使用的结果被丢弃。
+ * 被淘汰和丢弃的结果计为浪费，通过{@link #getHitRate()}等统计调整预取策略。
+ *
+ * @author : yuanxiudong66@sina.com
+ */
+public final class HttpPrefetcher {
+
+    private final int mMaxRequests;
+    private final long mMaxBytes;
+    private final long mTtlMillis;
+
+    /**
+     * 等待空闲的预取
+     */
+    private final ArrayDeque<Prefetch> mPending = new ArrayDeque<>();
+
+    /**
+     * 排队和执行中的预取
+     */
+    private final Map<String, Prefetch> mPrefetches = new HashMap<>();
+
+    /**
+     * 正在执行的预取
+     */
+    private Prefetch mRunning;
+
+    /**
+     * 按保存顺序排列的预取结果
+     */
+    private final LinkedHashMap<String, HttpResponseCache.Entry> mEntries = new LinkedHashMap<>();
+    private long mStoredBytes;
+
+    private long mRequestCount;
+    private long mFetchedCount;
+    private long mHitCount;
+    private long mWastedCount;
+    private long mWastedBytes;
+    private long mRejectedCount;
+    private long mPreemptedCount;
+    private long mFailedCount;
+
+    /**
+     * @param maxRequests 还没有被使用的预取请求数上限
+     * @param maxBytes    保存的预取结果总大小上限，单位：byte
+     * @param ttlMillis   预取结果的有效时间，单位：ms
+     */
+    public HttpPrefetcher(int maxRequests, long maxBytes, long ttlMillis) {
+        if (maxRequests <= 0 || maxBytes <= 0 || ttlMillis <= 0) {
+            throw new IllegalArgumentException("Prefetch budget must be positive");
+        }
+        mMaxRequests = maxRequests;
+        mMaxBytes = maxBytes;
+        mTtlMillis = ttlMillis;
+    }
+
+    /**
+     * 获取接受的预取请求数
+     *
+     * @return 请求数
+     */
+    public synchronized long getRequestCount() {
+        return mRequestCount;
+    }
+
+    /**
+     * 获取成功保存的预取结果数
+     *
+     * @return 结果数
+     */
+    public synchronized long getFetchedCount() {
+        return mFetchedCount;
+    }
+
+    /**
+     * 获取被前台请求使用的预取结果数
+     *
+     * @return 结果数
+     */
+    public synchronized long getHitCount() {
+        return mHitCount;
+    }
+
+    /**
+     * 获取过期或者被淘汰而没有使用的预取结果数
+     *
+     * @return 结果数
+     */
+    public synchronized long getWastedCount() {
+        return mWastedCount;
+    }
+
+    /**
+     * 获取没有使用的预取结果的总大小
+     *
+     * @return 大小，单位：byte
+     */
+    public synchronized long getWastedBytes() {
+        return mWastedBytes;
+    }
+
+    /**
+     * 获取因为预算不足被拒绝的预取请求数
+     *
+     * @return 请求数
+     */
+    public synchronized long getRejectedCount() {
+        return mRejectedCount;
+    }
+
+    /**
+     * 获取被前台请求中止的次数
+     *
+     * @return 次数
+     */
+    public synchronized long getPreemptedCount() {
+        return mPreemptedCount;
+    }
+
+    /**
+     * 获取失败的预取请求数
+     *
+     * @return 请求数
+     */
+    public synchronized long getFailedCount() {
+        return mFailedCount;
+    }
+
+    /**
+     * 获取预取命中率，即已经有结论的预取结果中被使用的比例
+     *
+     * @return 命中率，还没有结论时为0
+     */
+    public synchronized double getHitRate() {
+        long resolved = mHitCount + mWastedCount;
+        return resolved == 0 ? 0 : (double) mHitCount / resolved;
+    }
+
+    /**
+     * 获取保存的预取结果总大小
+     *
+     * @return 大小，单位：byte
+     */
+    public synchronized long getStoredBytes() {
+        return mStoredBytes;
+    }
+
+    /**
+     * 加入预取队列，相同的请求已经在队列中或者已经有结果时忽略
+     *
+     * @param prefetch 预取
+     * @return 是否加入队列
+     */
+    synchronized boolean offer(Prefetch prefetch) {
+        expire(System.currentTimeMillis());
+        if (mPrefetches.containsKey(prefetch.mKey) || mEntries.containsKey(prefetch.mKey)) {
+            return false;
+        }
+        if (mPrefetches.size() + mEntries.size() >= mMaxRequests) {
+            mRejectedCount++;
+            return false;
+        }
+        mPrefetches.put(prefetch.mKey, prefetch);
+        mPending.add(prefetch);
+        mRequestCount++;
+        return true;
+    }
+
+    /**
+     * 取出下一个要执行的预取，已经有预取在执行时返回null
+     *
+     * @return 预取
+     */
+    synchronized Prefetch next() {
+        if (mRunning != null || mPending.isEmpty()) {
+            return null;
+        }
+        mRunning = mPending.poll();
+        return mRunning;
+    }
+
+    /**
+     * 预取已经提交
+     *
+     * @param prefetch 预取
+     * @param session  预取会话
+     * @return 预取在提交之前是否已经被中止
+     */
+    synchronized boolean onStarted(Prefetch prefetch, HttpSession<?> session) {
+        prefetch.mSession = session;
+        return mRunning != prefetch;
+    }
+
+    /**
+     * 前台请求到达，中止正在执行的预取并重新排队.
+     * 前台请求与正在执行的预取相同时，预取已经被{@link #take(String)}放弃，中止后不再排队。
+     *
+     * @return 需要取消的预取会话，没有时为null
+     */
+    synchronized HttpSession<?> preempt() {
+        Prefetch prefetch = mRunning;
+        if (prefetch == null) {
+            return null;
+        }
+        mRunning = null;
+        if (!prefetch.mTaken) {
+            mPreemptedCount++;
+            mPending.addFirst(prefetch);
+        }
+        HttpSession<?> session = prefetch.mSession;
+        prefetch.mSession = null;
+        return session;
+    }
+
+    /**
+     * 预取会话结束，没有保存结果时计为失败
+     *
+     * @param prefetch 预取
+     * @param session  预取会话
+     */
+    synchronized void onFinished(Prefetch prefetch, HttpSession<?> session) {
+        if (mRunning == prefetch && prefetch.mSession == session) {
+            mRunning = null;
+            mPrefetches.remove(prefetch.mKey);
+            mFailedCount++;
+        }
+    }
+
+    /**
+     * 保存预取结果，超出大小上限时淘汰最早保存的结果
+     *
+     * @param prefetch 预取
+     * @param entry    响应
+     */
+    synchronized void store(Prefetch prefetch, HttpResponseCache.Entry entry) {
+        if (mRunning != prefetch) {
+            //已经被中止，等待重新执行
+            return;
+        }
+        mRunning = null;
+        if (prefetch.mTaken) {
+            //相同的前台请求已经发出，结果不会被使用
+            return;
+        }
+        mPrefetches.remove(prefetch.mKey);
+        mFetchedCount++;
+        long length = entry.mBody.length;
+        if (length > mMaxBytes) {
+            waste(length);
+            return;
+        }
+        Iterator<HttpResponseCache.Entry> iterator = mEntries.values().iterator();
+        while (mStoredBytes + length > mMaxBytes && iterator.hasNext()) {
+            HttpResponseCache.Entry oldEntry = iterator.next();
+            iterator.remove();
+            mStoredBytes -= oldEntry.mBody.length;
+            waste(oldEntry.mBody.length);
+        }
+        mEntries.put(prefetch.mKey, entry);
+        mStoredBytes += length;
+    }
+
+    /**
+     * 前台请求使用预取结果.
+     * 相同的请求还在排队时不再预取；正在执行时放弃这个预取，由前台请求中止，不再重新排队。
+     *
+     * @param key 缓存键
+     * @return 预取结果，没有时为null
+     */
+    synchronized HttpResponseCache.Entry take(String key) {
+        expire(System.currentTimeMillis());
+        HttpResponseCache.Entry entry = mEntries.remove(key);
+        if (entry != null) {
+            mStoredBytes -= entry.mBody.length;
+            mHitCount++;
+            return entry;
+        }
+        Prefetch prefetch = mPrefetches.get(key);
+        if (prefetch != null) {
+            mPrefetches.remove(key);
+            if (prefetch == mRunning) {
+                prefetch.mTaken = true;
+            } else {
+                mPending.remove(prefetch);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 丢弃过期的预取结果
+     *
+     * @param now 当前时间
+     */
+    private void expire(long now) {
+        Iterator<HttpResponseCache.Entry> iterator = mEntries.values().iterator();
+        while (iterator.hasNext()) {
+            HttpResponseCache.Entry entry = iterator.next();
+            if (entry.getAge(now) <= mTtlMillis) {
+                //按保存顺序排列，之后的结果更新
+                break;
+            }
+            iterator.remove();
+            mStoredBytes -= entry.mBody.length;
+            waste(entry.mBody.length);
+        }
+    }
+
+    private void waste(long length) {
+        mWastedCount++;
+        mWastedBytes += length;
+    }
+
+    /**
+     * 构建预取任务，成功的响应保存到预取结果中
+     *
+     * @param prefetch 预取
+     * @param task     请求任务，可以是带认证的任务
+     * @param <T>      请求结果
+     * @return 预取任务
+     */
+    <T> Callable<HttpResponse<T>> newFetchTask(Prefetch prefetch, Callable<HttpResponse<T>> task) {
+        return new FetchTask<>(prefetch, task);
+    }
+
+    /**
+     * 一个预取请求
+     */
+    abstract static class Prefetch {
+        final String mKey;
+
+        /**
+         * 当前执行的会话
+         */
+        HttpSession<?> mSession;
+
+        /**
+         * 执行中被相同的前台请求放弃
+         */
+        boolean mTaken;
+
+        Prefetch(String key) {
+            mKey = key;
+        }
+
+        /**
+         * 提交预取请求
+         *
+         * @return 预取会话
+         */
+        abstract HttpSession<?> start();
+    }
+
+    /**
+     * 预取任务
+     */
+    final class FetchTask<T> implements Callable<HttpResponse<T>>, StagedTask<T>, Abortable {
+        private final Prefetch mPrefetch;
+        private final Callable<HttpResponse<T>> mTask;
+
+        private FetchTask(Prefetch prefetch, Callable<HttpResponse<T>> task) {
+            mPrefetch = prefetch;
+            mTask = task;
+        }
+
+        @Override
+        public void abort() {
+            if (mTask instanceof Abortable) {
+                ((Abortable) mTask).abort();
+            }
+        }
+
+        @Override
+        public HttpResponse<T> call() throws Exception {
+            return fetch().call();
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public Callable<HttpResponse<T>> fetch() throws Exception {
+            return new StoreStage(mTask instanceof StagedTask ? ((StagedTask<T>) mTask).fetch() : mTask);
+        }
+
+        /**
+         * 解码后保存成功的响应
+         */
+        private final class StoreStage implements Callable<HttpResponse<T>>, Closeable {
+            private final Callable<HttpResponse<T>> mStage;
+
+            private StoreStage(Callable<HttpResponse<T>> stage) {
+                mStage = stage;
+            }
+
+            @Override
+            public HttpResponse<T> call() throws Exception {
+                HttpResponse<T> response = mStage.call();
+                byte[] body = response.isSuccess() ? response.getBodyBytes() : null;
+                if (body != null) {
+                    store(mPrefetch, new HttpResponseCache.Entry(response.getMessage(), response.getContentType(), body,
+                            System.currentTimeMillis()));
+                }
+                return response;
+            }
+
+            @Override
+            public void close() throws IOException {
+                if (mStage instanceof Closeable) {
+                    ((Closeable) mStage).close();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,345 @@
+package com.seagle.net.android.httphelper;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <h1>按服务器限流.</h1>
+ * 以{@link HttpRequest#getRequestHost()}为键的令牌桶限流器。
+ * 每个服务器按照配置的速率生成令牌，最多积累突发容量个令牌；没有令牌的请求在限流器中排队，
+ * 由定时唤醒在令牌生成时再提交到线程池，不会占用或阻塞工作线程。
+ * 通过{@link HttpHelper#setRateLimiter(HttpRateLimiter)}启用。
+ *
+ * @author : yuanxiudong66@sina.com
+ */
+public final class HttpRateLimiter {
+
+    /**
+     * 各个服务器的令牌桶
+     */
+    private final ConcurrentHashMap<String, TokenBucket> mBuckets = new ConcurrentHashMap<>();
+
+    /**
+     * 时钟以及唤醒排队请求的定时器
+     */
+    private final Timer mTimer;
+
+    /**
+     * 默认速率，每秒请求数，小于等于0表示不限流
+     */
+    private volatile double mDefaultRate;
+
+    /**
+     * 默认突发容量
+     */
+    private volatile int mDefaultBurst;
+
+    public HttpRateLimiter() {
+        this(0, 1);
+    }
+
+    /**
+     * 构造限流器
+     *
+     * @param defaultRate  未单独配置的服务器的默认速率，每秒请求数，小于等于0表示不限流
+     * @param defaultBurst 默认突发容量
+     */
+    public HttpRateLimiter(double defaultRate, int defaultBurst) {
+        this(defaultRate, defaultBurst, new SystemTimer());
+    }
+
+    /**
+     * 构造限流器
+     *
+     * @param defaultRate  未单独配置的服务器的默认速率，每秒请求数，小于等于0表示不限流
+     * @param defaultBurst 默认突发容量
+     * @param timer        时钟以及定时器
+     */
+    HttpRateLimiter(double defaultRate, int defaultBurst, Timer timer) {
+        mDefaultRate = defaultRate;
+        mDefaultBurst = Math.max(1, defaultBurst);
+        mTimer = timer;
+    }
+
+    /**
+     * 配置服务器的速率.
+     *
+     * @param host             服务器地址，包括端口，与{@link HttpRequest#getRequestHost()}一致
+     * @param permitsPerSecond 每秒请求数，小于等于0表示不限流
+     * @param burst            突发容量，允许连续提交的最大请求数
+     */
+    public void setHostRate(String host, double permitsPerSecond, int burst) {
+        getBucket(host).setRate(permitsPerSecond, Math.max(1, burst));
+    }
+
+    /**
+     * 获取服务器请求累计的排队时间，单位：ms
+     *
+     * @param host 服务器地址
+     * @return 排队时间
+     */
+    public long getQueueWaitMillis(String host) {
+        TokenBucket bucket = mBuckets.get(host);
+        return bucket == null ? 0 : bucket.getQueueWaitMillis();
+    }
+
+    /**
+     * 获取服务器被限流排队过的请求数
+     *
+     * @param host 服务器地址
+     * @return 请求数
+     */
+    public long getThrottledCount(String host) {
+        TokenBucket bucket = mBuckets.get(host);
+        return bucket == null ? 0 : bucket.getThrottledCount();
+    }
+
+    /**
+     * 获取服务器当前排队中的请求数
+     *
+     * @param host 服务器地址
+     * @return 请求数
+     */
+    public int getQueuedCount(String host) {
+        TokenBucket bucket = mBuckets.get(host);
+        return bucket == null ? 0 : bucket.getQueuedCount();
+    }
+
+    /**
+     * 提交任务，有令牌时直接提交到线程池，否则排队等待令牌
+     *
+     * @param host     服务器地址
+     * @param task     任务
+     * @param executor 线程池
+     * @param session  会话，用于记录排队时间，可以为空
+     */
+    void dispatch(String host, Runnable task, Executor executor, HttpSession<?> session) {
+        getBucket(host).dispatch(new PendingTask(task, executor, session, mTimer.nanoTime()));
+    }
+
+    private TokenBucket getBucket(String host) {
+        TokenBucket bucket = mBuckets.get(host);
+        if (bucket == null) {
+            bucket = new TokenBucket(mDefaultRate, mDefaultBurst);
+            TokenBucket oldBucket = mBuckets.putIfAbsent(host, bucket);
+            if (oldBucket != null) {
+                bucket = oldBucket;
+            }
+        }
+        return bucket;
+    }
+
+    /**
+     * 排队中的任务
+     */
+    private static final class PendingTask {
+        private final Runnable mTask;
+        private final Executor mExecutor;
+        private final HttpSession<?> mSession;
+        private final long mEnqueueTime;
+
+        private PendingTask(Runnable task, Executor executor, HttpSession<?> session, long enqueueTime) {
+            mTask = task;
+            mExecutor = executor;
+            mSession = session;
+            mEnqueueTime = enqueueTime;
+        }
+
+        /**
+         * 任务在排队期间被取消
+         */
+        private boolean isCancelled() {
+            return mTask instanceof Future && ((Future<?>) mTask).isCancelled();
+        }
+    }
+
+    /**
+     * 令牌桶
+     */
+    private final class TokenBucket implements Runnable {
+        private final Queue<PendingTask> mPendingTasks = new ArrayDeque<>();
+        private double mRate;
+        private int mBurst;
+        private double mTokens;
+        private long mLastRefillTime;
+        private boolean mWakeupScheduled;
+        private long mQueueWaitNanos;
+        private long mThrottledCount;
+
+        private TokenBucket(double rate, int burst) {
+            mRate = rate;
+            mBurst = burst;
+            mTokens = burst;
+            mLastRefillTime = mTimer.nanoTime();
+        }
+
+        private void setRate(double rate, int burst) {
+            List<PendingTask> readyTasks;
+            synchronized (this) {
+                refill();
+                mRate = rate;
+                mBurst = burst;
+                mTokens = Math.min(mTokens, burst);
+                readyTasks = drain();
+            }
+            execute(readyTasks);
+        }
+
+        private void dispatch(PendingTask task) {
+            synchronized (this) {
+                refill();
+                if (!mPendingTasks.isEmpty() || (mRate > 0 && mTokens < 1)) {
+                    mThrottledCount++;
+                    mPendingTasks.add(task);
+                    scheduleWakeup();
+                    return;
+                }
+                if (mRate > 0) {
+                    mTokens -= 1;
+                }
+            }
+            task.mExecutor.execute(task.mTask);
+        }
+
+        @Override
+        public void run() {
+            List<PendingTask> readyTasks;
+            synchronized (this) {
+                mWakeupScheduled = false;
+                readyTasks = drain();
+            }
+            execute(readyTasks);
+        }
+
+        /**
+         * 在锁外把任务提交到线程池
+         *
+         * @param readyTasks 已经拿到令牌的任务
+         */
+        private void execute(List<PendingTask> readyTasks) {
+            for (PendingTask task : readyTasks) {
+                task.mExecutor.execute(task.mTask);
+            }
+        }
+
+        /**
+         * 用现有的令牌取出排队的任务，令牌不足时安排下一次唤醒
+         *
+         * @return 已经拿到令牌的任务
+         */
+        private List<PendingTask> drain() {
+            refill();
+            List<PendingTask> readyTasks = new ArrayList<>();
+            PendingTask task;
+            while ((task = mPendingTasks.peek()) != null) {
+                if (task.isCancelled()) {
+                    mPendingTasks.poll();
+                    continue;
+                }
+                if (mRate > 0 && mTokens < 1) {
+                    break;
+                }
+                mPendingTasks.poll();
+                if (mRate > 0) {
+                    mTokens -= 1;
+                }
+                long waitNanos = mTimer.nanoTime() - task.mEnqueueTime;
+                mQueueWaitNanos += waitNanos;
+                if (task.mSession != null) {
+                    task.mSession.setQueueWaitMillis(TimeUnit.NANOSECONDS.toMillis(waitNanos));
+                }
+                readyTasks.add(task);
+            }
+            if (!mPendingTasks.isEmpty()) {
+                scheduleWakeup();
+            }
+            return readyTasks;
+        }
+
+        private void refill() {
+            long now = mTimer.nanoTime();
+            if (mRate > 0) {
+                mTokens = Math.min(mBurst, mTokens + (now - mLastRefillTime) * mRate / TimeUnit.SECONDS.toNanos(1));
+            }
+            mLastRefillTime = now;
+        }
+
+        private void scheduleWakeup() {
+            if (mWakeupScheduled) {
+                return;
+            }
+            mWakeupScheduled = true;
+            long delayNanos = mRate > 0 ? (long) Math.ceil((1 - mTokens) * TimeUnit.SECONDS.toNanos(1) / mRate) : 0;
+            mTimer.schedule(this, Math.max(0, delayNanos));
+        }
+
+        private synchronized long getQueueWaitMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(mQueueWaitNanos);
+        }
+
+        private synchronized long getThrottledCount() {
+            return mThrottledCount;
+        }
+
+        private synchronized int getQueuedCount() {
+            return mPendingTasks.size();
+        }
+    }
+
+    /**
+     * 时钟以及定时器，测试时可以替换为手动驱动的实现
+     */
+    interface Timer {
+
+        /**
+         * 获取单调递增的时间，单位：ns
+         *
+         * @return 时间
+         */
+        long nanoTime();
+
+        /**
+         * 延迟执行任务
+         *
+         * @param task       任务
+         * @param delayNanos 延迟，单位：ns
+         */
+        void schedule(Runnable task, long delayNanos);
+    }
+
+    /**
+     * 系统时钟以及单线程定时器
+     */
+    private static final class SystemTimer implements Timer {
+        private final ScheduledThreadPoolExecutor mScheduler;
+
+        private SystemTimer() {
+            mScheduler = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "HttpRateLimiter");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+
+        @Override
+        public long nanoTime() {
+            return System.nanoTime();
+        }
+
+        @Override
+        public void schedule(Runnable task, long delayNanos) {
+            mScheduler.schedule(task, delayNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+}
@@ -0,0 +1,429 @@
+package com.seagle.net.android.httphelper;
+
+import java.io.File;
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <h1>HTTP请求参数</h1>
+ * 封装了HTTP请求的相关配置与参数。
+ *
+ * @author : yuanxiudong66@sina.com
+ */
+public final class HttpRequest implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * POST请求.
+     */
+    static final String HTTP_POST = "POST";
+
+    /**
+     * GET请求.
+     */
+    static final String HTTP_GET = "GET";
+
+    /**
+     * 服务器地址，包括端口.
+     */
+    private final String mHost;
+
+    /**
+     * 请求路径.
+     */
+    private String mPath;
+
+    /**
+     * HTTP提交模式.
+     */
+    private String mMethod;
+
+    /**
+     * 请求标签，用于批量取消.
+     */
+    private String mTag;
+
+    /**
+     * 连接参数配置.
+     */
+    private final Map<String, String> mConnectSettingsMap;
+
+    /**
+     * Http请求头部配置.
+     */
+    private final Map<String, String> mHeadersMap;
+
+    /**
+     * HTTP请求参数.
+     */
+    private final Map<String, String> mParamsMap;
+
+    /**
+     * 文件上传列表.
+     */
+    private final Map<String, File> mParamsFileMap;
+
+    public HttpRequest(String host, String path) {
+        if (HttpUtils.isEmpty(host)) {
+            throw new IllegalArgumentException("Host should not be null!");
+        }
+        mHost = host;
+        mPath = path;
+        mConnectSettingsMap = new ConcurrentHashMap<>();
+        mHeadersMap = new ConcurrentHashMap<>();
+        mParamsMap = new ConcurrentHashMap<>();
+        mParamsFileMap = new ConcurrentHashMap<>();
+    }
+
+    public String getPath() {
+        return mPath;
+    }
+
+    public void setPath(String path) {
+        mPath = path;
+    }
+
+    /**
+     * 设置请求标签.
+     * 相同标签的请求可以通过{@link HttpHelper#cancelAll(String)}批量取消，例如页面关闭时取消页面发起的全部请求。
+     *
+     * @param tag 标签
+     */
+    public void setTag(String tag) {
+        mTag = tag;
+    }
+
+    /**
+     * 获取请求标签
+     *
+     * @return 标签
+     */
+    public String getTag() {
+        return mTag;
+    }
+
+    /**
+     * 增加HTTP请求头参数。
+     *
+     * @param key   名称
+     * @param value 值
+     */
+    public void addRequestHeaderProperty(String key, String value) {
+        if (!HttpUtils.isEmpty(key) && !HttpUtils.isEmpty(value)) {
+            mHeadersMap.put(key, value);
+        }
+    }
+
+    /**
+     * 移除HTTP请求头参数。
+     *
+     * @param key 名称
+     */
+    public void removeRequestHeaderProperty(String key) {
+        if (!HttpUtils.isEmpty(key)) {
+            mHeadersMap.remove(key);
+        }
+    }
+
+    /**
+     * 获取HTTP请求头参数.
+     *
+     * @param key 名称
+     * @return 参数值
+     */
+    public String getRequestHeaderProperty(String key) {
+        if (!HttpUtils.isEmpty(key)) {
+            return mHeadersMap.get(key);
+        }
+        return null;
+    }
+
+    /**
+     * 获取全部HTTP请求头参数
+     *
+     * @return HTTP请求头
+     */
+    public Map<String, String> getRequestHeaders() {
+        return Collections.unmodifiableMap(mHeadersMap);
+    }
+
+    /**
+     * 配置连接参数。
+     *
+     * @param key   名称
+     * @param value 值
+     */
+    public void setConnectSetting(String key, String value) {
+        if (!HttpUtils.isEmpty(key) && !HttpUtils.isEmpty(value)) {
+            mConnectSettingsMap.put(key, value);
+        }
+    }
+
+    /**
+     * 获取连接配置参数
+     *
+     * @param key 明
+     * @return 值
+     */
+    public String getConnectSetting(String key) {
+        if (!HttpUtils.isEmpty(key)) {
+            return mConnectSettingsMap.get(key);
+        }
+        return null;
+    }
+
+    /**
+     * 获取全部连接参数配置。
+     *
+     * @return 连接参数配置
+     */
+    public Map<String, String> getConnectSettings() {
+        return Collections.unmodifiableMap(mConnectSettingsMap);
+    }
+
+    /**
+     * 获取请求参数
+     *
+     * @return 请求参数
+     */
+    public Map<String, String> getRequestParams() {
+        return mParamsMap;
+    }
+
+    /**
+     * 获取文件列表。
+     *
+     * @return 文件列表
+     */
+    public Map<String, File> getRequestFileParams() {
+        return mParamsFileMap;
+    }
+
+    /**
+     * 设置请求参数
+     *
+     * @param paramsMap 请求数据
+     */
+    public void setRequestParams(Map<String, String> paramsMap) {
+        if (null != paramsMap) {
+            mParamsMap.clear();
+            mParamsMap.putAll(paramsMap);
+        }
+    }
+
+    /**
+     * 增加请求参数
+     *
+     * @param key   参数
+     * @param value 值
+     */
+    public void addRequestParam(String key, String value) {
+        if (!HttpUtils.isEmpty(key) && null != value) {
+            mParamsMap.put(key, value);
+        }
+    }
+
+    /**
+     * 增加待上传的文件
+     *
+     * @param key   文件名称
+     * @param value 文件
+     */
+    public void addRequestFileParam(String key, File value) {
+        if (!HttpUtils.isEmpty(key) && null != value) {
+            mParamsFileMap.put(key, value);
+        }
+    }
+
+    /**
+     * 批量增加请求参数
+     *
+     * @param paramsMap 请求参数
+     */
+    public void addRequestParams(Map<String, String> paramsMap) {
+        if (null != paramsMap) {
+            for (String key : paramsMap.keySet()) {
+                addRequestParam(key, paramsMap.get(key));
+            }
+        }
+    }
+
+    /**
+     * 设置请求方法
+     *
+     * @param method GET or POST
+     */
+    void setRequestMethod(String method) {
+        mMethod = method;
+    }
+
+    /**
+     * 设置请求超时时间，单位：ms
+     *
+     * @param timeoutMillis 超时时间
+     */
+    public void setRequestTimeout(int timeoutMillis) {
+        setConnectSetting("requestTimeout", Integer.toString(timeoutMillis));
+    }
+
+    /**
+     * 获取请求超时时间，单位：MS
+     *
+     * @return 超时时间
+     */
+    public int getRequestTimeout() {
+        if (mConnectSettingsMap.containsKey("requestTimeout")) {
+            return Integer.parseInt(mConnectSettingsMap.get("requestTimeout"));
+        }
+        return 10000;
+    }
+
+    /**
+     * 设置响应体在内存中的上限，单位：byte.
+     * 超出上限的响应体保存到临时文件或者被拒绝，参考{@link HttpHelper#setBodyMemoryLimit(long, long)}。
+     *
+     * @param maxBytes 上限，小于等于0时使用HttpHelper的配置
+     */
+    public void setMaxMemoryBodySize(long maxBytes) {
+        setConnectSetting("maxMemoryBodySize", Long.toString(maxBytes));
+    }
+
+    /**
+     * 获取响应体在内存中的上限，单位：byte
+     *
+     * @return 上限，小于等于0表示使用HttpHelper的配置
+     */
+    public long getMaxMemoryBodySize() {
+        if (mConnectSettingsMap.containsKey("maxMemoryBodySize")) {
+            return Long.parseLong(mConnectSettingsMap.get("maxMemoryBodySize"));
+        }
+        return 0;
+    }
+
+    /**
+     * 设置请求体和响应体的传输速率上限，传输过程中修改时在之后的读写中生效.
+     *
+     * @param bytesPerSecond 上限，单位：byte/s，小于等于0表示不限制
+     */
+    public void setBandwidthLimit(long bytesPerSecond) {
+        setConnectSetting("bandwidthLimit", Long.toString(bytesPerSecond));
+    }
+
+    /**
+     * 获取传输速率上限，单位：byte/s
+     *
+     * @return 上限，小于等于0表示不限制
+     */
+    public long getBandwidthLimit() {
+        if (mConnectSettingsMap.containsKey("bandwidthLimit")) {
+            return Long.parseLong(mConnectSettingsMap.get("bandwidthLimit"));
+        }
+        return 0;
+    }
+
+    /**
+     * 设置带宽权重.
+     * 同时进行的传输按权重分配{@link HttpBandwidthLimiter}的总速率，例如交互请求设置较高的权重，大文件上传设置较低的权重。
+     *
+     * @param weight 权重，默认为1
+     */
+    public void setBandwidthWeight(int weight) {
+        if (weight <= 0) {
+            throw new IllegalArgumentException("Bandwidth weight must be positive");
+        }
+        setConnectSetting("bandwidthWeight", Integer.toString(weight));
+    }
+
+    /**
+     * 获取带宽权重
+     *
+     * @return 权重
+     */
+    public int getBandwidthWeight() {
+        if (mConnectSettingsMap.containsKey("bandwidthWeight")) {
+            return Integer.parseInt(mConnectSettingsMap.get("bandwidthWeight"));
+        }
+        return 1;
+    }
+
+    /**
+     * 设置响应缓存策略，只对GET请求有效，需要通过{@link HttpHelper#setResponseCache(HttpResponseCache)}设置缓存.
+     * 缓存时间在maxAge以内时直接返回缓存；过期不超过staleWhileRevalidate时立即返回过期的缓存，同时在后台刷新；
+     * 请求失败（网络错误或者服务器5xx错误）时，过期不超过staleIfError的缓存作为结果返回。
+     *
+     * @param maxAgeMillis                缓存有效时间，单位：ms，小于0时不使用缓存
+     * @param staleWhileRevalidateMillis 过期后立即返回并后台刷新的时间窗口，单位：ms
+     * @param staleIfErrorMillis          过期后请求失败时返回缓存的时间窗口，单位：ms
+     */
+    public void setCachePolicy(long maxAgeMillis, long staleWhileRevalidateMillis, long staleIfErrorMillis) {
+        setConnectSetting("cacheMaxAge", Long.toString(maxAgeMillis));
+        setConnectSetting("cacheStaleWhileRevalidate", Long.toString(Math.max(0, staleWhileRevalidateMillis)));
+        setConnectSetting("cacheStaleIfError", Long.toString(Math.max(0, staleIfErrorMillis)));
+    }
+
+    /**
+     * 获取缓存有效时间，单位：ms
+     *
+     * @return 有效时间，小于0表示不使用缓存
+     */
+    public long getCacheMaxAge() {
+        if (mConnectSettingsMap.containsKey("cacheMaxAge")) {
+            return Long.parseLong(mConnectSettingsMap.get("cacheMaxAge"));
+        }
+        return -1;
+    }
+
+    /**
+     * 获取过期后立即返回并后台刷新的时间窗口，单位：ms
+     *
+     * @return 时间窗口
+     */
+    public long getCacheStaleWhileRevalidate() {
+        if (mConnectSettingsMap.containsKey("cacheStaleWhileRevalidate")) {
+            return Long.parseLong(mConnectSettingsMap.get("cacheStaleWhileRevalidate"));
+        }
+        return 0;
+    }
+
+    /**
+     * 获取过期后请求失败时返回缓存的时间窗口，单位：ms
+     *
+     * @return 时间窗口
+     */
+    public long getCacheStaleIfError() {
+        if (mConnectSettingsMap.containsKey("cacheStaleIfError")) {
+            return Long.parseLong(mConnectSettingsMap.get("cacheStaleIfError"));
+        }
+        return 0;
+    }
+
+    /**
+     * 获取服务器地址
+     *
+     * @return 服务器地址
+     */
+    public String getRequestHost() {
+        return mHost;
+    }
+
+    /**
+     * 获取请求地址
+     *
+     * @return 地址
+     */
+    public String getRequestPath() {
+        return mPath;
+    }
+
+    /**
+     * 获取提交方法
+     *
+     * @return 提交方法
+     */
+    public String getRequestMethod() {
+        return mMethod;
+    }
+}
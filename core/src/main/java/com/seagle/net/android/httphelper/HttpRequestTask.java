@@ -0,0 +1,775 @@
+package com.seagle.net.android.httphelper;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.net.ssl.HttpsURLConnection;
+
+/**
+ * Http request task.
+ * 轮询等高频请求的执行路径尽量减少临时对象：上传文件的分隔符按需创建，长度已知的响应体直接读入同样大小的数组。
+ * 1KB响应体的GET请求，从提交到解析出字符串平均分配约6.5KB（包括会话、解码和传输层），预算8KB，见HttpAllocationTest。
+ * Created by seagle on 2018/4/10.
+ */
+
+class HttpRequestTask<T> implements Callable<HttpResponse<T>>, StagedTask<T>, Abortable, TraceableTask {
+
+    /**
+     * 请求
+     */
+    private final HttpRequest mRequest;
+
+    /**
+     * 传输层
+     */
+    private final HttpTransport mTransport;
+
+    /**
+     * 正在执行的传输层请求
+     */
+    private volatile HttpTransportRequest mTransportRequest;
+
+    /**
+     * 任务是否已经中止
+     */
+    private volatile boolean mAborted;
+
+    /**
+     * 数据处理类
+     */
+    private HttpResultResolver<T> mResolver;
+
+    /**
+     * 是否是HTTPS请求
+     */
+    private final boolean mHttps;
+
+    /**
+     * 请求是否包含文件上传
+     */
+    private boolean mUploadFile;
+
+    private HttpsSSLConfig mSSLConfig;
+
+    /**
+     * 响应的Content-Type
+     */
+    private volatile String mContentType;
+
+    /**
+     * 请求体大小，用于流量轨迹
+     */
+    private volatile long mRequestBytes;
+
+    /**
+     * 响应体大小，用于流量轨迹
+     */
+    private volatile long mResponseBytes = -1;
+
+    /**
+     * HTTP状态码
+     */
+    private volatile int mStatusCode;
+
+    /**
+     * 响应体内存预算
+     */
+    private HttpBodyBudget mBodyBudget = new HttpBodyBudget();
+
+    /**
+     * 上传和下载的带宽限制，可以为空
+     */
+    private HttpBandwidthLimiter mUploadLimiter;
+    private HttpBandwidthLimiter mDownloadLimiter;
+
+    /**
+     * 正在读取响应体的传输，没有限速时为空
+     */
+    private HttpBandwidthLimiter.Transfer mDownloadTransfer;
+
+    /**
+     * 服务器组，为空时发送到请求的服务器地址
+     */
+    private HttpEndpointGroup mEndpointGroup;
+
+    /**
+     * request头和上传文件内容的分隔符，只在上传文件时创建
+     */
+    private String mBoundary;
+
+    HttpRequestTask(HttpRequest request, HttpResultResolver<T> resolver, boolean https, HttpTransport transport) {
+        mRequest = request;
+        mResolver = resolver;
+        mUploadFile = false;
+        mHttps = https;
+        mTransport = transport;
+    }
+
+    public void setSSLConfig(HttpsSSLConfig SSLConfig) {
+        mSSLConfig = SSLConfig;
+    }
+
+    void setBodyBudget(HttpBodyBudget bodyBudget) {
+        mBodyBudget = bodyBudget;
+    }
+
+    void setBandwidthLimiters(HttpBandwidthLimiter uploadLimiter, HttpBandwidthLimiter downloadLimiter) {
+        mUploadLimiter = uploadLimiter;
+        mDownloadLimiter = downloadLimiter;
+    }
+
+    void setEndpointGroup(HttpEndpointGroup endpointGroup) {
+        mEndpointGroup = endpointGroup;
+    }
+
+    @Override
+    public long getRequestBytes() {
+        return mRequestBytes;
+    }
+
+    @Override
+    public long getResponseBytes() {
+        return mResponseBytes;
+    }
+
+    @Override
+    public int getStatusCode() {
+        return mStatusCode;
+    }
+
+    @Override
+    public void abort() {
+        mAborted = true;
+        HttpTransportRequest transportRequest = mTransportRequest;
+        if (transportRequest != null) {
+            transportRequest.abort();
+        }
+    }
+
+    @Override
+    public HttpResponse<T> call() throws Exception {
+        return fetch().call();
+    }
+
+    @Override
+    public Callable<HttpResponse<T>> fetch() throws Exception {
+        if (mAborted) {
+            throw new InterruptedIOException("Request aborted!");
+        }
+        if (mEndpointGroup != null) {
+            return fetchFromGroup(mEndpointGroup);
+        }
+        return fetch(mRequest.getRequestHost());
+    }
+
+    private Callable<HttpResponse<T>> fetch(String host) throws Exception {
+        if (HttpRequest.HTTP_GET.equalsIgnoreCase(mRequest.getRequestMethod())) {
+            return doGetRequest(host);
+        } else if (HttpRequest.HTTP_POST.equalsIgnoreCase(mRequest.getRequestMethod())) {
+            return doPostRequest(host);
+        } else {
+            throw new IllegalArgumentException("Not support http method!");
+        }
+    }
+
+    /**
+     * 在服务器组中选择服务器发送，GET请求连接失败时换一个服务器重新发送
+     *
+     * @param group 服务器组
+     * @return 解码阶段
+     * @throws Exception exception
+     */
+    private Callable<HttpResponse<T>> fetchFromGroup(HttpEndpointGroup group) throws Exception {
+        int maxAttempts = HttpRequest.HTTP_GET.equalsIgnoreCase(mRequest.getRequestMethod()) ? group.getMaxAttempts() : 1;
+        List<HttpEndpointGroup.Endpoint> tried = null;
+        for (int attempt = 1; ; attempt++) {
+            HttpEndpointGroup.Endpoint endpoint = group.select(tried);
+            long startNanos = System.nanoTime();
+            boolean success = false;
+            try {
+                Callable<HttpResponse<T>> stage = fetch(endpoint.getHost());
+                success = mStatusCode < HttpURLConnection.HTTP_INTERNAL_ERROR;
+                return stage;
+            } catch (Exception ex) {
+                if (attempt >= maxAttempts || mAborted || !HttpEndpointGroup.isConnectFailure(ex)) {
+                    throw ex;
+                }
+                if (tried == null) {
+                    tried = new ArrayList<>(maxAttempts);
+                }
+                tried.add(endpoint);
+            } finally {
+                group.onResult(endpoint, System.nanoTime() - startNanos, success);
+            }
+        }
+    }
+
+    /**
+     * 处理HTTP POST请求
+     *
+     * @return 解码阶段
+     * @throws Exception exception
+     */
+    private Callable<HttpResponse<T>> doPostRequest(String host) throws Exception {
+        HttpTransportRequest transportRequest = new HttpTransportRequest(HttpRequest.HTTP_POST, mHttps, host, mRequest.getRequestPath());
+        prepareConnectionSettings(transportRequest);
+        prepareRequestHeaders(transportRequest);
+        transportRequest.setBody(new HttpTransportRequest.BodyWriter() {
+            @Override
+            public void writeTo(OutputStream outStream) throws IOException {
+                HttpBandwidthLimiter.Transfer transfer = HttpBandwidthLimiter.open(mUploadLimiter, mRequest);
+                try {
+                    OutputStream bodyStream = transfer != null ? new HttpBandwidthLimiter.LimitedOutputStream(outStream, transfer) : outStream;
+                    HttpBodyEncoder encoder = new HttpBodyEncoder(bodyStream);
+                    if (mUploadFile) {
+                        writeFileParams(encoder);
+                    } else {
+                        writePostParams(encoder);
+                    }
+                    encoder.finish();
+                    mRequestBytes = encoder.getByteCount();
+                } finally {
+                    if (transfer != null) {
+                        transfer.close();
+                    }
+                }
+            }
+        }, -1);
+        return execute(transportRequest);
+    }
+
+    /**
+     * 处理HTTP GET请求
+     *
+     * @return 解码阶段
+     * @throws Exception
+     */
+    private Callable<HttpResponse<T>> doGetRequest(String host) throws Exception {
+        String requestPath = mRequest.getRequestPath();
+        Map<String, String> params = mRequest.getRequestParams();
+        if (params != null && !params.isEmpty()) {
+            StringBuilder pathBuilder = new StringBuilder(64);
+            pathBuilder.append(HttpUtils.isEmpty(requestPath) ? "/" : requestPath).append('?');
+            appendParams(pathBuilder, params);
+            requestPath = pathBuilder.toString();
+        }
+        HttpTransportRequest transportRequest = new HttpTransportRequest(HttpRequest.HTTP_GET, mHttps, host, requestPath);
+        prepareConnectionSettings(transportRequest);
+        prepareRequestHeaders(transportRequest);
+        return execute(transportRequest);
+    }
+
+    /**
+     * 通过传输层执行请求并读取响应体
+     *
+     * @param transportRequest 传输层请求
+     * @return 解码阶段，构建响应
+     * @throws Exception exception
+     */
+    private Callable<HttpResponse<T>> execute(HttpTransportRequest transportRequest) throws Exception {
+        mTransportRequest = transportRequest;
+        if (mAborted) {
+            transportRequest.abort();
+        }
+        if (getSpillDirectory() == null) {
+            //不能保存到临时文件时，把响应体读入内存的传输层超出上限后停止读取
+            long maxBytes = getMaxBodyBytes();
+            transportRequest.setMaxBodyBytes(maxBytes == Long.MAX_VALUE ? 0 : maxBytes);
+        }
+        HttpTransportResponse transportResponse;
+        try {
+            transportResponse = mTransport.execute(transportRequest);
+        } catch (HttpBodyTooLargeException ex) {
+            mStatusCode = ex.getCode();
+            if (HttpURLConnection.HTTP_OK != ex.getCode()) {
+                //错误响应不需要响应体
+                return new DecodeStage(ex.getCode(), ex.getMessage(), null, 0, null, 0);
+            }
+            return newBodyTooLargeStage(ex.getLength());
+        }
+        try {
+            int code = transportResponse.getCode();
+            String message = transportResponse.getMessage();
+            mStatusCode = code;
+            mContentType = transportResponse.getContentType();
+            if (HttpURLConnection.HTTP_OK != code) {
+                return new DecodeStage(code, message, null, 0, null, 0);
+            }
+            if (transportResponse.getBodyBuffer() == null) {
+                mDownloadTransfer = HttpBandwidthLimiter.open(mDownloadLimiter, mRequest);
+            }
+            return readHttpData(code, message, transportResponse);
+        } finally {
+            if (mDownloadTransfer != null) {
+                mDownloadTransfer.close();
+                mDownloadTransfer = null;
+            }
+            transportResponse.close();
+        }
+    }
+
+    /**
+     * 读取响应数据.
+     * 响应体超出单个请求或者全局的内存上限时，解析器支持流时保存到临时文件，否则拒绝。
+     *
+     * @param code              HTTP响应码
+     * @param message           响应消息
+     * @param transportResponse 传输层响应
+     * @return 解码阶段
+     * @throws IOException
+     */
+    private Callable<HttpResponse<T>> readHttpData(int code, String message, HttpTransportResponse transportResponse) throws IOException {
+        HttpBodyBudget budget = mBodyBudget;
+        long maxBytes = getMaxBodyBytes();
+        File spillDirectory = getSpillDirectory();
+        long contentLength = transportResponse.getContentLength();
+        ByteBuffer bodyBuffer = transportResponse.getBodyBuffer();
+        if (bodyBuffer != null && contentLength <= maxBytes && budget.tryReserve(contentLength)) {
+            return new DecodeStage(code, message, bodyBuffer, contentLength, null, 0);
+        }
+        if (contentLength > maxBytes) {
+            if (spillDirectory == null) {
+                return newBodyTooLargeStage(contentLength);
+            }
+            return spill(code, message, getBodyStream(transportResponse), null, spillDirectory);
+        }
+        //长度已知时直接读入同样大小的数组，不再经过ByteArrayOutputStream复制
+        if (contentLength >= 0 && contentLength < Integer.MAX_VALUE && budget.tryReserve(contentLength)) {
+            return readFixedLength(code, message, getBodyStream(transportResponse), (int) contentLength);
+        }
+
+        InputStream inStream = getBodyStream(transportResponse);
+        ByteArrayOutputStream outStream = new ByteArrayOutputStream(contentLength > 0 && contentLength < Integer.MAX_VALUE ? (int) contentLength : 1024);
+        long reserved = 0;
+        boolean committed = false;
+        try {
+            byte[] buffer = new byte[4096];
+            int bytes;
+            while ((bytes = inStream.read(buffer)) != -1) {
+                if (outStream.size() + bytes > maxBytes || !budget.tryReserve(bytes)) {
+                    long length = outStream.size() + bytes;
+                    if (spillDirectory == null) {
+                        return newBodyTooLargeStage(length);
+                    }
+                    outStream.write(buffer, 0, bytes);
+                    byte[] head = outStream.toByteArray();
+                    outStream = null;
+                    budget.release(reserved);
+                    reserved = 0;
+                    return spill(code, message, inStream, head, spillDirectory);
+                }
+                reserved += bytes;
+                outStream.write(buffer, 0, bytes);
+            }
+            committed = true;
+            return new DecodeStage(code, message, ByteBuffer.wrap(outStream.toByteArray()).asReadOnlyBuffer(), reserved, null, 0);
+        } finally {
+            if (!committed) {
+                budget.release(reserved);
+            }
+        }
+    }
+
+    /**
+     * 获取单个响应体读入内存的上限
+     *
+     * @return 上限，单位：字节，不限制时为Long.MAX_VALUE
+     */
+    private long getMaxBodyBytes() {
+        long maxBytes = mRequest.getMaxMemoryBodySize() > 0 ? mRequest.getMaxMemoryBodySize() : mBodyBudget.getMaxRequestBytes();
+        return maxBytes > 0 ? maxBytes : Long.MAX_VALUE;
+    }
+
+    /**
+     * 获取超出内存上限时保存响应体的临时目录
+     *
+     * @return 临时目录，解析器不支持流或者没有设置时为空
+     */
+    private File getSpillDirectory() {
+        return mResolver != null && mResolver.isStreamSupported() ? mBodyBudget.getSpillDirectory() : null;
+    }
+
+    /**
+     * 获取响应体流，设置了带宽限制时限速读取
+     *
+     * @param transportResponse 传输层响应
+     * @return 响应体流
+     */
+    private InputStream getBodyStream(HttpTransportResponse transportResponse) {
+        InputStream inStream = transportResponse.getBodyStream();
+        HttpBandwidthLimiter.Transfer transfer = mDownloadTransfer;
+        return transfer != null ? new HttpBandwidthLimiter.LimitedInputStream(inStream, transfer) : inStream;
+    }
+
+    /**
+     * 读取长度已知的响应体，调用前已经预留了内存
+     *
+     * @param code          HTTP响应码
+     * @param message       响应消息
+     * @param inStream      响应体
+     * @param contentLength 响应体长度
+     * @return 解码阶段
+     * @throws IOException
+     */
+    private Callable<HttpResponse<T>> readFixedLength(int code, String message, InputStream inStream, int contentLength) throws IOException {
+        byte[] body = new byte[contentLength];
+        int length = 0;
+        boolean committed = false;
+        try {
+            int bytes;
+            while (length < contentLength && (bytes = inStream.read(body, length, contentLength - length)) != -1) {
+                length += bytes;
+            }
+            committed = true;
+        } finally {
+            mBodyBudget.release(committed ? contentLength - length : contentLength);
+        }
+        return new DecodeStage(code, message, ByteBuffer.wrap(body, 0, length).asReadOnlyBuffer(), length, null, 0);
+    }
+
+    /**
+     * 把响应体保存到临时文件
+     *
+     * @param code           HTTP响应码
+     * @param message        响应消息
+     * @param inStream       剩余的响应体
+     * @param head           已经读取的响应体，可以为空
+     * @param spillDirectory 临时目录
+     * @return 解码阶段
+     * @throws IOException
+     */
+    private Callable<HttpResponse<T>> spill(int code, String message, InputStream inStream, byte[] head, File spillDirectory) throws IOException {
+        if (!spillDirectory.exists() && !spillDirectory.mkdirs() && !spillDirectory.isDirectory()) {
+            throw new IOException("Create spill directory failed: " + spillDirectory);
+        }
+        File spillFile = File.createTempFile("body", ".tmp", spillDirectory);
+        long length = 0;
+        boolean success = false;
+        FileOutputStream outStream = new FileOutputStream(spillFile);
+        try {
+            if (head != null) {
+                outStream.write(head);
+                length += head.length;
+            }
+            byte[] buffer = new byte[8192];
+            int bytes;
+            while ((bytes = inStream.read(buffer)) != -1) {
+                outStream.write(buffer, 0, bytes);
+                length += bytes;
+            }
+            success = true;
+        } finally {
+            outStream.close();
+            if (!success && !spillFile.delete()) {
+                spillFile.deleteOnExit();
+            }
+        }
+        return new DecodeStage(code, message, null, 0, spillFile, length);
+    }
+
+    /**
+     * 构建响应体超出上限的解码阶段
+     *
+     * @param length 已知的响应体长度
+     * @return 解码阶段
+     */
+    private Callable<HttpResponse<T>> newBodyTooLargeStage(final long length) {
+        mResponseBytes = length;
+        return new Callable<HttpResponse<T>>() {
+            @Override
+            public HttpResponse<T> call() {
+                return new HttpResponse<>(HttpResponse.ERROR_CODE_BODY_TOO_LARGE, "Response body too large: " + length + " bytes", null);
+            }
+        };
+    }
+
+    /**
+     * 构建从缓存读取响应的解码阶段，用请求的解析器解析缓存的响应体
+     *
+     * @param entry       缓存的响应
+     * @param cacheStatus 缓存状态
+     * @param ageMillis   缓存的存在时间
+     * @return 解码阶段
+     */
+    Callable<HttpResponse<T>> newCachedStage(final HttpResponseCache.Entry entry, final int cacheStatus, final long ageMillis) {
+        return new Callable<HttpResponse<T>>() {
+            @Override
+            public HttpResponse<T> call() {
+                HttpResponse<T> response = buildResponse(HttpsURLConnection.HTTP_OK, entry.mMessage,
+                        ByteBuffer.wrap(entry.mBody), entry.mContentType);
+                response.setCacheStatus(cacheStatus, ageMillis);
+                return response;
+            }
+        };
+    }
+
+    /**
+     * 把响应数据转换成字符串.
+     * 使用Content-Type中指定的字符集，没有指定时使用UTF-8，保留换行符。
+     *
+     * @param respBody    响应数据
+     * @param contentType Content-Type
+     * @return 字符串
+     */
+    private static String decodeHttpData(ByteBuffer respBody, String contentType) {
+        return HttpUtils.getCharset(contentType, HttpUtils.UTF_8).decode(respBody.duplicate()).toString();
+    }
+
+    /**
+     * 构建响应对象.
+     * 二进制解析器直接解析响应体，不转换成字符串。
+     *
+     * @param code     HTTP响应吗
+     * @param message  响应消息
+     * @param respBody 响应数据
+     * @param contentType Content-Type
+     * @return 响应对象
+     */
+    private HttpResponse<T> buildResponse(int code, String message, ByteBuffer respBody, String contentType) {
+        boolean binary = mResolver instanceof HttpBinaryResolver;
+        String respRawData = respBody == null || binary ? null : decodeHttpData(respBody, contentType);
+        boolean hasBody = binary ? respBody != null && respBody.hasRemaining() : !HttpUtils.isEmpty(respRawData);
+        HttpResponse<T> response;
+        if (hasBody && mResolver != null) {
+            try {
+                T result = binary ? ((HttpBinaryResolver<T>) mResolver).resolverHttpRespBody(respBody.duplicate(), contentType)
+                        : mResolver.resolverHttpRespData(respBody.duplicate(), respRawData);
+                int errCode = mResolver.isSuccess() ? HttpResponse.SUCCESS : HttpResponse.ERROR_CODE_SERVER;
+                response = new HttpResponse<>(errCode, mResolver.getErrorMsg(), respRawData);
+                response.setResultCode(mResolver.getErrorCode());
+                if (result != null) {
+                    response.setResult(result);
+                }
+            } catch (Exception ex) {
+                response = new HttpResponse<>(HttpResponse.ERROR_CODE_RESOLVE_FAILED, ex.getMessage(), respRawData);
+            }
+        } else if (HttpsURLConnection.HTTP_OK == code) {
+            response = new HttpResponse<>(HttpResponse.SUCCESS, message, respRawData);
+        } else {
+            response = new HttpResponse<>(HttpResponse.ERROR_CODE_HTTP, message, respRawData);
+            response.setResultCode(code);
+        }
+        response.setBody(respBody, contentType);
+        return response;
+    }
+
+    /**
+     * 准备连接参数配置
+     *
+     * @param transportRequest 传输层请求
+     */
+    private void prepareConnectionSettings(HttpTransportRequest transportRequest) {
+        int timeout = mRequest.getRequestTimeout();
+        transportRequest.setTimeout(timeout, timeout);
+        if (mHttps) {
+            transportRequest.setSSLConfig(mSSLConfig);
+        }
+    }
+
+    /**
+     * 准备请求头部
+     *
+     * @param transportRequest 传输层请求
+     */
+    private void prepareRequestHeaders(HttpTransportRequest transportRequest) {
+        Map<String, String> headers = mRequest.getRequestHeaders();
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            transportRequest.setHeader(header.getKey(), header.getValue());
+        }
+        //解决OkHttp的EOFException异常
+        if (!HttpPlatform.get().isKeepAliveSupported()) {
+            transportRequest.setHeader("Connection", "close");
+        } else {
+            transportRequest.setHeader("Connection", "Keep-Alive");
+        }
+
+        //设置文件上传参数,仅限于POST请求
+        Map<String, File> fileParams = mRequest.getRequestFileParams();
+        mUploadFile = fileParams != null && !fileParams.isEmpty() && HttpRequest.HTTP_POST.equalsIgnoreCase(mRequest.getRequestMethod());
+        if (mUploadFile) {
+            transportRequest.setHeader("Connection", "Keep-Alive");
+            transportRequest.setHeader("Content-Type", "multipart/form-data; boundary=" + getBoundary());
+        }
+    }
+
+    /**
+     * 获取上传文件的分隔符
+     *
+     * @return 分隔符
+     */
+    private String getBoundary() {
+        if (mBoundary == null) {
+            mBoundary = "----" + System.currentTimeMillis();
+        }
+        return mBoundary;
+    }
+
+    /**
+     * 追加编码后的请求参数
+     *
+     * @param builder 字符串
+     * @param params  参数
+     */
+    static void appendParams(StringBuilder builder, Map<String, String> params) throws UnsupportedEncodingException {
+        boolean first = true;
+        for (Map.Entry<String, String> param : params.entrySet()) {
+            if (!first) {
+                builder.append('&');
+            }
+            first = false;
+            builder.append(URLEncoder.encode(param.getKey(), "UTF-8")).append('=').append(URLEncoder.encode(param.getValue(), "UTF-8"));
+        }
+    }
+
+    /**
+     * 提交POST普通请求参数.
+     *
+     * @param encoder 请求体编码
+     * @throws IOException 输出异常
+     */
+    private void writePostParams(HttpBodyEncoder encoder) throws IOException {
+        Map<String, String> params = mRequest.getRequestParams();
+        if (params != null && !params.isEmpty()) {
+            encoder.writeFormParams(params);
+        }
+    }
+
+    /**
+     * 提交POST文件上传请求参数.
+     * POST上传文件有两个步骤，先提交参数，然后上传文件.<br>
+     * 如果是文件上传，则每一个参数和每一个文件之间要有间隔。
+     *
+     * @param encoder 请求体编码
+     * @throws IOException 输出异常
+     */
+    private void writeFileParams(HttpBodyEncoder encoder) throws IOException {
+        String boundary = getBoundary();
+
+        //写参数
+        Map<String, String> params = mRequest.getRequestParams();
+        if (params != null && !params.isEmpty()) {
+            for (Map.Entry<String, String> param : params.entrySet()) {
+                encoder.writeMultipartField(boundary, param.getKey(), param.getValue());
+            }
+        }
+
+        //写文件
+        Map<String, File> fileParams = mRequest.getRequestFileParams();
+        if (fileParams != null && !fileParams.isEmpty()) {
+            for (Map.Entry<String, File> fileParam : fileParams.entrySet()) {
+                File file = fileParam.getValue();
+                encoder.writeMultipartFile(boundary, fileParam.getKey(), file, getContextType(file.getName()));
+            }
+        }
+
+        //写尾部
+        encoder.writeMultipartEnd(boundary);
+    }
+
+    /**
+     * 获取文件的类型
+     *
+     * @param fileName 文件名称
+     * @return 类型
+     */
+    private String getContextType(String fileName) {
+        if (fileName.endsWith("jpg")) {
+            return "image/jpeg";
+        } else if (fileName.endsWith("jpeg")) {
+            return "image/x-jpg";
+        } else if (fileName.endsWith("png")) {
+            return "image/x-png";
+        }
+        return "application/octet-stream";
+    }
+
+    /**
+     * 解析保存在临时文件中的响应体
+     *
+     * @param message   响应消息
+     * @param spillFile 临时文件
+     * @param length    响应体长度
+     * @return 响应对象
+     */
+    private HttpResponse<T> buildStreamResponse(String message, File spillFile, long length) throws IOException {
+        InputStream inStream = new BufferedInputStream(new FileInputStream(spillFile));
+        try {
+            T result = mResolver.resolverHttpRespStream(inStream, length);
+            int errCode = mResolver.isSuccess() ? HttpResponse.SUCCESS : HttpResponse.ERROR_CODE_SERVER;
+            HttpResponse<T> response = new HttpResponse<>(errCode, errCode == HttpResponse.SUCCESS ? message : mResolver.getErrorMsg(), null);
+            response.setResultCode(mResolver.getErrorCode());
+            response.setBody(null, mContentType);
+            if (result != null) {
+                response.setResult(result);
+            }
+            return response;
+        } catch (Exception ex) {
+            return new HttpResponse<>(HttpResponse.ERROR_CODE_RESOLVE_FAILED, ex.getMessage(), null);
+        } finally {
+            inStream.close();
+        }
+    }
+
+    /**
+     * 解码阶段.
+     * 持有内存中的响应体或者临时文件，解码完成或者请求取消时释放。
+     */
+    private final class DecodeStage implements Callable<HttpResponse<T>>, Closeable {
+        private final int mCode;
+        private final String mMessage;
+        private final ByteBuffer mBody;
+        private final long mReservedBytes;
+        private final File mSpillFile;
+        private final long mSpillLength;
+        private final AtomicBoolean mClosed = new AtomicBoolean();
+
+        private DecodeStage(int code, String message, ByteBuffer body, long reservedBytes, File spillFile, long spillLength) {
+            mCode = code;
+            mMessage = message;
+            mBody = body;
+            mReservedBytes = reservedBytes;
+            mSpillFile = spillFile;
+            mSpillLength = spillLength;
+            mResponseBytes = body != null ? body.remaining() : spillFile != null ? spillLength : -1;
+        }
+
+        @Override
+        public HttpResponse<T> call() throws Exception {
+            try {
+                if (mSpillFile != null) {
+                    return buildStreamResponse(mMessage, mSpillFile, mSpillLength);
+                }
+                return buildResponse(mCode, mMessage, mBody, mContentType);
+            } finally {
+                close();
+            }
+        }
+
+        @Override
+        public void close() {
+            if (mClosed.compareAndSet(false, true)) {
+                mBodyBudget.release(mReservedBytes);
+                if (mSpillFile != null && !mSpillFile.delete()) {
+                    mSpillFile.deleteOnExit();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,268 @@
+package com.seagle.net.android.httphelper;
+
+import java.nio.ByteBuffer;
+
+/**
+ * <h1>Http响应</h1>
+ * 封装HTTP响应信息
+ *
+ * @author : yuanxiudong66@sina.com
+ */
+public final class HttpResponse<T> {
+    /**
+     * 服务器返回成功标识
+     */
+    public static final int SUCCESS = 0;
+    /**
+     * 请求执行失败
+     */
+    public static final int ERROR_CODE_REQUEST_FAILED = -100;
+    /**
+     * 请求超时
+     */
+    public static final int ERROR_CODE_TIME_OUT = -101;
+    /**
+     * 结果解析失败
+     */
+    public static final int ERROR_CODE_RESOLVE_FAILED = -102;
+    /**
+     * HTTP请求服务器错误.
+     */
+    public static final int ERROR_CODE_HTTP = -103;
+    /**
+     * HTTP服务器返回的业务逻辑错误
+     */
+    public static final int ERROR_CODE_SERVER = -104;
+    /**
+     * 下载文件校验失败（长度或者MD5不一致）
+     */
+    public static final int ERROR_CODE_VERIFY_FAILED = -105;
+    /**
+     * 响应体超出内存上限，并且不能保存到临时文件
+     */
+    public static final int ERROR_CODE_BODY_TOO_LARGE = -106;
+
+    /**
+     * 响应来自网络
+     */
+    public static final int CACHE_NONE = 0;
+    /**
+     * 响应来自缓存，缓存在有效期内
+     */
+    public static final int CACHE_FRESH = 1;
+    /**
+     * 响应来自过期的缓存，后台正在刷新或者网络请求失败
+     */
+    public static final int CACHE_STALE = 2;
+
+    /**
+     * 响应码。除了标识HTTP响应码外，还标识本地错误。
+     */
+    private final int mCode;
+
+    /**
+     * 业务错误码
+     */
+    private int mResultCode;
+
+    /**
+     * 响应消息。除了标识HTT响应消息外，还标识本地错误信息以及服务器的逻辑错误信息。
+     */
+    private final String mMessage;
+
+    /**
+     * 消息响应
+     */
+    private T mRespResult;
+
+    /**
+     * 响应数据。
+     */
+    private final String mRespRawData;
+
+    /**
+     * 原始响应体，只读
+     */
+    private ByteBuffer mRespBody;
+
+    /**
+     * 响应体的Content-Type
+     */
+    private String mContentType;
+
+    /**
+     * 缓存状态
+     */
+    private int mCacheStatus = CACHE_NONE;
+
+    /**
+     * 缓存的存在时间，单位：ms
+     */
+    private long mCacheAgeMillis;
+
+    public HttpResponse(int code, String message, String respRawData) {
+        mCode = code;
+        mMessage = message;
+        mRespRawData = respRawData;
+    }
+
+    public boolean isSuccess() {
+        return mCode == SUCCESS;
+    }
+
+    /**
+     * 获取响应码
+     *
+     * @return 响应码
+     */
+    public int getCode() {
+        return mCode;
+    }
+
+    /**
+     * 获取响应的消息
+     *
+     * @return 响应消息
+     */
+    public String getMessage() {
+        return mMessage;
+    }
+
+    /**
+     * 获取响应的原始数据
+     *
+     * @return 原始数据
+     */
+    public String getRawData() {
+        return mRespRawData;
+    }
+
+    /**
+     * 获取原始的响应体.
+     * 二进制数据（图片、protobuf等）通过这个方法获取，不经过字符集转换。
+     *
+     * @return 只读的响应体，没有读取响应体时为null
+     */
+    public ByteBuffer getBody() {
+        return mRespBody == null ? null : mRespBody.duplicate();
+    }
+
+    /**
+     * 获取原始响应体的字节数组拷贝
+     *
+     * @return 响应体，没有读取响应体时为null
+     */
+    public byte[] getBodyBytes() {
+        if (mRespBody == null) {
+            return null;
+        }
+        ByteBuffer body = mRespBody.duplicate();
+        byte[] data = new byte[body.remaining()];
+        body.get(data);
+        return data;
+    }
+
+    /**
+     * 获取响应体的Content-Type
+     *
+     * @return Content-Type，服务器没有返回时为null
+     */
+    public String getContentType() {
+        return mContentType;
+    }
+
+    /**
+     * 设置原始响应体
+     *
+     * @param respBody    响应体
+     * @param contentType Content-Type
+     */
+    void setBody(ByteBuffer respBody, String contentType) {
+        mRespBody = respBody == null ? null : respBody.asReadOnlyBuffer();
+        mContentType = contentType;
+    }
+
+    /**
+     * 获取响应的缓存状态
+     *
+     * @return {@link #CACHE_NONE}、{@link #CACHE_FRESH}或者{@link #CACHE_STALE}
+     */
+    public int getCacheStatus() {
+        return mCacheStatus;
+    }
+
+    /**
+     * 响应是否来自过期的缓存
+     *
+     * @return 是否过期
+     */
+    public boolean isStale() {
+        return mCacheStatus == CACHE_STALE;
+    }
+
+    /**
+     * 获取缓存的存在时间
+     *
+     * @return 从保存到缓存至今的时间，单位：ms，不是来自缓存时为0
+     */
+    public long getCacheAgeMillis() {
+        return mCacheAgeMillis;
+    }
+
+    /**
+     * 标记响应来自缓存
+     *
+     * @param cacheStatus 缓存状态
+     * @param ageMillis   缓存的存在时间
+     */
+    void setCacheStatus(int cacheStatus, long ageMillis) {
+        mCacheStatus = cacheStatus;
+        mCacheAgeMillis = ageMillis;
+    }
+
+    /**
+     * 设置服务器业务错误码.
+     * 如果响应错误码不是HTTP_OK，业务错误码无效。
+     *
+     * @param resultCode 错误码
+     */
+    void setResultCode(int resultCode) {
+        mResultCode = resultCode;
+    }
+
+    /**
+     * 获取响应的业务错误码.
+     *
+     * @return 错误码
+     */
+    public int getResultCode() {
+        return mResultCode;
+    }
+
+    /**
+     * 获取响应结果
+     *
+     * @return 响应结果
+     */
+    public T getResult() {
+        return mRespResult;
+    }
+
+    /**
+     * 设置请求结果
+     *
+     * @param respResult 结果
+     */
+    void setResult(T respResult) {
+        mRespResult = respResult;
+    }
+
+    @Override
+    public String toString() {
+        return "HttpResponse{" +
+                "mCode=" + mCode +
+                ", mMessage='" + mMessage + '\'' +
+                ", mRespRawData='" + mRespRawData + '\'' +
+                '}';
+    }
+}
@@ -0,0 +1,256 @@
+package com.seagle.net.android.httphelper;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <h1>响应缓存.</h1>
+ * 在内存中按LRU保存GET请求成功的响应体，总大小超出上限时淘汰最久没有使用的响应。
+ * 请求通过{@link HttpRequest#setCachePolicy(long, long, long)}设置有效时间和过期后的时间窗口：
+ * 有效期内直接返回缓存；过期不久的缓存立即返回并在后台刷新（stale-while-revalidate）；
+ * 网络或者服务器出错时返回时间窗口内的过期缓存（stale-if-error）。
+ * 来自缓存的响应通过{@link HttpResponse#getCacheStatus()}标记。
+ * <p>
+ * 缓存的键由协议、服务器、路径和请求参数组成，不包括请求头，依赖请求头（例如登录态）的响应需要在参数中区分。
+ *
+ * @author : yuanxiudong66@sina.com
+ */
+public final class HttpResponseCache {
+
+    /**
+     * 后台刷新超过这个时间没有结束时允许重新刷新
+     */
+    private static final long REVALIDATE_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    private final long mMaxBytes;
+
+    /**
+     * 按访问顺序排列的缓存
+     */
+    private final LinkedHashMap<String, Entry> mEntries = new LinkedHashMap<>(16, 0.75f, true);
+    private long mSize;
+
+    /**
+     * 正在后台刷新的键和开始时间
+     */
+    private final ConcurrentHashMap<String, Long> mRevalidating = new ConcurrentHashMap<>();
+
+    private final AtomicLong mHitCount = new AtomicLong();
+    private final AtomicLong mStaleHitCount = new AtomicLong();
+    private final AtomicLong mStaleIfErrorCount = new AtomicLong();
+    private final AtomicLong mMissCount = new AtomicLong();
+
+    /**
+     * @param maxBytes 缓存的响应体总大小上限，单位：byte
+     */
+    public HttpResponseCache(long maxBytes) {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("Max bytes must be positive");
+        }
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     * 获取缓存的响应体总大小
+     *
+     * @return 总大小，单位：byte
+     */
+    public synchronized long getSize() {
+        return mSize;
+    }
+
+    /**
+     * 获取缓存的响应个数
+     *
+     * @return 响应个数
+     */
+    public synchronized int getEntryCount() {
+        return mEntries.size();
+    }
+
+    /**
+     * 清空缓存
+     */
+    public synchronized void clear() {
+        mEntries.clear();
+        mSize = 0;
+    }
+
+    /**
+     * 获取有效期内命中的次数
+     *
+     * @return 次数
+     */
+    public long getHitCount() {
+        return mHitCount.get();
+    }
+
+    /**
+     * 获取返回过期缓存并后台刷新的次数
+     *
+     * @return 次数
+     */
+    public long getStaleHitCount() {
+        return mStaleHitCount.get();
+    }
+
+    /**
+     * 获取请求失败后返回过期缓存的次数
+     *
+     * @return 次数
+     */
+    public long getStaleIfErrorCount() {
+        return mStaleIfErrorCount.get();
+    }
+
+    /**
+     * 获取需要请求网络的次数
+     *
+     * @return 次数
+     */
+    public long getMissCount() {
+        return mMissCount.get();
+    }
+
+    /**
+     * 构建请求的缓存键
+     *
+     * @param request 请求
+     * @param https   是否走HTTPS
+     * @return 缓存键
+     */
+    static String keyOf(HttpRequest request, boolean https) {
+        StringBuilder key = new StringBuilder(64);
+        key.append(https ? "https://" : "http://").append(request.getRequestHost()).append(request.getRequestPath());
+        Map<String, String> params = request.getRequestParams();
+        if (params != null && !params.isEmpty()) {
+            char separator = '?';
+            for (Map.Entry<String, String> param : new TreeMap<>(params).entrySet()) {
+                key.append(separator).append(param.getKey()).append('=').append(param.getValue());
+                separator = '&';
+            }
+        }
+        return key.toString();
+    }
+
+    /**
+     * 查找缓存
+     *
+     * @param key 缓存键
+     * @return 缓存，不存在时为null
+     */
+    synchronized Entry get(String key) {
+        return mEntries.get(key);
+    }
+
+    /**
+     * 保存响应，超出上限时淘汰最久没有使用的响应
+     *
+     * @param key   缓存键
+     * @param entry 响应
+     */
+    synchronized void put(String key, Entry entry) {
+        if (entry.mBody.length > mMaxBytes) {
+            remove(key);
+            return;
+        }
+        Entry oldEntry = mEntries.put(key, entry);
+        if (oldEntry != null) {
+            mSize -= oldEntry.mBody.length;
+        }
+        mSize += entry.mBody.length;
+        Iterator<Entry> iterator = mEntries.values().iterator();
+        while (mSize > mMaxBytes && iterator.hasNext()) {
+            mSize -= iterator.next().mBody.length;
+            iterator.remove();
+        }
+    }
+
+    /**
+     * 删除缓存
+     *
+     * @param key 缓存键
+     */
+    synchronized void remove(String key) {
+        Entry oldEntry = mEntries.remove(key);
+        if (oldEntry != null) {
+            mSize -= oldEntry.mBody.length;
+        }
+    }
+
+    /**
+     * 开始后台刷新，同一个键同时只有一个刷新请求
+     *
+     * @param key 缓存键
+     * @return 是否需要发送刷新请求
+     */
+    boolean tryStartRevalidate(String key) {
+        long now = System.currentTimeMillis();
+        Long startTime = mRevalidating.putIfAbsent(key, now);
+        if (startTime == null) {
+            return true;
+        }
+        return now - startTime > REVALIDATE_TIMEOUT_MILLIS && mRevalidating.replace(key, startTime, now);
+    }
+
+    /**
+     * 后台刷新结束
+     *
+     * @param key 缓存键
+     */
+    void finishRevalidate(String key) {
+        mRevalidating.remove(key);
+    }
+
+    void onHit() {
+        mHitCount.incrementAndGet();
+    }
+
+    void onStaleHit() {
+        mStaleHitCount.incrementAndGet();
+    }
+
+    void onStaleIfError() {
+        mStaleIfErrorCount.incrementAndGet();
+    }
+
+    void onMiss() {
+        mMissCount.incrementAndGet();
+    }
+
+    /**
+     * 缓存的响应
+     */
+    static final class Entry {
+        final String mMessage;
+        final String mContentType;
+        final byte[] mBody;
+
+        /**
+         * 保存的时间，System.currentTimeMillis()
+         */
+        final long mStoredTime;
+
+        Entry(String message, String contentType, byte[] body, long storedTime) {
+            mMessage = message;
+            mContentType = contentType;
+            mBody = body;
+            mStoredTime = storedTime;
+        }
+
+        /**
+         * 获取缓存的存在时间
+         *
+         * @param now 当前时间
+         * @return 存在时间，单位：ms
+         */
+        long getAge(long now) {
+            return Math.max(0, now - mStoredTime);
+        }
+    }
+}
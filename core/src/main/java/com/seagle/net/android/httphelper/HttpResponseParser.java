@@ -0,0 +1,378 @@
+package com.seagle.net.android.httphelper;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * HTTP/1.1响应增量解析器.
+ * 每次收到数据调用{@link #parse(ByteBuffer)}，只消费属于当前响应的字节，
+ * 同一个连接上后续响应的数据保留在缓冲区中。支持Content-Length、chunked以及读取到连接关闭三种响应体。
+ * 响应体超出上限时抛出{@link HttpBodyTooLargeException}，不再继续读入内存。
+ * Created by seagle on 2018/4/10.
+ */
+final class HttpResponseParser {
+
+    /**
+     * 状态行和头部单行的最大长度
+     */
+    private static final int MAX_LINE_LENGTH = 64 * 1024;
+
+    /**
+     * 按Content-Length预分配响应体的最大长度，超过后按需扩容
+     */
+    private static final int MAX_PREALLOCATE_SIZE = 1024 * 1024;
+
+    private static final int STATE_STATUS_LINE = 0;
+    private static final int STATE_HEADERS = 1;
+    private static final int STATE_BODY_FIXED = 2;
+    private static final int STATE_CHUNK_SIZE = 3;
+    private static final int STATE_CHUNK_DATA = 4;
+    private static final int STATE_CHUNK_END = 5;
+    private static final int STATE_TRAILERS = 6;
+    private static final int STATE_BODY_UNTIL_CLOSE = 7;
+    private static final int STATE_DONE = 8;
+
+    /**
+     * 请求是否是HEAD请求，HEAD请求的响应没有响应体
+     */
+    private final boolean mHeadRequest;
+
+    /**
+     * 响应体的最大长度，小于等于0表示不限制
+     */
+    private final long mMaxBodyBytes;
+
+    private int mState = STATE_STATUS_LINE;
+    private boolean mHttp10;
+    private int mCode;
+    private String mMessage;
+    private final Map<String, String> mHeaders = new LinkedHashMap<>();
+    private long mRemaining;
+    private ByteBuffer mBody;
+
+    /**
+     * 是否已经收到当前响应的数据
+     */
+    private boolean mStarted;
+
+    /**
+     * @param headRequest  是否是HEAD请求
+     * @param maxBodyBytes 响应体的最大长度，小于等于0表示不限制
+     */
+    HttpResponseParser(boolean headRequest, long maxBodyBytes) {
+        mHeadRequest = headRequest;
+        mMaxBodyBytes = maxBodyBytes;
+    }
+
+    /**
+     * 解析收到的数据
+     *
+     * @param in 读模式的数据缓冲区，解析后position指向未消费的数据
+     * @return 响应是否已经完整
+     * @throws IOException 响应格式错误
+     */
+    boolean parse(ByteBuffer in) throws IOException {
+        while (mState != STATE_DONE) {
+            if (in.hasRemaining()) {
+                mStarted = true;
+            }
+            switch (mState) {
+                case STATE_STATUS_LINE: {
+                    String line = readLine(in);
+                    if (line == null) {
+                        return false;
+                    }
+                    if (line.length() == 0) {
+                        //忽略响应之间多余的空行
+                        continue;
+                    }
+                    parseStatusLine(line);
+                    mState = STATE_HEADERS;
+                    break;
+                }
+                case STATE_HEADERS: {
+                    String line = readLine(in);
+                    if (line == null) {
+                        return false;
+                    }
+                    if (line.length() > 0) {
+                        parseHeader(line);
+                    } else {
+                        onHeadersComplete();
+                    }
+                    break;
+                }
+                case STATE_BODY_FIXED: {
+                    if (!readBody(in)) {
+                        return false;
+                    }
+                    mState = STATE_DONE;
+                    break;
+                }
+                case STATE_CHUNK_SIZE: {
+                    String line = readLine(in);
+                    if (line == null) {
+                        return false;
+                    }
+                    int extIndex = line.indexOf(';');
+                    String size = (extIndex >= 0 ? line.substring(0, extIndex) : line).trim();
+                    try {
+                        mRemaining = Long.parseLong(size, 16);
+                    } catch (NumberFormatException ex) {
+                        throw new IOException("Invalid chunk size: " + line);
+                    }
+                    checkBodyLength(mBody.position() + mRemaining);
+                    mState = mRemaining == 0 ? STATE_TRAILERS : STATE_CHUNK_DATA;
+                    break;
+                }
+                case STATE_CHUNK_DATA: {
+                    if (!readBody(in)) {
+                        return false;
+                    }
+                    mState = STATE_CHUNK_END;
+                    break;
+                }
+                case STATE_CHUNK_END: {
+                    String line = readLine(in);
+                    if (line == null) {
+                        return false;
+                    }
+                    mState = STATE_CHUNK_SIZE;
+                    break;
+                }
+                case STATE_TRAILERS: {
+                    String line = readLine(in);
+                    if (line == null) {
+                        return false;
+                    }
+                    if (line.length() == 0) {
+                        mState = STATE_DONE;
+                    }
+                    break;
+                }
+                case STATE_BODY_UNTIL_CLOSE: {
+                    checkBodyLength((long) mBody.position() + in.remaining());
+                    ensureBodyCapacity(in.remaining());
+                    mBody.put(in);
+                    return false;
+                }
+                default:
+                    throw new IllegalStateException("Unknown state: " + mState);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 连接关闭
+     *
+     * @return 响应是否已经完整
+     * @throws IOException 响应不完整
+     */
+    boolean onEndOfStream() throws IOException {
+        if (mState == STATE_BODY_UNTIL_CLOSE) {
+            mState = STATE_DONE;
+            return true;
+        }
+        if (mState != STATE_DONE) {
+            throw new IOException("Unexpected end of stream");
+        }
+        return true;
+    }
+
+    /**
+     * 是否已经收到当前响应的数据.
+     * 没有收到任何数据时连接断开，说明复用的连接已经被服务器关闭，请求可以安全重试。
+     *
+     * @return true or false
+     */
+    boolean isStarted() {
+        return mStarted;
+    }
+
+    boolean isComplete() {
+        return mState == STATE_DONE;
+    }
+
+    /**
+     * 响应结束后连接是否还可以复用
+     *
+     * @return true or false
+     */
+    boolean isKeepAlive() {
+        String connection = mHeaders.get("connection");
+        if (connection != null && connection.toLowerCase(Locale.US).contains("close")) {
+            return false;
+        }
+        if (mHttp10 && (connection == null || !connection.toLowerCase(Locale.US).contains("keep-alive"))) {
+            return false;
+        }
+        return mState == STATE_DONE;
+    }
+
+    int getCode() {
+        return mCode;
+    }
+
+    String getMessage() {
+        return mMessage;
+    }
+
+    /**
+     * 获取响应头部，名称为小写
+     *
+     * @return 响应头部
+     */
+    Map<String, String> getHeaders() {
+        return mHeaders;
+    }
+
+    /**
+     * 获取响应体
+     *
+     * @return 读模式的响应体
+     */
+    ByteBuffer getBody() {
+        if (mBody == null) {
+            return ByteBuffer.allocate(0);
+        }
+        ByteBuffer body = mBody.duplicate();
+        body.flip();
+        return body;
+    }
+
+    private void parseStatusLine(String line) throws IOException {
+        //HTTP/1.1 200 OK
+        if (!line.startsWith("HTTP/1.")) {
+            throw new IOException("Invalid status line: " + line);
+        }
+        mHttp10 = line.startsWith("HTTP/1.0");
+        int codeStart = line.indexOf(' ');
+        if (codeStart < 0 || line.length() < codeStart + 4) {
+            throw new IOException("Invalid status line: " + line);
+        }
+        try {
+            mCode = Integer.parseInt(line.substring(codeStart + 1, codeStart + 4));
+        } catch (NumberFormatException ex) {
+            throw new IOException("Invalid status line: " + line);
+        }
+        mMessage = line.length() > codeStart + 5 ? line.substring(codeStart + 5) : "";
+    }
+
+    private void parseHeader(String line) throws IOException {
+        int index = line.indexOf(':');
+        if (index <= 0) {
+            throw new IOException("Invalid header: " + line);
+        }
+        String name = line.substring(0, index).trim().toLowerCase(Locale.US);
+        String value = line.substring(index + 1).trim();
+        String oldValue = mHeaders.get(name);
+        mHeaders.put(name, oldValue == null ? value : oldValue + ", " + value);
+    }
+
+    private void onHeadersComplete() throws IOException {
+        if (mCode >= 100 && mCode < 200) {
+            //100 Continue等临时响应，继续等待最终响应
+            mHeaders.clear();
+            mState = STATE_STATUS_LINE;
+            return;
+        }
+        if (mHeadRequest || mCode == 204 || mCode == 304) {
+            mState = STATE_DONE;
+            return;
+        }
+        String transferEncoding = mHeaders.get("transfer-encoding");
+        String contentLength = mHeaders.get("content-length");
+        if (transferEncoding != null && transferEncoding.toLowerCase(Locale.US).contains("chunked")) {
+            mState = STATE_CHUNK_SIZE;
+            ensureBodyCapacity(4096);
+        } else if (contentLength != null) {
+            try {
+                mRemaining = Long.parseLong(contentLength.trim());
+            } catch (NumberFormatException ex) {
+                throw new IOException("Invalid content length: " + contentLength);
+            }
+            if (mRemaining > Integer.MAX_VALUE) {
+                throw new IOException("Content too large: " + contentLength);
+            }
+            checkBodyLength(mRemaining);
+            ensureBodyCapacity((int) Math.min(mRemaining, MAX_PREALLOCATE_SIZE));
+            mState = mRemaining == 0 ? STATE_DONE : STATE_BODY_FIXED;
+        } else {
+            ensureBodyCapacity(4096);
+            mState = STATE_BODY_UNTIL_CLOSE;
+        }
+    }
+
+    /**
+     * 读取剩余长度的响应体
+     *
+     * @param in 数据
+     * @return 是否读取完毕
+     */
+    private boolean readBody(ByteBuffer in) {
+        int count = (int) Math.min(mRemaining, in.remaining());
+        if (count > 0) {
+            ensureBodyCapacity(count);
+            ByteBuffer slice = in.duplicate();
+            slice.limit(slice.position() + count);
+            mBody.put(slice);
+            in.position(in.position() + count);
+            mRemaining -= count;
+        }
+        return mRemaining == 0;
+    }
+
+    /**
+     * 检查响应体长度是否超出上限
+     *
+     * @param length 响应体长度
+     * @throws HttpBodyTooLargeException 超出上限
+     */
+    private void checkBodyLength(long length) throws HttpBodyTooLargeException {
+        if (mMaxBodyBytes > 0 && length > mMaxBodyBytes) {
+            throw new HttpBodyTooLargeException(mCode, length);
+        }
+    }
+
+    private void ensureBodyCapacity(int count) {
+        if (mBody == null) {
+            mBody = ByteBuffer.allocate(Math.max(count, 256));
+        } else if (mBody.remaining() < count) {
+            int capacity = Math.max(mBody.capacity() * 2, mBody.position() + count);
+            ByteBuffer newBody = ByteBuffer.allocate(capacity);
+            mBody.flip();
+            newBody.put(mBody);
+            mBody = newBody;
+        }
+    }
+
+    /**
+     * 读取一行，去掉行尾的CRLF
+     *
+     * @param in 数据
+     * @return 一行数据，数据不足一行时返回空
+     * @throws IOException 行过长
+     */
+    private static String readLine(ByteBuffer in) throws IOException {
+        int start = in.position();
+        for (int i = start; i < in.limit(); i++) {
+            if (in.get(i) == '\n') {
+                int end = (i > start && in.get(i - 1) == '\r') ? i - 1 : i;
+                StringBuilder lineBuilder = new StringBuilder(end - start);
+                for (int j = start; j < end; j++) {
+                    lineBuilder.append((char) (in.get(j) & 0xFF));
+                }
+                in.position(i + 1);
+                return lineBuilder.toString();
+            }
+        }
+        if (in.remaining() > MAX_LINE_LENGTH) {
+            throw new IOException("Line too long");
+        }
+        return null;
+    }
+}
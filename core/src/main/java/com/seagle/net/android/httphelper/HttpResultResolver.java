@@ -0,0 +1,102 @@
+package com.seagle.net.android.httphelper;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * <h1>请求解析</h1>
+ * <p>将请求返回的字符串数据解析成用户数据对象。</P>
+ *
+ * @author : yuanxiudong66@sina.com
+ */
+public abstract class HttpResultResolver<Result> {
+    /**
+     * 数据解析错误码
+     */
+    protected int errorCode;
+
+    /**
+     * 错误消息
+     */
+    protected String errorMsg;
+
+    /**
+     * 结果的类型
+     */
+    protected final Class<Result> mResultClass;
+
+    public HttpResultResolver(Class<Result> resultClass) {
+        mResultClass = resultClass;
+    }
+
+    /**
+     * 处理HTTP响应数据.
+     * 解析字符串数据的子类需要重写；{@link HttpBinaryResolver}直接解析原始响应体，不经过这个方法。
+     *
+     * @param httpRespData 响应数据
+     * @hide
+     */
+    protected Result resolverHttpRespData(String httpRespData) throws Exception {
+        throw new UnsupportedOperationException("Text not supported");
+    }
+
+    /**
+     * 处理HTTP响应数据.
+     * 默认解析字符串数据，子类可以重写，直接从原始的响应体解析，例如二进制数据。
+     *
+     * @param httpRespBody 只读的原始响应体
+     * @param httpRespData 按Content-Type中的字符集（默认UTF-8）转换成的字符串
+     * @hide
+     */
+    protected Result resolverHttpRespData(ByteBuffer httpRespBody, String httpRespData) throws Exception {
+        return resolverHttpRespData(httpRespData);
+    }
+
+    /**
+     * 是否支持从流中解析响应数据.
+     * 支持时，超出内存上限的响应体保存到临时文件，通过{@link #resolverHttpRespStream(InputStream, long)}解析；
+     * 不支持时这类响应返回{@link HttpResponse#ERROR_CODE_BODY_TOO_LARGE}。
+     *
+     * @return 默认不支持
+     */
+    protected boolean isStreamSupported() {
+        return false;
+    }
+
+    /**
+     * 从流中解析超出内存上限的响应数据.
+     * 流在解析完成后关闭，临时文件随后删除。
+     *
+     * @param httpRespStream 响应体
+     * @param length         响应体长度
+     * @hide
+     */
+    protected Result resolverHttpRespStream(InputStream httpRespStream, long length) throws Exception {
+        throw new UnsupportedOperationException("Stream not supported");
+    }
+
+    /**
+     * 返回错误码.
+     *
+     * @return 错误码
+     */
+    public int getErrorCode() {
+        return errorCode;
+    }
+
+    /**
+     * 返回错误消息.
+     *
+     * @return 错误消息
+     */
+    public String getErrorMsg() {
+        return errorMsg;
+    }
+
+    /**
+     * 是否成功.
+     *
+     * @return 请求成功
+     */
+    public abstract boolean isSuccess();
+}
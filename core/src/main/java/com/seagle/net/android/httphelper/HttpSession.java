@@ -1,10 +1,10 @@
 package com.seagle.net.android.httphelper;
 
-import android.os.AsyncTask;
-import android.os.Bundle;
-import android.util.Log;
-
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
@@ -21,7 +21,7 @@ public final class HttpSession<T> {
     /**
      * 执行HTTP请求的任务
      */
-    private AsyncTask<Void, Bundle, HttpResponse<T>> mAsyncTask;
+    private Future<HttpResponse<T>> mTask;
     /**
      * 回调
      */
@@ -30,6 +30,22 @@ public final class HttpSession<T> {
      * 任务是否完成
      */
     private volatile boolean mCompleted;
+    /**
+     * 中止正在执行的请求
+     */
+    private volatile Abortable mAbortable;
+    /**
+     * 会话结束（完成或者取消）时执行的动作，第一次添加时创建
+     */
+    private List<Runnable> mFinishHooks;
+    /**
+     * 会话是否已经结束
+     */
+    private boolean mFinished;
+    /**
+     * 被限流时在限流器中排队的时间
+     */
+    private volatile long mQueueWaitMillis;
 
     HttpSession() {
     }
@@ -42,7 +58,7 @@ public final class HttpSession<T> {
      */
     public HttpResponse<T> getResponse() {
         try {
-            HttpResponse<T> httpResponse = mAsyncTask.get();
+            HttpResponse<T> httpResponse = mTask.get();
             mCompleted = true;
             return httpResponse;
         } catch (InterruptedException | ExecutionException e) {
@@ -66,7 +82,7 @@ public final class HttpSession<T> {
      */
     public HttpResponse<T> getResponse(int timeout, TimeUnit unit, boolean cancelRequest) {
         try {
-            HttpResponse<T> httpResponse = mAsyncTask.get(timeout, TimeUnit.MILLISECONDS);
+            HttpResponse<T> httpResponse = mTask.get(timeout, TimeUnit.MILLISECONDS);
             mCompleted = true;
             return httpResponse;
         } catch (InterruptedException | ExecutionException e) {
@@ -79,7 +95,7 @@ public final class HttpSession<T> {
             HttpResponse<T> httpResponse = new HttpResponse<T>(HttpResponse.ERROR_CODE_TIME_OUT, e.getMessage(), null);
             if (cancelRequest) {
                 mCompleted = true;
-                mAsyncTask.cancel(true);
+                mTask.cancel(true);
             }
             return httpResponse;
         }
@@ -87,12 +103,17 @@ public final class HttpSession<T> {
 
     /**
      * 取消任务
+     * 还未开始执行的任务不会再执行，正在执行的任务会断开连接。
      * 注意：就算取消了任务，仅仅代表任务不会在返回response对象了，对服务器提交的修改可能已经生效。
      */
     @SuppressWarnings("unused")
     public final void cancelTask() {
-        if (mAsyncTask != null && !mAsyncTask.isCancelled() && !mCompleted) {
-            mAsyncTask.cancel(true);
+        if (mTask != null && !mTask.isCancelled() && !mCompleted) {
+            mTask.cancel(true);
+            Abortable abortable = mAbortable;
+            if (abortable != null) {
+                abortable.abort();
+            }
         }
     }
 
@@ -112,16 +133,84 @@ public final class HttpSession<T> {
      * @return true or false
      */
     public final boolean isCancelled() {
-        return (mAsyncTask == null || mAsyncTask.isCancelled());
+        return (mTask == null || mTask.isCancelled());
+    }
+
+    /**
+     * 获取请求被限流时排队等待的时间，单位：ms.
+     * 没有设置限流器或者没有被限流时为0。
+     *
+     * @return 排队时间
+     */
+    public final long getQueueWaitMillis() {
+        return mQueueWaitMillis;
+    }
+
+    /**
+     * 设置排队时间
+     *
+     * @param queueWaitMillis 排队时间
+     */
+    final void setQueueWaitMillis(long queueWaitMillis) {
+        mQueueWaitMillis = queueWaitMillis;
     }
 
     /**
      * 设置执行任务
      *
-     * @param asyncTask 执行任务
+     * @param task 执行任务
      */
-    final void setAsyncTask(AsyncTask<Void, Bundle, HttpResponse<T>> asyncTask) {
-        mAsyncTask = asyncTask;
+    final void setTask(Future<HttpResponse<T>> task) {
+        mTask = task;
+    }
+
+    /**
+     * 设置中止正在执行请求的对象
+     *
+     * @param abortable 中止对象
+     */
+    final void setAbortable(Abortable abortable) {
+        mAbortable = abortable;
+    }
+
+    /**
+     * 增加会话结束时执行的动作.
+     * 如果会话已经结束，立即执行。
+     *
+     * @param hook 动作
+     */
+    final void addFinishHook(Runnable hook) {
+        synchronized (this) {
+            if (!mFinished) {
+                if (mFinishHooks == null) {
+                    mFinishHooks = new ArrayList<>(1);
+                }
+                mFinishHooks.add(hook);
+                return;
+            }
+        }
+        hook.run();
+    }
+
+    /**
+     * 会话结束，执行结束动作
+     */
+    private void notifyFinished() {
+        List<Runnable> hooks;
+        synchronized (this) {
+            if (mFinished) {
+                return;
+            }
+            mFinished = true;
+            hooks = mFinishHooks;
+            mFinishHooks = null;
+        }
+        if (hooks == null) {
+            return;
+        }
+        for (Runnable hook : hooks) {
+            hook.run();
+        }
     }
 
     /**
@@ -139,7 +228,7 @@ public final class HttpSession<T> {
      * @param response 响应
      */
     final void callOnRequestComplete(HttpResponse<T> response) {
-        if (!mCompleted && mAsyncTask != null && !mAsyncTask.isCancelled() && response != null) {
+        if (!mCompleted && mTask != null && !mTask.isCancelled() && response != null) {
             mCompleted = true;
             if (mCallback != null) {
                 if (response.isSuccess()) {
@@ -149,29 +238,31 @@ public final class HttpSession<T> {
                 }
             }
         }
+        notifyFinished();
     }
 
     /**
      * 通知进度更新。
-     * 运行在主线程
+     * 运行在回调线程
      *
      * @param progress 进度
      */
-    final void callOnProgressUpdate(Bundle progress) {
+    final void callOnProgressUpdate(Map<String, Object> progress) {
         if (!mCompleted && mCallback != null) {
-            Log.i(TAG, "callOnProgressUpdate");
+            HttpPlatform.get().log(TAG, "callOnProgressUpdate");
             mCallback.onProgressUpdate(progress);
         }
     }
 
     /**
      * 通知任务取消。
-     * 运行在主线程
+     * 运行在回调线程
      */
     final void callOnCancelled() {
         if (!mCompleted) {
             mCompleted = true;
-            Log.i(TAG, "callOnCancelled");
+            HttpPlatform.get().log(TAG, "callOnCancelled");
         }
+        notifyFinished();
     }
 }
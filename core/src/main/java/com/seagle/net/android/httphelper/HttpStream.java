@@ -0,0 +1,417 @@
+package com.seagle.net.android.httphelper;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <h1>流式请求.</h1>
+ * 通过{@link HttpHelper#doHttpStream(HttpRequest, HttpStreamPolicy, HttpStreamCallback)}打开的长连接，
+ * 按text/event-stream（Server-Sent Events）或者NDJSON增量解析响应体，每解析出一个事件立即回调。
+ * <p>
+ * 读取连接的线程把事件放入有界缓冲区，由回调执行器按顺序回调；缓冲区满时读取线程等待，不再读取连接。
+ * 连接断开、心跳超时或者服务器返回可以重试的错误时按{@link HttpStreamPolicy}重连，重连请求带上Last-Event-ID，
+ * 直到调用{@link #close()}或者出现不可重试的错误。
+ * 流式请求需要传输层返回可以增量读取的响应体，例如默认的HttpURLConnection实现。
+ *
+ * @author : yuanxiudong66@sina.com
+ */
+public final class HttpStream {
+
+    /**
+     * 缓冲区满时检查流是否已经关闭的间隔，单位：ms
+     */
+    private static final long OFFER_INTERVAL_MILLIS = 100;
+
+    private final HttpRequest mRequest;
+    private final boolean mHttps;
+    private final HttpTransport mTransport;
+    private final HttpsSSLConfig mSSLConfig;
+    private final HttpStreamPolicy mPolicy;
+    private final HttpStreamCallback mCallback;
+
+    /**
+     * 回调执行器，为空时在读取线程中回调
+     */
+    private final Executor mCallbackExecutor;
+
+    /**
+     * 等待回调的事件
+     */
+    private final BlockingQueue<Runnable> mBuffer;
+    private final AtomicBoolean mDraining = new AtomicBoolean();
+    private final Runnable mDrainTask = new Runnable() {
+        @Override
+        public void run() {
+            try {
+                drain();
+            } finally {
+                mDraining.set(false);
+            }
+            if (!mBuffer.isEmpty() || (mClosedAction != null && !mClosedDelivered.get())) {
+                scheduleDrain();
+            }
+        }
+    };
+
+    /**
+     * 结束回调，在缓冲的事件之后回调
+     */
+    private volatile Runnable mClosedAction;
+    private final AtomicBoolean mClosedDelivered = new AtomicBoolean();
+
+    private final Object mLock = new Object();
+    private volatile boolean mClosed;
+    private volatile boolean mUserClosed;
+    private volatile HttpTransportRequest mTransportRequest;
+    private volatile String mLastEventId;
+    private volatile int mReconnectCount;
+    private final AtomicLong mEventCount = new AtomicLong();
+
+    /**
+     * 服务器通过retry字段指定的重连等待时间，小于0表示没有指定
+     */
+    private volatile long mServerRetryMillis = -1;
+
+    HttpStream(HttpRequest request, boolean https, HttpTransport transport, HttpsSSLConfig sslConfig,
+               HttpStreamPolicy policy, HttpStreamCallback callback, Executor callbackExecutor) {
+        mRequest = request;
+        mHttps = https;
+        mTransport = transport;
+        mSSLConfig = sslConfig;
+        mPolicy = policy;
+        mCallback = callback;
+        mCallbackExecutor = callbackExecutor;
+        mBuffer = new ArrayBlockingQueue<>(policy.getBufferCapacity());
+        mLastEventId = request.getRequestHeaders().get("Last-Event-ID");
+    }
+
+    /**
+     * 关闭流，断开连接并停止重连.
+     * 还在缓冲区中的事件不再回调，之后回调{@link HttpStreamCallback#onClosed(int, String)}。
+     */
+    public void close() {
+        mUserClosed = true;
+        mClosed = true;
+        HttpTransportRequest transportRequest = mTransportRequest;
+        if (transportRequest != null) {
+            transportRequest.abort();
+        }
+        synchronized (mLock) {
+            mLock.notifyAll();
+        }
+    }
+
+    public boolean isClosed() {
+        return mClosed;
+    }
+
+    /**
+     * 获取最后收到的事件ID
+     *
+     * @return 事件ID，没有时为null
+     */
+    public String getLastEventId() {
+        return mLastEventId;
+    }
+
+    /**
+     * 获取收到的事件数
+     *
+     * @return 事件数
+     */
+    public long getEventCount() {
+        return mEventCount.get();
+    }
+
+    /**
+     * 获取重连的次数
+     *
+     * @return 次数
+     */
+    public int getReconnectCount() {
+        return mReconnectCount;
+    }
+
+    /**
+     * 获取等待回调的事件数
+     *
+     * @return 事件数
+     */
+    public int getBufferedCount() {
+        return mBuffer.size();
+    }
+
+    /**
+     * 在执行器中开始读取
+     *
+     * @param executor 执行器
+     */
+    void start(Executor executor) {
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    readLoop();
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            finish(HttpResponse.ERROR_CODE_REQUEST_FAILED, "Stream rejected: " + ex.getMessage());
+        }
+    }
+
+    /**
+     * 读取连接，断开后重连
+     */
+    private void readLoop() {
+        int attempt = 0;
+        while (!mClosed) {
+            String reason;
+            try {
+                HttpTransportResponse response = connect();
+                try {
+                    int code = response.getCode();
+                    if (code == 200) {
+                        attempt = 0;
+                        deliver(new Runnable() {
+                            @Override
+                            public void run() {
+                                mCallback.onOpen(HttpStream.this);
+                            }
+                        });
+                        read(response);
+                        reason = "Stream ended";
+                    } else if (code == 204) {
+                        //服务器要求不再重连
+                        finish(HttpResponse.SUCCESS, response.getMessage());
+                        return;
+                    } else if (code >= 500 || code == 408 || code == 429) {
+                        reason = "HTTP " + code + " " + response.getMessage();
+                    } else {
+                        finish(HttpResponse.ERROR_CODE_HTTP, "HTTP " + code + " " + response.getMessage());
+                        return;
+                    }
+                } finally {
+                    response.close();
+                }
+            } catch (SocketTimeoutException ex) {
+                reason = "Heartbeat timeout";
+            } catch (IOException ex) {
+                reason = ex.toString();
+            } finally {
+                mTransportRequest = null;
+            }
+            if (mClosed) {
+                break;
+            }
+            attempt++;
+            int maxRetries = mPolicy.getMaxRetries();
+            if (maxRetries >= 0 && attempt > maxRetries) {
+                finish(HttpResponse.ERROR_CODE_REQUEST_FAILED, reason);
+                return;
+            }
+            final int reconnectAttempt = attempt;
+            final long delay = getRetryDelay(attempt);
+            final String reconnectReason = reason;
+            mReconnectCount++;
+            try {
+                deliver(new Runnable() {
+                    @Override
+                    public void run() {
+                        mCallback.onReconnecting(reconnectAttempt, delay, reconnectReason);
+                    }
+                });
+                waitForRetry(delay);
+            } catch (InterruptedIOException ex) {
+                break;
+            }
+        }
+        finish(HttpResponse.SUCCESS, "Closed");
+    }
+
+    /**
+     * 建立连接
+     *
+     * @return 响应
+     * @throws IOException 连接失败
+     */
+    private HttpTransportResponse connect() throws IOException {
+        String requestPath = mRequest.getRequestPath();
+        Map<String, String> params = mRequest.getRequestParams();
+        if (params != null && !params.isEmpty()) {
+            StringBuilder pathBuilder = new StringBuilder(64);
+            pathBuilder.append(HttpUtils.isEmpty(requestPath) ? "/" : requestPath).append('?');
+            HttpRequestTask.appendParams(pathBuilder, params);
+            requestPath = pathBuilder.toString();
+        }
+        HttpTransportRequest transportRequest = new HttpTransportRequest(HttpRequest.HTTP_GET, mHttps, mRequest.getRequestHost(), requestPath);
+        for (Map.Entry<String, String> header : mRequest.getRequestHeaders().entrySet()) {
+            transportRequest.setHeader(header.getKey(), header.getValue());
+        }
+        transportRequest.setHeader("Accept", "text/event-stream, application/x-ndjson");
+        transportRequest.setHeader("Cache-Control", "no-cache");
+        String lastEventId = mLastEventId;
+        if (!HttpUtils.isEmpty(lastEventId)) {
+            transportRequest.setHeader("Last-Event-ID", lastEventId);
+        }
+        //心跳超时通过读取超时实现
+        transportRequest.setTimeout(mRequest.getRequestTimeout(), (int) mPolicy.getHeartbeatTimeout());
+        if (mHttps) {
+            transportRequest.setSSLConfig(mSSLConfig);
+        }
+        mTransportRequest = transportRequest;
+        if (mClosed) {
+            transportRequest.abort();
+        }
+        return mTransport.execute(transportRequest);
+    }
+
+    /**
+     * 解析响应体直到连接断开
+     *
+     * @param response 响应
+     * @throws IOException 读取失败或者流已经关闭
+     */
+    private void read(HttpTransportResponse response) throws IOException {
+        String contentType = response.getContentType();
+        boolean eventStream = contentType == null || contentType.toLowerCase(Locale.US).contains("event-stream");
+        HttpStreamParser parser = new HttpStreamParser(eventStream, mLastEventId);
+        try {
+            parser.parse(response.getBodyStream(), new HttpStreamParser.Listener() {
+                @Override
+                public void onEvent(final HttpStreamEvent event) throws IOException {
+                    if (event.getId() != null) {
+                        mLastEventId = event.getId();
+                    }
+                    mEventCount.incrementAndGet();
+                    deliver(new Runnable() {
+                        @Override
+                        public void run() {
+                            mCallback.onEvent(event);
+                        }
+                    });
+                }
+
+                @Override
+                public void onRetry(long retryMillis) {
+                    mServerRetryMillis = retryMillis;
+                }
+            });
+        } finally {
+            mLastEventId = parser.getLastEventId();
+        }
+    }
+
+    /**
+     * 计算重连前的等待时间，从初始等待时间开始每次翻倍
+     *
+     * @param attempt 连续重连的次数
+     * @return 等待时间，单位：ms
+     */
+    private long getRetryDelay(int attempt) {
+        long baseMillis = mServerRetryMillis >= 0 ? mServerRetryMillis : mPolicy.getInitialRetryMillis();
+        long maxMillis = Math.max(baseMillis, mPolicy.getMaxRetryMillis());
+        long delay = baseMillis << Math.min(attempt - 1, 30);
+        return delay < 0 ? maxMillis : Math.min(delay, maxMillis);
+    }
+
+    private void waitForRetry(long delay) throws InterruptedIOException {
+        long deadline = System.currentTimeMillis() + delay;
+        synchronized (mLock) {
+            try {
+                long remaining;
+                while (!mClosed && (remaining = deadline - System.currentTimeMillis()) > 0) {
+                    mLock.wait(remaining);
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Stream interrupted");
+            }
+        }
+    }
+
+    /**
+     * 把回调放入缓冲区，缓冲区满时等待
+     *
+     * @param action 回调
+     * @throws InterruptedIOException 流已经关闭
+     */
+    private void deliver(Runnable action) throws InterruptedIOException {
+        if (mCallbackExecutor == null) {
+            if (!mUserClosed) {
+                action.run();
+            }
+            return;
+        }
+        try {
+            while (!mBuffer.offer(action, OFFER_INTERVAL_MILLIS, TimeUnit.MILLISECONDS)) {
+                if (mClosed) {
+                    throw new InterruptedIOException("Stream closed");
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Stream interrupted");
+        }
+        scheduleDrain();
+    }
+
+    /**
+     * 流结束，在缓冲的事件之后回调结束
+     *
+     * @param code    响应码
+     * @param message 消息
+     */
+    private void finish(int code, String message) {
+        mClosed = true;
+        final int closedCode = mUserClosed ? HttpResponse.SUCCESS : code;
+        final String closedMessage = mUserClosed ? "Closed" : message;
+        mClosedAction = new Runnable() {
+            @Override
+            public void run() {
+                mCallback.onClosed(closedCode, closedMessage);
+            }
+        };
+        if (mCallbackExecutor == null) {
+            drain();
+        } else {
+            scheduleDrain();
+        }
+    }
+
+    private void scheduleDrain() {
+        if (mDraining.compareAndSet(false, true)) {
+            try {
+                mCallbackExecutor.execute(mDrainTask);
+            } catch (RejectedExecutionException ex) {
+                mDraining.set(false);
+                mBuffer.clear();
+            }
+        }
+    }
+
+    /**
+     * 按顺序回调缓冲的事件，流被关闭后丢弃剩余的事件，最后回调结束
+     */
+    private void drain() {
+        Runnable action;
+        while ((action = mBuffer.poll()) != null) {
+            if (!mUserClosed) {
+                action.run();
+            }
+        }
+        Runnable closedAction = mClosedAction;
+        if (closedAction != null && mBuffer.isEmpty() && mClosedDelivered.compareAndSet(false, true)) {
+            closedAction.run();
+        }
+    }
+}
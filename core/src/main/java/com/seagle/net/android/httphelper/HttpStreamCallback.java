@@ -0,0 +1,49 @@
+package com.seagle.net.android.httphelper;
+
+/**
+ * 流式请求回调.
+ * 所有回调按顺序运行在{@link HttpStreamPolicy#setCallbackExecutor(java.util.concurrent.Executor)}指定的执行器中。
+ *
+ * @author : yuanxiudong66@sina.com
+ */
+public abstract class HttpStreamCallback {
+
+    /**
+     * 连接建立，包括每次重连成功.
+     *
+     * @param stream 流
+     */
+    protected void onOpen(HttpStream stream) {
+
+    }
+
+    /**
+     * 收到一个事件.
+     *
+     * @param event 事件
+     */
+    protected abstract void onEvent(HttpStreamEvent event);
+
+    /**
+     * 连接断开，等待重连.
+     *
+     * @param attempt     连续重连的次数
+     * @param delayMillis 重连前等待的时间，单位：ms
+     * @param reason      断开原因
+     */
+    protected void onReconnecting(int attempt, long delayMillis, String reason) {
+
+    }
+
+    /**
+     * 流结束，不再重连.
+     * 调用{@link HttpStream#close()}关闭或者服务器返回204时code为{@link HttpResponse#SUCCESS}，
+     * 否则为错误码，例如服务器返回不可重试的错误或者重连次数用完。
+     *
+     * @param code    响应码
+     * @param message 消息
+     */
+    protected void onClosed(int code, String message) {
+
+    }
+}
@@ -0,0 +1,66 @@
+package com.seagle.net.android.httphelper;
+
+/**
+ * <h1>流式响应中的一个事件.</h1>
+ * Server-Sent Events中的一个事件，或者NDJSON中的一行记录。
+ *
+ * @author : yuanxiudong66@sina.com
+ */
+public final class HttpStreamEvent {
+
+    /**
+     * Server-Sent Events没有指定事件类型时的默认类型
+     */
+    public static final String TYPE_MESSAGE = "message";
+
+    /**
+     * NDJSON记录的事件类型
+     */
+    public static final String TYPE_RECORD = "record";
+
+    private final String mId;
+    private final String mType;
+    private final String mData;
+
+    HttpStreamEvent(String id, String type, String data) {
+        mId = id;
+        mType = type;
+        mData = data;
+    }
+
+    /**
+     * 获取事件ID，重连时作为Last-Event-ID发送
+     *
+     * @return 事件ID，没有时为null
+     */
+    public String getId() {
+        return mId;
+    }
+
+    /**
+     * 获取事件类型
+     *
+     * @return 事件类型，参考{@link #TYPE_MESSAGE}、{@link #TYPE_RECORD}
+     */
+    public String getType() {
+        return mType;
+    }
+
+    /**
+     * 获取事件数据，多行数据以换行符连接
+     *
+     * @return 事件数据
+     */
+    public String getData() {
+        return mData;
+    }
+
+    @Override
+    public String toString() {
+        return "HttpStreamEvent{" +
+                "mId='" + mId + '\'' +
+                ", mType='" + mType + '\'' +
+                ", mData='" + mData + '\'' +
+                '}';
+    }
+}
@@ -0,0 +1,180 @@
+package com.seagle.net.android.httphelper;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * 流式响应的增量解析.
+ * 按行解析text/event-stream（Server-Sent Events）或者NDJSON，每解析出一个事件立即交给监听器，
+ * 行结束符支持CRLF、LF和CR。Server-Sent Events按规范处理data、event、id、retry字段，以冒号开头的注释行作为心跳忽略。
+ * Created by seagle on 2018/4/10.
+ */
+final class HttpStreamParser {
+
+    /**
+     * 单行的最大长度，防止异常的服务器耗尽内存
+     */
+    private static final int MAX_LINE_BYTES = 1024 * 1024;
+
+    /**
+     * 解析结果的监听器
+     */
+    interface Listener {
+
+        /**
+         * 解析出一个事件
+         *
+         * @param event 事件
+         * @throws IOException 停止解析
+         */
+        void onEvent(HttpStreamEvent event) throws IOException;
+
+        /**
+         * 服务器指定了重连等待时间
+         *
+         * @param retryMillis 等待时间，单位：ms
+         */
+        void onRetry(long retryMillis);
+    }
+
+    private final boolean mEventStream;
+    private final byte[] mReadBuffer = new byte[8 * 1024];
+    private byte[] mLine = new byte[256];
+    private int mLineLength;
+    private boolean mLastCr;
+
+    /**
+     * 正在解析的事件
+     */
+    private final StringBuilder mData = new StringBuilder();
+    private boolean mHasData;
+    private String mType;
+    private String mLastEventId;
+
+    /**
+     * @param eventStream 是否为text/event-stream，否则按NDJSON解析
+     * @param lastEventId 上一次连接最后的事件ID
+     */
+    HttpStreamParser(boolean eventStream, String lastEventId) {
+        mEventStream = eventStream;
+        mLastEventId = lastEventId;
+    }
+
+    /**
+     * 获取最后的事件ID
+     *
+     * @return 事件ID，没有时为null
+     */
+    String getLastEventId() {
+        return mLastEventId;
+    }
+
+    /**
+     * 解析到流结束，没有结束的事件被丢弃
+     *
+     * @param inStream 响应体
+     * @param listener 监听器
+     * @throws IOException 读取失败
+     */
+    void parse(InputStream inStream, Listener listener) throws IOException {
+        int count;
+        while ((count = inStream.read(mReadBuffer)) != -1) {
+            for (int i = 0; i < count; i++) {
+                byte b = mReadBuffer[i];
+                if (b == '\n') {
+                    if (!mLastCr) {
+                        onLine(listener);
+                    }
+                    mLastCr = false;
+                } else if (b == '\r') {
+                    onLine(listener);
+                    mLastCr = true;
+                } else {
+                    mLastCr = false;
+                    appendByte(b);
+                }
+            }
+        }
+    }
+
+    private void appendByte(byte b) throws IOException {
+        if (mLineLength == mLine.length) {
+            if (mLineLength >= MAX_LINE_BYTES) {
+                throw new IOException("Stream line too long");
+            }
+            mLine = Arrays.copyOf(mLine, Math.min(MAX_LINE_BYTES, mLineLength * 2));
+        }
+        mLine[mLineLength++] = b;
+    }
+
+    private void onLine(Listener listener) throws IOException {
+        String line = new String(mLine, 0, mLineLength, HttpUtils.UTF_8);
+        mLineLength = 0;
+        if (mEventStream) {
+            onEventStreamLine(line, listener);
+        } else if (line.trim().length() > 0) {
+            listener.onEvent(new HttpStreamEvent(null, HttpStreamEvent.TYPE_RECORD, line));
+        }
+    }
+
+    private void onEventStreamLine(String line, Listener listener) throws IOException {
+        if (line.length() == 0) {
+            dispatch(listener);
+            return;
+        }
+        if (line.charAt(0) == ':') {
+            //注释，通常用作心跳
+            return;
+        }
+        String field;
+        String value;
+        int colonIndex = line.indexOf(':');
+        if (colonIndex < 0) {
+            field = line;
+            value = "";
+        } else {
+            field = line.substring(0, colonIndex);
+            int valueIndex = colonIndex + 1;
+            if (valueIndex < line.length() && line.charAt(valueIndex) == ' ') {
+                valueIndex++;
+            }
+            value = line.substring(valueIndex);
+        }
+        if ("data".equals(field)) {
+            if (mHasData) {
+                mData.append('\n');
+            }
+            mData.append(value);
+            mHasData = true;
+        } else if ("event".equals(field)) {
+            mType = value;
+        } else if ("id".equals(field)) {
+            if (value.indexOf('\0') < 0) {
+                mLastEventId = value;
+            }
+        } else if ("retry".equals(field)) {
+            try {
+                listener.onRetry(Long.parseLong(value));
+            } catch (NumberFormatException ex) {
+                //忽略
+            }
+        }
+    }
+
+    /**
+     * 空行结束一个事件，没有data字段的事件不分发
+     */
+    private void dispatch(Listener listener) throws IOException {
+        if (!mHasData) {
+            mType = null;
+            return;
+        }
+        String type = HttpUtils.isEmpty(mType) ? HttpStreamEvent.TYPE_MESSAGE : mType;
+        HttpStreamEvent event = new HttpStreamEvent(mLastEventId, type, mData.toString());
+        mData.setLength(0);
+        mHasData = false;
+        mType = null;
+        listener.onEvent(event);
+    }
+}
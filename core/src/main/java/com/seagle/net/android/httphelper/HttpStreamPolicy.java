@@ -0,0 +1,102 @@
+package com.seagle.net.android.httphelper;
+
+import java.util.concurrent.Executor;
+
+/**
+ * <h1>流式请求配置.</h1>
+ * 心跳超时：超过这个时间没有收到任何数据（包括Server-Sent Events的注释行）时认为连接已经失效，断开重连。
+ * 缓冲：解析出的事件放入有界缓冲区等待回调，缓冲区满时暂停读取连接，由TCP流控让服务器减速。
+ * 重连：连接失败、断开或者服务器返回5xx、408、429时按指数退避重连，服务器通过retry字段指定的时间作为初始等待时间。
+ *
+ * @author : yuanxiudong66@sina.com
+ */
+public final class HttpStreamPolicy {
+
+    private long mHeartbeatTimeoutMillis = 45000;
+    private int mBufferCapacity = 64;
+    private long mInitialRetryMillis = 1000;
+    private long mMaxRetryMillis = 30000;
+    private int mMaxRetries = -1;
+    private Executor mCallbackExecutor;
+    private boolean mCallbackExecutorSet;
+
+    /**
+     * 设置心跳超时时间
+     *
+     * @param heartbeatTimeoutMillis 心跳超时，单位：ms，0表示不超时
+     */
+    public void setHeartbeatTimeout(long heartbeatTimeoutMillis) {
+        if (heartbeatTimeoutMillis < 0 || heartbeatTimeoutMillis > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Invalid heartbeat timeout: " + heartbeatTimeoutMillis);
+        }
+        mHeartbeatTimeoutMillis = heartbeatTimeoutMillis;
+    }
+
+    public long getHeartbeatTimeout() {
+        return mHeartbeatTimeoutMillis;
+    }
+
+    /**
+     * 设置等待回调的事件缓冲区大小
+     *
+     * @param bufferCapacity 缓冲的事件数
+     */
+    public void setBufferCapacity(int bufferCapacity) {
+        if (bufferCapacity <= 0) {
+            throw new IllegalArgumentException("Buffer capacity must be positive");
+        }
+        mBufferCapacity = bufferCapacity;
+    }
+
+    public int getBufferCapacity() {
+        return mBufferCapacity;
+    }
+
+    /**
+     * 设置重连策略
+     *
+     * @param initialRetryMillis 第一次重连前的等待时间，单位：ms，之后每次翻倍
+     * @param maxRetryMillis     最长等待时间，单位：ms
+     * @param maxRetries         连续重连的最大次数，小于0表示不限制，0表示不重连
+     */
+    public void setRetry(long initialRetryMillis, long maxRetryMillis, int maxRetries) {
+        if (initialRetryMillis < 0 || maxRetryMillis < initialRetryMillis) {
+            throw new IllegalArgumentException("Invalid retry delay");
+        }
+        mInitialRetryMillis = initialRetryMillis;
+        mMaxRetryMillis = maxRetryMillis;
+        mMaxRetries = maxRetries;
+    }
+
+    public long getInitialRetryMillis() {
+        return mInitialRetryMillis;
+    }
+
+    public long getMaxRetryMillis() {
+        return mMaxRetryMillis;
+    }
+
+    public int getMaxRetries() {
+        return mMaxRetries;
+    }
+
+    /**
+     * 设置回调执行器，默认使用{@link HttpHelper#setCallbackExecutor(Executor)}的配置
+     *
+     * @param callbackExecutor 回调执行器，为空时在读取连接的线程中回调
+     */
+    public void setCallbackExecutor(Executor callbackExecutor) {
+        mCallbackExecutor = callbackExecutor;
+        mCallbackExecutorSet = true;
+    }
+
+    /**
+     * 获取回调执行器
+     *
+     * @param defaultExecutor 没有设置时使用的执行器
+     * @return 回调执行器
+     */
+    Executor getCallbackExecutor(Executor defaultExecutor) {
+        return mCallbackExecutorSet ? mCallbackExecutor : defaultExecutor;
+    }
+}
@@ -0,0 +1,354 @@
+package com.seagle.net.android.httphelper;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * <h1>流量轨迹记录.</h1>
+ * 把每个请求的形状写入紧凑的二进制文件：提交时间、服务器、路径模板、方法、请求体和响应体大小、
+ * 响应码以及排队、I/O、解码各阶段的耗时。不记录请求参数和响应内容，路径中的数字、UUID等标识替换为{id}。
+ * 通过{@link HttpHelper#setTraceRecorder(HttpTraceRecorder)}启用，用{@link #read(File)}读取，
+ * 可以在本地按原来的节奏重放，对比线程池、传输层等修改前后的性能。
+ * <p>
+ * 文件格式：文件头为魔数"SETR"和版本号1个字节，之后是连续的记录。字符串第一次出现时写入0和UTF字符串，
+ * 之后写入它在字符串表中的序号加1；整数使用变长编码，时间戳为与上一条记录的差值，耗时单位为微秒。
+ *
+ * @author : yuanxiudong66@sina.com
+ */
+public final class HttpTraceRecorder implements Closeable {
+
+    private static final int MAGIC = 0x53455452;
+    private static final int VERSION = 1;
+
+    /**
+     * 请求被取消时记录的响应码
+     */
+    public static final int CODE_CANCELLED = -1;
+
+    private static final Pattern ID_SEGMENT = Pattern.compile(
+            "\\d+|[0-9a-fA-F]{8}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{12}|[0-9a-fA-F]{16,}");
+
+    private final DataOutputStream mOutStream;
+    private final Map<String, Integer> mStrings = new HashMap<>();
+    private long mLastTimestamp;
+    private long mRecordCount;
+    private boolean mClosed;
+
+    /**
+     * 创建记录文件，已经存在时覆盖
+     *
+     * @param file 记录文件
+     * @throws IOException 创建失败
+     */
+    public HttpTraceRecorder(File file) throws IOException {
+        mOutStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 64 * 1024));
+        mOutStream.writeInt(MAGIC);
+        mOutStream.writeByte(VERSION);
+    }
+
+    /**
+     * 获取已经记录的请求数
+     *
+     * @return 请求数
+     */
+    public synchronized long getRecordCount() {
+        return mRecordCount;
+    }
+
+    /**
+     * 把缓冲的记录写入文件
+     *
+     * @throws IOException 写入失败
+     */
+    public synchronized void flush() throws IOException {
+        if (!mClosed) {
+            mOutStream.flush();
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (!mClosed) {
+            mClosed = true;
+            mOutStream.close();
+        }
+    }
+
+    /**
+     * 记录一个请求，写入失败时停止记录
+     *
+     * @param entry 请求的形状
+     */
+    synchronized void record(Entry entry) {
+        if (mClosed) {
+            return;
+        }
+        try {
+            writeVarLong(zigzag(entry.mTimestamp - mLastTimestamp));
+            mLastTimestamp = entry.mTimestamp;
+            writeString(entry.mHost);
+            writeString(entry.mPath);
+            writeString(entry.mMethod);
+            writeVarLong(entry.mRequestBytes + 1);
+            writeVarLong(entry.mResponseBytes + 1);
+            writeVarLong(zigzag(entry.mCode));
+            writeVarLong(entry.mStatusCode);
+            writeVarLong(entry.mQueueMicros);
+            writeVarLong(entry.mIoMicros);
+            writeVarLong(entry.mDecodeMicros);
+            writeVarLong(entry.mTotalMicros);
+            mRecordCount++;
+        } catch (IOException ex) {
+            HttpPlatform.get().log("HttpTraceRecorder", "Write trace failed: " + ex);
+            mClosed = true;
+            try {
+                mOutStream.close();
+            } catch (IOException e) {
+                //忽略
+            }
+        }
+    }
+
+    /**
+     * 读取记录文件
+     *
+     * @param file 记录文件
+     * @return 按记录顺序排列的请求
+     * @throws IOException 读取失败或者格式错误
+     */
+    public static List<Entry> read(File file) throws IOException {
+        DataInputStream inStream = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (inStream.readInt() != MAGIC || inStream.readByte() != VERSION) {
+                throw new IOException("Not a trace file: " + file);
+            }
+            List<Entry> entries = new ArrayList<>();
+            List<String> strings = new ArrayList<>();
+            long timestamp = 0;
+            while (true) {
+                int first = inStream.read();
+                if (first < 0) {
+                    break;
+                }
+                Entry entry = new Entry();
+                timestamp += unzigzag(readVarLong(inStream, first));
+                entry.mTimestamp = timestamp;
+                entry.mHost = readString(inStream, strings);
+                entry.mPath = readString(inStream, strings);
+                entry.mMethod = readString(inStream, strings);
+                entry.mRequestBytes = readVarLong(inStream) - 1;
+                entry.mResponseBytes = readVarLong(inStream) - 1;
+                entry.mCode = (int) unzigzag(readVarLong(inStream));
+                entry.mStatusCode = (int) readVarLong(inStream);
+                entry.mQueueMicros = readVarLong(inStream);
+                entry.mIoMicros = readVarLong(inStream);
+                entry.mDecodeMicros = readVarLong(inStream);
+                entry.mTotalMicros = readVarLong(inStream);
+                entries.add(entry);
+            }
+            return entries;
+        } finally {
+            inStream.close();
+        }
+    }
+
+    /**
+     * 把路径转换成模板，去掉查询参数，数字、UUID和长的十六进制标识替换为{id}
+     *
+     * @param path 路径
+     * @return 路径模板
+     */
+    static String toPathTemplate(String path) {
+        if (HttpUtils.isEmpty(path)) {
+            return "/";
+        }
+        int queryIndex = path.indexOf('?');
+        if (queryIndex >= 0) {
+            path = path.substring(0, queryIndex);
+        }
+        String[] segments = path.split("/", -1);
+        StringBuilder template = new StringBuilder(path.length());
+        for (int i = 0; i < segments.length; i++) {
+            if (i > 0) {
+                template.append('/');
+            }
+            template.append(ID_SEGMENT.matcher(segments[i]).matches() ? "{id}" : segments[i]);
+        }
+        return template.toString();
+    }
+
+    private void writeString(String value) throws IOException {
+        if (value == null) {
+            value = "";
+        }
+        Integer index = mStrings.get(value);
+        if (index != null) {
+            writeVarLong(index + 1);
+            return;
+        }
+        mStrings.put(value, mStrings.size());
+        writeVarLong(0);
+        mOutStream.writeUTF(value);
+    }
+
+    private void writeVarLong(long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            mOutStream.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        mOutStream.writeByte((int) value);
+    }
+
+    private static String readString(DataInputStream inStream, List<String> strings) throws IOException {
+        int index = (int) readVarLong(inStream);
+        if (index == 0) {
+            String value = inStream.readUTF();
+            strings.add(value);
+            return value;
+        }
+        if (index > strings.size()) {
+            throw new IOException("Invalid string index: " + index);
+        }
+        return strings.get(index - 1);
+    }
+
+    private static long readVarLong(DataInputStream inStream) throws IOException {
+        int first = inStream.read();
+        if (first < 0) {
+            throw new EOFException("Truncated trace record");
+        }
+        return readVarLong(inStream, first);
+    }
+
+    private static long readVarLong(DataInputStream inStream, int first) throws IOException {
+        long value = first & 0x7F;
+        int shift = 7;
+        int b = first;
+        while ((b & 0x80) != 0) {
+            b = inStream.read();
+            if (b < 0) {
+                throw new EOFException("Truncated trace record");
+            }
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        }
+        return value;
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * 一个请求的形状
+     */
+    public static final class Entry {
+        long mTimestamp;
+        String mHost;
+        String mPath;
+        String mMethod;
+        long mRequestBytes = -1;
+        long mResponseBytes = -1;
+        int mCode;
+        int mStatusCode;
+        long mQueueMicros;
+        long mIoMicros;
+        long mDecodeMicros;
+        long mTotalMicros;
+
+        /**
+         * @return 提交请求的时间，单位：ms
+         */
+        public long getTimestamp() {
+            return mTimestamp;
+        }
+
+        public String getHost() {
+            return mHost;
+        }
+
+        /**
+         * @return 路径模板，标识替换为{id}
+         */
+        public String getPath() {
+            return mPath;
+        }
+
+        public String getMethod() {
+            return mMethod;
+        }
+
+        /**
+         * @return 请求体大小，未知时为-1
+         */
+        public long getRequestBytes() {
+            return mRequestBytes;
+        }
+
+        /**
+         * @return 响应体大小，未知时为-1
+         */
+        public long getResponseBytes() {
+            return mResponseBytes;
+        }
+
+        /**
+         * @return 响应码，参考{@link HttpResponse#getCode()}，取消时为{@link #CODE_CANCELLED}
+         */
+        public int getCode() {
+            return mCode;
+        }
+
+        /**
+         * @return HTTP状态码，没有收到响应时为0
+         */
+        public int getStatusCode() {
+            return mStatusCode;
+        }
+
+        /**
+         * @return 从提交到开始I/O的排队时间，单位：us
+         */
+        public long getQueueMicros() {
+            return mQueueMicros;
+        }
+
+        /**
+         * @return I/O阶段耗时，单位：us
+         */
+        public long getIoMicros() {
+            return mIoMicros;
+        }
+
+        /**
+         * @return 从I/O完成到解码完成的耗时，单位：us
+         */
+        public long getDecodeMicros() {
+            return mDecodeMicros;
+        }
+
+        /**
+         * @return 从提交到完成的总耗时，单位：us
+         */
+        public long getTotalMicros() {
+            return mTotalMicros;
+        }
+    }
+}
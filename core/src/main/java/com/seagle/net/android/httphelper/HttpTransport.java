@@ -0,0 +1,27 @@
+package com.seagle.net.android.httphelper;
+
+import java.io.IOException;
+
+/**
+ * <h1>HTTP传输层.</h1>
+ * 负责把一个已经组装好的{@link HttpTransportRequest}发送到服务器并返回响应，
+ * 请求参数的组装以及响应的解析仍然由HttpHelper完成。
+ * 默认使用HttpURLConnection实现，可以通过{@link HttpHelper#setTransport(HttpTransport)}替换，
+ * 例如基于NIO的{@link NioHttpTransport}。
+ * 实现类需要是线程安全的，同一个实例会被多个请求线程同时调用。
+ *
+ * @author : yuanxiudong66@sina.com
+ */
+public interface HttpTransport {
+
+    /**
+     * 执行请求，阻塞直到收到响应头部.
+     * 调用者读取完响应后需要调用{@link HttpTransportResponse#close()}释放连接。
+     * 请求被{@link HttpTransportRequest#abort()}中止时，需要尽快抛出IO异常。
+     *
+     * @param request 请求
+     * @return 响应
+     * @throws IOException 连接或者读写失败
+     */
+    HttpTransportResponse execute(HttpTransportRequest request) throws IOException;
+}
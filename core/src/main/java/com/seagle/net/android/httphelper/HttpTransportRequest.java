@@ -0,0 +1,278 @@
+package com.seagle.net.android.httphelper;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * <h1>传输层请求</h1>
+ * HttpHelper根据{@link HttpRequest}组装好的、可以直接发送的请求：地址、方法、请求头以及请求体。
+ *
+ * @author : yuanxiudong66@sina.com
+ */
+public final class HttpTransportRequest {
+
+    /**
+     * 请求方法
+     */
+    private final String mMethod;
+
+    /**
+     * 是否是HTTPS请求
+     */
+    private final boolean mHttps;
+
+    /**
+     * 服务器地址，不包括端口
+     */
+    private final String mHostName;
+
+    /**
+     * 服务器端口
+     */
+    private final int mPort;
+
+    /**
+     * 请求路径，包括查询参数
+     */
+    private final String mPath;
+
+    /**
+     * 请求头部
+     */
+    private final Map<String, String> mHeaders = new LinkedHashMap<>();
+
+    /**
+     * 请求体，为空表示没有请求体
+     */
+    private BodyWriter mBodyWriter;
+
+    /**
+     * 请求体长度，小于0表示未知
+     */
+    private long mContentLength = -1;
+
+    /**
+     * 连接超时时间，单位：ms
+     */
+    private int mConnectTimeout;
+
+    /**
+     * 读取超时时间，单位：ms
+     */
+    private int mReadTimeout;
+
+    /**
+     * HTTPS配置
+     */
+    private HttpsSSLConfig mSSLConfig;
+
+    /**
+     * 响应体读入内存的上限，单位：字节，小于等于0表示不限制
+     */
+    private long mMaxBodyBytes;
+
+    /**
+     * 是否已经中止
+     */
+    private volatile boolean mAborted;
+
+    /**
+     * 中止时执行的动作，由传输层设置
+     */
+    private volatile Runnable mAbortAction;
+
+    /**
+     * 构造请求
+     *
+     * @param method 请求方法
+     * @param https  是否是HTTPS请求
+     * @param host   服务器地址，可以包括端口
+     * @param path   请求路径，包括查询参数，为空时请求根路径
+     */
+    HttpTransportRequest(String method, boolean https, String host, String path) {
+        mMethod = method;
+        mHttps = https;
+        int portIndex = host.lastIndexOf(':');
+        if (portIndex > 0 && host.indexOf(']', portIndex) < 0) {
+            mHostName = host.substring(0, portIndex);
+            mPort = Integer.parseInt(host.substring(portIndex + 1));
+        } else {
+            mHostName = host;
+            mPort = https ? 443 : 80;
+        }
+        mPath = (path == null || path.length() == 0) ? "/" : path;
+    }
+
+    public String getMethod() {
+        return mMethod;
+    }
+
+    public boolean isHttps() {
+        return mHttps;
+    }
+
+    public String getHostName() {
+        return mHostName;
+    }
+
+    public int getPort() {
+        return mPort;
+    }
+
+    /**
+     * 获取请求路径，包括查询参数
+     *
+     * @return 请求路径
+     */
+    public String getPath() {
+        return mPath;
+    }
+
+    /**
+     * 获取完整的请求地址
+     *
+     * @return 请求地址
+     */
+    public String getUrl() {
+        boolean defaultPort = mPort == (mHttps ? 443 : 80);
+        return (mHttps ? "https://" : "http://") + mHostName + (defaultPort ? "" : ":" + mPort) + mPath;
+    }
+
+    /**
+     * 获取HTTP Host头部的值
+     *
+     * @return 服务器地址，非默认端口时包括端口
+     */
+    public String getHostHeader() {
+        boolean defaultPort = mPort == (mHttps ? 443 : 80);
+        return defaultPort ? mHostName : mHostName + ":" + mPort;
+    }
+
+    void setHeader(String key, String value) {
+        mHeaders.put(key, value);
+    }
+
+    public String getHeader(String key) {
+        for (Map.Entry<String, String> header : mHeaders.entrySet()) {
+            if (header.getKey().equalsIgnoreCase(key)) {
+                return header.getValue();
+            }
+        }
+        return null;
+    }
+
+    public Map<String, String> getHeaders() {
+        return Collections.unmodifiableMap(mHeaders);
+    }
+
+    void setBody(BodyWriter bodyWriter, long contentLength) {
+        mBodyWriter = bodyWriter;
+        mContentLength = contentLength;
+    }
+
+    /**
+     * 获取请求体
+     *
+     * @return 请求体，为空表示没有请求体
+     */
+    public BodyWriter getBody() {
+        return mBodyWriter;
+    }
+
+    /**
+     * 获取请求体长度
+     *
+     * @return 长度，小于0表示未知
+     */
+    public long getContentLength() {
+        return mContentLength;
+    }
+
+    void setTimeout(int connectTimeout, int readTimeout) {
+        mConnectTimeout = connectTimeout;
+        mReadTimeout = readTimeout;
+    }
+
+    public int getConnectTimeout() {
+        return mConnectTimeout;
+    }
+
+    public int getReadTimeout() {
+        return mReadTimeout;
+    }
+
+    void setSSLConfig(HttpsSSLConfig sslConfig) {
+        mSSLConfig = sslConfig;
+    }
+
+    /**
+     * 获取HTTPS配置
+     *
+     * @return 配置，为空时使用系统默认配置
+     */
+    public HttpsSSLConfig getSSLConfig() {
+        return mSSLConfig;
+    }
+
+    void setMaxBodyBytes(long maxBodyBytes) {
+        mMaxBodyBytes = maxBodyBytes;
+    }
+
+    /**
+     * 获取响应体读入内存的上限.
+     * 把响应体完整读入内存的传输层超出上限时需要停止读取，抛出{@link HttpBodyTooLargeException}；
+     * 返回响应体流的传输层可以忽略，由调用者边读边检查。
+     *
+     * @return 上限，单位：字节，小于等于0表示不限制
+     */
+    public long getMaxBodyBytes() {
+        return mMaxBodyBytes;
+    }
+
+    /**
+     * 中止请求，断开请求正在使用的连接
+     */
+    public void abort() {
+        mAborted = true;
+        Runnable abortAction = mAbortAction;
+        if (abortAction != null) {
+            abortAction.run();
+        }
+    }
+
+    public boolean isAborted() {
+        return mAborted;
+    }
+
+    /**
+     * 设置中止动作，传输层在开始连接前设置.
+     * 如果请求已经中止，立即抛出异常。
+     *
+     * @param abortAction 中止动作，为空表示清除
+     * @throws InterruptedIOException 请求已经中止
+     */
+    public void setAbortAction(Runnable abortAction) throws InterruptedIOException {
+        mAbortAction = abortAction;
+        if (mAborted && abortAction != null) {
+            abortAction.run();
+            throw new InterruptedIOException("Request aborted!");
+        }
+    }
+
+    /**
+     * 请求体输出
+     */
+    public interface BodyWriter {
+        /**
+         * 把请求体写入输出流
+         *
+         * @param outStream 输出流
+         * @throws IOException 输出异常
+         */
+        void writeTo(OutputStream outStream) throws IOException;
+    }
+}
@@ -0,0 +1,193 @@
+package com.seagle.net.android.httphelper;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * <h1>传输层响应</h1>
+ * 响应状态、响应头部以及响应体。响应体可以是流，也可以是已经完整读取的ByteBuffer。
+ * 使用完毕后需要调用{@link #close()}释放连接。
+ *
+ * @author : yuanxiudong66@sina.com
+ */
+public final class HttpTransportResponse implements Closeable {
+
+    /**
+     * HTTP响应码
+     */
+    private final int mCode;
+
+    /**
+     * HTTP响应消息
+     */
+    private final String mMessage;
+
+    /**
+     * 响应头部，名称不区分大小写
+     */
+    private final Map<String, String> mHeaders = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+
+    /**
+     * 响应体流
+     */
+    private final InputStream mBodyStream;
+
+    /**
+     * 完整读取的响应体
+     */
+    private final ByteBuffer mBodyBuffer;
+
+    /**
+     * 关闭时释放的连接
+     */
+    private final Closeable mConnection;
+
+    /**
+     * 构造流式响应
+     *
+     * @param code       响应码
+     * @param message    响应消息
+     * @param headers    响应头部，同名头部以逗号连接
+     * @param bodyStream 响应体，可以为空
+     * @param connection 关闭响应时释放的连接，可以为空
+     */
+    public HttpTransportResponse(int code, String message, Map<String, String> headers, InputStream bodyStream, Closeable connection) {
+        mCode = code;
+        mMessage = message;
+        if (headers != null) {
+            putHeaders(headers);
+        }
+        mBodyStream = bodyStream;
+        mBodyBuffer = null;
+        mConnection = connection;
+    }
+
+    /**
+     * 构造已经完整读取响应体的响应
+     *
+     * @param code       响应码
+     * @param message    响应消息
+     * @param headers    响应头部，同名头部以逗号连接
+     * @param bodyBuffer 响应体，可以为空
+     */
+    public HttpTransportResponse(int code, String message, Map<String, String> headers, ByteBuffer bodyBuffer) {
+        mCode = code;
+        mMessage = message;
+        if (headers != null) {
+            putHeaders(headers);
+        }
+        mBodyBuffer = bodyBuffer;
+        mBodyStream = null;
+        mConnection = null;
+    }
+
+    private void putHeaders(Map<String, String> headers) {
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            if (header.getKey() != null) {
+                mHeaders.put(header.getKey(), header.getValue());
+            }
+        }
+    }
+
+    public int getCode() {
+        return mCode;
+    }
+
+    public String getMessage() {
+        return mMessage;
+    }
+
+    /**
+     * 获取响应头部
+     *
+     * @param name 名称，不区分大小写
+     * @return 值
+     */
+    public String getHeader(String name) {
+        return mHeaders.get(name);
+    }
+
+    public Map<String, String> getHeaders() {
+        return Collections.unmodifiableMap(mHeaders);
+    }
+
+    /**
+     * 获取响应体长度
+     *
+     * @return 长度，小于0表示未知
+     */
+    public long getContentLength() {
+        if (mBodyBuffer != null) {
+            return mBodyBuffer.remaining();
+        }
+        String contentLength = mHeaders.get("Content-Length");
+        if (contentLength != null) {
+            try {
+                return Long.parseLong(contentLength.trim());
+            } catch (NumberFormatException ex) {
+                return -1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 获取响应体的内容类型
+     *
+     * @return Content-Type，可能为空
+     */
+    public String getContentType() {
+        String contentType = mHeaders.get("Content-Type");
+        return contentType == null ? null : contentType.toLowerCase(Locale.US);
+    }
+
+    /**
+     * 获取响应体流
+     *
+     * @return 响应体流，没有响应体时返回空流
+     */
+    public InputStream getBodyStream() {
+        if (mBodyStream != null) {
+            return mBodyStream;
+        }
+        if (mBodyBuffer != null) {
+            ByteBuffer buffer = mBodyBuffer.duplicate();
+            if (buffer.hasArray()) {
+                return new ByteArrayInputStream(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+            }
+            byte[] data = new byte[buffer.remaining()];
+            buffer.get(data);
+            return new ByteArrayInputStream(data);
+        }
+        return new ByteArrayInputStream(new byte[0]);
+    }
+
+    /**
+     * 获取已经完整读取的响应体
+     *
+     * @return 只读的响应体，流式响应返回空
+     */
+    public ByteBuffer getBodyBuffer() {
+        return mBodyBuffer == null ? null : mBodyBuffer.asReadOnlyBuffer();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            if (mBodyStream != null) {
+                mBodyStream.close();
+            }
+        } finally {
+            if (mConnection != null) {
+                mConnection.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package com.seagle.net.android.httphelper;
+
+import java.nio.charset.Charset;
+import java.nio.charset.IllegalCharsetNameException;
+import java.nio.charset.UnsupportedCharsetException;
+
+/**
+ * 工具方法.
+ *
+ * @author : yuanxiudong66@sina.com
+ */
+final class HttpUtils {
+
+    /**
+     * 默认字符集
+     */
+    static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final char[] BASE64_CHARS = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+
+    private HttpUtils() {
+    }
+
+    /**
+     * Base64编码，带填充
+     *
+     * @param data 数据
+     * @return 编码后的字符串
+     */
+    static String encodeBase64(byte[] data) {
+        StringBuilder builder = new StringBuilder((data.length + 2) / 3 * 4);
+        for (int i = 0; i < data.length; i += 3) {
+            int b0 = data[i] & 0xFF;
+            int b1 = i + 1 < data.length ? data[i + 1] & 0xFF : 0;
+            int b2 = i + 2 < data.length ? data[i + 2] & 0xFF : 0;
+            builder.append(BASE64_CHARS[b0 >> 2]);
+            builder.append(BASE64_CHARS[((b0 & 0x03) << 4) | (b1 >> 4)]);
+            builder.append(i + 1 < data.length ? BASE64_CHARS[((b1 & 0x0F) << 2) | (b2 >> 6)] : '=');
+            builder.append(i + 2 < data.length ? BASE64_CHARS[b2 & 0x3F] : '=');
+        }
+        return builder.toString();
+    }
+
+    /**
+     * 字符串是否为空
+     *
+     * @param str 字符串
+     * @return 为null或者长度为0时返回true
+     */
+    static boolean isEmpty(CharSequence str) {
+        return str == null || str.length() == 0;
+    }
+
+    /**
+     * 字符串是否相同
+     *
+     * @param a 字符串，可以为空
+     * @param b 字符串，可以为空
+     * @return 都为null或者内容相同时返回true
+     */
+    static boolean equals(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    /**
+     * 从Content-Type中获取字符集
+     *
+     * @param contentType    Content-Type，可以为空
+     * @param defaultCharset 没有指定或者不支持时使用的字符集
+     * @return 字符集
+     */
+    static Charset getCharset(String contentType, Charset defaultCharset) {
+        if (isEmpty(contentType)) {
+            return defaultCharset;
+        }
+        for (String param : contentType.split(";")) {
+            param = param.trim();
+            if (param.regionMatches(true, 0, "charset=", 0, 8)) {
+                String name = param.substring(8).trim();
+                if (name.length() > 1 && name.startsWith("\"") && name.endsWith("\"")) {
+                    name = name.substring(1, name.length() - 1);
+                }
+                try {
+                    return Charset.forName(name);
+                } catch (IllegalCharsetNameException | UnsupportedCharsetException ex) {
+                    return defaultCharset;
+                }
+            }
+        }
+        return defaultCharset;
+    }
+}
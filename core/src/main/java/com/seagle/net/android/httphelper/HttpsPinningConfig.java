@@ -0,0 +1,417 @@
+package com.seagle.net.android.httphelper;
+
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.Certificate;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLPeerUnverifiedException;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * <h1>证书锁定.</h1>
+ * 在正常的证书链和域名验证之外，要求服务器证书链中至少有一个证书的公钥与锁定的公钥相同。
+ * 锁定值为证书SubjectPublicKeyInfo的SHA-256摘要，格式为"sha256/"加Base64，可以通过{@link #pinOf(Certificate)}计算。
+ * 域名支持"*.example.com"匹配一级子域名，没有锁定的域名只做正常的验证。
+ * <p>
+ * 验证成功的结果按TLS会话和证书链缓存，缓存大小有上限。同一个会话或者相同的证书链再次连接时不再计算摘要。
+ * 会话按对象缓存，不按会话ID缓存：会话ID由服务器选择并且明文传输，中间人可以在完整握手中使用已经验证过的会话ID。
+ * 通过{@link #setPins(Map)}可以在运行时替换锁定值，之后的连接立即使用新的锁定值，SSLSocketFactory不需要重建。
+ * <p>
+ * 使用HttpURLConnection时，对锁定的域名在创建连接时完成握手并验证，不依赖HostnameVerifier是否被调用；
+ * 使用{@link NioHttpTransport}时在握手完成后通过{@link #verify(String, SSLSession)}验证。
+ *
+ * @author : yuanxiudong66@sina.com
+ */
+public class HttpsPinningConfig extends HttpsSSLConfig {
+
+    /**
+     * 默认的验证结果缓存大小
+     */
+    public static final int DEFAULT_CACHE_SIZE = 256;
+
+    private static final String PIN_PREFIX = "sha256/";
+
+    private final SSLContext mSSLContext;
+    private final SSLSocketFactory mSocketFactory;
+    private final HostnameVerifier mHostnameVerifier;
+    private final int mCacheSize;
+
+    /**
+     * 当前的锁定值，替换时整体替换
+     */
+    private volatile PinSet mPinSet = new PinSet(Collections.<String, Set<String>>emptyMap(), 0);
+
+    /**
+     * 验证成功的会话和证书链，值为验证时锁定值的版本
+     */
+    private final LinkedHashMap<Object, Long> mVerified = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long mCacheHitCount;
+    private long mCacheMissCount;
+    private long mFailureCount;
+
+    /**
+     * 使用系统默认的证书验证和域名验证
+     */
+    public HttpsPinningConfig() {
+        this(null, null, DEFAULT_CACHE_SIZE);
+    }
+
+    /**
+     * @param sslContext       SSLContext，为空时使用系统默认的证书验证
+     * @param hostnameVerifier 域名验证，为空时使用系统默认的域名验证
+     * @param cacheSize        验证结果缓存大小
+     */
+    public HttpsPinningConfig(SSLContext sslContext, HostnameVerifier hostnameVerifier, int cacheSize) {
+        if (cacheSize <= 0) {
+            throw new IllegalArgumentException("Cache size must be positive");
+        }
+        if (sslContext == null) {
+            try {
+                sslContext = SSLContext.getDefault();
+            } catch (NoSuchAlgorithmException ex) {
+                throw new IllegalStateException("No default SSLContext", ex);
+            }
+        }
+        mSSLContext = sslContext;
+        mSocketFactory = new PinningSocketFactory(sslContext.getSocketFactory());
+        mHostnameVerifier = hostnameVerifier != null ? hostnameVerifier : HttpsURLConnection.getDefaultHostnameVerifier();
+        mCacheSize = cacheSize;
+    }
+
+    /**
+     * 替换全部锁定值.
+     * 每个域名的锁定值通常包括当前证书和备用证书的公钥，避免证书更换后无法连接。
+     *
+     * @param pins 域名和锁定值，锁定值格式为"sha256/"加Base64
+     */
+    public void setPins(Map<String, ? extends Collection<String>> pins) {
+        Map<String, Set<String>> pinMap = new HashMap<>();
+        for (Map.Entry<String, ? extends Collection<String>> entry : pins.entrySet()) {
+            Set<String> hostPins = new HashSet<>();
+            for (String pin : entry.getValue()) {
+                if (pin == null || !pin.startsWith(PIN_PREFIX) || pin.length() == PIN_PREFIX.length()) {
+                    throw new IllegalArgumentException("Pin must be sha256/<base64>: " + pin);
+                }
+                hostPins.add(pin);
+            }
+            if (!hostPins.isEmpty()) {
+                pinMap.put(entry.getKey().toLowerCase(Locale.US), Collections.unmodifiableSet(hostPins));
+            }
+        }
+        synchronized (this) {
+            mPinSet = new PinSet(pinMap, mPinSet.mVersion + 1);
+            mVerified.clear();
+        }
+    }
+
+    /**
+     * 获取域名的锁定值
+     *
+     * @param host 域名
+     * @return 锁定值，没有锁定时为空
+     */
+    public Set<String> getPins(String host) {
+        return mPinSet.find(host);
+    }
+
+    /**
+     * 计算证书的锁定值
+     *
+     * @param certificate 证书
+     * @return "sha256/"加公钥SubjectPublicKeyInfo的SHA-256摘要的Base64
+     */
+    public static String pinOf(Certificate certificate) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return PIN_PREFIX + HttpUtils.encodeBase64(digest.digest(certificate.getPublicKey().getEncoded()));
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * 获取命中验证结果缓存的次数
+     *
+     * @return 次数
+     */
+    public synchronized long getCacheHitCount() {
+        return mCacheHitCount;
+    }
+
+    /**
+     * 获取没有命中缓存、重新计算摘要的次数
+     *
+     * @return 次数
+     */
+    public synchronized long getCacheMissCount() {
+        return mCacheMissCount;
+    }
+
+    /**
+     * 获取锁定验证失败的次数
+     *
+     * @return 次数
+     */
+    public synchronized long getFailureCount() {
+        return mFailureCount;
+    }
+
+    @Override
+    public SSLSocketFactory getSSLSocketFactory() {
+        return mSocketFactory;
+    }
+
+    @Override
+    public SSLContext getTransportSSLContext() {
+        return mSSLContext;
+    }
+
+    @Override
+    public boolean verify(String hostname, SSLSession session) {
+        return mHostnameVerifier.verify(hostname, session) && checkPins(hostname, session);
+    }
+
+    /**
+     * 验证证书链是否匹配锁定值
+     *
+     * @param host    域名
+     * @param session TLS会话
+     * @return 没有锁定或者匹配时返回true
+     */
+    boolean checkPins(String host, SSLSession session) {
+        PinSet pinSet = mPinSet;
+        Set<String> pins = pinSet.find(host);
+        if (pins == null) {
+            return true;
+        }
+        SessionKey sessionKey = new SessionKey(host, session);
+        if (isVerified(sessionKey, pinSet.mVersion)) {
+            return true;
+        }
+        Certificate[] chain;
+        try {
+            chain = session.getPeerCertificates();
+        } catch (SSLPeerUnverifiedException ex) {
+            onFailure();
+            return false;
+        }
+        ChainKey chainKey = new ChainKey(host, chain);
+        if (isVerified(chainKey, pinSet.mVersion)) {
+            remember(sessionKey, pinSet.mVersion);
+            return true;
+        }
+        synchronized (this) {
+            mCacheMissCount++;
+        }
+        for (Certificate certificate : chain) {
+            if (pins.contains(pinOf(certificate))) {
+                remember(chainKey, pinSet.mVersion);
+                remember(sessionKey, pinSet.mVersion);
+                return true;
+            }
+        }
+        onFailure();
+        return false;
+    }
+
+    private synchronized boolean isVerified(Object key, long version) {
+        Long verifiedVersion = mVerified.get(key);
+        if (verifiedVersion != null && verifiedVersion == version) {
+            mCacheHitCount++;
+            return true;
+        }
+        return false;
+    }
+
+    private synchronized void remember(Object key, long version) {
+        if (version != mPinSet.mVersion) {
+            //锁定值已经被替换
+            return;
+        }
+        mVerified.put(key, version);
+        if (mVerified.size() > mCacheSize) {
+            mVerified.remove(mVerified.keySet().iterator().next());
+        }
+    }
+
+    private synchronized void onFailure() {
+        mFailureCount++;
+    }
+
+    /**
+     * 锁定值的快照
+     */
+    private static final class PinSet {
+        private final Map<String, Set<String>> mPins;
+        private final long mVersion;
+
+        private PinSet(Map<String, Set<String>> pins, long version) {
+            mPins = pins;
+            mVersion = version;
+        }
+
+        private Set<String> find(String host) {
+            if (host == null || mPins.isEmpty()) {
+                return null;
+            }
+            host = host.toLowerCase(Locale.US);
+            Set<String> pins = mPins.get(host);
+            int dotIndex = host.indexOf('.');
+            if (pins == null && dotIndex > 0) {
+                pins = mPins.get("*" + host.substring(dotIndex));
+            }
+            return pins;
+        }
+    }
+
+    /**
+     * 按TLS会话对象缓存，会话按引用比较，会话被回收后这一项不会再命中，按LRU淘汰
+     */
+    private static final class SessionKey {
+        private final String mHost;
+        private final WeakReference<SSLSession> mSession;
+        private final int mHashCode;
+
+        private SessionKey(String host, SSLSession session) {
+            mHost = host;
+            mSession = new WeakReference<>(session);
+            mHashCode = host.toLowerCase(Locale.US).hashCode() * 31 + System.identityHashCode(session);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof SessionKey)) {
+                return false;
+            }
+            SessionKey other = (SessionKey) o;
+            SSLSession session = mSession.get();
+            return session != null && session == other.mSession.get() && mHost.equalsIgnoreCase(other.mHost);
+        }
+
+        @Override
+        public int hashCode() {
+            return mHashCode;
+        }
+    }
+
+    /**
+     * 按证书链缓存，证书按编码比较，不计算摘要
+     */
+    private static final class ChainKey {
+        private final String mHost;
+        private final Certificate[] mChain;
+        private final int mHashCode;
+
+        private ChainKey(String host, Certificate[] chain) {
+            mHost = host;
+            mChain = chain;
+            mHashCode = host.toLowerCase(Locale.US).hashCode() * 31 + Arrays.hashCode(chain);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof ChainKey)) {
+                return false;
+            }
+            ChainKey other = (ChainKey) o;
+            return mHashCode == other.mHashCode && mHost.equalsIgnoreCase(other.mHost) && Arrays.equals(mChain, other.mChain);
+        }
+
+        @Override
+        public int hashCode() {
+            return mHashCode;
+        }
+    }
+
+    /**
+     * 锁定的域名在创建连接时完成握手并验证.
+     * 不实现无参数的createSocket()，HttpURLConnection会先建立普通连接，再通过createSocket(Socket, String, int, boolean)创建TLS连接。
+     */
+    private final class PinningSocketFactory extends SSLSocketFactory {
+        private final SSLSocketFactory mDelegate;
+
+        private PinningSocketFactory(SSLSocketFactory delegate) {
+            mDelegate = delegate;
+        }
+
+        @Override
+        public String[] getDefaultCipherSuites() {
+            return mDelegate.getDefaultCipherSuites();
+        }
+
+        @Override
+        public String[] getSupportedCipherSuites() {
+            return mDelegate.getSupportedCipherSuites();
+        }
+
+        @Override
+        public Socket createSocket(Socket socket, String host, int port, boolean autoClose) throws IOException {
+            return check(mDelegate.createSocket(socket, host, port, autoClose), host);
+        }
+
+        @Override
+        public Socket createSocket(String host, int port) throws IOException {
+            return check(mDelegate.createSocket(host, port), host);
+        }
+
+        @Override
+        public Socket createSocket(String host, int port, InetAddress localHost, int localPort) throws IOException {
+            return check(mDelegate.createSocket(host, port, localHost, localPort), host);
+        }
+
+        @Override
+        public Socket createSocket(InetAddress host, int port) throws IOException {
+            return check(mDelegate.createSocket(host, port), host.getHostName());
+        }
+
+        @Override
+        public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort) throws IOException {
+            return check(mDelegate.createSocket(address, port, localAddress, localPort), address.getHostName());
+        }
+
+        private Socket check(Socket socket, String host) throws IOException {
+            if (!(socket instanceof SSLSocket) || mPinSet.find(host) == null) {
+                return socket;
+            }
+            SSLSocket sslSocket = (SSLSocket) socket;
+            boolean success = false;
+            try {
+                sslSocket.startHandshake();
+                if (!checkPins(host, sslSocket.getSession())) {
+                    throw new SSLPeerUnverifiedException("Certificate pinning failure for " + host);
+                }
+                success = true;
+                return socket;
+            } finally {
+                if (!success) {
+                    socket.close();
+                }
+            }
+        }
+    }
+}
@@ -25,6 +25,16 @@ public abstract class HttpsSSLConfig implements HostnameVerifier {
      */
     public abstract SSLSocketFactory getSSLSocketFactory();
 
+    /**
+     * 获取NIO传输层使用的SSLContext，{@link NioHttpTransport}通过它创建SSLEngine.
+     * 默认返回空，使用系统默认的证书验证。
+     *
+     * @return SSLContext
+     */
+    public SSLContext getTransportSSLContext() {
+        return null;
+    }
+
     /**
      * 支持指定load-der.crt证书验证
      *
@@ -0,0 +1,505 @@
+package com.seagle.net.android.httphelper;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.UnsupportedEncodingException;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <h1>内存回环传输层.</h1>
+ * 不访问网络，按照预先配置的路由从内存返回响应，用于在普通JVM上进行可重复的性能和功能测试。
+ * 每个路由可以配置：
+ * <ul>
+ * <li>响应码、响应头部、响应体，或者根据请求动态生成响应体的{@link Responder}。</li>
+ * <li>首字节延迟的分布，例如固定、均匀、正态、对数正态、指数分布。</li>
+ * <li>带宽上限，请求体和响应体按带宽计算传输时间。</li>
+ * <li>分块慢速返回响应体，模拟chunked响应和慢速网络。</li>
+ * <li>故障注入：连接失败、读取超时、响应体传输中连接重置。</li>
+ * </ul>
+ * 随机数使用固定的种子，相同的种子和相同的请求顺序得到相同的延迟和故障序列。
+ * 通过{@link HttpHelper#setTransport(HttpTransport)}替换默认传输层即可，调用者不需要修改。
+ *
+ * @author : yuanxiudong66@sina.com
+ */
+public final class LoopbackTransport implements HttpTransport {
+
+    /**
+     * 路由，按添加顺序匹配
+     */
+    private final List<Route> mRoutes = new ArrayList<>();
+
+    /**
+     * 没有匹配的路由时使用的路由
+     */
+    private final Route mNotFoundRoute = new Route(null, "/");
+
+    private final Random mRandom;
+
+    public LoopbackTransport() {
+        this(0);
+    }
+
+    /**
+     * 构造回环传输层
+     *
+     * @param seed 随机数种子
+     */
+    public LoopbackTransport(long seed) {
+        mRandom = new Random(seed);
+        mNotFoundRoute.setResponse(404, "Not Found");
+    }
+
+    /**
+     * 添加路由
+     *
+     * @param method     请求方法，为空时匹配全部方法
+     * @param pathPrefix 请求路径前缀，不包括查询参数
+     * @return 路由，通过路由的方法配置响应
+     */
+    public Route addRoute(String method, String pathPrefix) {
+        Route route = new Route(method, pathPrefix);
+        synchronized (mRoutes) {
+            mRoutes.add(route);
+        }
+        return route;
+    }
+
+    /**
+     * 获取没有匹配的路由时使用的路由，默认返回404
+     *
+     * @return 路由
+     */
+    public Route getNotFoundRoute() {
+        return mNotFoundRoute;
+    }
+
+    @Override
+    public HttpTransportResponse execute(HttpTransportRequest request) throws IOException {
+        final Route route = findRoute(request);
+        route.mRequestCount.incrementAndGet();
+        final Call call = new Call();
+        request.setAbortAction(new Runnable() {
+            @Override
+            public void run() {
+                call.abort();
+            }
+        });
+
+        //请求体
+        byte[] requestBody = null;
+        HttpTransportRequest.BodyWriter bodyWriter = request.getBody();
+        if (bodyWriter != null) {
+            ByteArrayOutputStream bodyStream = new ByteArrayOutputStream();
+            bodyWriter.writeTo(bodyStream);
+            requestBody = bodyStream.toByteArray();
+        }
+
+        //首字节延迟以及故障
+        long latencyMillis;
+        double failure;
+        synchronized (mRandom) {
+            latencyMillis = route.mLatency != null ? Math.max(0, route.mLatency.nextDelayMillis(mRandom)) : 0;
+            failure = mRandom.nextDouble();
+        }
+        if (failure < route.mConnectFailureRate) {
+            call.sleep(latencyMillis);
+            route.mFailureCount.incrementAndGet();
+            throw new ConnectException("Injected connect failure: " + request.getUrl());
+        }
+        failure -= route.mConnectFailureRate;
+        if (failure >= 0 && failure < route.mTimeoutRate) {
+            call.sleep(request.getReadTimeout() > 0 ? request.getReadTimeout() : latencyMillis);
+            route.mFailureCount.incrementAndGet();
+            throw new SocketTimeoutException("Injected read timeout: " + request.getUrl());
+        }
+        failure -= route.mTimeoutRate;
+        boolean reset = failure >= 0 && failure < route.mResetRate;
+        if (requestBody != null && route.mBandwidth > 0) {
+            latencyMillis += requestBody.length * 1000L / route.mBandwidth;
+        }
+        call.sleep(latencyMillis);
+
+        //响应
+        byte[] responseBody = route.mResponder != null ? route.mResponder.respond(request, requestBody) : route.mBody;
+        if (responseBody == null || "HEAD".equalsIgnoreCase(request.getMethod())) {
+            responseBody = new byte[0];
+        }
+        Map<String, String> headers = new LinkedHashMap<>(route.mHeaders);
+        if (route.mChunkSize > 0) {
+            headers.put("Transfer-Encoding", "chunked");
+        } else {
+            headers.put("Content-Length", String.valueOf(responseBody.length));
+        }
+        long resetAt = -1;
+        if (reset) {
+            route.mFailureCount.incrementAndGet();
+            resetAt = responseBody.length / 2;
+        }
+        InputStream bodyStream = new DripInputStream(call, responseBody, route.mChunkSize, route.mBandwidth, resetAt);
+        return new HttpTransportResponse(route.mCode, route.mMessage, headers, bodyStream, null);
+    }
+
+    private Route findRoute(HttpTransportRequest request) {
+        String path = request.getPath();
+        int queryIndex = path.indexOf('?');
+        if (queryIndex >= 0) {
+            path = path.substring(0, queryIndex);
+        }
+        synchronized (mRoutes) {
+            for (Route route : mRoutes) {
+                if ((route.mMethod == null || route.mMethod.equalsIgnoreCase(request.getMethod())) && path.startsWith(route.mPathPrefix)) {
+                    return route;
+                }
+            }
+        }
+        return mNotFoundRoute;
+    }
+
+    /**
+     * 延迟分布
+     */
+    public interface LatencyModel {
+        /**
+         * 生成下一次的延迟
+         *
+         * @param random 随机数
+         * @return 延迟，单位：ms
+         */
+        long nextDelayMillis(Random random);
+    }
+
+    /**
+     * 动态生成响应体
+     */
+    public interface Responder {
+        /**
+         * 生成响应体
+         *
+         * @param request     请求
+         * @param requestBody 请求体，没有请求体时为空
+         * @return 响应体
+         * @throws IOException 生成失败，作为传输异常抛给调用者
+         */
+        byte[] respond(HttpTransportRequest request, byte[] requestBody) throws IOException;
+    }
+
+    /**
+     * 固定延迟
+     *
+     * @param millis 延迟，单位：ms
+     * @return 延迟分布
+     */
+    public static LatencyModel fixedLatency(final long millis) {
+        return new LatencyModel() {
+            @Override
+            public long nextDelayMillis(Random random) {
+                return millis;
+            }
+        };
+    }
+
+    /**
+     * 均匀分布的延迟
+     *
+     * @param minMillis 最小延迟，单位：ms
+     * @param maxMillis 最大延迟，单位：ms
+     * @return 延迟分布
+     */
+    public static LatencyModel uniformLatency(final long minMillis, final long maxMillis) {
+        return new LatencyModel() {
+            @Override
+            public long nextDelayMillis(Random random) {
+                return minMillis + (long) (random.nextDouble() * (maxMillis - minMillis));
+            }
+        };
+    }
+
+    /**
+     * 正态分布的延迟，负数按0处理
+     *
+     * @param meanMillis   平均延迟，单位：ms
+     * @param stddevMillis 标准差，单位：ms
+     * @return 延迟分布
+     */
+    public static LatencyModel normalLatency(final double meanMillis, final double stddevMillis) {
+        return new LatencyModel() {
+            @Override
+            public long nextDelayMillis(Random random) {
+                return Math.round(meanMillis + random.nextGaussian() * stddevMillis);
+            }
+        };
+    }
+
+    /**
+     * 对数正态分布的延迟，长尾，接近真实网络的延迟分布
+     *
+     * @param medianMillis 延迟中位数，单位：ms
+     * @param sigma        对数标准差，越大尾部越长，例如0.5时p99大约是中位数的3倍
+     * @return 延迟分布
+     */
+    public static LatencyModel logNormalLatency(final double medianMillis, final double sigma) {
+        return new LatencyModel() {
+            @Override
+            public long nextDelayMillis(Random random) {
+                return Math.round(medianMillis * Math.exp(random.nextGaussian() * sigma));
+            }
+        };
+    }
+
+    /**
+     * 指数分布的延迟
+     *
+     * @param meanMillis 平均延迟，单位：ms
+     * @return 延迟分布
+     */
+    public static LatencyModel exponentialLatency(final double meanMillis) {
+        return new LatencyModel() {
+            @Override
+            public long nextDelayMillis(Random random) {
+                return Math.round(-meanMillis * Math.log(1 - random.nextDouble()));
+            }
+        };
+    }
+
+    /**
+     * 路由，配置匹配请求的响应.
+     * 配置方法可以在请求进行中调用，新的配置对之后的请求生效。
+     */
+    public static final class Route {
+        private final String mMethod;
+        private final String mPathPrefix;
+        private volatile int mCode = 200;
+        private volatile String mMessage = "OK";
+        private volatile Map<String, String> mHeaders = Collections.emptyMap();
+        private volatile byte[] mBody;
+        private volatile Responder mResponder;
+        private volatile LatencyModel mLatency;
+        private volatile long mBandwidth;
+        private volatile int mChunkSize;
+        private volatile double mConnectFailureRate;
+        private volatile double mTimeoutRate;
+        private volatile double mResetRate;
+        private final AtomicLong mRequestCount = new AtomicLong();
+        private final AtomicLong mFailureCount = new AtomicLong();
+
+        private Route(String method, String pathPrefix) {
+            mMethod = method;
+            mPathPrefix = pathPrefix == null ? "/" : pathPrefix;
+        }
+
+        /**
+         * 设置响应状态
+         *
+         * @param code    响应码
+         * @param message 响应消息
+         */
+        public void setResponse(int code, String message) {
+            mCode = code;
+            mMessage = message;
+        }
+
+        /**
+         * 设置响应头部
+         *
+         * @param name  名称
+         * @param value 值
+         */
+        public void setHeader(String name, String value) {
+            synchronized (this) {
+                Map<String, String> headers = new LinkedHashMap<>(mHeaders);
+                headers.put(name, value);
+                mHeaders = headers;
+            }
+        }
+
+        /**
+         * 设置固定的响应体
+         *
+         * @param body 响应体
+         */
+        public void setBody(byte[] body) {
+            mBody = body;
+            mResponder = null;
+        }
+
+        /**
+         * 设置固定的UTF-8文本响应体
+         *
+         * @param body 响应体
+         */
+        public void setBody(String body) {
+            try {
+                setBody(body.getBytes("UTF-8"));
+            } catch (UnsupportedEncodingException ex) {
+                throw new IllegalStateException(ex);
+            }
+        }
+
+        /**
+         * 设置动态生成响应体
+         *
+         * @param responder 响应体生成
+         */
+        public void setResponder(Responder responder) {
+            mResponder = responder;
+        }
+
+        /**
+         * 设置首字节延迟
+         *
+         * @param latency 延迟分布，为空表示没有延迟
+         */
+        public void setLatency(LatencyModel latency) {
+            mLatency = latency;
+        }
+
+        /**
+         * 设置带宽上限
+         *
+         * @param bytesPerSecond 每秒字节数，0表示不限制
+         */
+        public void setBandwidth(long bytesPerSecond) {
+            mBandwidth = Math.max(0, bytesPerSecond);
+        }
+
+        /**
+         * 设置分块返回响应体，响应使用chunked编码，每次读取最多返回一块
+         *
+         * @param chunkSize 每块的字节数，0表示不分块
+         */
+        public void setChunkSize(int chunkSize) {
+            mChunkSize = Math.max(0, chunkSize);
+        }
+
+        /**
+         * 设置故障注入的概率，三种故障的概率之和不能超过1
+         *
+         * @param connectFailureRate 连接失败的概率
+         * @param timeoutRate        读取超时的概率，请求等待读取超时时间后失败
+         * @param resetRate          响应体传输到一半时连接重置的概率
+         */
+        public void setFailureRates(double connectFailureRate, double timeoutRate, double resetRate) {
+            if (connectFailureRate < 0 || timeoutRate < 0 || resetRate < 0 || connectFailureRate + timeoutRate + resetRate > 1) {
+                throw new IllegalArgumentException("Invalid failure rates");
+            }
+            mConnectFailureRate = connectFailureRate;
+            mTimeoutRate = timeoutRate;
+            mResetRate = resetRate;
+        }
+
+        /**
+         * 获取匹配的请求数
+         *
+         * @return 请求数
+         */
+        public long getRequestCount() {
+            return mRequestCount.get();
+        }
+
+        /**
+         * 获取注入故障的请求数
+         *
+         * @return 请求数
+         */
+        public long getFailureCount() {
+            return mFailureCount.get();
+        }
+    }
+
+    /**
+     * 一次请求，支持中止等待
+     */
+    private static final class Call {
+        private final CountDownLatch mAbortLatch = new CountDownLatch(1);
+
+        private void abort() {
+            mAbortLatch.countDown();
+        }
+
+        /**
+         * 等待，请求中止时抛出异常
+         *
+         * @param millis 等待时间，单位：ms
+         * @throws InterruptedIOException 请求中止或者线程被中断
+         */
+        private void sleep(long millis) throws InterruptedIOException {
+            try {
+                if (mAbortLatch.await(Math.max(0, millis), TimeUnit.MILLISECONDS)) {
+                    throw new InterruptedIOException("Request aborted!");
+                }
+            } catch (InterruptedException ex) {
+                throw new InterruptedIOException("Request interrupted!");
+            }
+        }
+    }
+
+    /**
+     * 按带宽和分块大小返回响应体
+     */
+    private static final class DripInputStream extends InputStream {
+        private final Call mCall;
+        private final byte[] mData;
+        private final int mChunkSize;
+        private final long mBandwidth;
+        private final long mResetAt;
+        private final long mStartNanos = System.nanoTime();
+        private int mPosition;
+
+        private DripInputStream(Call call, byte[] data, int chunkSize, long bandwidth, long resetAt) {
+            mCall = call;
+            mData = data;
+            mChunkSize = chunkSize;
+            mBandwidth = bandwidth;
+            mResetAt = resetAt;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] buffer = new byte[1];
+            int len = read(buffer, 0, 1);
+            return len < 0 ? -1 : buffer[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (mResetAt >= 0 && mPosition >= mResetAt) {
+                throw new IOException("Injected connection reset");
+            }
+            if (mPosition >= mData.length) {
+                return -1;
+            }
+            int count = Math.min(length, mData.length - mPosition);
+            if (mChunkSize > 0) {
+                count = Math.min(count, mChunkSize);
+            }
+            if (mResetAt >= 0) {
+                count = (int) Math.min(count, Math.max(1, mResetAt - mPosition));
+            }
+            if (mBandwidth > 0) {
+                //按照开始时间计算本块应该到达的时间，避免累积误差
+                long arriveNanos = mStartNanos + (mPosition + count) * TimeUnit.SECONDS.toNanos(1) / mBandwidth;
+                mCall.sleep(TimeUnit.NANOSECONDS.toMillis(arriveNanos - System.nanoTime()));
+            }
+            System.arraycopy(mData, mPosition, buffer, offset, count);
+            mPosition += count;
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return mBandwidth > 0 ? 0 : mData.length - mPosition;
+        }
+    }
+}
@@ -0,0 +1,1235 @@
+package com.seagle.net.android.httphelper;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLPeerUnverifiedException;
+
+/**
+ * <h1>基于NIO的HTTP/1.1传输层.</h1>
+ * 使用少量Selector线程驱动全部连接，连接数不再受线程数限制：
+ * <ul>
+ * <li>{@link #enqueue(HttpTransportRequest, Callback)}异步提交请求，响应体完整读取后以ByteBuffer回调，
+ * 几千个并发请求只需要几个线程。</li>
+ * <li>{@link #execute(HttpTransportRequest)}同步提交，可以直接作为HttpHelper的传输层。</li>
+ * </ul>
+ * HTTPS通过SSLEngine实现，证书使用{@link HttpsSSLConfig#getTransportSSLContext()}，域名使用HttpsSSLConfig验证；
+ * 没有配置时使用系统默认的证书和域名验证。
+ * 请求完成后连接保留在空闲连接池中，相同服务器的后续请求直接复用。
+ * 不支持自动解压缩，请求没有Accept-Encoding头部时服务器返回原始数据。
+ *
+ * @author : yuanxiudong66@sina.com
+ */
+public final class NioHttpTransport implements HttpTransport {
+
+    /**
+     * 空闲连接的最长保留时间
+     */
+    private static final long IDLE_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(30);
+
+    /**
+     * 超时检查的间隔
+     */
+    private static final long TIMEOUT_CHECK_INTERVAL_MILLIS = 100;
+
+    /**
+     * 每次从连接读取的最大字节数
+     */
+    private static final int READ_BUFFER_SIZE = 16 * 1024;
+
+    /**
+     * 管线化行为异常的服务器在黑名单中保留的时间
+     */
+    private static final long PIPELINE_BLACKLIST_NANOS = TimeUnit.MINUTES.toNanos(10);
+
+    private static final ByteBuffer EMPTY_BUFFER = ByteBuffer.allocate(0);
+
+    /**
+     * Selector线程
+     */
+    private final SelectorLoop[] mLoops;
+
+    /**
+     * 每个服务器最多保留的空闲连接数
+     */
+    private final int mMaxIdleConnections;
+
+    /**
+     * 是否启用管线化
+     */
+    private volatile boolean mPipelining;
+
+    /**
+     * 一个连接上最多同时发送的请求数
+     */
+    private volatile int mMaxPipelineDepth = 1;
+
+    /**
+     * 管线化行为异常的服务器，值为加入黑名单的时间
+     */
+    private final ConcurrentHashMap<String, Long> mPipelineBlacklist = new ConcurrentHashMap<>();
+
+    /**
+     * 在其它请求之后追加发送的请求数
+     */
+    private final AtomicLong mPipelinedCount = new AtomicLong();
+
+    /**
+     * 管线化连接异常后重新发送的请求数
+     */
+    private final AtomicLong mPipelineReplayCount = new AtomicLong();
+
+    private volatile boolean mShutdown;
+
+    public NioHttpTransport() {
+        this(Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors())), 8);
+    }
+
+    /**
+     * 构造传输层
+     *
+     * @param selectorCount      Selector线程数
+     * @param maxIdleConnections 每个服务器最多保留的空闲连接数
+     */
+    public NioHttpTransport(int selectorCount, int maxIdleConnections) {
+        mMaxIdleConnections = Math.max(0, maxIdleConnections);
+        mLoops = new SelectorLoop[Math.max(1, selectorCount)];
+        for (int i = 0; i < mLoops.length; i++) {
+            try {
+                mLoops[i] = new SelectorLoop("NioHttpTransport-" + i);
+            } catch (IOException ex) {
+                throw new IllegalStateException("Open selector failed", ex);
+            }
+            mLoops[i].mThread.start();
+        }
+    }
+
+    @Override
+    public HttpTransportResponse execute(HttpTransportRequest request) throws IOException {
+        BlockingCallback callback = new BlockingCallback();
+        enqueue(request, callback);
+        try {
+            callback.mLatch.await();
+        } catch (InterruptedException ex) {
+            request.abort();
+            throw new InterruptedIOException("Request interrupted!");
+        }
+        if (callback.mError != null) {
+            throw callback.mError;
+        }
+        return callback.mResponse;
+    }
+
+    /**
+     * 异步提交请求.
+     * 请求体在调用线程中序列化，域名解析也在调用线程中完成，回调运行在Selector线程，
+     * 回调中不能执行耗时操作。
+     *
+     * @param request  请求
+     * @param callback 回调
+     */
+    public void enqueue(HttpTransportRequest request, Callback callback) {
+        if (mShutdown) {
+            callback.onFailure(request, new IOException("Transport shutdown!"));
+            return;
+        }
+        final Exchange exchange;
+        try {
+            InetSocketAddress address = new InetSocketAddress(request.getHostName(), request.getPort());
+            if (address.isUnresolved()) {
+                throw new UnknownHostException("Unable to resolve host: " + request.getHostName());
+            }
+            exchange = new Exchange(request, callback, encodeRequest(request), address);
+        } catch (IOException ex) {
+            callback.onFailure(request, ex);
+            return;
+        }
+        //同一个服务器固定在同一个Selector线程上，保证空闲连接可以复用
+        final SelectorLoop loop = mLoops[(poolKey(request).hashCode() & Integer.MAX_VALUE) % mLoops.length];
+        try {
+            request.setAbortAction(new Runnable() {
+                @Override
+                public void run() {
+                    loop.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            loop.fail(exchange, new InterruptedIOException("Request aborted!"));
+                        }
+                    });
+                }
+            });
+        } catch (InterruptedIOException ex) {
+            callback.onFailure(request, ex);
+            return;
+        }
+        loop.post(new Runnable() {
+            @Override
+            public void run() {
+                loop.start(exchange);
+            }
+        });
+    }
+
+    /**
+     * 设置HTTP/1.1管线化，默认关闭.
+     * 启用后，同一个服务器的幂等请求（没有请求体的GET和HEAD）在一个keep-alive连接上连续发送，
+     * 不再等待前一个响应，响应按发送顺序匹配；高延迟网络上N个小请求只需要大约一个往返。
+     * 服务器处理管线化请求异常时，未完成的请求在新连接上逐个重新发送，该服务器加入黑名单，一段时间内不再管线化。
+     *
+     * @param enabled  是否启用
+     * @param maxDepth 一个连接上最多同时发送的请求数
+     */
+    public void setPipelining(boolean enabled, int maxDepth) {
+        mMaxPipelineDepth = Math.max(1, maxDepth);
+        mPipelining = enabled && maxDepth > 1;
+    }
+
+    /**
+     * 服务器是否因为管线化异常被加入黑名单
+     *
+     * @param hostName 服务器地址
+     * @param port     端口
+     * @return true or false
+     */
+    public boolean isPipeliningBlacklisted(String hostName, int port) {
+        return isPipeliningBlacklisted(hostName + ":" + port);
+    }
+
+    /**
+     * 获取在其它请求之后追加发送、没有等待前一个响应的请求数
+     *
+     * @return 请求数
+     */
+    public long getPipelinedRequestCount() {
+        return mPipelinedCount.get();
+    }
+
+    /**
+     * 获取管线化连接异常后重新发送的请求数
+     *
+     * @return 请求数
+     */
+    public long getPipelineReplayCount() {
+        return mPipelineReplayCount.get();
+    }
+
+    private boolean isPipeliningBlacklisted(String hostKey) {
+        Long blacklistTime = mPipelineBlacklist.get(hostKey);
+        if (blacklistTime == null) {
+            return false;
+        }
+        if (System.nanoTime() - blacklistTime > PIPELINE_BLACKLIST_NANOS) {
+            mPipelineBlacklist.remove(hostKey, blacklistTime);
+            return false;
+        }
+        return true;
+    }
+
+    private void blacklistPipelining(String hostKey) {
+        mPipelineBlacklist.put(hostKey, System.nanoTime());
+    }
+
+    /**
+     * 关闭传输层，断开全部连接，未完成的请求以异常结束
+     */
+    public void shutdown() {
+        mShutdown = true;
+        for (final SelectorLoop loop : mLoops) {
+            loop.post(new Runnable() {
+                @Override
+                public void run() {
+                    loop.closeAll();
+                }
+            });
+        }
+    }
+
+    /**
+     * 把请求序列化成HTTP/1.1报文
+     *
+     * @param request 请求
+     * @return 读模式的报文
+     * @throws IOException 请求体输出失败
+     */
+    private static ByteBuffer encodeRequest(HttpTransportRequest request) throws IOException {
+        byte[] body = null;
+        HttpTransportRequest.BodyWriter bodyWriter = request.getBody();
+        if (bodyWriter != null) {
+            ByteArrayOutputStream bodyStream = new ByteArrayOutputStream(request.getContentLength() > 0 ? (int) request.getContentLength() : 256);
+            bodyWriter.writeTo(bodyStream);
+            body = bodyStream.toByteArray();
+        }
+        StringBuilder headBuilder = new StringBuilder(256);
+        headBuilder.append(request.getMethod()).append(' ').append(request.getPath()).append(" HTTP/1.1\r\n");
+        headBuilder.append("Host: ").append(request.getHostHeader()).append("\r\n");
+        boolean hasConnection = false;
+        for (Map.Entry<String, String> header : request.getHeaders().entrySet()) {
+            String name = header.getKey();
+            if ("Host".equalsIgnoreCase(name) || "Content-Length".equalsIgnoreCase(name) || "Transfer-Encoding".equalsIgnoreCase(name)) {
+                continue;
+            }
+            hasConnection |= "Connection".equalsIgnoreCase(name);
+            headBuilder.append(name).append(": ").append(header.getValue()).append("\r\n");
+        }
+        if (!hasConnection) {
+            headBuilder.append("Connection: keep-alive\r\n");
+        }
+        if (body != null) {
+            headBuilder.append("Content-Length: ").append(body.length).append("\r\n");
+        }
+        headBuilder.append("\r\n");
+        byte[] head = headBuilder.toString().getBytes("UTF-8");
+        ByteBuffer buffer = ByteBuffer.allocate(head.length + (body == null ? 0 : body.length));
+        buffer.put(head);
+        if (body != null) {
+            buffer.put(body);
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * 异步请求回调，运行在Selector线程.
+     */
+    public interface Callback {
+        /**
+         * 收到完整的响应
+         *
+         * @param request  请求
+         * @param response 响应，响应体通过{@link HttpTransportResponse#getBodyBuffer()}获取
+         */
+        void onResponse(HttpTransportRequest request, HttpTransportResponse response);
+
+        /**
+         * 请求失败
+         *
+         * @param request 请求
+         * @param ex      异常
+         */
+        void onFailure(HttpTransportRequest request, IOException ex);
+    }
+
+    /**
+     * 同步请求的回调
+     */
+    private static final class BlockingCallback implements Callback {
+        private final CountDownLatch mLatch = new CountDownLatch(1);
+        private HttpTransportResponse mResponse;
+        private IOException mError;
+
+        @Override
+        public void onResponse(HttpTransportRequest request, HttpTransportResponse response) {
+            mResponse = response;
+            mLatch.countDown();
+        }
+
+        @Override
+        public void onFailure(HttpTransportRequest request, IOException ex) {
+            mError = ex;
+            mLatch.countDown();
+        }
+    }
+
+    /**
+     * 一次请求响应交换
+     */
+    private static final class Exchange {
+        private final HttpTransportRequest mRequest;
+        private final Callback mCallback;
+        private final ByteBuffer mRequestData;
+        private final InetSocketAddress mAddress;
+        private HttpResponseParser mParser;
+        private Connection mConnection;
+        private boolean mReusedConnection;
+        private boolean mFinished;
+
+        /**
+         * 是否是可以管线化的幂等请求
+         */
+        private final boolean mPipelineAllowed;
+
+        /**
+         * 是否已经因为连接异常重新发送过
+         */
+        private boolean mReplayed;
+
+        private Exchange(HttpTransportRequest request, Callback callback, ByteBuffer requestData, InetSocketAddress address) {
+            mRequest = request;
+            mCallback = callback;
+            mRequestData = requestData;
+            mAddress = address;
+            mParser = new HttpResponseParser("HEAD".equalsIgnoreCase(request.getMethod()), request.getMaxBodyBytes());
+            mPipelineAllowed = ("GET".equalsIgnoreCase(request.getMethod()) || "HEAD".equalsIgnoreCase(request.getMethod()))
+                    && request.getBody() == null && !"close".equalsIgnoreCase(request.getHeader("Connection"));
+        }
+
+        /**
+         * 重置发送状态，准备在新连接上重新发送
+         */
+        private void reset() {
+            mRequestData.rewind();
+            mParser = new HttpResponseParser("HEAD".equalsIgnoreCase(mRequest.getMethod()), mRequest.getMaxBodyBytes());
+            mConnection = null;
+            mReusedConnection = false;
+        }
+    }
+
+    /**
+     * Selector线程，管理一组连接以及空闲连接池
+     */
+    private final class SelectorLoop implements Runnable {
+        private final Selector mSelector;
+        private final Thread mThread;
+        private final Queue<Runnable> mTasks = new ConcurrentLinkedQueue<>();
+        private final Map<String, ArrayDeque<Connection>> mIdleConnections = new HashMap<>();
+
+        /**
+         * 正在管线化发送请求的连接
+         */
+        private final Map<String, List<Connection>> mPipelines = new HashMap<>();
+        private long mLastTimeoutCheck;
+
+        private SelectorLoop(String name) throws IOException {
+            mSelector = Selector.open();
+            mThread = new Thread(this, name);
+            mThread.setDaemon(true);
+        }
+
+        private void post(Runnable task) {
+            mTasks.add(task);
+            mSelector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            while (!mShutdown || !mSelector.keys().isEmpty()) {
+                try {
+                    mSelector.select(TIMEOUT_CHECK_INTERVAL_MILLIS);
+                } catch (IOException ex) {
+                    ex.printStackTrace();
+                }
+                Runnable task;
+                while ((task = mTasks.poll()) != null) {
+                    task.run();
+                }
+                Iterator<SelectionKey> iterator = mSelector.selectedKeys().iterator();
+                while (iterator.hasNext()) {
+                    SelectionKey key = iterator.next();
+                    iterator.remove();
+                    Connection connection = (Connection) key.attachment();
+                    if (key.isValid()) {
+                        connection.onReady(key.readyOps());
+                    }
+                }
+                long now = System.nanoTime();
+                if (now - mLastTimeoutCheck >= TimeUnit.MILLISECONDS.toNanos(TIMEOUT_CHECK_INTERVAL_MILLIS)) {
+                    mLastTimeoutCheck = now;
+                    checkTimeouts(now);
+                }
+                if (mShutdown && mTasks.isEmpty()) {
+                    closeAll();
+                }
+            }
+            try {
+                mSelector.close();
+            } catch (IOException ex) {
+                ex.printStackTrace();
+            }
+        }
+
+        /**
+         * 开始请求，可以管线化时优先追加到正在管线化的连接，其次复用空闲连接
+         */
+        private void start(Exchange exchange) {
+            if (exchange.mFinished) {
+                return;
+            }
+            HttpTransportRequest request = exchange.mRequest;
+            String poolKey = poolKey(request);
+            boolean pipeline = mPipelining && exchange.mPipelineAllowed && !exchange.mReplayed
+                    && !isPipeliningBlacklisted(hostKey(request));
+            Connection connection = pipeline ? findPipeline(poolKey) : null;
+            if (connection != null) {
+                connection.send(exchange);
+                return;
+            }
+            ArrayDeque<Connection> idleConnections = mIdleConnections.get(poolKey);
+            connection = idleConnections == null ? null : idleConnections.pollLast();
+            if (connection != null) {
+                if (pipeline) {
+                    addPipeline(connection);
+                }
+                connection.send(exchange);
+                return;
+            }
+            try {
+                connection = new Connection(this, poolKey, request);
+                connection.connect(exchange);
+                if (pipeline) {
+                    addPipeline(connection);
+                }
+            } catch (IOException ex) {
+                finish(exchange, null, ex);
+                if (connection != null) {
+                    connection.close();
+                }
+            }
+        }
+
+        /**
+         * 请求中止，关闭请求使用的连接，连接上其它未完成的请求重新发送
+         */
+        private void fail(Exchange exchange, IOException ex) {
+            if (exchange.mFinished) {
+                return;
+            }
+            Connection connection = exchange.mConnection;
+            finish(exchange, null, ex);
+            if (connection != null) {
+                connection.abandon(null, false);
+            }
+        }
+
+        /**
+         * 查找还可以追加请求的管线化连接，选择排队请求最少的连接
+         */
+        private Connection findPipeline(String poolKey) {
+            List<Connection> connections = mPipelines.get(poolKey);
+            if (connections == null) {
+                return null;
+            }
+            int maxDepth = mMaxPipelineDepth;
+            Connection best = null;
+            for (Connection connection : connections) {
+                if (connection.canPipeline(maxDepth) && (best == null || connection.mInFlight.size() < best.mInFlight.size())) {
+                    best = connection;
+                }
+            }
+            return best;
+        }
+
+        private void addPipeline(Connection connection) {
+            List<Connection> connections = mPipelines.get(connection.mPoolKey);
+            if (connections == null) {
+                connections = new ArrayList<>();
+                mPipelines.put(connection.mPoolKey, connections);
+            }
+            if (!connections.contains(connection)) {
+                connections.add(connection);
+            }
+        }
+
+        private void removePipeline(Connection connection) {
+            List<Connection> connections = mPipelines.get(connection.mPoolKey);
+            if (connections != null) {
+                connections.remove(connection);
+                if (connections.isEmpty()) {
+                    mPipelines.remove(connection.mPoolKey);
+                }
+            }
+        }
+
+        private void finish(Exchange exchange, HttpTransportResponse response, IOException ex) {
+            if (exchange.mFinished) {
+                return;
+            }
+            exchange.mFinished = true;
+            exchange.mConnection = null;
+            try {
+                exchange.mRequest.setAbortAction(null);
+            } catch (InterruptedIOException ignored) {
+                //清除中止动作不会抛出异常
+            }
+            try {
+                if (ex != null) {
+                    exchange.mCallback.onFailure(exchange.mRequest, ex);
+                } else {
+                    exchange.mCallback.onResponse(exchange.mRequest, response);
+                }
+            } catch (RuntimeException callbackEx) {
+                callbackEx.printStackTrace();
+            }
+        }
+
+        /**
+         * 连接完成请求后放回空闲连接池
+         */
+        private void release(Connection connection) {
+            ArrayDeque<Connection> idleConnections = mIdleConnections.get(connection.mPoolKey);
+            if (idleConnections == null) {
+                idleConnections = new ArrayDeque<>();
+                mIdleConnections.put(connection.mPoolKey, idleConnections);
+            }
+            if (mShutdown || idleConnections.size() >= mMaxIdleConnections) {
+                connection.close();
+                return;
+            }
+            connection.mIdleSince = System.nanoTime();
+            idleConnections.addLast(connection);
+        }
+
+        private void removeIdle(Connection connection) {
+            ArrayDeque<Connection> idleConnections = mIdleConnections.get(connection.mPoolKey);
+            if (idleConnections != null) {
+                idleConnections.remove(connection);
+                if (idleConnections.isEmpty()) {
+                    mIdleConnections.remove(connection.mPoolKey);
+                }
+            }
+        }
+
+        private void checkTimeouts(long now) {
+            List<Connection> expired = new ArrayList<>();
+            for (SelectionKey key : mSelector.keys()) {
+                Connection connection = (Connection) key.attachment();
+                if (connection.isExpired(now)) {
+                    expired.add(connection);
+                }
+            }
+            for (Connection connection : expired) {
+                connection.onTimeout();
+            }
+        }
+
+        private void closeAll() {
+            List<Connection> connections = new ArrayList<>();
+            for (SelectionKey key : mSelector.keys()) {
+                connections.add((Connection) key.attachment());
+            }
+            for (Connection connection : connections) {
+                connection.onError(new IOException("Transport shutdown!"));
+            }
+            mIdleConnections.clear();
+            mPipelines.clear();
+        }
+    }
+
+    /**
+     * 服务器标识，用于管线化黑名单
+     */
+    private static String hostKey(HttpTransportRequest request) {
+        return request.getHostName() + ":" + request.getPort();
+    }
+
+    /**
+     * 空闲连接池的键，HTTPS连接只在相同的HttpsSSLConfig之间复用
+     */
+    private static String poolKey(HttpTransportRequest request) {
+        String key = (request.isHttps() ? "https://" : "http://") + hostKey(request);
+        if (request.isHttps() && request.getSSLConfig() != null) {
+            key += "#" + System.identityHashCode(request.getSSLConfig());
+        }
+        return key;
+    }
+
+    /**
+     * 一个HTTP连接.
+     * 请求按发送顺序排队，响应按相同的顺序匹配；没有启用管线化时队列中最多只有一个请求。
+     */
+    private final class Connection {
+        private final SelectorLoop mLoop;
+        private final String mPoolKey;
+        private final String mHostKey;
+        private final String mHostName;
+        private final SocketChannel mChannel;
+        private final SelectionKey mKey;
+        private final TlsSession mTls;
+        private final HostnameVerifier mHostnameVerifier;
+        private ByteBuffer mInbound;
+
+        /**
+         * 每次读取前明文缓冲区至少需要的剩余空间
+         */
+        private final int mMinReadSpace;
+
+        /**
+         * 已经发送或者等待发送、还没有收到响应的请求，第一个是正在读取响应的请求
+         */
+        private final ArrayDeque<Exchange> mInFlight = new ArrayDeque<>();
+
+        /**
+         * 请求数据还没有完全写出的请求
+         */
+        private final ArrayDeque<Exchange> mPendingWrite = new ArrayDeque<>();
+
+        /**
+         * 是否曾经同时发送过多个请求
+         */
+        private boolean mPipelined;
+
+        /**
+         * 已经完成的请求数
+         */
+        private int mCompletedCount;
+        private boolean mConnected;
+        private boolean mClosed;
+        private long mDeadline;
+        private long mIdleSince;
+
+        private Connection(SelectorLoop loop, String poolKey, HttpTransportRequest request) throws IOException {
+            mLoop = loop;
+            mPoolKey = poolKey;
+            mHostKey = hostKey(request);
+            mHostName = request.getHostName();
+            mChannel = SocketChannel.open();
+            mChannel.configureBlocking(false);
+            mChannel.socket().setTcpNoDelay(true);
+            mKey = mChannel.register(loop.mSelector, 0, this);
+            if (request.isHttps()) {
+                HttpsSSLConfig sslConfig = request.getSSLConfig();
+                SSLContext sslContext = sslConfig != null ? sslConfig.getTransportSSLContext() : null;
+                if (sslContext == null) {
+                    try {
+                        sslContext = SSLContext.getDefault();
+                    } catch (Exception ex) {
+                        throw new SSLException("Default SSLContext not available", ex);
+                    }
+                }
+                SSLEngine engine = sslContext.createSSLEngine(request.getHostName(), request.getPort());
+                engine.setUseClientMode(true);
+                mTls = new TlsSession(engine);
+                mHostnameVerifier = sslConfig != null ? sslConfig : HttpsURLConnection.getDefaultHostnameVerifier();
+                mMinReadSpace = Math.max(READ_BUFFER_SIZE, engine.getSession().getApplicationBufferSize());
+            } else {
+                mTls = null;
+                mHostnameVerifier = null;
+                mMinReadSpace = READ_BUFFER_SIZE;
+            }
+            mInbound = ByteBuffer.allocate(mMinReadSpace * 2);
+        }
+
+        private void connect(Exchange exchange) throws IOException {
+            add(exchange, exchange.mRequest.getConnectTimeout());
+            if (mChannel.connect(exchange.mAddress)) {
+                onConnected();
+            } else {
+                mKey.interestOps(SelectionKey.OP_CONNECT);
+            }
+        }
+
+        /**
+         * 在连接上发送请求，连接正在建立时请求在连接建立后发送
+         */
+        private void send(Exchange exchange) {
+            add(exchange, exchange.mRequest.getReadTimeout());
+            mIdleSince = 0;
+            flushOutbound();
+        }
+
+        private void add(Exchange exchange, int timeoutMillis) {
+            exchange.mConnection = this;
+            exchange.mReusedConnection = mCompletedCount > 0;
+            if (!mInFlight.isEmpty()) {
+                mPipelined = true;
+                mPipelinedCount.incrementAndGet();
+            } else {
+                mDeadline = timeoutMillis > 0 ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis) : 0;
+            }
+            mInFlight.addLast(exchange);
+            mPendingWrite.addLast(exchange);
+        }
+
+        /**
+         * 是否还可以在连接上继续追加管线化请求
+         */
+        private boolean canPipeline(int maxDepth) {
+            return !mClosed && mInFlight.size() < maxDepth;
+        }
+
+        private boolean isReady() {
+            return mConnected && (mTls == null || mTls.mHandshakeFinished);
+        }
+
+        private void onConnected() throws IOException {
+            mConnected = true;
+            refreshDeadline();
+            if (mTls != null) {
+                mTls.mEngine.beginHandshake();
+                continueHandshake();
+            } else {
+                flushOutbound();
+            }
+        }
+
+        private void continueHandshake() throws IOException {
+            int status = mTls.handshake(mChannel);
+            if (status == TlsSession.HANDSHAKE_FINISHED) {
+                if (!mHostnameVerifier.verify(mHostName, mTls.mEngine.getSession())) {
+                    throw new SSLPeerUnverifiedException("Hostname " + mHostName + " not verified");
+                }
+                flushOutbound();
+            } else {
+                mKey.interestOps(status == TlsSession.HANDSHAKE_NEED_WRITE ? SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+            }
+        }
+
+        private void onReady(int readyOps) {
+            try {
+                if ((readyOps & SelectionKey.OP_CONNECT) != 0) {
+                    if (mChannel.finishConnect()) {
+                        onConnected();
+                    }
+                    return;
+                }
+                if (mTls != null && !mTls.mHandshakeFinished) {
+                    continueHandshake();
+                    return;
+                }
+                if ((readyOps & SelectionKey.OP_WRITE) != 0) {
+                    flushOutbound();
+                }
+                if ((readyOps & SelectionKey.OP_READ) != 0 && !mClosed) {
+                    readInbound();
+                }
+            } catch (IOException ex) {
+                onError(ex);
+            } catch (RuntimeException ex) {
+                onError(new IOException(ex));
+            }
+        }
+
+        /**
+         * 按顺序写出请求数据，写不完时等待可写事件
+         */
+        private void flushOutbound() {
+            if (mClosed || !isReady()) {
+                return;
+            }
+            try {
+                Exchange exchange;
+                while ((exchange = mPendingWrite.peekFirst()) != null) {
+                    ByteBuffer requestData = exchange.mRequestData;
+                    int position = requestData.position();
+                    if (mTls != null) {
+                        mTls.write(mChannel, requestData);
+                    } else {
+                        mChannel.write(requestData);
+                    }
+                    if (requestData.position() > position) {
+                        refreshDeadline();
+                    }
+                    if (requestData.hasRemaining()) {
+                        break;
+                    }
+                    mPendingWrite.pollFirst();
+                }
+                boolean pending = !mPendingWrite.isEmpty() || (mTls != null && mTls.hasPendingOutput());
+                mKey.interestOps(SelectionKey.OP_READ | (pending ? SelectionKey.OP_WRITE : 0));
+            } catch (IOException ex) {
+                onError(ex);
+            }
+        }
+
+        private void readInbound() throws IOException {
+            while (true) {
+                if (mInbound.remaining() < mMinReadSpace) {
+                    ByteBuffer inbound = ByteBuffer.allocate(mInbound.capacity() * 2);
+                    mInbound.flip();
+                    inbound.put(mInbound);
+                    mInbound = inbound;
+                }
+                int bytes = mTls != null ? mTls.read(mChannel, mInbound) : mChannel.read(mInbound);
+                if (bytes < 0) {
+                    onEndOfStream();
+                    return;
+                }
+                if (bytes == 0) {
+                    return;
+                }
+                refreshDeadline();
+                mInbound.flip();
+                while (true) {
+                    Exchange head = mInFlight.peekFirst();
+                    if (head == null) {
+                        if (mInbound.hasRemaining()) {
+                            //没有请求时收到数据，服务器行为异常
+                            throw new IOException("Unexpected response data");
+                        }
+                        break;
+                    }
+                    boolean complete;
+                    try {
+                        complete = head.mParser.parse(mInbound);
+                    } catch (HttpBodyTooLargeException ex) {
+                        //响应体超出上限，不再读取剩余的数据，后面已经发送的请求到其它连接上重新发送
+                        mInFlight.pollFirst();
+                        abandon(null, false);
+                        mLoop.finish(head, null, ex);
+                        return;
+                    }
+                    if (!complete) {
+                        break;
+                    }
+                    if (!onExchangeComplete(true)) {
+                        return;
+                    }
+                }
+                mInbound.compact();
+            }
+        }
+
+        /**
+         * 队首请求的响应读取完毕
+         *
+         * @param reusable 连接是否还可以复用
+         * @return 连接是否还打开
+         */
+        private boolean onExchangeComplete(boolean reusable) {
+            Exchange exchange = mInFlight.pollFirst();
+            HttpResponseParser parser = exchange.mParser;
+            mCompletedCount++;
+            HttpTransportResponse response = new HttpTransportResponse(parser.getCode(), parser.getMessage(), parser.getHeaders(), parser.getBody());
+            boolean keepAlive = reusable && parser.isKeepAlive()
+                    && !"close".equalsIgnoreCase(exchange.mRequest.getHeader("Connection"));
+            if (!keepAlive) {
+                //服务器在这个响应之后关闭连接，后面已经发送的请求到其它连接上重新发送
+                abandon(null, true);
+            } else if (mInFlight.isEmpty()) {
+                mDeadline = 0;
+                mLoop.removePipeline(this);
+                mLoop.release(this);
+            } else {
+                refreshDeadline();
+            }
+            mLoop.finish(exchange, response, null);
+            return !mClosed;
+        }
+
+        private void onEndOfStream() throws IOException {
+            Exchange head = mInFlight.peekFirst();
+            if (head == null) {
+                close();
+                return;
+            }
+            if (head.mParser.onEndOfStream()) {
+                onExchangeComplete(false);
+            }
+        }
+
+        private void onTimeout() {
+            if (mInFlight.isEmpty()) {
+                close();
+            } else {
+                onError(new SocketTimeoutException(mConnected ? "Read timed out" : "Connect timed out"));
+            }
+        }
+
+        private void onError(IOException ex) {
+            abandon(ex, true);
+        }
+
+        /**
+         * 关闭连接，处理还没有收到响应的请求.
+         * 以下请求在新连接上重新发送，其它请求以异常结束：
+         * <ul>
+         * <li>管线化连接上的幂等请求，只重新发送一次，并且不再管线化。</li>
+         * <li>服务器正常关闭连接时还没有开始处理的请求。</li>
+         * <li>复用的连接已经被服务器关闭，请求还没有收到任何响应数据。</li>
+         * </ul>
+         *
+         * @param ex          异常，为空表示连接是正常关闭的
+         * @param closedByPeer 是否是服务器关闭连接或者连接异常，请求中止时为false
+         */
+        private void abandon(IOException ex, boolean closedByPeer) {
+            List<Exchange> unanswered = new ArrayList<>(mInFlight);
+            mInFlight.clear();
+            mPendingWrite.clear();
+            close();
+            Exchange head = unanswered.isEmpty() ? null : unanswered.get(0);
+            boolean timeout = ex instanceof SocketTimeoutException;
+            boolean staleConnection = head != null && head.mReusedConnection && !head.mParser.isStarted() && !timeout;
+            //管线化连接异常，或者服务器不支持持久连接，这个服务器不再使用管线化
+            boolean misbehaved = ex != null ? !staleConnection : (head != null && mCompletedCount <= 1);
+            if (mPipelined && closedByPeer && misbehaved && !mShutdown) {
+                blacklistPipelining(mHostKey);
+            }
+            for (Exchange exchange : unanswered) {
+                if (exchange.mFinished) {
+                    continue;
+                }
+                boolean replay;
+                if (mShutdown || exchange.mRequest.isAborted()) {
+                    replay = false;
+                } else if (mPipelined && exchange.mPipelineAllowed) {
+                    replay = !exchange.mReplayed;
+                } else if (ex == null) {
+                    replay = !exchange.mParser.isStarted();
+                } else {
+                    replay = exchange.mReusedConnection && !exchange.mParser.isStarted() && !timeout;
+                }
+                if (replay) {
+                    if (mPipelined) {
+                        mPipelineReplayCount.incrementAndGet();
+                    }
+                    exchange.reset();
+                    exchange.mReplayed = true;
+                    mLoop.start(exchange);
+                } else {
+                    mLoop.finish(exchange, null, ex != null ? ex : new IOException("Connection closed"));
+                }
+            }
+        }
+
+        private boolean isExpired(long now) {
+            if (!mInFlight.isEmpty()) {
+                return mDeadline != 0 && now - mDeadline > 0;
+            }
+            return mIdleSince != 0 && now - mIdleSince > IDLE_TIMEOUT_NANOS;
+        }
+
+        private void refreshDeadline() {
+            Exchange head = mInFlight.peekFirst();
+            if (head != null) {
+                int readTimeout = head.mRequest.getReadTimeout();
+                mDeadline = readTimeout > 0 ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(readTimeout) : 0;
+            }
+        }
+
+        private void close() {
+            if (mClosed) {
+                return;
+            }
+            mClosed = true;
+            mLoop.removeIdle(this);
+            mLoop.removePipeline(this);
+            mKey.cancel();
+            try {
+                mChannel.close();
+            } catch (IOException ex) {
+                ex.printStackTrace();
+            }
+            List<Exchange> unanswered = new ArrayList<>(mInFlight);
+            mInFlight.clear();
+            mPendingWrite.clear();
+            for (Exchange exchange : unanswered) {
+                mLoop.finish(exchange, null, new IOException("Connection closed"));
+            }
+        }
+    }
+
+    /**
+     * 非阻塞的TLS会话，包装SSLEngine的加解密
+     */
+    private static final class TlsSession {
+        private static final int HANDSHAKE_FINISHED = 0;
+        private static final int HANDSHAKE_NEED_READ = 1;
+        private static final int HANDSHAKE_NEED_WRITE = 2;
+
+        private final SSLEngine mEngine;
+
+        /**
+         * 收到的密文，写模式
+         */
+        private ByteBuffer mNetIn;
+
+        /**
+         * 待发送的密文，读模式
+         */
+        private ByteBuffer mNetOut;
+
+        /**
+         * 握手期间解密出的明文，写模式
+         */
+        private ByteBuffer mAppIn;
+
+        private boolean mHandshakeFinished;
+
+        private TlsSession(SSLEngine engine) {
+            mEngine = engine;
+            mNetIn = ByteBuffer.allocate(engine.getSession().getPacketBufferSize());
+            mNetOut = ByteBuffer.allocate(engine.getSession().getPacketBufferSize());
+            mNetOut.flip();
+            mAppIn = ByteBuffer.allocate(engine.getSession().getApplicationBufferSize());
+        }
+
+        /**
+         * 推进握手
+         *
+         * @return 握手状态
+         */
+        private int handshake(SocketChannel channel) throws IOException {
+            while (true) {
+                if (!flush(channel)) {
+                    return HANDSHAKE_NEED_WRITE;
+                }
+                SSLEngineResult.HandshakeStatus status = mEngine.getHandshakeStatus();
+                switch (status) {
+                    case NEED_TASK:
+                        runDelegatedTasks();
+                        break;
+                    case NEED_WRAP: {
+                        mNetOut.clear();
+                        SSLEngineResult result = mEngine.wrap(EMPTY_BUFFER, mNetOut);
+                        mNetOut.flip();
+                        if (result.getStatus() == SSLEngineResult.Status.BUFFER_OVERFLOW) {
+                            mNetOut = ByteBuffer.allocate(mNetOut.capacity() * 2);
+                            mNetOut.flip();
+                        } else if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+                            throw new SSLException("Engine closed during handshake");
+                        }
+                        break;
+                    }
+                    case NEED_UNWRAP: {
+                        SSLEngineResult result = unwrap(mAppIn);
+                        if (result == null || result.getStatus() == SSLEngineResult.Status.BUFFER_UNDERFLOW) {
+                            int bytes = channel.read(mNetIn);
+                            if (bytes < 0) {
+                                throw new SSLException("Connection closed during handshake");
+                            }
+                            if (bytes == 0) {
+                                return HANDSHAKE_NEED_READ;
+                            }
+                        } else if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+                            throw new SSLException("Engine closed during handshake");
+                        }
+                        break;
+                    }
+                    default:
+                        mHandshakeFinished = true;
+                        return HANDSHAKE_FINISHED;
+                }
+            }
+        }
+
+        /**
+         * 解密已经收到的密文
+         *
+         * @return 结果，没有密文时返回空
+         */
+        private SSLEngineResult unwrap(ByteBuffer dst) throws IOException {
+            if (mNetIn.position() == 0) {
+                return null;
+            }
+            mNetIn.flip();
+            SSLEngineResult result;
+            try {
+                result = mEngine.unwrap(mNetIn, dst);
+            } finally {
+                mNetIn.compact();
+            }
+            if (result.getStatus() == SSLEngineResult.Status.BUFFER_UNDERFLOW && mNetIn.position() == mNetIn.capacity()) {
+                //单个TLS记录超过缓冲区大小
+                ByteBuffer netIn = ByteBuffer.allocate(mNetIn.capacity() * 2);
+                mNetIn.flip();
+                netIn.put(mNetIn);
+                mNetIn = netIn;
+            }
+            return result;
+        }
+
+        /**
+         * 读取并解密数据
+         *
+         * @param dst 写模式的明文缓冲区，剩余空间不能小于应用数据缓冲区大小
+         * @return 解密出的字节数，连接关闭并且没有数据时返回-1
+         */
+        private int read(SocketChannel channel, ByteBuffer dst) throws IOException {
+            int produced = 0;
+            if (mAppIn.position() > 0) {
+                mAppIn.flip();
+                produced += mAppIn.remaining();
+                dst.put(mAppIn);
+                mAppIn.clear();
+            }
+            int bytes = channel.read(mNetIn);
+            boolean closed = bytes < 0;
+            while (true) {
+                if (dst.remaining() < mEngine.getSession().getApplicationBufferSize()) {
+                    break;
+                }
+                SSLEngineResult result = unwrap(dst);
+                if (result == null) {
+                    break;
+                }
+                produced += result.bytesProduced();
+                if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+                    closed = true;
+                    break;
+                }
+                if (result.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.NEED_TASK) {
+                    runDelegatedTasks();
+                }
+                if (result.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.NEED_WRAP) {
+                    //TLS 1.3的密钥更新等握手后消息
+                    write(channel, EMPTY_BUFFER);
+                }
+                if (result.getStatus() != SSLEngineResult.Status.OK
+                        || (result.bytesConsumed() == 0 && result.bytesProduced() == 0)) {
+                    break;
+                }
+            }
+            return (produced == 0 && closed) ? -1 : produced;
+        }
+
+        /**
+         * 加密并发送数据，发送不完的密文保留到下一次可写
+         */
+        private void write(SocketChannel channel, ByteBuffer src) throws IOException {
+            do {
+                if (!flush(channel)) {
+                    return;
+                }
+                mNetOut.clear();
+                SSLEngineResult result = mEngine.wrap(src, mNetOut);
+                mNetOut.flip();
+                if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+                    throw new SSLException("Engine closed");
+                }
+                if (result.getStatus() == SSLEngineResult.Status.BUFFER_OVERFLOW) {
+                    mNetOut = ByteBuffer.allocate(mNetOut.capacity() * 2);
+                    mNetOut.flip();
+                }
+            } while (src.hasRemaining() || mEngine.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.NEED_WRAP);
+            flush(channel);
+        }
+
+        private boolean hasPendingOutput() {
+            return mNetOut.hasRemaining();
+        }
+
+        /**
+         * 发送待发送的密文
+         *
+         * @return 是否全部发送
+         */
+        private boolean flush(SocketChannel channel) throws IOException {
+            if (mNetOut.hasRemaining()) {
+                channel.write(mNetOut);
+            }
+            return !mNetOut.hasRemaining();
+        }
+
+        private void runDelegatedTasks() {
+            Runnable task;
+            while ((task = mEngine.getDelegatedTask()) != null) {
+                task.run();
+            }
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package com.seagle.net.android.httphelper;
+
+import java.util.concurrent.Callable;
+
+/**
+ * 分为I/O和解码两个阶段执行的请求任务.
+ * I/O阶段在I/O线程池中完成网络读写，解码阶段在解码线程池中解析响应，
+ * 解析耗时的响应不会占用I/O线程。
+ * Created by seagle on 2018/4/10.
+ */
+interface StagedTask<T> {
+
+    /**
+     * 执行I/O阶段，发送请求并读取完整的响应体
+     *
+     * @return 解码阶段
+     * @throws Exception 请求失败
+     */
+    Callable<HttpResponse<T>> fetch() throws Exception;
+}
@@ -0,0 +1,30 @@
+package com.seagle.net.android.httphelper;
+
+/**
+ * 可以记录流量轨迹的请求任务.
+ * 任务完成后提供请求体、响应体的大小以及HTTP状态码，不包括内容。
+ * Created by seagle on 2018/4/10.
+ */
+interface TraceableTask {
+
+    /**
+     * 获取请求体大小
+     *
+     * @return 字节数，未知时为-1
+     */
+    long getRequestBytes();
+
+    /**
+     * 获取响应体大小
+     *
+     * @return 字节数，未知时为-1
+     */
+    long getResponseBytes();
+
+    /**
+     * 获取HTTP状态码
+     *
+     * @return 状态码，没有收到响应时为0
+     */
+    int getStatusCode();
+}
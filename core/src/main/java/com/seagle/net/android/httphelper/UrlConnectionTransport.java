@@ -0,0 +1,119 @@
+package com.seagle.net.android.httphelper;
+
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * 基于HttpURLConnection的传输层，HttpHelper默认的实现.
+ * 每个请求阻塞占用调用线程，连接复用由系统的HttpURLConnection完成。
+ * Created by seagle on 2018/4/10.
+ */
+final class UrlConnectionTransport implements HttpTransport {
+
+    @Override
+    public HttpTransportResponse execute(HttpTransportRequest request) throws IOException {
+        URL url = new URL(request.getUrl());
+        final HttpURLConnection urlConnection = (HttpURLConnection) url.openConnection();
+        request.setAbortAction(new Runnable() {
+            @Override
+            public void run() {
+                urlConnection.disconnect();
+            }
+        });
+        boolean success = false;
+        try {
+            urlConnection.setRequestMethod(request.getMethod());
+            urlConnection.setDoInput(true);
+            urlConnection.setConnectTimeout(request.getConnectTimeout());
+            urlConnection.setReadTimeout(request.getReadTimeout());
+            HttpTransportRequest.BodyWriter bodyWriter = request.getBody();
+            if (bodyWriter != null) {
+                urlConnection.setDoOutput(true);
+                if (request.getContentLength() >= 0) {
+                    urlConnection.setFixedLengthStreamingMode((int) request.getContentLength());
+                } else {
+                    urlConnection.setChunkedStreamingMode(0);
+                }
+            }
+            for (Map.Entry<String, String> header : request.getHeaders().entrySet()) {
+                urlConnection.setRequestProperty(header.getKey(), header.getValue());
+            }
+
+            //处理HTTPS请求
+            HttpsSSLConfig sslConfig = request.getSSLConfig();
+            if (request.isHttps() && sslConfig != null) {
+                SSLSocketFactory sslSocketFactory = sslConfig.getSSLSocketFactory();
+                if (sslSocketFactory != null) {
+                    ((HttpsURLConnection) urlConnection).setSSLSocketFactory(sslSocketFactory);
+                    ((HttpsURLConnection) urlConnection).setHostnameVerifier(sslConfig);
+                }
+            }
+
+            urlConnection.connect();
+            if (bodyWriter != null) {
+                DataOutputStream outStream = new DataOutputStream(urlConnection.getOutputStream());
+                try {
+                    bodyWriter.writeTo(outStream);
+                } finally {
+                    try {
+                        outStream.flush();
+                        outStream.close();
+                    } catch (Exception ex) {
+                        ex.printStackTrace();
+                    }
+                }
+            }
+
+            int code = urlConnection.getResponseCode();
+            String message = urlConnection.getResponseMessage();
+            Map<String, String> headers = new HashMap<>();
+            for (Map.Entry<String, List<String>> header : urlConnection.getHeaderFields().entrySet()) {
+                if (header.getKey() != null && header.getValue() != null) {
+                    headers.put(header.getKey(), join(header.getValue()));
+                }
+            }
+            InputStream bodyStream;
+            try {
+                bodyStream = urlConnection.getInputStream();
+            } catch (IOException ex) {
+                bodyStream = urlConnection.getErrorStream();
+            }
+            HttpTransportResponse response = new HttpTransportResponse(code, message, headers, bodyStream, new Closeable() {
+                @Override
+                public void close() {
+                    urlConnection.disconnect();
+                }
+            });
+            success = true;
+            return response;
+        } finally {
+            if (!success) {
+                urlConnection.disconnect();
+            }
+        }
+    }
+
+    private static String join(List<String> values) {
+        if (values.size() == 1) {
+            return values.get(0);
+        }
+        StringBuilder valueBuilder = new StringBuilder();
+        for (String value : values) {
+            if (valueBuilder.length() > 0) {
+                valueBuilder.append(", ");
+            }
+            valueBuilder.append(value);
+        }
+        return valueBuilder.toString();
+    }
+}
@@ -0,0 +1,81 @@
+package com.seagle.net.android.httphelper;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 每个请求的内存分配预算测试.
+ * 通过HttpHelper提交请求，I/O和解码都在当前线程中直接执行，统计线程分配的字节数，
+ * 包括会话、任务包装、字符串解码以及LoopbackTransport自身的分配。
+ * Created by seagle on 2018/4/10.
+ */
+public class HttpAllocationTest {
+
+    /**
+     * 1KB响应体的GET请求，从提交请求到取得解析出的字符串的平均分配预算，单位：字节
+     */
+    private static final long REQUEST_BUDGET_BYTES = 8 * 1024;
+
+    private static final int WARMUP = 2000;
+    private static final int ROUNDS = 5000;
+
+    private HttpHelper mHttpHelper;
+    private Method mAllocatedBytes;
+    private ThreadMXBean mThreadBean;
+
+    @Before
+    public void setUp() throws Exception {
+        LoopbackTransport transport = new LoopbackTransport();
+        transport.addRoute("GET", "/poll").setBody(new byte[1024]);
+        mHttpHelper = new HttpHelper(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        });
+        mHttpHelper.setTransport(transport);
+        //在I/O线程中解码，解析字符串的分配也计入当前线程
+        mHttpHelper.setDecodeStage(0, 0);
+        mThreadBean = ManagementFactory.getThreadMXBean();
+        try {
+            mAllocatedBytes = Class.forName("com.sun.management.ThreadMXBean").getMethod("getThreadAllocatedBytes", long.class);
+        } catch (Exception ex) {
+            mAllocatedBytes = null;
+        }
+    }
+
+    @Test
+    public void testRequestAllocationBudget() throws Exception {
+        if (mAllocatedBytes == null) {
+            //不支持统计线程分配的虚拟机
+            return;
+        }
+        HttpRequest request = new HttpRequest("loopback", "/poll");
+        request.addRequestParam("id", "10086");
+        request.setRequestMethod(HttpRequest.HTTP_GET);
+        for (int i = 0; i < WARMUP; i++) {
+            execute(request);
+        }
+        long threadId = Thread.currentThread().getId();
+        long start = (Long) mAllocatedBytes.invoke(mThreadBean, threadId);
+        for (int i = 0; i < ROUNDS; i++) {
+            execute(request);
+        }
+        long perRequest = ((Long) mAllocatedBytes.invoke(mThreadBean, threadId) - start) / ROUNDS;
+        assertTrue("Allocated " + perRequest + " bytes per request", perRequest <= REQUEST_BUDGET_BYTES);
+        assertEquals(0, mHttpHelper.getBodyMemoryUsage());
+    }
+
+    private void execute(HttpRequest request) {
+        HttpSession<String> session = mHttpHelper.doHttpGet(request, null, null);
+        assertEquals(HttpResponse.SUCCESS, session.getResponse().getCode());
+    }
+}
@@ -0,0 +1,206 @@
+package com.seagle.net.android.httphelper;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 认证令牌刷新的测试，并发请求同时收到401时只刷新一次.
+ * Created by seagle on 2018/4/10.
+ */
+public class HttpAuthenticatorTest {
+
+    private static final int REQUEST_COUNT = 20;
+
+    @Test
+    public void testSingleFlightRefresh() throws Exception {
+        TokenTransport transport = new TokenTransport("Bearer token-1");
+        CountingAuthenticator authenticator = new CountingAuthenticator("Bearer token-0", transport, 200, true,
+                HttpAuthenticator.DEFAULT_WAIT_TIMEOUT, HttpAuthenticator.DEFAULT_MAX_WAITERS);
+        HttpHelper httpHelper = newHttpHelper(transport, authenticator);
+        List<HttpSession<String>> sessions = submit(httpHelper, REQUEST_COUNT);
+        for (HttpSession<String> session : sessions) {
+            HttpResponse<String> response = session.getResponse();
+            assertTrue(response.toString(), response.isSuccess());
+        }
+        String result = String.format("%d concurrent 401s: %d refresh, %d replays, %d transport requests",
+                REQUEST_COUNT, authenticator.mRefreshCalls.get(), authenticator.getReplayCount(), transport.mRequestCount.get());
+        assertEquals(result, 1, authenticator.mRefreshCalls.get());
+        assertEquals(result, 1, authenticator.getRefreshCount());
+        assertEquals("Bearer token-1", authenticator.getAuthorization());
+        assertEquals(result, REQUEST_COUNT, transport.mAcceptedCount.get());
+        assertTrue(result, authenticator.getReplayCount() <= REQUEST_COUNT);
+        //刷新之后提交的请求直接使用新的令牌
+        HttpSession<String> session = httpHelper.doHttpGet(new HttpRequest("api.example.com", "/user"), null, null);
+        assertTrue(session.getResponse().isSuccess());
+        assertEquals(1, authenticator.mRefreshCalls.get());
+    }
+
+    @Test
+    public void testRefreshFailure() throws Exception {
+        TokenTransport transport = new TokenTransport("Bearer token-1");
+        CountingAuthenticator authenticator = new CountingAuthenticator("Bearer token-0", transport, 100, false,
+                HttpAuthenticator.DEFAULT_WAIT_TIMEOUT, HttpAuthenticator.DEFAULT_MAX_WAITERS);
+        HttpHelper httpHelper = newHttpHelper(transport, authenticator);
+        for (HttpSession<String> session : submit(httpHelper, REQUEST_COUNT)) {
+            HttpResponse<String> response = session.getResponse();
+            assertFalse(response.isSuccess());
+            assertEquals(HttpResponse.ERROR_CODE_HTTP, response.getCode());
+            assertEquals(401, response.getResultCode());
+        }
+        assertEquals(1, authenticator.mMaxConcurrentRefresh.get());
+        assertEquals(authenticator.mRefreshCalls.get(), authenticator.getRefreshFailureCount());
+        assertEquals(0, authenticator.getReplayCount());
+        assertEquals("Bearer token-0", authenticator.getAuthorization());
+    }
+
+    @Test
+    public void testBoundedWaiters() throws Exception {
+        TokenTransport transport = new TokenTransport("Bearer token-1");
+        CountingAuthenticator authenticator = new CountingAuthenticator("Bearer token-0", transport, 1000, true, 200, 2);
+        HttpHelper httpHelper = newHttpHelper(transport, authenticator);
+        long startTime = System.nanoTime();
+        List<HttpSession<String>> sessions = submit(httpHelper, 6);
+        int successCount = 0;
+        for (HttpSession<String> session : sessions) {
+            HttpResponse<String> response = session.getResponse();
+            if (response.isSuccess()) {
+                successCount++;
+            } else {
+                assertEquals(401, response.getResultCode());
+            }
+        }
+        double seconds = (System.nanoTime() - startTime) / 1e9;
+        String result = String.format("refresh 1s, 2 waiters x 200ms: %d/6 succeeded, %d rejected, %.2fs",
+                successCount, authenticator.getRejectedCount(), seconds);
+        //只有执行刷新的请求等到了新的令牌，其它请求超时或者超出等待上限后返回401
+        assertEquals(result, 1, successCount);
+        assertEquals(result, 1, authenticator.mRefreshCalls.get());
+        assertTrue(result, authenticator.getRejectedCount() >= 5);
+        assertTrue(result, seconds < 2);
+    }
+
+    @Test
+    public void testPrefetchAuthorized() throws Exception {
+        TokenTransport transport = new TokenTransport("Bearer token-1");
+        CountingAuthenticator authenticator = new CountingAuthenticator("Bearer token-1", transport, 0, true,
+                HttpAuthenticator.DEFAULT_WAIT_TIMEOUT, HttpAuthenticator.DEFAULT_MAX_WAITERS);
+        HttpHelper httpHelper = newHttpHelper(transport, authenticator);
+        HttpPrefetcher prefetcher = new HttpPrefetcher(4, 1024, 60000);
+        httpHelper.setPrefetcher(prefetcher);
+        assertTrue(httpHelper.prefetch(new HttpRequest("api.example.com", "/user"), null));
+        long deadline = System.currentTimeMillis() + 5000;
+        while (prefetcher.getFetchedCount() + prefetcher.getFailedCount() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        //预取请求同样带有认证请求头
+        assertEquals(1, prefetcher.getFetchedCount());
+        HttpSession<String> session = httpHelper.doHttpGet(new HttpRequest("api.example.com", "/user"), null, null);
+        assertEquals(HttpResponse.CACHE_FRESH, session.getResponse().getCacheStatus());
+        assertEquals(1, transport.mAcceptedCount.get());
+        assertEquals(0, authenticator.mRefreshCalls.get());
+    }
+
+    @Test
+    public void testClearedAuthorization() throws Exception {
+        HttpAuthenticator authenticator = new CountingAuthenticator("Bearer token-0", new TokenTransport("Bearer token-0"), 0, true,
+                HttpAuthenticator.DEFAULT_WAIT_TIMEOUT, HttpAuthenticator.DEFAULT_MAX_WAITERS);
+        HttpRequest request = new HttpRequest("api.example.com", "/user");
+        authenticator.authorize(request);
+        assertEquals("Bearer token-0", request.getRequestHeaderProperty(HttpAuthenticator.HEADER_AUTHORIZATION));
+        //令牌清除后再次发送同一个请求，不能带着旧的认证请求头
+        authenticator.setAuthorization(null);
+        assertNull(authenticator.authorize(request));
+        assertNull(request.getRequestHeaderProperty(HttpAuthenticator.HEADER_AUTHORIZATION));
+    }
+
+    private static HttpHelper newHttpHelper(TokenTransport transport, HttpAuthenticator authenticator) {
+        HttpHelper httpHelper = new HttpHelper();
+        httpHelper.setTransport(transport);
+        httpHelper.setAuthenticator(authenticator);
+        return httpHelper;
+    }
+
+    private static List<HttpSession<String>> submit(HttpHelper httpHelper, int count) {
+        List<HttpSession<String>> sessions = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            HttpRequest request = new HttpRequest("api.example.com", "/user");
+            request.addRequestParam("index", Integer.toString(i));
+            HttpSession<String> session = httpHelper.doHttpGet(request, null, null);
+            sessions.add(session);
+        }
+        return sessions;
+    }
+
+    /**
+     * 只接受当前有效令牌的传输层，每个请求耗时50ms
+     */
+    private static final class TokenTransport implements HttpTransport {
+        private volatile String mValidToken;
+        private final AtomicInteger mRequestCount = new AtomicInteger();
+        private final AtomicInteger mAcceptedCount = new AtomicInteger();
+
+        private TokenTransport(String validToken) {
+            mValidToken = validToken;
+        }
+
+        @Override
+        public HttpTransportResponse execute(HttpTransportRequest request) throws IOException {
+            mRequestCount.incrementAndGet();
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException ex) {
+                throw new IOException(ex);
+            }
+            if (!mValidToken.equals(request.getHeader(HttpAuthenticator.HEADER_AUTHORIZATION))) {
+                return new HttpTransportResponse(401, "Unauthorized", null, ByteBuffer.allocate(0));
+            }
+            mAcceptedCount.incrementAndGet();
+            return new HttpTransportResponse(200, "OK", null, ByteBuffer.wrap("ok".getBytes("UTF-8")));
+        }
+    }
+
+    /**
+     * 记录刷新次数和同时进行的刷新数
+     */
+    private static final class CountingAuthenticator extends HttpAuthenticator {
+        private final TokenTransport mTransport;
+        private final long mRefreshMillis;
+        private final boolean mSuccess;
+        private final AtomicInteger mRefreshCalls = new AtomicInteger();
+        private final AtomicInteger mActiveRefresh = new AtomicInteger();
+        private final AtomicInteger mMaxConcurrentRefresh = new AtomicInteger();
+
+        private CountingAuthenticator(String authorization, TokenTransport transport, long refreshMillis, boolean success,
+                                      long waitTimeoutMillis, int maxWaiters) {
+            super(authorization, waitTimeoutMillis, maxWaiters);
+            mTransport = transport;
+            mRefreshMillis = refreshMillis;
+            mSuccess = success;
+        }
+
+        @Override
+        protected String refreshAuthorization(String failedAuthorization) throws Exception {
+            mRefreshCalls.incrementAndGet();
+            int active = mActiveRefresh.incrementAndGet();
+            if (active > mMaxConcurrentRefresh.get()) {
+                mMaxConcurrentRefresh.set(active);
+            }
+            try {
+                Thread.sleep(mRefreshMillis);
+                return mSuccess ? mTransport.mValidToken : null;
+            } finally {
+                mActiveRefresh.decrementAndGet();
+            }
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package com.seagle.net.android.httphelper;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 带宽限制的测试，通过本地服务器测量实际的传输速率.
+ * Created by seagle on 2018/4/10.
+ */
+public class HttpBandwidthLimiterTest {
+
+    private static final int BODY_SIZE = 100 * 1024;
+
+    private LoadTestServer mServer;
+    private HttpHelper mHttpHelper;
+
+    @Before
+    public void setUp() throws Exception {
+        mServer = new LoadTestServer(null, 16);
+        mHttpHelper = new HttpHelper();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mServer.close();
+    }
+
+    @Test
+    public void testRequestDownloadLimit() {
+        HttpRequest request = newDownloadRequest(BODY_SIZE);
+        request.setBandwidthLimit(100 * 1024);
+        long startTime = System.nanoTime();
+        HttpSession<String> session = mHttpHelper.doHttpGet(request, null, null);
+        HttpResponse<String> response = session.getResponse();
+        double seconds = (System.nanoTime() - startTime) / 1e9;
+        assertTrue(response.isSuccess());
+        assertEquals(BODY_SIZE, response.getBodyBytes().length);
+        double rate = BODY_SIZE / seconds;
+        String result = String.format("download limit 100KB/s: achieved %.1fKB/s", rate / 1024);
+        assertTrue(result, rate > 70 * 1024 && rate < 115 * 1024);
+    }
+
+    @Test
+    public void testRequestUploadLimit() throws Exception {
+        File file = File.createTempFile("upload", ".bin");
+        try {
+            FileOutputStream outStream = new FileOutputStream(file);
+            outStream.write(new byte[BODY_SIZE]);
+            outStream.close();
+            HttpRequest request = new HttpRequest(mServer.getHost(), "/upload");
+            request.addRequestParam("name", "seagle");
+            request.addRequestFileParam("file", file);
+            request.setBandwidthLimit(100 * 1024);
+            HttpBandwidthLimiter uploadLimiter = new HttpBandwidthLimiter(0);
+            mHttpHelper.setBandwidthLimiters(uploadLimiter, null);
+            long startTime = System.nanoTime();
+            HttpSession<String> session = mHttpHelper.doHttpPost(request, null, null);
+            assertTrue(session.getResponse().isSuccess());
+            double seconds = (System.nanoTime() - startTime) / 1e9;
+            double rate = uploadLimiter.getTransferredBytes() / seconds;
+            String result = String.format("upload limit 100KB/s: achieved %.1fKB/s", rate / 1024);
+            assertTrue(result, uploadLimiter.getTransferredBytes() > BODY_SIZE);
+            assertTrue(result, rate > 70 * 1024 && rate < 115 * 1024);
+            assertEquals(0, uploadLimiter.getActiveCount());
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testWeightedSharing() throws Exception {
+        HttpBandwidthLimiter downloadLimiter = new HttpBandwidthLimiter(200 * 1024);
+        mHttpHelper.setBandwidthLimiters(null, downloadLimiter);
+        HttpRequest bulk = newDownloadRequest(BODY_SIZE);
+        HttpRequest interactive = newDownloadRequest(BODY_SIZE);
+        interactive.setBandwidthWeight(3);
+        long startTime = System.nanoTime();
+        HttpSession<String> bulkSession = mHttpHelper.doHttpGet(bulk, null, null);
+        HttpSession<String> interactiveSession = mHttpHelper.doHttpGet(interactive, null, null);
+        assertTrue(interactiveSession.getResponse().isSuccess());
+        double interactiveSeconds = (System.nanoTime() - startTime) / 1e9;
+        assertTrue(bulkSession.getResponse().isSuccess());
+        double bulkSeconds = (System.nanoTime() - startTime) / 1e9;
+        String result = String.format("weighted 3:1 of 200KB/s: interactive %.2fs, bulk %.2fs", interactiveSeconds, bulkSeconds);
+        //权重3的请求分配到150KB/s，约0.67s完成；之后剩余的请求独占200KB/s，总共约1s
+        assertTrue(result, interactiveSeconds < bulkSeconds);
+        assertTrue(result, interactiveSeconds > 0.5 && interactiveSeconds < 0.9);
+        assertTrue(result, bulkSeconds > 0.85 && bulkSeconds < 1.4);
+        assertEquals(2L * BODY_SIZE, downloadLimiter.getTransferredBytes());
+    }
+
+    @Test
+    public void testDynamicAdjustment() throws Exception {
+        final HttpBandwidthLimiter downloadLimiter = new HttpBandwidthLimiter(50 * 1024);
+        mHttpHelper.setBandwidthLimiters(null, downloadLimiter);
+        long startTime = System.nanoTime();
+        HttpSession<String> session = mHttpHelper.doHttpGet(newDownloadRequest(3 * BODY_SIZE), null, null);
+        Thread.sleep(300);
+        assertEquals(1, downloadLimiter.getActiveCount());
+        long transferred = downloadLimiter.getTransferredBytes();
+        assertTrue("transferred " + transferred, transferred < 30 * 1024);
+        //传输过程中提高速率
+        downloadLimiter.setRate(1024 * 1024);
+        assertTrue(session.getResponse().isSuccess());
+        double seconds = (System.nanoTime() - startTime) / 1e9;
+        assertTrue(String.format("50KB/s raised to 1MB/s after 0.3s: 300KB in %.2fs", seconds), seconds < 1.5);
+        assertEquals(0, downloadLimiter.getActiveCount());
+    }
+
+    private HttpRequest newDownloadRequest(int size) {
+        HttpRequest request = new HttpRequest(mServer.getHost(), "/download");
+        request.addRequestHeaderProperty(LoadTestServer.HEADER_RESPONSE_SIZE, Integer.toString(size));
+        return request;
+    }
+}
@@ -0,0 +1,191 @@
+package com.seagle.net.android.httphelper;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 请求体编码的测试，以及与逐个参数写入、逐个参数flush的写入次数对比.
+ * Created by seagle on 2018/4/10.
+ */
+public class HttpBodyEncoderTest {
+
+    private static final String BOUNDARY = "----1523345678901";
+
+    @Test
+    public void testFormParams() throws Exception {
+        Map<String, String> params = new LinkedHashMap<>();
+        params.put("name", "seagle yuan");
+        params.put("city", "\u6df1\u5733");
+        params.put("emoji", "\uD83D\uDE00");
+        params.put("mark", "a&b=c*d.e-f_g~h+i/j%");
+        params.put("broken", "x\uD800y");
+        StringBuilder expected = new StringBuilder();
+        HttpRequestTask.appendParams(expected, params);
+
+        CountingOutputStream outStream = new CountingOutputStream();
+        HttpBodyEncoder encoder = new HttpBodyEncoder(outStream);
+        encoder.writeFormParams(params);
+        encoder.finish();
+        assertEquals(expected.toString(), new String(outStream.toByteArray(), "UTF-8"));
+        assertEquals(expected.length(), encoder.getByteCount());
+        assertEquals(1, outStream.mWriteCount);
+        assertEquals(1, outStream.mFlushCount);
+    }
+
+    @Test
+    public void testMultipartMatchesLegacyFraming() throws Exception {
+        Map<String, String> params = newFormParams(40);
+        File file = File.createTempFile("encoder", ".png");
+        try {
+            byte[] content = new byte[20 * 1024 + 7];
+            for (int i = 0; i < content.length; i++) {
+                content[i] = (byte) i;
+            }
+            FileOutputStream fileOutStream = new FileOutputStream(file);
+            fileOutStream.write(content);
+            fileOutStream.close();
+
+            CountingOutputStream legacyStream = new CountingOutputStream();
+            writeLegacyMultipart(legacyStream, params, file, "image/x-png");
+            CountingOutputStream outStream = new CountingOutputStream();
+            HttpBodyEncoder encoder = new HttpBodyEncoder(outStream);
+            for (Map.Entry<String, String> param : params.entrySet()) {
+                encoder.writeMultipartField(BOUNDARY, param.getKey(), param.getValue());
+            }
+            encoder.writeMultipartFile(BOUNDARY, "avatar", file, "image/x-png");
+            encoder.writeMultipartEnd(BOUNDARY);
+            encoder.finish();
+
+            assertArrayEquals(legacyStream.toByteArray(), outStream.toByteArray());
+            assertEquals(outStream.size(), encoder.getByteCount());
+            int expectedWrites = (outStream.size() + HttpBodyEncoder.BUFFER_SIZE - 1) / HttpBodyEncoder.BUFFER_SIZE;
+            assertEquals(expectedWrites, outStream.mWriteCount);
+            assertEquals(1, outStream.mFlushCount);
+            assertTrue(legacyStream.mWriteCount > 40);
+        } finally {
+            file.delete();
+        }
+    }
+
+    /**
+     * 对比逐个参数写入与合并写入，每个请求的写入次数和耗时.
+     * 分块传输时每次写入对应一个chunk。
+     */
+    @Test
+    public void testWriteCountBenchmark() throws Exception {
+        Map<String, String> params = newFormParams(40);
+        int rounds = 2000;
+        long legacyWrites = 0;
+        long encoderWrites = 0;
+        long legacyStart = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            CountingOutputStream outStream = new CountingOutputStream();
+            writeLegacyMultipart(outStream, params, null, null);
+            legacyWrites += outStream.mWriteCount + outStream.mFlushCount;
+        }
+        long legacyNanos = System.nanoTime() - legacyStart;
+        long encoderStart = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            CountingOutputStream outStream = new CountingOutputStream();
+            HttpBodyEncoder encoder = new HttpBodyEncoder(outStream);
+            for (Map.Entry<String, String> param : params.entrySet()) {
+                encoder.writeMultipartField(BOUNDARY, param.getKey(), param.getValue());
+            }
+            encoder.writeMultipartEnd(BOUNDARY);
+            encoder.finish();
+            encoderWrites += outStream.mWriteCount + outStream.mFlushCount;
+        }
+        long encoderNanos = System.nanoTime() - encoderStart;
+        String result = String.format("multipart 40 fields: legacy %.1f writes/request %.1fus, encoder %.1f writes/request %.1fus",
+                (double) legacyWrites / rounds, legacyNanos / 1000.0 / rounds,
+                (double) encoderWrites / rounds, encoderNanos / 1000.0 / rounds);
+        assertEquals(result, 2, encoderWrites / rounds);
+        assertTrue(result, legacyWrites / rounds >= 80);
+    }
+
+    private static Map<String, String> newFormParams(int count) {
+        Map<String, String> params = new LinkedHashMap<>();
+        for (int i = 0; i < count; i++) {
+            params.put("field" + i, "value-" + i + "-\u53c2\u6570");
+        }
+        return params;
+    }
+
+    /**
+     * 修改前的写入方式：每个参数构建一个字符串，写入后flush
+     */
+    private static void writeLegacyMultipart(OutputStream outStream, Map<String, String> params, File file,
+                                             String contentType) throws IOException {
+        for (Map.Entry<String, String> param : params.entrySet()) {
+            StringBuilder strBuilder = new StringBuilder();
+            strBuilder.append("--").append(BOUNDARY).append("\r\n");
+            strBuilder.append("Content-Disposition: form-data; name=\"").append(param.getKey()).append("\"\r\n");
+            strBuilder.append("Content-Type:text/plain;charset=UTF-8\r\n\r\n");
+            strBuilder.append(param.getValue()).append("\r\n");
+            outStream.write(strBuilder.toString().getBytes("UTF-8"));
+            outStream.flush();
+        }
+        if (file != null) {
+            StringBuilder strBuilder = new StringBuilder();
+            strBuilder.append("--").append(BOUNDARY).append("\r\n");
+            strBuilder.append("Content-Disposition: form-data; name=\"avatar\"; filename=\"").append(file.getName()).append("\"\r\n");
+            strBuilder.append("Content-Type:").append(contentType).append("\r\n");
+            strBuilder.append("Content-Transfer-Encoding: binary\r\n\r\n");
+            outStream.write(strBuilder.toString().getBytes("UTF-8"));
+            outStream.flush();
+            FileInputStream in = new FileInputStream(file);
+            byte[] buffer = new byte[1024];
+            int bytes;
+            while ((bytes = in.read(buffer)) != -1) {
+                outStream.write(Arrays.copyOf(buffer, bytes));
+            }
+            in.close();
+        }
+        outStream.flush();
+        outStream.write(("\r\n--" + BOUNDARY + "--\r\n").getBytes("UTF-8"));
+        outStream.flush();
+    }
+
+    /**
+     * 统计写入和flush次数
+     */
+    private static final class CountingOutputStream extends ByteArrayOutputStream {
+        private int mWriteCount;
+        private int mFlushCount;
+
+        @Override
+        public synchronized void write(int b) {
+            mWriteCount++;
+            super.write(b);
+        }
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len) {
+            mWriteCount++;
+            super.write(b, off, len);
+        }
+
+        @Override
+        public void write(byte[] b) throws IOException {
+            write(b, 0, b.length);
+        }
+
+        @Override
+        public void flush() {
+            mFlushCount++;
+        }
+    }
+}
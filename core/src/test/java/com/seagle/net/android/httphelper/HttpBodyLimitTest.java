@@ -0,0 +1,305 @@
+package com.seagle.net.android.httphelper;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 响应体内存上限以及保存到临时文件的测试.
+ * Created by seagle on 2018/4/10.
+ */
+public class HttpBodyLimitTest {
+
+    private LoopbackTransport mTransport;
+    private HttpHelper mHttpHelper;
+    private File mSpillDirectory;
+
+    @Before
+    public void setUp() throws Exception {
+        mTransport = new LoopbackTransport();
+        mTransport.addRoute("GET", "/small").setBody(new byte[512]);
+        mTransport.addRoute("GET", "/large").setBody(new byte[10 * 1024]);
+        LoopbackTransport.Route chunked = mTransport.addRoute("GET", "/chunked");
+        chunked.setBody(new byte[10 * 1024]);
+        chunked.setChunkSize(1024);
+        mHttpHelper = new HttpHelper();
+        mHttpHelper.setTransport(mTransport);
+        mSpillDirectory = new File(System.getProperty("java.io.tmpdir"), "spill-" + System.nanoTime());
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = mSpillDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mSpillDirectory.delete();
+    }
+
+    @Test
+    public void testRejectTooLarge() {
+        mHttpHelper.setBodyMemoryLimit(4096, 0);
+        assertEquals(HttpResponse.SUCCESS, get("/small", new LengthResolver(false)).getCode());
+        assertEquals(HttpResponse.ERROR_CODE_BODY_TOO_LARGE, get("/large", new LengthResolver(false)).getCode());
+        assertEquals(HttpResponse.ERROR_CODE_BODY_TOO_LARGE, get("/chunked", new LengthResolver(false)).getCode());
+        //解析器支持流但没有临时目录
+        assertEquals(HttpResponse.ERROR_CODE_BODY_TOO_LARGE, get("/large", new LengthResolver(true)).getCode());
+        assertEquals(0, mHttpHelper.getBodyMemoryUsage());
+    }
+
+    @Test
+    public void testSpillToDisk() {
+        mHttpHelper.setBodyMemoryLimit(4096, 0);
+        mHttpHelper.setBodySpillDirectory(mSpillDirectory);
+        LengthResolver resolver = new LengthResolver(true);
+        HttpResponse<Long> response = get("/large", resolver);
+        assertEquals(HttpResponse.SUCCESS, response.getCode());
+        assertEquals(10 * 1024L, (long) response.getResult());
+        assertTrue(resolver.mStreamed);
+
+        resolver = new LengthResolver(true);
+        response = get("/chunked", resolver);
+        assertEquals(10 * 1024L, (long) response.getResult());
+        assertTrue(resolver.mStreamed);
+
+        resolver = new LengthResolver(true);
+        assertEquals(512L, (long) get("/small", resolver).getResult());
+        assertFalse(resolver.mStreamed);
+
+        //临时文件在解析后删除
+        String[] files = mSpillDirectory.list();
+        assertEquals(0, files == null ? 0 : files.length);
+        assertEquals(0, mHttpHelper.getBodyMemoryUsage());
+    }
+
+    @Test
+    public void testRequestLimitOverride() {
+        mHttpHelper.setBodyMemoryLimit(1024, 0);
+        HttpRequest request = new HttpRequest("loopback", "/large");
+        request.setMaxMemoryBodySize(64 * 1024);
+        HttpResponse<Long> response = mHttpHelper.doHttpGet(request, new LengthResolver(false), null).getResponse();
+        assertEquals(10 * 1024L, (long) response.getResult());
+    }
+
+    @Test
+    public void testGlobalCeiling() {
+        int limit = 32 * 1024;
+        mHttpHelper.setBodyMemoryLimit(0, limit);
+        mTransport.addRoute("GET", "/slow").setBody(new byte[10 * 1024]);
+        List<HttpSession<Long>> sessions = new ArrayList<>();
+        for (int i = 0; i < 16; i++) {
+            sessions.add(mHttpHelper.doHttpGet(new HttpRequest("loopback", "/slow"), new LengthResolver(false, 50), null));
+        }
+        int rejected = 0;
+        for (HttpSession<Long> session : sessions) {
+            HttpResponse<Long> response = session.getResponse();
+            if (response.getCode() == HttpResponse.ERROR_CODE_BODY_TOO_LARGE) {
+                rejected++;
+            } else {
+                assertEquals(HttpResponse.SUCCESS, response.getCode());
+            }
+        }
+        assertTrue(rejected > 0);
+        assertTrue(mHttpHelper.getPeakBodyMemoryUsage() <= limit);
+        assertEquals(0, mHttpHelper.getBodyMemoryUsage());
+    }
+
+    @Test
+    public void testBufferedTransportLimit() throws Exception {
+        StallingServer server = new StallingServer();
+        NioHttpTransport transport = new NioHttpTransport(1, 4);
+        try {
+            HttpHelper httpHelper = new HttpHelper();
+            httpHelper.setTransport(transport);
+            httpHelper.setBodyMemoryLimit(4096, 0);
+            String host = "127.0.0.1:" + server.getPort();
+            //服务器发送部分响应体后不再发送，超出上限时不等待剩余的数据
+            for (String path : new String[]{"/fixed", "/chunked", "/close"}) {
+                HttpRequest request = new HttpRequest(host, path);
+                request.setRequestTimeout(10000);
+                long startTime = System.currentTimeMillis();
+                HttpResponse<Long> response = httpHelper.doHttpGet(request, new LengthResolver(false), null).getResponse();
+                assertEquals(path, HttpResponse.ERROR_CODE_BODY_TOO_LARGE, response.getCode());
+                assertTrue(path, System.currentTimeMillis() - startTime < 5000);
+            }
+            HttpResponse<Long> response = httpHelper.doHttpGet(new HttpRequest(host, "/small"), new LengthResolver(false), null).getResponse();
+            assertEquals(512L, (long) response.getResult());
+            assertEquals(0, httpHelper.getBodyMemoryUsage());
+        } finally {
+            transport.shutdown();
+            server.close();
+        }
+    }
+
+    private HttpResponse<Long> get(String path, HttpResultResolver<Long> resolver) {
+        return mHttpHelper.doHttpGet(new HttpRequest("loopback", path), resolver, null).getResponse();
+    }
+
+    /**
+     * 返回响应体长度的解析器
+     */
+    private static final class LengthResolver extends HttpResultResolver<Long> {
+        private final boolean mStreamSupported;
+        private final long mDecodeMillis;
+        private volatile boolean mStreamed;
+
+        LengthResolver(boolean streamSupported) {
+            this(streamSupported, 0);
+        }
+
+        LengthResolver(boolean streamSupported, long decodeMillis) {
+            super(Long.class);
+            mStreamSupported = streamSupported;
+            mDecodeMillis = decodeMillis;
+        }
+
+        @Override
+        protected Long resolverHttpRespData(String httpRespData) throws Exception {
+            Thread.sleep(mDecodeMillis);
+            return (long) httpRespData.length();
+        }
+
+        @Override
+        protected boolean isStreamSupported() {
+            return mStreamSupported;
+        }
+
+        @Override
+        protected Long resolverHttpRespStream(InputStream httpRespStream, long length) throws Exception {
+            mStreamed = true;
+            long total = 0;
+            byte[] buffer = new byte[1024];
+            int bytes;
+            while ((bytes = httpRespStream.read(buffer)) != -1) {
+                total += bytes;
+            }
+            assertEquals(length, total);
+            return total;
+        }
+
+        @Override
+        public boolean isSuccess() {
+            return true;
+        }
+    }
+
+    /**
+     * 本地HTTP服务器，发送8KB响应体后不再发送数据也不关闭连接，/small返回512字节的完整响应
+     */
+    private static final class StallingServer implements Runnable {
+        private final ServerSocket mServerSocket;
+
+        private StallingServer() throws IOException {
+            mServerSocket = new ServerSocket(0);
+            Thread thread = new Thread(this, "StallingServer");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        private int getPort() {
+            return mServerSocket.getLocalPort();
+        }
+
+        private void close() throws IOException {
+            mServerSocket.close();
+        }
+
+        @Override
+        public void run() {
+            while (!mServerSocket.isClosed()) {
+                try {
+                    final Socket socket = mServerSocket.accept();
+                    Thread thread = new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            serve(socket);
+                        }
+                    }, "StallingServer-Connection");
+                    thread.setDaemon(true);
+                    thread.start();
+                } catch (IOException ex) {
+                    return;
+                }
+            }
+        }
+
+        private void serve(Socket socket) {
+            try {
+                InputStream inStream = new BufferedInputStream(socket.getInputStream());
+                OutputStream outStream = socket.getOutputStream();
+                String requestLine;
+                while ((requestLine = readLine(inStream)) != null) {
+                    String header;
+                    while ((header = readLine(inStream)) != null && header.length() > 0) {
+                        //请求没有请求体
+                    }
+                    String path = requestLine.split(" ")[1];
+                    byte[] part = new byte[8 * 1024];
+                    if ("/small".equals(path)) {
+                        outStream.write("HTTP/1.1 200 OK\r\nContent-Length: 512\r\n\r\n".getBytes("UTF-8"));
+                        outStream.write(new byte[512]);
+                        outStream.flush();
+                        continue;
+                    }
+                    if ("/fixed".equals(path)) {
+                        outStream.write("HTTP/1.1 200 OK\r\nContent-Length: 1048576\r\n\r\n".getBytes("UTF-8"));
+                        outStream.write(part);
+                    } else if ("/chunked".equals(path)) {
+                        outStream.write("HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\n".getBytes("UTF-8"));
+                        for (int i = 0; i < 8; i++) {
+                            outStream.write("400\r\n".getBytes("UTF-8"));
+                            outStream.write(part, 0, 1024);
+                            outStream.write("\r\n".getBytes("UTF-8"));
+                        }
+                    } else {
+                        outStream.write("HTTP/1.1 200 OK\r\n\r\n".getBytes("UTF-8"));
+                        outStream.write(part);
+                    }
+                    outStream.flush();
+                    Thread.sleep(20000);
+                    return;
+                }
+            } catch (Exception ex) {
+                //连接被客户端断开
+            } finally {
+                try {
+                    socket.close();
+                } catch (IOException ex) {
+                    //ignore
+                }
+            }
+        }
+
+        private static String readLine(InputStream inStream) throws IOException {
+            StringBuilder lineBuilder = new StringBuilder();
+            int c;
+            while ((c = inStream.read()) != -1) {
+                if (c == '\n') {
+                    int length = lineBuilder.length();
+                    if (length > 0 && lineBuilder.charAt(length - 1) == '\r') {
+                        lineBuilder.setLength(length - 1);
+                    }
+                    return lineBuilder.toString();
+                }
+                lineBuilder.append((char) c);
+            }
+            return lineBuilder.length() == 0 ? null : lineBuilder.toString();
+        }
+    }
+}
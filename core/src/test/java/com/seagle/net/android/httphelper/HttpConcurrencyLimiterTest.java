@@ -0,0 +1,162 @@
+package com.seagle.net.android.httphelper;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 按服务器自适应并发限制的测试.
+ * Created by seagle on 2018/4/10.
+ */
+public class HttpConcurrencyLimiterTest {
+
+    private static final String HOST = "loopback";
+
+    private static final long RTT = TimeUnit.MILLISECONDS.toNanos(20);
+
+    /**
+     * 直接在当前线程执行
+     */
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    @Test
+    public void testQueueAndRelease() {
+        HttpConcurrencyLimiter limiter = new HttpConcurrencyLimiter(2, 2, 2);
+        AtomicInteger started = new AtomicInteger();
+        FutureTask<Void> cancelled = newTask(started);
+        for (int i = 0; i < 2; i++) {
+            limiter.dispatch(HOST, newTask(started), DIRECT);
+        }
+        limiter.dispatch(HOST, cancelled, DIRECT);
+        limiter.dispatch(HOST, newTask(started), DIRECT);
+        assertEquals(2, started.get());
+        assertEquals(2, limiter.getInFlightCount(HOST));
+        assertEquals(2, limiter.getQueuedCount(HOST));
+
+        //排队期间取消的任务被跳过
+        cancelled.cancel(false);
+        limiter.release(HOST, RTT, true, false);
+        assertEquals(3, started.get());
+        assertEquals(2, limiter.getInFlightCount(HOST));
+        assertEquals(0, limiter.getQueuedCount(HOST));
+        assertEquals(0, limiter.getInFlightCount("other"));
+    }
+
+    @Test
+    public void testIncreaseWithStableLatency() {
+        HttpConcurrencyLimiter limiter = new HttpConcurrencyLimiter(1, 32, 4);
+        saturate(limiter, 200, RTT);
+        assertEquals(32, limiter.getLimit(HOST));
+        assertEquals(20, limiter.getRttMillis(HOST), 0.5);
+    }
+
+    @Test
+    public void testDecreaseWithRisingLatency() {
+        HttpConcurrencyLimiter limiter = new HttpConcurrencyLimiter(2, 32, 16);
+        saturate(limiter, 20, RTT);
+        int limit = limiter.getLimit(HOST);
+        saturate(limiter, 100, RTT * 4);
+        assertTrue(limiter.getLimit(HOST) < limit / 2);
+        assertTrue(limiter.getLimit(HOST) >= 2);
+    }
+
+    @Test
+    public void testBackoffOnFailure() {
+        HttpConcurrencyLimiter limiter = new HttpConcurrencyLimiter(3, 32, 20);
+        for (int i = 0; i < 100; i++) {
+            limiter.dispatch(HOST, newTask(null), DIRECT);
+            limiter.release(HOST, RTT, true, true);
+        }
+        assertEquals(3, limiter.getLimit(HOST));
+        assertEquals(0, limiter.getInFlightCount(HOST));
+    }
+
+    @Test
+    public void testNoIncreaseWhenIdle() {
+        HttpConcurrencyLimiter limiter = new HttpConcurrencyLimiter(1, 32, 8);
+        for (int i = 0; i < 100; i++) {
+            limiter.dispatch(HOST, newTask(null), DIRECT);
+            limiter.release(HOST, RTT, true, false);
+        }
+        assertEquals(8, limiter.getLimit(HOST));
+    }
+
+    @Test
+    public void testHttpHelper() throws Exception {
+        final int capacity = 4;
+        final AtomicInteger active = new AtomicInteger();
+        final AtomicInteger peak = new AtomicInteger();
+        LoopbackTransport transport = new LoopbackTransport();
+        transport.addRoute("GET", "/queue").setResponder(new LoopbackTransport.Responder() {
+            @Override
+            public byte[] respond(HttpTransportRequest request, byte[] requestBody) throws IOException {
+                int current = active.incrementAndGet();
+                synchronized (peak) {
+                    peak.set(Math.max(peak.get(), current));
+                }
+                try {
+                    //超过服务器处理能力的请求排队
+                    Thread.sleep(5 + 5 * Math.max(0, current - capacity));
+                } catch (InterruptedException ex) {
+                    throw new IOException(ex);
+                } finally {
+                    active.decrementAndGet();
+                }
+                return "ok".getBytes("UTF-8");
+            }
+        });
+        HttpConcurrencyLimiter limiter = new HttpConcurrencyLimiter(1, 32, 8);
+        HttpHelper httpHelper = new HttpHelper();
+        httpHelper.setTransport(transport);
+        httpHelper.setConcurrencyLimiter(limiter);
+        List<HttpSession<String>> sessions = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            sessions.add(httpHelper.<String>doHttpGet(new HttpRequest(HOST, "/queue"), null, null));
+        }
+        assertTrue(limiter.getQueuedCount(HOST) > 0);
+        for (HttpSession<String> session : sessions) {
+            assertEquals(HttpResponse.SUCCESS, session.getResponse().getCode());
+        }
+        assertTrue(peak.get() <= 32);
+        assertTrue(limiter.getLimit(HOST) < 32);
+        assertEquals(0, limiter.getInFlightCount(HOST));
+        assertEquals(0, limiter.getQueuedCount(HOST));
+    }
+
+    /**
+     * 保持并发数用满，按固定RTT完成请求
+     */
+    private static void saturate(HttpConcurrencyLimiter limiter, int samples, long rttNanos) {
+        for (int i = 0; i < samples; i++) {
+            while (limiter.getInFlightCount(HOST) < limiter.getLimit(HOST)) {
+                limiter.dispatch(HOST, newTask(null), DIRECT);
+            }
+            limiter.release(HOST, rttNanos, true, false);
+        }
+    }
+
+    private static FutureTask<Void> newTask(final AtomicInteger started) {
+        return new FutureTask<>(new Runnable() {
+            @Override
+            public void run() {
+                if (started != null) {
+                    started.incrementAndGet();
+                }
+            }
+        }, null);
+    }
+}
@@ -0,0 +1,252 @@
+package com.seagle.net.android.httphelper;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 分段下载的测试：分段并发下载、服务器不支持Range时单连接下载以及MD5校验失败.
+ * Created by seagle on 2018/4/10.
+ */
+public class HttpDownloadTaskTest {
+
+    /**
+     * 文件长度，足够分成4段
+     */
+    private static final int FILE_SIZE = 1024 * 1024 + 123;
+
+    private byte[] mContent;
+    private FileServer mServer;
+    private File mFile;
+    private HttpHelper mHttpHelper;
+
+    @Before
+    public void setUp() throws Exception {
+        mContent = new byte[FILE_SIZE];
+        new Random(42).nextBytes(mContent);
+        mServer = new FileServer(mContent);
+        mFile = File.createTempFile("download", ".bin");
+        mHttpHelper = new HttpHelper();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mServer.close();
+        mFile.delete();
+    }
+
+    @Test
+    public void testSegmentedDownload() throws Exception {
+        HttpResponse<File> response = download(4, md5(mContent));
+        assertTrue(response.toString(), response.isSuccess());
+        assertArrayEquals(mContent, readFile(mFile));
+        assertEquals(1, mServer.mHeadCount.get());
+        assertEquals(4, mServer.mRangeCount.get());
+        assertEquals(0, mServer.mFullCount.get());
+    }
+
+    @Test
+    public void testRangeNotAdvertised() throws Exception {
+        mServer.mAdvertiseRanges = false;
+        HttpResponse<File> response = download(4, md5(mContent));
+        assertTrue(response.toString(), response.isSuccess());
+        assertArrayEquals(mContent, readFile(mFile));
+        assertEquals(0, mServer.mRangeCount.get());
+        assertEquals(1, mServer.mFullCount.get());
+    }
+
+    @Test
+    public void testRangeIgnored() throws Exception {
+        //声明支持Range，分段请求却返回完整的文件
+        mServer.mHonorRanges = false;
+        HttpResponse<File> response = download(4, md5(mContent));
+        assertTrue(response.toString(), response.isSuccess());
+        assertArrayEquals(mContent, readFile(mFile));
+        assertEquals(0, mServer.mRangeCount.get());
+        assertTrue(mServer.mFullCount.get() >= 2);
+    }
+
+    @Test
+    public void testChecksumMismatch() throws Exception {
+        byte[] other = Arrays.copyOf(mContent, mContent.length);
+        other[0]++;
+        HttpResponse<File> response = download(4, md5(other));
+        assertEquals(HttpResponse.ERROR_CODE_VERIFY_FAILED, response.getCode());
+        assertEquals(4, mServer.mRangeCount.get());
+        assertFalse(mFile.exists());
+    }
+
+    private HttpResponse<File> download(int segmentCount, String md5) {
+        HttpRequest request = new HttpRequest("127.0.0.1:" + mServer.getPort(), "/file.bin");
+        HttpSession<File> session = mHttpHelper.doHttpDownload(request, mFile, segmentCount, md5, null);
+        return session.getResponse();
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        byte[] content = new byte[(int) file.length()];
+        InputStream inStream = new FileInputStream(file);
+        try {
+            int offset = 0;
+            int bytes;
+            while (offset < content.length && (bytes = inStream.read(content, offset, content.length - offset)) != -1) {
+                offset += bytes;
+            }
+        } finally {
+            inStream.close();
+        }
+        return content;
+    }
+
+    private static String md5(byte[] content) throws Exception {
+        StringBuilder hexBuilder = new StringBuilder();
+        for (byte b : MessageDigest.getInstance("MD5").digest(content)) {
+            hexBuilder.append(String.format("%02x", b & 0xFF));
+        }
+        return hexBuilder.toString();
+    }
+
+    /**
+     * 本地文件服务器，支持HEAD和单个区间的Range请求，每个连接处理一个请求后关闭
+     */
+    private static final class FileServer implements Runnable {
+        private final ServerSocket mServerSocket;
+        private final byte[] mContent;
+        private final AtomicInteger mHeadCount = new AtomicInteger();
+        private final AtomicInteger mRangeCount = new AtomicInteger();
+        private final AtomicInteger mFullCount = new AtomicInteger();
+
+        /**
+         * HEAD响应是否带有Accept-Ranges: bytes
+         */
+        private volatile boolean mAdvertiseRanges = true;
+
+        /**
+         * 是否按Range返回206，否则返回200和完整的文件
+         */
+        private volatile boolean mHonorRanges = true;
+
+        private FileServer(byte[] content) throws IOException {
+            mContent = content;
+            mServerSocket = new ServerSocket(0);
+            Thread thread = new Thread(this, "FileServer");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        private int getPort() {
+            return mServerSocket.getLocalPort();
+        }
+
+        @Override
+        public void run() {
+            while (!mServerSocket.isClosed()) {
+                try {
+                    final Socket socket = mServerSocket.accept();
+                    Thread thread = new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            serve(socket);
+                        }
+                    }, "FileServer-Connection");
+                    thread.setDaemon(true);
+                    thread.start();
+                } catch (IOException ex) {
+                    return;
+                }
+            }
+        }
+
+        private void serve(Socket socket) {
+            try {
+                InputStream inStream = new BufferedInputStream(socket.getInputStream());
+                OutputStream outStream = socket.getOutputStream();
+                String requestLine = readLine(inStream);
+                if (requestLine == null) {
+                    return;
+                }
+                String range = null;
+                String header;
+                while ((header = readLine(inStream)) != null && header.length() > 0) {
+                    if (header.toLowerCase(Locale.US).startsWith("range:")) {
+                        range = header.substring(6).trim();
+                    }
+                }
+                boolean head = requestLine.startsWith("HEAD ");
+                int start = 0;
+                int end = mContent.length - 1;
+                String status = "200 OK";
+                StringBuilder headBuilder = new StringBuilder();
+                if (head) {
+                    mHeadCount.incrementAndGet();
+                    if (mAdvertiseRanges) {
+                        headBuilder.append("Accept-Ranges: bytes\r\n");
+                    }
+                } else if (range != null && mHonorRanges) {
+                    mRangeCount.incrementAndGet();
+                    String[] bounds = range.substring("bytes=".length()).split("-");
+                    start = Integer.parseInt(bounds[0]);
+                    end = Integer.parseInt(bounds[1]);
+                    status = "206 Partial Content";
+                    headBuilder.append("Content-Range: bytes ").append(start).append('-').append(end)
+                            .append('/').append(mContent.length).append("\r\n");
+                } else {
+                    mFullCount.incrementAndGet();
+                }
+                int length = end - start + 1;
+                outStream.write(("HTTP/1.1 " + status + "\r\nContent-Type: application/octet-stream\r\nContent-Length: "
+                        + length + "\r\nConnection: close\r\n" + headBuilder + "\r\n").getBytes("UTF-8"));
+                if (!head) {
+                    outStream.write(mContent, start, length);
+                }
+                outStream.flush();
+            } catch (Exception ex) {
+                //连接被客户端断开
+            } finally {
+                try {
+                    socket.close();
+                } catch (IOException ex) {
+                    //ignore
+                }
+            }
+        }
+
+        private static String readLine(InputStream inStream) throws IOException {
+            StringBuilder lineBuilder = new StringBuilder();
+            int c;
+            while ((c = inStream.read()) != -1) {
+                if (c == '\n') {
+                    int length = lineBuilder.length();
+                    if (length > 0 && lineBuilder.charAt(length - 1) == '\r') {
+                        lineBuilder.setLength(length - 1);
+                    }
+                    return lineBuilder.toString();
+                }
+                lineBuilder.append((char) c);
+            }
+            return lineBuilder.length() == 0 ? null : lineBuilder.toString();
+        }
+
+        private void close() throws IOException {
+            mServerSocket.close();
+        }
+    }
+}
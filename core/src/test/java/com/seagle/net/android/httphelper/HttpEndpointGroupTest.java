@@ -0,0 +1,214 @@
+package com.seagle.net.android.httphelper;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 服务器组的测试，使用多个本地服务器代替服务的副本.
+ * Created by seagle on 2018/4/10.
+ */
+public class HttpEndpointGroupTest {
+
+    private final List<LoadTestServer> mServers = new ArrayList<>();
+
+    @After
+    public void tearDown() throws Exception {
+        for (LoadTestServer server : mServers) {
+            server.close();
+        }
+    }
+
+    @Test
+    public void testLatencyWeightedSelection() throws Exception {
+        String fast1 = startServer(5);
+        String fast2 = startServer(5);
+        String slow = startServer(80);
+        HttpEndpointGroup group = new HttpEndpointGroup("user-service", fast1, fast2, slow);
+        HttpHelper httpHelper = new HttpHelper();
+        httpHelper.addEndpointGroup(group);
+        int batches = 20;
+        int concurrency = 8;
+        long startTime = System.nanoTime();
+        for (int i = 0; i < batches; i++) {
+            List<HttpSession<String>> sessions = new ArrayList<>();
+            for (int j = 0; j < concurrency; j++) {
+                HttpSession<String> session = httpHelper.doHttpGet(new HttpRequest("user-service", "/user"), null, null);
+                sessions.add(session);
+            }
+            for (HttpSession<String> session : sessions) {
+                assertTrue(session.getResponse().isSuccess());
+            }
+        }
+        double seconds = (System.nanoTime() - startTime) / 1e9;
+        List<HttpEndpointGroup.Endpoint> endpoints = group.getEndpoints();
+        String result = String.format("%d requests in %.2fs: 5ms %d/%d, 80ms %d (ewma %.1fms/%.1fms/%.1fms)",
+                batches * concurrency, seconds, endpoints.get(0).getRequestCount(), endpoints.get(1).getRequestCount(),
+                endpoints.get(2).getRequestCount(), endpoints.get(0).getLatencyMillis(), endpoints.get(1).getLatencyMillis(),
+                endpoints.get(2).getLatencyMillis());
+        long total = batches * concurrency;
+        assertTrue(result, endpoints.get(2).getRequestCount() < total / 10);
+        assertTrue(result, endpoints.get(0).getRequestCount() > total / 4);
+        assertTrue(result, endpoints.get(1).getRequestCount() > total / 4);
+        for (HttpEndpointGroup.Endpoint endpoint : endpoints) {
+            assertEquals(0, endpoint.getActiveCount());
+        }
+    }
+
+    @Test
+    public void testFailoverOnConnectError() throws Exception {
+        String dead = deadHost();
+        String live = startServer(0);
+        HttpEndpointGroup group = new HttpEndpointGroup("user-service", dead, live);
+        HttpHelper httpHelper = new HttpHelper();
+        httpHelper.addEndpointGroup(group);
+        for (int i = 0; i < 20; i++) {
+            HttpSession<String> session = httpHelper.doHttpGet(new HttpRequest("user-service", "/user"), null, null);
+            HttpResponse<String> response = session.getResponse();
+            assertTrue(response.toString(), response.isSuccess());
+        }
+        HttpEndpointGroup.Endpoint deadEndpoint = group.getEndpoints().get(0);
+        //失败一次后负载加倍，不再优先于正常的服务器
+        assertTrue(deadEndpoint.getRequestCount() <= 1);
+        assertEquals(deadEndpoint.getRequestCount(), deadEndpoint.getFailureCount());
+        assertEquals(deadEndpoint.getFailureCount(), group.getFailoverCount());
+        assertFalse(group.getEndpoints().get(1).isEjected());
+    }
+
+    @Test
+    public void testFailoverSkipsTriedEndpoints() throws Exception {
+        String dead1 = deadHost();
+        String dead2 = deadHost();
+        String live = startServer(0);
+        HttpEndpointGroup group = new HttpEndpointGroup("user-service", dead1, dead2, live);
+        //不剔除，每个请求都可能先选到失败的服务器
+        group.setEjectionPolicy(1000, 10000);
+        HttpHelper httpHelper = new HttpHelper();
+        httpHelper.addEndpointGroup(group);
+        for (int i = 0; i < 20; i++) {
+            HttpSession<String> session = httpHelper.doHttpGet(new HttpRequest("user-service", "/user"), null, null);
+            HttpResponse<String> response = session.getResponse();
+            assertTrue(response.toString(), response.isSuccess());
+        }
+        assertEquals(20, group.getEndpoints().get(2).getRequestCount());
+        assertEquals(group.getEndpoints().get(0).getFailureCount() + group.getEndpoints().get(1).getFailureCount(),
+                group.getFailoverCount());
+    }
+
+    @Test
+    public void testUnsampledEndpointNotPreferred() throws Exception {
+        HttpEndpointGroup group = new HttpEndpointGroup("user-service", "10.0.0.1:80", "10.0.0.2:80");
+        HttpEndpointGroup.Endpoint first = group.getEndpoints().get(0);
+        HttpEndpointGroup.Endpoint second = group.getEndpoints().get(1);
+        group.onResult(group.select(Collections.singletonList(second)), 5000000, true);
+        //没有成功请求的服务器按平均耗时计算，与已有的服务器机会相同
+        int secondCount = 0;
+        for (int i = 0; i < 1000; i++) {
+            HttpEndpointGroup.Endpoint endpoint = group.select(null);
+            if (endpoint == second) {
+                secondCount++;
+            }
+            group.onResult(endpoint, 5000000, true);
+        }
+        assertTrue("second " + secondCount, secondCount > 300 && secondCount < 700);
+        //失败过一次的服务器负载加倍
+        group.onResult(group.select(Collections.singletonList(first)), 5000000, false);
+        for (int i = 0; i < 100; i++) {
+            HttpEndpointGroup.Endpoint endpoint = group.select(null);
+            assertSame(first, endpoint);
+            group.onResult(endpoint, 5000000, true);
+        }
+    }
+
+    @Test
+    public void testPostNotFailedOver() throws Exception {
+        String dead = deadHost();
+        String live = startServer(0);
+        HttpEndpointGroup group = new HttpEndpointGroup("user-service", dead, live);
+        group.setEjectionPolicy(10, 10000);
+        HttpHelper httpHelper = new HttpHelper();
+        httpHelper.addEndpointGroup(group);
+        HttpEndpointGroup.Endpoint deadEndpoint = group.getEndpoints().get(0);
+        //两个服务器负载相同时随机选择，直到选中连接失败的服务器
+        for (int i = 0; i < 50 && deadEndpoint.getRequestCount() == 0; i++) {
+            HttpRequest request = new HttpRequest("user-service", "/user");
+            request.addRequestParam("name", "seagle");
+            HttpSession<String> session = httpHelper.doHttpPost(request, null, null);
+            HttpResponse<String> response = session.getResponse();
+            if (deadEndpoint.getRequestCount() > 0) {
+                assertFalse(response.isSuccess());
+                assertEquals(HttpResponse.ERROR_CODE_REQUEST_FAILED, response.getCode());
+            } else {
+                assertTrue(response.isSuccess());
+            }
+        }
+        assertEquals(1, deadEndpoint.getFailureCount());
+        assertEquals(0, group.getFailoverCount());
+    }
+
+    @Test
+    public void testEjectionExpires() throws Exception {
+        HttpEndpointGroup group = new HttpEndpointGroup("user-service", "10.0.0.1:80", "10.0.0.2:80");
+        group.setEjectionPolicy(2, 100);
+        HttpEndpointGroup.Endpoint first = group.getEndpoints().get(0);
+        HttpEndpointGroup.Endpoint second = group.getEndpoints().get(1);
+        group.onResult(group.select(Collections.singletonList(second)), 1000000, false);
+        assertFalse(first.isEjected());
+        group.onResult(group.select(Collections.singletonList(second)), 1000000, false);
+        assertTrue(first.isEjected());
+        for (int i = 0; i < 10; i++) {
+            HttpEndpointGroup.Endpoint endpoint = group.select(null);
+            assertSame(second, endpoint);
+            group.onResult(endpoint, 1000000, true);
+        }
+        //所有服务器都被剔除时，使用最早恢复的服务器
+        group.onResult(group.select(null), 1000000, false);
+        group.onResult(group.select(null), 1000000, false);
+        assertTrue(second.isEjected());
+        HttpEndpointGroup.Endpoint endpoint = group.select(null);
+        assertSame(first, endpoint);
+        group.onResult(endpoint, 1000000, true);
+
+        Thread.sleep(250);
+        assertFalse(first.isEjected());
+        assertFalse(second.isEjected());
+        //恢复后再次失败立即剔除，剔除时间加倍
+        group.onResult(group.select(Collections.singletonList(second)), 1000000, true);
+        endpoint = group.select(Collections.singletonList(first));
+        assertSame(second, endpoint);
+        group.onResult(endpoint, 1000000, false);
+        assertTrue(second.isEjected());
+        Thread.sleep(120);
+        assertTrue(second.isEjected());
+        Thread.sleep(150);
+        assertFalse(second.isEjected());
+        for (HttpEndpointGroup.Endpoint e : group.getEndpoints()) {
+            assertEquals(0, e.getActiveCount());
+        }
+    }
+
+    private String startServer(long latencyMillis) throws Exception {
+        LoadTestServer server = new LoadTestServer(latencyMillis > 0 ? LoopbackTransport.fixedLatency(latencyMillis) : null, 16);
+        mServers.add(server);
+        return server.getHost();
+    }
+
+    /**
+     * 没有服务器监听的地址，连接被拒绝
+     */
+    private static String deadHost() throws Exception {
+        ServerSocket serverSocket = new ServerSocket(0);
+        int port = serverSocket.getLocalPort();
+        serverSocket.close();
+        return "127.0.0.1:" + port;
+    }
+}
@@ -0,0 +1,191 @@
+package com.seagle.net.android.httphelper;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * GET请求对冲的测试.
+ * Created by seagle on 2018/4/10.
+ */
+public class HttpHedgePolicyTest {
+
+    private LoopbackTransport mTransport;
+    private HttpHelper mHttpHelper;
+
+    @Before
+    public void setUp() {
+        mTransport = new LoopbackTransport();
+        mHttpHelper = new HttpHelper();
+        mHttpHelper.setTransport(mTransport);
+        mHttpHelper.setBodyMemoryLimit(0, 1024 * 1024);
+    }
+
+    @Test
+    public void testHedgeWins() {
+        //第一个请求很慢，之后的请求很快
+        final AtomicInteger calls = new AtomicInteger();
+        LoopbackTransport.Route route = mTransport.addRoute("GET", "/tail");
+        route.setBody("ok");
+        route.setLatency(new LoopbackTransport.LatencyModel() {
+            @Override
+            public long nextDelayMillis(Random random) {
+                return calls.getAndIncrement() == 0 ? 5000 : 10;
+            }
+        });
+        HttpHedgePolicy policy = HttpHedgePolicy.fixedDelay(50, 1.0);
+        mHttpHelper.setHedgePolicy(policy);
+        long startTime = System.currentTimeMillis();
+        HttpResponse<String> response = get("/tail");
+        assertEquals(HttpResponse.SUCCESS, response.getCode());
+        assertEquals("ok", response.getRawData());
+        assertTrue(System.currentTimeMillis() - startTime < 2000);
+        assertEquals(1, policy.getHedgeCount());
+        assertEquals(1, policy.getHedgeWinCount());
+        assertEquals(1.0, policy.getHedgeWinRate(), 0.001);
+        assertEquals(0, mHttpHelper.getBodyMemoryUsage());
+    }
+
+    @Test
+    public void testPrimaryWins() throws Exception {
+        //对冲请求很慢，主请求先完成
+        final AtomicInteger calls = new AtomicInteger();
+        LoopbackTransport.Route route = mTransport.addRoute("GET", "/slow-hedge");
+        route.setBody("ok");
+        route.setLatency(new LoopbackTransport.LatencyModel() {
+            @Override
+            public long nextDelayMillis(Random random) {
+                return calls.getAndIncrement() == 0 ? 200 : 5000;
+            }
+        });
+        HttpHedgePolicy policy = HttpHedgePolicy.fixedDelay(50, 1.0);
+        mHttpHelper.setHedgePolicy(policy);
+        long startTime = System.currentTimeMillis();
+        assertEquals(HttpResponse.SUCCESS, get("/slow-hedge").getCode());
+        assertTrue(System.currentTimeMillis() - startTime < 2000);
+        assertEquals(1, policy.getHedgeCount());
+        assertEquals(0, policy.getHedgeWinCount());
+        assertEquals(2, calls.get());
+    }
+
+    @Test
+    public void testPrimaryFailsWithSingleThread() throws Exception {
+        //只有一个I/O线程时对冲请求排在主请求之后，主请求失败时不能等待对冲请求
+        LoopbackTransport.Route route = mTransport.addRoute("GET", "/refused");
+        route.setLatency(LoopbackTransport.fixedLatency(200));
+        route.setFailureRates(1.0, 0, 0);
+        ExecutorService executor = Executors.newFixedThreadPool(1);
+        try {
+            HttpHelper httpHelper = new HttpHelper(executor);
+            httpHelper.setTransport(mTransport);
+            HttpHedgePolicy policy = HttpHedgePolicy.fixedDelay(50, 1.0);
+            httpHelper.setHedgePolicy(policy);
+            HttpSession<String> session = httpHelper.doHttpGet(new HttpRequest("loopback", "/refused"), null, null);
+            HttpResponse<String> response = session.getResponse(3000, TimeUnit.MILLISECONDS, true);
+            assertEquals(HttpResponse.ERROR_CODE_REQUEST_FAILED, response.getCode());
+            //排队的对冲请求在主请求结束后不再发送，退还预算
+            assertEquals(0, policy.getHedgeCount());
+            session = httpHelper.doHttpGet(new HttpRequest("loopback", "/refused"), null, null);
+            assertEquals(HttpResponse.ERROR_CODE_REQUEST_FAILED, session.getResponse(3000, TimeUnit.MILLISECONDS, true).getCode());
+            assertEquals(2, route.getRequestCount());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testHedgeRespectsConcurrencyLimit() {
+        //每个服务器只允许一个并发请求，对冲请求排在主请求之后
+        LoopbackTransport.Route route = mTransport.addRoute("GET", "/limited");
+        route.setBody("ok");
+        route.setLatency(LoopbackTransport.fixedLatency(300));
+        HttpConcurrencyLimiter concurrencyLimiter = new HttpConcurrencyLimiter(1, 1, 1);
+        mHttpHelper.setConcurrencyLimiter(concurrencyLimiter);
+        HttpHedgePolicy policy = HttpHedgePolicy.fixedDelay(50, 1.0);
+        mHttpHelper.setHedgePolicy(policy);
+        assertEquals(HttpResponse.SUCCESS, get("/limited").getCode());
+        assertEquals(1, route.getRequestCount());
+        assertEquals(0, policy.getHedgeCount());
+        assertEquals(0, concurrencyLimiter.getInFlightCount("loopback"));
+        assertEquals(0, concurrencyLimiter.getQueuedCount("loopback"));
+    }
+
+    @Test
+    public void testHedgeRespectsRateLimit() throws Exception {
+        //每秒一个请求，对冲请求等待令牌时主请求已经完成
+        LoopbackTransport.Route route = mTransport.addRoute("GET", "/rate");
+        route.setBody("ok");
+        route.setLatency(LoopbackTransport.fixedLatency(300));
+        HttpRateLimiter rateLimiter = new HttpRateLimiter(1, 1);
+        mHttpHelper.setRateLimiter(rateLimiter);
+        HttpHedgePolicy policy = HttpHedgePolicy.fixedDelay(50, 1.0);
+        mHttpHelper.setHedgePolicy(policy);
+        assertEquals(HttpResponse.SUCCESS, get("/rate").getCode());
+        assertEquals(0, policy.getHedgeCount());
+        //取消的对冲请求出队时不消耗令牌，也不会再发送
+        Thread.sleep(1200);
+        assertEquals(1, route.getRequestCount());
+        assertEquals(0, rateLimiter.getQueuedCount("loopback"));
+    }
+
+    @Test
+    public void testNoHedgeForFastRequests() {
+        mTransport.addRoute("GET", "/fast").setBody("ok");
+        HttpHedgePolicy policy = HttpHedgePolicy.fixedDelay(500, 1.0);
+        mHttpHelper.setHedgePolicy(policy);
+        for (int i = 0; i < 10; i++) {
+            assertEquals(HttpResponse.SUCCESS, get("/fast").getCode());
+        }
+        assertEquals(10, policy.getRequestCount());
+        assertEquals(0, policy.getHedgeCount());
+        //POST请求不对冲
+        mTransport.addRoute("POST", "/post").setLatency(LoopbackTransport.fixedLatency(700));
+        assertEquals(HttpResponse.SUCCESS, mHttpHelper.doHttpPost(new HttpRequest("loopback", "/post"), null, null)
+                .getResponse().getCode());
+        assertEquals(10, policy.getRequestCount());
+    }
+
+    @Test
+    public void testBudget() {
+        LoopbackTransport.Route route = mTransport.addRoute("GET", "/always-slow");
+        route.setBody("ok");
+        route.setLatency(LoopbackTransport.fixedLatency(60));
+        HttpHedgePolicy policy = HttpHedgePolicy.fixedDelay(10, 0.2);
+        mHttpHelper.setHedgePolicy(policy);
+        for (int i = 0; i < 20; i++) {
+            assertEquals(HttpResponse.SUCCESS, get("/always-slow").getCode());
+        }
+        assertEquals(4, policy.getHedgeCount());
+        assertEquals(16, policy.getBudgetExhaustedCount());
+        assertEquals(24, route.getRequestCount());
+    }
+
+    @Test
+    public void testPercentileDelay() {
+        LoopbackTransport.Route route = mTransport.addRoute("GET", "/p95");
+        route.setBody("ok");
+        route.setLatency(LoopbackTransport.fixedLatency(30));
+        HttpHedgePolicy policy = HttpHedgePolicy.percentileDelay(0.95, 1000, 0.1);
+        mHttpHelper.setHedgePolicy(policy);
+        assertEquals(1000, policy.getDelayMillis("loopback"));
+        for (int i = 0; i < 25; i++) {
+            get("/p95");
+        }
+        long delay = policy.getDelayMillis("loopback");
+        assertTrue(delay >= 30 && delay < 500);
+        assertEquals(1000, policy.getDelayMillis("other"));
+    }
+
+    private HttpResponse<String> get(String path) {
+        HttpSession<String> session = mHttpHelper.doHttpGet(new HttpRequest("loopback", path), null, null);
+        return session.getResponse();
+    }
+}
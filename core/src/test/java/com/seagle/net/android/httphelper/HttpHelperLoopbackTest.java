@@ -0,0 +1,144 @@
+package com.seagle.net.android.httphelper;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * HttpHelper在普通JVM上的测试，使用LoopbackTransport代替网络.
+ * Created by seagle on 2018/4/10.
+ */
+public class HttpHelperLoopbackTest {
+
+    private LoopbackTransport mTransport;
+
+    @Before
+    public void setUp() {
+        mTransport = new LoopbackTransport();
+        mTransport.addRoute("GET", "/user").setBody("seagle");
+        mTransport.addRoute("GET", "/slow").setLatency(LoopbackTransport.fixedLatency(5000));
+    }
+
+    @Test
+    public void testSyncRequest() {
+        HttpHelper httpHelper = newHttpHelper(null);
+        HttpResponse<String> response = httpHelper.doHttpGet(newRequest("/user"), new UpperCaseResolver(), null).getResponse();
+        assertTrue(response.isSuccess());
+        assertEquals("SEAGLE", response.getResult());
+    }
+
+    @Test
+    public void testCallbackExecutor() throws Exception {
+        final AtomicInteger deliveries = new AtomicInteger();
+        final Executor callbackExecutor = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                deliveries.incrementAndGet();
+                command.run();
+            }
+        };
+        HttpHelper httpHelper = newHttpHelper(callbackExecutor);
+        final CountDownLatch latch = new CountDownLatch(1);
+        final AtomicReference<String> result = new AtomicReference<>();
+        httpHelper.doHttpGet(newRequest("/user"), new UpperCaseResolver(), new HttpCallback<String>() {
+            @Override
+            protected void onResponseSuccess(HttpResponse<String> response) {
+                result.set(response.getResult());
+                latch.countDown();
+            }
+        });
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertEquals("SEAGLE", result.get());
+        assertEquals(1, deliveries.get());
+    }
+
+    @Test
+    public void testCancelAll() throws Exception {
+        HttpHelper httpHelper = newHttpHelper(null);
+        HttpRequest request = newRequest("/slow");
+        request.setTag("page");
+        HttpSession<String> session = httpHelper.doHttpGet(request, new UpperCaseResolver(), null);
+        Thread.sleep(100);
+        long start = System.nanoTime();
+        assertEquals(1, httpHelper.cancelAll("page"));
+        assertTrue(session.isCancelled());
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 1000);
+    }
+
+    /**
+     * 每个请求一个虚拟线程，运行环境不支持时跳过
+     */
+    @Test
+    public void testVirtualThreads() throws Exception {
+        if (!HttpExecutors.isVirtualThreadSupported()) {
+            return;
+        }
+        mTransport.addRoute("GET", "/wait").setLatency(LoopbackTransport.fixedLatency(200));
+        ExecutorService executor = HttpExecutors.newVirtualThreadExecutor();
+        HttpHelper httpHelper = new HttpHelper(executor);
+        httpHelper.setTransport(mTransport);
+        int requests = 10000;
+        final CountDownLatch latch = new CountDownLatch(requests);
+        final AtomicInteger success = new AtomicInteger();
+        for (int i = 0; i < requests; i++) {
+            httpHelper.doHttpGet(newRequest("/wait"), null, new HttpCallback<String>() {
+                @Override
+                protected void onResponseSuccess(HttpResponse<String> response) {
+                    success.incrementAndGet();
+                    latch.countDown();
+                }
+
+                @Override
+                protected void onResponseFailure(HttpResponse<String> response) {
+                    latch.countDown();
+                }
+            });
+        }
+        assertTrue(latch.await(30, TimeUnit.SECONDS));
+        assertEquals(requests, success.get());
+        executor.shutdown();
+    }
+
+    private HttpHelper newHttpHelper(Executor callbackExecutor) {
+        HttpHelper httpHelper = new HttpHelper();
+        httpHelper.setTransport(mTransport);
+        if (callbackExecutor != null) {
+            httpHelper.setCallbackExecutor(callbackExecutor);
+        }
+        return httpHelper;
+    }
+
+    private static HttpRequest newRequest(String path) {
+        HttpRequest request = new HttpRequest("loopback", path);
+        request.setRequestTimeout(10000);
+        return request;
+    }
+
+    private static final class UpperCaseResolver extends HttpResultResolver<String> {
+
+        UpperCaseResolver() {
+            super(String.class);
+        }
+
+        @Override
+        protected String resolverHttpRespData(String httpRespData) {
+            assertNotNull(httpRespData);
+            return httpRespData.toUpperCase();
+        }
+
+        @Override
+        public boolean isSuccess() {
+            return true;
+        }
+    }
+}
@@ -0,0 +1,359 @@
+package com.seagle.net.android.httphelper;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * HttpHelper负载生成器.
+ * 按固定到达率提交请求（开放模型）：第i个请求的计划发送时间为start + i / rate，
+ * 发送不等待之前的请求完成，延迟从计划发送时间开始计算，避免协调遗漏（coordinated omission）。
+ * 请求发送到同一进程中的{@link LoadTestServer}，服务器延迟可以配置。
+ * 运行结束后输出JSON格式的报告，包括延迟分布、吞吐量、排队时间、线程数和堆内存。
+ * <p>
+ * 运行：gradle :core:loadTest -Pargs="--rate 500 --duration 10 --executor fixed:64 --transport nio"
+ * Created by seagle on 2018/4/10.
+ */
+public final class HttpLoadGenerator {
+
+    /**
+     * 负载配置
+     */
+    static final class Config {
+        double mRate = 200;
+        int mDurationSeconds = 10;
+        int mWarmupSeconds = 2;
+        String mMethod = HttpRequest.HTTP_GET;
+        String mExecutor = "cached";
+        String mTransport = "url";
+        String mLatencyModel = "fixed";
+        double mServerLatencyMillis = 20;
+        int mBodySize = 1024;
+        int mDecodeThreads = -1;
+        String mOutput;
+
+        /**
+         * 解析命令行参数，格式为--name value
+         *
+         * @param args 参数
+         * @return 配置
+         */
+        static Config parse(String[] args) {
+            Config config = new Config();
+            for (int i = 0; i + 1 < args.length; i += 2) {
+                String name = args[i];
+                String value = args[i + 1];
+                if ("--rate".equals(name)) {
+                    config.mRate = Double.parseDouble(value);
+                } else if ("--duration".equals(name)) {
+                    config.mDurationSeconds = Integer.parseInt(value);
+                } else if ("--warmup".equals(name)) {
+                    config.mWarmupSeconds = Integer.parseInt(value);
+                } else if ("--method".equals(name)) {
+                    config.mMethod = value.toUpperCase(Locale.US);
+                } else if ("--executor".equals(name)) {
+                    config.mExecutor = value;
+                } else if ("--transport".equals(name)) {
+                    config.mTransport = value;
+                } else if ("--latency-model".equals(name)) {
+                    config.mLatencyModel = value;
+                } else if ("--server-latency".equals(name)) {
+                    config.mServerLatencyMillis = Double.parseDouble(value);
+                } else if ("--body-size".equals(name)) {
+                    config.mBodySize = Integer.parseInt(value);
+                } else if ("--decode-threads".equals(name)) {
+                    config.mDecodeThreads = Integer.parseInt(value);
+                } else if ("--output".equals(name)) {
+                    config.mOutput = value;
+                } else {
+                    throw new IllegalArgumentException("Unknown option: " + name);
+                }
+            }
+            if (config.mRate <= 0 || config.mDurationSeconds <= 0) {
+                throw new IllegalArgumentException("Rate and duration must be positive");
+            }
+            return config;
+        }
+
+        LoopbackTransport.LatencyModel newLatencyModel() {
+            if ("exponential".equals(mLatencyModel)) {
+                return LoopbackTransport.exponentialLatency(mServerLatencyMillis);
+            } else if ("lognormal".equals(mLatencyModel)) {
+                return LoopbackTransport.logNormalLatency(mServerLatencyMillis, 0.5);
+            }
+            return LoopbackTransport.fixedLatency((long) mServerLatencyMillis);
+        }
+
+        HttpHelper newHttpHelper() {
+            HttpHelper httpHelper;
+            if ("cached".equals(mExecutor)) {
+                httpHelper = new HttpHelper();
+            } else if (mExecutor.startsWith("fixed:")) {
+                httpHelper = new HttpHelper(Executors.newFixedThreadPool(Integer.parseInt(mExecutor.substring(6))));
+            } else if ("virtual".equals(mExecutor)) {
+                httpHelper = new HttpHelper(HttpExecutors.newVirtualThreadExecutor());
+            } else {
+                throw new IllegalArgumentException("Unknown executor: " + mExecutor);
+            }
+            if ("nio".equals(mTransport)) {
+                httpHelper.setTransport(new NioHttpTransport());
+            } else if (!"url".equals(mTransport)) {
+                throw new IllegalArgumentException("Unknown transport: " + mTransport);
+            }
+            if (mDecodeThreads >= 0) {
+                httpHelper.setDecodeStage(mDecodeThreads, 256);
+            }
+            return httpHelper;
+        }
+
+        String toJson() {
+            return "{\"rate\": " + mRate
+                    + ", \"durationSeconds\": " + mDurationSeconds
+                    + ", \"method\": \"" + mMethod
+                    + "\", \"executor\": \"" + mExecutor
+                    + "\", \"transport\": \"" + mTransport
+                    + "\", \"latencyModel\": \"" + mLatencyModel
+                    + "\", \"serverLatencyMillis\": " + mServerLatencyMillis
+                    + ", \"bodySize\": " + mBodySize + "}";
+        }
+    }
+
+    /**
+     * 一次负载的统计
+     */
+    static final class Report {
+        /**
+         * 从计划发送时间开始的延迟，单位：us
+         */
+        final LatencyHistogram mLatency = new LatencyHistogram();
+
+        /**
+         * 从实际提交开始的服务时间，单位：us
+         */
+        final LatencyHistogram mServiceTime = new LatencyHistogram();
+
+        /**
+         * 发送线程落后于计划发送时间的时长，单位：us
+         */
+        final LatencyHistogram mSendLag = new LatencyHistogram();
+
+        final AtomicLong mErrorCount = new AtomicLong();
+        long mSentCount;
+        long mCompletedCount;
+        long mElapsedNanos;
+        int mPeakThreads;
+        long mPeakHeapBytes;
+        int mPeakIoQueueDepth;
+        int mServerConnections;
+        LatencyHistogram mQueueDelay;
+
+        double getThroughput() {
+            return mElapsedNanos == 0 ? 0 : mCompletedCount * (double) TimeUnit.SECONDS.toNanos(1) / mElapsedNanos;
+        }
+
+        /**
+         * 输出JSON格式的报告
+         *
+         * @param configJson JSON格式的负载配置
+         * @return JSON
+         */
+        String toJson(String configJson) {
+            StringBuilder json = new StringBuilder(1024);
+            json.append("{\n");
+            json.append("  \"config\": ").append(configJson).append(",\n");
+            json.append("  \"sent\": ").append(mSentCount).append(",\n");
+            json.append("  \"completed\": ").append(mCompletedCount).append(",\n");
+            json.append("  \"errors\": ").append(mErrorCount.get()).append(",\n");
+            json.append("  \"elapsedMillis\": ").append(TimeUnit.NANOSECONDS.toMillis(mElapsedNanos)).append(",\n");
+            json.append("  \"throughput\": ").append(format(getThroughput())).append(",\n");
+            json.append("  \"latencyMillis\": ").append(toJson(mLatency)).append(",\n");
+            json.append("  \"serviceTimeMillis\": ").append(toJson(mServiceTime)).append(",\n");
+            json.append("  \"queueDelayMillis\": ").append(toJson(mQueueDelay)).append(",\n");
+            json.append("  \"sendLagMillis\": ").append(toJson(mSendLag)).append(",\n");
+            json.append("  \"peakThreads\": ").append(mPeakThreads).append(",\n");
+            json.append("  \"peakHeapBytes\": ").append(mPeakHeapBytes).append(",\n");
+            json.append("  \"peakIoQueueDepth\": ").append(mPeakIoQueueDepth).append(",\n");
+            json.append("  \"serverConnections\": ").append(mServerConnections).append("\n");
+            json.append("}");
+            return json.toString();
+        }
+
+        private static String toJson(LatencyHistogram histogram) {
+            return "{\"count\": " + histogram.getCount()
+                    + ", \"mean\": " + format(histogram.getMean() / 1000)
+                    + ", \"p50\": " + format(histogram.getValueAtPercentile(50) / 1000.0)
+                    + ", \"p90\": " + format(histogram.getValueAtPercentile(90) / 1000.0)
+                    + ", \"p99\": " + format(histogram.getValueAtPercentile(99) / 1000.0)
+                    + ", \"p999\": " + format(histogram.getValueAtPercentile(99.9) / 1000.0)
+                    + ", \"max\": " + format(histogram.getMax() / 1000.0) + "}";
+        }
+
+        private static String format(double value) {
+            return String.format(Locale.US, "%.3f", value);
+        }
+    }
+
+    private HttpLoadGenerator() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        Config config = Config.parse(args);
+        String json = run(config).toJson(config.toJson());
+        System.out.println(json);
+        if (config.mOutput != null) {
+            OutputStream outStream = new FileOutputStream(new File(config.mOutput));
+            try {
+                outStream.write(json.getBytes("UTF-8"));
+            } finally {
+                outStream.close();
+            }
+        }
+    }
+
+    /**
+     * 执行一次负载
+     *
+     * @param config 负载配置
+     * @return 统计
+     */
+    static Report run(Config config) throws Exception {
+        LoadTestServer server = new LoadTestServer(config.newLatencyModel(), config.mBodySize);
+        HttpHelper httpHelper = config.newHttpHelper();
+        try {
+            if (config.mWarmupSeconds > 0) {
+                drive(config, httpHelper, server, config.mWarmupSeconds, new Report());
+                server.getQueueDelay().reset();
+            }
+            Report report = new Report();
+            drive(config, httpHelper, server, config.mDurationSeconds, report);
+            report.mQueueDelay = server.getQueueDelay();
+            report.mServerConnections = server.getConnectionCount();
+            return report;
+        } finally {
+            server.close();
+        }
+    }
+
+    /**
+     * 按固定到达率发送请求，等待全部请求完成
+     */
+    private static void drive(Config config, final HttpHelper httpHelper, LoadTestServer server, int durationSeconds,
+                              final Report report) throws InterruptedException {
+        final long intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / config.mRate);
+        final long requests = (long) (config.mRate * durationSeconds);
+        final CountDownLatch latch = new CountDownLatch((int) requests);
+        final Sampler sampler = Sampler.start(httpHelper, report);
+
+        final long startNanos = System.nanoTime();
+        for (long i = 0; i < requests; i++) {
+            final long intendedNanos = startNanos + i * intervalNanos;
+            long waitNanos;
+            while ((waitNanos = intendedNanos - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(waitNanos);
+            }
+            final long submitNanos = System.nanoTime();
+            report.mSendLag.record(TimeUnit.NANOSECONDS.toMicros(submitNanos - intendedNanos));
+            HttpRequest request = new HttpRequest(server.getHost(), "/load");
+            request.addRequestHeaderProperty(LoadTestServer.HEADER_SUBMIT_NANOS, String.valueOf(submitNanos));
+            request.addRequestParam("seq", String.valueOf(i));
+            HttpCallback<String> callback = newCallback(report, latch, intendedNanos, submitNanos);
+            if (HttpRequest.HTTP_POST.equals(config.mMethod)) {
+                httpHelper.doHttpPost(request, null, callback);
+            } else {
+                httpHelper.doHttpGet(request, null, callback);
+            }
+            report.mSentCount++;
+        }
+        latch.await(Math.max(30, durationSeconds * 3), TimeUnit.SECONDS);
+        report.mElapsedNanos = System.nanoTime() - startNanos;
+        report.mCompletedCount = requests - latch.getCount();
+        sampler.stop();
+    }
+
+    /**
+     * 构建统计延迟的回调
+     *
+     * @param report        统计
+     * @param latch         请求完成计数
+     * @param intendedNanos 计划发送时间
+     * @param submitNanos   实际提交时间
+     * @return 回调
+     */
+    static HttpCallback<String> newCallback(final Report report, final CountDownLatch latch, final long intendedNanos,
+                                            final long submitNanos) {
+        return new HttpCallback<String>() {
+            @Override
+            protected void onResponseSuccess(HttpResponse<String> response) {
+                complete();
+            }
+
+            @Override
+            protected void onResponseFailure(HttpResponse<String> response) {
+                report.mErrorCount.incrementAndGet();
+                complete();
+            }
+
+            private void complete() {
+                long now = System.nanoTime();
+                report.mLatency.record(TimeUnit.NANOSECONDS.toMicros(now - intendedNanos));
+                report.mServiceTime.record(TimeUnit.NANOSECONDS.toMicros(now - submitNanos));
+                latch.countDown();
+            }
+        };
+    }
+
+    /**
+     * 每100ms采样一次线程数、堆内存和I/O队列长度
+     */
+    static final class Sampler implements Runnable {
+        private final HttpHelper mHttpHelper;
+        private final Report mReport;
+        private final ThreadMXBean mThreadBean = ManagementFactory.getThreadMXBean();
+        private final MemoryMXBean mMemoryBean = ManagementFactory.getMemoryMXBean();
+        private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+        private volatile boolean mStopped;
+
+        private Sampler(HttpHelper httpHelper, Report report) {
+            mHttpHelper = httpHelper;
+            mReport = report;
+        }
+
+        static Sampler start(HttpHelper httpHelper, Report report) {
+            Sampler sampler = new Sampler(httpHelper, report);
+            sampler.mExecutor.execute(sampler);
+            return sampler;
+        }
+
+        void stop() throws InterruptedException {
+            mStopped = true;
+            mExecutor.shutdown();
+            mExecutor.awaitTermination(1, TimeUnit.SECONDS);
+        }
+
+        @Override
+        public void run() {
+            while (!mStopped) {
+                synchronized (mReport) {
+                    mReport.mPeakThreads = Math.max(mReport.mPeakThreads, mThreadBean.getThreadCount());
+                    mReport.mPeakHeapBytes = Math.max(mReport.mPeakHeapBytes, mMemoryBean.getHeapMemoryUsage().getUsed());
+                    mReport.mPeakIoQueueDepth = Math.max(mReport.mPeakIoQueueDepth, mHttpHelper.getIoQueueDepth());
+                }
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException ex) {
+                    return;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.seagle.net.android.httphelper;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 负载生成器以及延迟直方图的测试.
+ * Created by seagle on 2018/4/10.
+ */
+public class HttpLoadGeneratorTest {
+
+    @Test
+    public void testHistogramBuckets() {
+        for (long value = 0; value < 1000000; value += 7) {
+            int index = LatencyHistogram.indexOf(value);
+            long highest = LatencyHistogram.highestValueOf(index);
+            assertTrue(value <= highest);
+            assertTrue(highest - value <= Math.max(0, value / 64));
+            assertEquals(index, LatencyHistogram.indexOf(highest));
+        }
+    }
+
+    @Test
+    public void testHistogramPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 10000; i++) {
+            histogram.record(i);
+        }
+        assertEquals(10000, histogram.getCount());
+        assertEquals(5000, histogram.getValueAtPercentile(50), 5000 / 64);
+        assertEquals(9900, histogram.getValueAtPercentile(99), 9900 / 64);
+        assertEquals(10000, histogram.getValueAtPercentile(100));
+        assertEquals(5000.5, histogram.getMean(), 0.001);
+        assertEquals(1, histogram.getMin());
+    }
+
+    @Test
+    public void testFixedRateRun() throws Exception {
+        HttpLoadGenerator.Config config = HttpLoadGenerator.Config.parse(new String[]{
+                "--rate", "200", "--duration", "1", "--warmup", "0", "--server-latency", "5"});
+        HttpLoadGenerator.Report report = HttpLoadGenerator.run(config);
+        assertEquals(200, report.mSentCount);
+        assertEquals(200, report.mCompletedCount);
+        assertEquals(0, report.mErrorCount.get());
+        assertTrue(report.mLatency.getValueAtPercentile(50) >= 5000);
+        assertEquals(200, report.mQueueDelay.getCount());
+        assertTrue(report.getThroughput() > 100);
+        assertTrue(report.mPeakThreads > 0);
+        String json = report.toJson(config.toJson());
+        assertTrue(json.contains("\"latencyMillis\": {\"count\": 200"));
+        assertTrue(json.contains("\"throughput\""));
+        assertTrue(json.contains("\"peakHeapBytes\""));
+    }
+
+    @Test
+    public void testOverloadQueueing() throws Exception {
+        //单线程每秒最多完成50个请求，到达率为100时请求在线程池中排队，延迟随时间增长
+        HttpLoadGenerator.Config config = HttpLoadGenerator.Config.parse(new String[]{
+                "--rate", "100", "--duration", "1", "--warmup", "0", "--server-latency", "20", "--executor", "fixed:1"});
+        HttpLoadGenerator.Report report = HttpLoadGenerator.run(config);
+        assertEquals(100, report.mCompletedCount);
+        assertTrue(report.mLatency.getValueAtPercentile(99) > 200000);
+        assertTrue(report.mQueueDelay.getValueAtPercentile(99) > 200000);
+        assertTrue(report.mPeakIoQueueDepth > 10);
+    }
+}
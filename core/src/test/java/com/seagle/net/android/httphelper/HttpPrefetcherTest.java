@@ -0,0 +1,170 @@
+package com.seagle.net.android.httphelper;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 预取的测试.
+ * Created by seagle on 2018/4/10.
+ */
+public class HttpPrefetcherTest {
+
+    private LoopbackTransport mTransport;
+    private HttpHelper mHttpHelper;
+
+    @Before
+    public void setUp() {
+        mTransport = new LoopbackTransport();
+        mHttpHelper = new HttpHelper();
+        mHttpHelper.setTransport(mTransport);
+    }
+
+    @Test
+    public void testPrefetchHit() throws Exception {
+        LoopbackTransport.Route route = mTransport.addRoute("GET", "/next");
+        route.setBody("page2");
+        HttpPrefetcher prefetcher = new HttpPrefetcher(4, 1024, 60000);
+        mHttpHelper.setPrefetcher(prefetcher);
+        assertTrue(mHttpHelper.prefetch(new HttpRequest("prefetch.test", "/next"), null));
+        //相同的请求只预取一次
+        assertFalse(mHttpHelper.prefetch(new HttpRequest("prefetch.test", "/next"), null));
+        awaitFetched(prefetcher, 1);
+        assertEquals(5, prefetcher.getStoredBytes());
+
+        HttpSession<String> session = mHttpHelper.doHttpGet(new HttpRequest("prefetch.test", "/next"), null, null);
+        HttpResponse<String> response = session.getResponse();
+        assertEquals("page2", response.getRawData());
+        assertEquals(HttpResponse.CACHE_FRESH, response.getCacheStatus());
+        assertEquals(1, route.getRequestCount());
+        assertEquals(1, prefetcher.getHitCount());
+        assertEquals(1.0, prefetcher.getHitRate(), 0.001);
+        //预取结果只使用一次
+        mHttpHelper.doHttpGet(new HttpRequest("prefetch.test", "/next"), null, null).getResponse();
+        assertEquals(2, route.getRequestCount());
+    }
+
+    @Test
+    public void testPreemptedByForeground() throws Exception {
+        LoopbackTransport.Route prefetchRoute = mTransport.addRoute("GET", "/background");
+        prefetchRoute.setBody("later");
+        prefetchRoute.setLatency(LoopbackTransport.fixedLatency(300));
+        LoopbackTransport.Route foregroundRoute = mTransport.addRoute("GET", "/foreground");
+        foregroundRoute.setBody("now");
+        foregroundRoute.setLatency(LoopbackTransport.fixedLatency(100));
+        HttpPrefetcher prefetcher = new HttpPrefetcher(4, 1024, 60000);
+        mHttpHelper.setPrefetcher(prefetcher);
+
+        assertTrue(mHttpHelper.prefetch(new HttpRequest("prefetch.test", "/background"), null));
+        Thread.sleep(50);
+        HttpSession<String> session = mHttpHelper.doHttpGet(new HttpRequest("prefetch.test", "/foreground"), null, null);
+        assertEquals("now", session.getResponse().getRawData());
+        assertEquals(1, prefetcher.getPreemptedCount());
+        assertEquals(0, prefetcher.getFetchedCount());
+        //前台请求结束后重新预取
+        awaitFetched(prefetcher, 1);
+        assertEquals(2, prefetchRoute.getRequestCount());
+        assertEquals(0, prefetcher.getFailedCount());
+    }
+
+    @Test
+    public void testForegroundSameRequest() throws Exception {
+        LoopbackTransport.Route route = mTransport.addRoute("GET", "/detail");
+        route.setBody("detail");
+        route.setLatency(LoopbackTransport.fixedLatency(300));
+        HttpPrefetcher prefetcher = new HttpPrefetcher(4, 1024, 60000);
+        mHttpHelper.setPrefetcher(prefetcher);
+
+        assertTrue(mHttpHelper.prefetch(new HttpRequest("prefetch.test", "/detail"), null));
+        Thread.sleep(50);
+        //前台请求与正在执行的预取相同，预取被放弃，不再重新预取
+        HttpSession<String> session = mHttpHelper.doHttpGet(new HttpRequest("prefetch.test", "/detail"), null, null);
+        assertEquals("detail", session.getResponse().getRawData());
+        Thread.sleep(500);
+        assertEquals(2, route.getRequestCount());
+        assertEquals(0, prefetcher.getPreemptedCount());
+        assertEquals(0, prefetcher.getFetchedCount());
+        assertEquals(0, prefetcher.getWastedCount());
+        assertEquals(0, prefetcher.getStoredBytes());
+        //之后可以再次预取
+        assertTrue(mHttpHelper.prefetch(new HttpRequest("prefetch.test", "/detail"), null));
+        awaitFetched(prefetcher, 1);
+        assertEquals(3, route.getRequestCount());
+    }
+
+    @Test
+    public void testRevalidateNotForeground() throws Exception {
+        LoopbackTransport.Route feedRoute = mTransport.addRoute("GET", "/feed");
+        feedRoute.setBody("v1");
+        LoopbackTransport.Route prefetchRoute = mTransport.addRoute("GET", "/background");
+        prefetchRoute.setBody("later");
+        prefetchRoute.setLatency(LoopbackTransport.fixedLatency(300));
+        mHttpHelper.setResponseCache(new HttpResponseCache(1024 * 1024));
+        HttpPrefetcher prefetcher = new HttpPrefetcher(4, 1024, 60000);
+        mHttpHelper.setPrefetcher(prefetcher);
+        HttpRequest request = new HttpRequest("prefetch.test", "/feed");
+        request.setCachePolicy(50, 60000, 0);
+        HttpSession<String> session = mHttpHelper.doHttpGet(request, null, null);
+        session.getResponse();
+        Thread.sleep(100);
+
+        feedRoute.setLatency(LoopbackTransport.fixedLatency(200));
+        assertTrue(mHttpHelper.prefetch(new HttpRequest("prefetch.test", "/background"), null));
+        Thread.sleep(50);
+        //返回过期缓存并在后台刷新，后台刷新不中止正在执行的预取
+        session = mHttpHelper.doHttpGet(request, null, null);
+        assertTrue(session.getResponse().isStale());
+        awaitFetched(prefetcher, 1);
+        assertEquals(0, prefetcher.getPreemptedCount());
+        assertEquals(1, prefetchRoute.getRequestCount());
+    }
+
+    @Test
+    public void testBudget() throws Exception {
+        LoopbackTransport.Route route = mTransport.addRoute("GET", "/item");
+        route.setBody("0123456789");
+        HttpPrefetcher prefetcher = new HttpPrefetcher(2, 15, 60000);
+        mHttpHelper.setPrefetcher(prefetcher);
+        assertTrue(mHttpHelper.prefetch(new HttpRequest("prefetch.test", "/item/1"), null));
+        assertTrue(mHttpHelper.prefetch(new HttpRequest("prefetch.test", "/item/2"), null));
+        //请求数预算不足
+        assertFalse(mHttpHelper.prefetch(new HttpRequest("prefetch.test", "/item/3"), null));
+        assertEquals(1, prefetcher.getRejectedCount());
+        awaitFetched(prefetcher, 2);
+        //大小预算只能保存一个结果，最早的结果被淘汰
+        assertEquals(10, prefetcher.getStoredBytes());
+        assertEquals(1, prefetcher.getWastedCount());
+        assertEquals(10, prefetcher.getWastedBytes());
+        mHttpHelper.doHttpGet(new HttpRequest("prefetch.test", "/item/2"), null, null).getResponse();
+        assertEquals(2, route.getRequestCount());
+        assertEquals(0.5, prefetcher.getHitRate(), 0.001);
+    }
+
+    @Test
+    public void testExpired() throws Exception {
+        LoopbackTransport.Route route = mTransport.addRoute("GET", "/stale");
+        route.setBody("old");
+        HttpPrefetcher prefetcher = new HttpPrefetcher(4, 1024, 50);
+        mHttpHelper.setPrefetcher(prefetcher);
+        assertTrue(mHttpHelper.prefetch(new HttpRequest("prefetch.test", "/stale"), null));
+        awaitFetched(prefetcher, 1);
+        Thread.sleep(100);
+        HttpSession<String> session = mHttpHelper.doHttpGet(new HttpRequest("prefetch.test", "/stale"), null, null);
+        HttpResponse<String> response = session.getResponse();
+        assertEquals(HttpResponse.CACHE_NONE, response.getCacheStatus());
+        assertEquals(2, route.getRequestCount());
+        assertEquals(1, prefetcher.getWastedCount());
+        assertEquals(0, prefetcher.getHitRate(), 0.001);
+    }
+
+    private static void awaitFetched(HttpPrefetcher prefetcher, int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (prefetcher.getFetchedCount() < count) {
+            assertTrue(System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+}
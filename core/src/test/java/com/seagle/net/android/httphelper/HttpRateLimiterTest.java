@@ -0,0 +1,180 @@
+package com.seagle.net.android.httphelper;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * 按服务器限流的测试，使用手动驱动的时钟和定时器.
+ * Created by seagle on 2018/4/10.
+ */
+public class HttpRateLimiterTest {
+
+    private static final String HOST = "api.example.com";
+
+    private FakeTimer mTimer;
+    private List<Integer> mExecuted;
+    private Executor mExecutor;
+
+    @Before
+    public void setUp() {
+        mTimer = new FakeTimer();
+        mExecuted = new ArrayList<>();
+        mExecutor = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        };
+    }
+
+    @Test
+    public void testBurst() {
+        HttpRateLimiter limiter = new HttpRateLimiter(10, 3, mTimer);
+        for (int i = 0; i < 5; i++) {
+            limiter.dispatch(HOST, task(i), mExecutor, null);
+        }
+        //突发容量内的请求直接提交，其余排队
+        assertEquals(3, mExecuted.size());
+        assertEquals(2, limiter.getQueuedCount(HOST));
+        assertEquals(2, limiter.getThrottledCount(HOST));
+        assertEquals(1, mTimer.pendingCount());
+        //空闲后最多积累突发容量个令牌
+        mTimer.advance(TimeUnit.SECONDS.toNanos(10));
+        assertEquals(5, mExecuted.size());
+        mExecuted.clear();
+        for (int i = 0; i < 5; i++) {
+            limiter.dispatch(HOST, task(i), mExecutor, null);
+        }
+        assertEquals(3, mExecuted.size());
+        assertEquals(2, limiter.getQueuedCount(HOST));
+    }
+
+    @Test
+    public void testSteadyRate() {
+        HttpRateLimiter limiter = new HttpRateLimiter(10, 1, mTimer);
+        for (int i = 0; i < 4; i++) {
+            limiter.dispatch(HOST, task(i), mExecutor, null);
+        }
+        assertEquals(1, mExecuted.size());
+        //每100ms生成一个令牌，排队的请求按顺序提交
+        mTimer.advance(TimeUnit.MILLISECONDS.toNanos(99));
+        assertEquals(1, mExecuted.size());
+        mTimer.advance(TimeUnit.MILLISECONDS.toNanos(1));
+        assertEquals(2, mExecuted.size());
+        mTimer.advance(TimeUnit.MILLISECONDS.toNanos(200));
+        assertEquals(4, mExecuted.size());
+        for (int i = 0; i < 4; i++) {
+            assertEquals(i, (int) mExecuted.get(i));
+        }
+        assertEquals(0, limiter.getQueuedCount(HOST));
+        assertEquals(0, mTimer.pendingCount());
+        assertEquals(100 + 200 + 300, limiter.getQueueWaitMillis(HOST));
+    }
+
+    @Test
+    public void testCancelWhileQueued() {
+        HttpRateLimiter limiter = new HttpRateLimiter(1, 1, mTimer);
+        limiter.dispatch(HOST, task(0), mExecutor, null);
+        FutureTask<Void> cancelled = futureTask(1);
+        limiter.dispatch(HOST, cancelled, mExecutor, null);
+        limiter.dispatch(HOST, futureTask(2), mExecutor, null);
+        assertEquals(2, limiter.getQueuedCount(HOST));
+        cancelled.cancel(false);
+        //取消的请求出队时不消耗令牌，下一个请求在同一个令牌提交
+        mTimer.advance(TimeUnit.SECONDS.toNanos(1));
+        assertEquals(2, mExecuted.size());
+        assertEquals(2, (int) mExecuted.get(1));
+        assertEquals(0, limiter.getQueuedCount(HOST));
+        assertEquals(0, mTimer.pendingCount());
+    }
+
+    @Test
+    public void testHostRate() {
+        HttpRateLimiter limiter = new HttpRateLimiter(0, 1, mTimer);
+        limiter.setHostRate(HOST, 1, 1);
+        for (int i = 0; i < 5; i++) {
+            limiter.dispatch("other.example.com", task(i), mExecutor, null);
+        }
+        //默认速率为0时不限流
+        assertEquals(5, mExecuted.size());
+        for (int i = 0; i < 5; i++) {
+            limiter.dispatch(HOST, task(i), mExecutor, null);
+        }
+        assertEquals(6, mExecuted.size());
+        assertEquals(4, limiter.getQueuedCount(HOST));
+        //解除限流时排队的请求全部提交
+        limiter.setHostRate(HOST, 0, 1);
+        assertEquals(10, mExecuted.size());
+        assertEquals(0, limiter.getQueuedCount(HOST));
+    }
+
+    private Runnable task(final int index) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                mExecuted.add(index);
+            }
+        };
+    }
+
+    private FutureTask<Void> futureTask(final int index) {
+        return new FutureTask<>(new Callable<Void>() {
+            @Override
+            public Void call() {
+                mExecuted.add(index);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * 手动推进的时钟，推进时执行到期的定时任务
+     */
+    private static final class FakeTimer implements HttpRateLimiter.Timer {
+        private final List<Long> mDeadlines = new ArrayList<>();
+        private final List<Runnable> mTasks = new ArrayList<>();
+        private long mNow;
+
+        @Override
+        public long nanoTime() {
+            return mNow;
+        }
+
+        @Override
+        public void schedule(Runnable task, long delayNanos) {
+            mDeadlines.add(mNow + delayNanos);
+            mTasks.add(task);
+        }
+
+        int pendingCount() {
+            return mTasks.size();
+        }
+
+        void advance(long nanos) {
+            long target = mNow + nanos;
+            while (true) {
+                int next = -1;
+                for (int i = 0; i < mTasks.size(); i++) {
+                    if (mDeadlines.get(i) <= target && (next < 0 || mDeadlines.get(i) < mDeadlines.get(next))) {
+                        next = i;
+                    }
+                }
+                if (next < 0) {
+                    break;
+                }
+                mNow = Math.max(mNow, mDeadlines.remove(next));
+                mTasks.remove(next).run();
+            }
+            mNow = target;
+        }
+    }
+}
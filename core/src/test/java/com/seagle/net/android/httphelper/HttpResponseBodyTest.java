@@ -0,0 +1,99 @@
+package com.seagle.net.android.httphelper;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 二进制响应体以及字符集处理的测试.
+ * Created by seagle on 2018/4/10.
+ */
+public class HttpResponseBodyTest {
+
+    private static final byte[] BINARY = new byte[256];
+
+    static {
+        for (int i = 0; i < BINARY.length; i++) {
+            BINARY[i] = (byte) i;
+        }
+    }
+
+    private LoopbackTransport mTransport;
+    private HttpHelper mHttpHelper;
+
+    @Before
+    public void setUp() throws Exception {
+        mTransport = new LoopbackTransport();
+        LoopbackTransport.Route gbk = mTransport.addRoute("GET", "/gbk");
+        gbk.setHeader("Content-Type", "text/plain; charset=\"GBK\"");
+        gbk.setBody("中文\r\n第二行".getBytes("GBK"));
+        mTransport.addRoute("GET", "/lines").setBody("{\n  \"name\": \"seagle\"\n}");
+        LoopbackTransport.Route binary = mTransport.addRoute("GET", "/binary");
+        binary.setHeader("Content-Type", "application/x-protobuf");
+        binary.setBody(BINARY);
+        mHttpHelper = new HttpHelper();
+        mHttpHelper.setTransport(mTransport);
+    }
+
+    @Test
+    public void testCharsetFromContentType() {
+        HttpResponse<String> response = get("/gbk", null);
+        assertEquals("中文\r\n第二行", response.getRawData());
+        assertEquals("text/plain; charset=\"gbk\"", response.getContentType());
+    }
+
+    @Test
+    public void testLineTerminatorsKept() {
+        assertEquals("{\n  \"name\": \"seagle\"\n}", get("/lines", null).getRawData());
+    }
+
+    @Test
+    public void testRawBody() {
+        HttpResponse<String> response = get("/binary", null);
+        assertArrayEquals(BINARY, response.getBodyBytes());
+        ByteBuffer body = response.getBody();
+        assertTrue(body.isReadOnly());
+        assertEquals(BINARY.length, body.remaining());
+    }
+
+    @Test
+    public void testBinaryResolver() {
+        HttpResponse<byte[]> response = mHttpHelper.doHttpGet(new HttpRequest("loopback", "/binary"),
+                new HttpBinaryResolver<byte[]>(byte[].class) {
+                    @Override
+                    protected byte[] resolverHttpRespBody(ByteBuffer httpRespBody, String contentType) {
+                        assertEquals("application/x-protobuf", contentType);
+                        byte[] data = new byte[httpRespBody.remaining()];
+                        httpRespBody.get(data);
+                        return data;
+                    }
+
+                    @Override
+                    public boolean isSuccess() {
+                        return true;
+                    }
+                }, null).getResponse();
+        assertEquals(HttpResponse.SUCCESS, response.getCode());
+        assertArrayEquals(BINARY, response.getResult());
+        assertNull(response.getRawData());
+        assertArrayEquals(BINARY, response.getBodyBytes());
+    }
+
+    @Test
+    public void testGetCharset() {
+        assertEquals("UTF-8", HttpUtils.getCharset(null, HttpUtils.UTF_8).name());
+        assertEquals("UTF-8", HttpUtils.getCharset("application/json", HttpUtils.UTF_8).name());
+        assertEquals("ISO-8859-1", HttpUtils.getCharset("text/html;Charset=iso-8859-1", HttpUtils.UTF_8).name());
+        assertEquals("UTF-8", HttpUtils.getCharset("text/html; charset=unknown-charset", HttpUtils.UTF_8).name());
+    }
+
+    private HttpResponse<String> get(String path, HttpResultResolver<String> resolver) {
+        return mHttpHelper.doHttpGet(new HttpRequest("loopback", path), resolver, null).getResponse();
+    }
+}
@@ -0,0 +1,121 @@
+package com.seagle.net.android.httphelper;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 响应缓存、stale-while-revalidate和stale-if-error的测试.
+ * Created by seagle on 2018/4/10.
+ */
+public class HttpResponseCacheTest {
+
+    private LoopbackTransport mTransport;
+    private HttpHelper mHttpHelper;
+    private HttpResponseCache mCache;
+
+    @Before
+    public void setUp() {
+        mTransport = new LoopbackTransport();
+        mHttpHelper = new HttpHelper();
+        mHttpHelper.setTransport(mTransport);
+        mCache = new HttpResponseCache(1024 * 1024);
+        mHttpHelper.setResponseCache(mCache);
+    }
+
+    @Test
+    public void testFreshHit() {
+        LoopbackTransport.Route route = mTransport.addRoute("GET", "/config");
+        route.setBody("v1");
+        HttpResponse<String> first = get("/config", 60000, 0, 0);
+        assertEquals("v1", first.getRawData());
+        assertEquals(HttpResponse.CACHE_NONE, first.getCacheStatus());
+        HttpResponse<String> second = get("/config", 60000, 0, 0);
+        assertEquals("v1", second.getRawData());
+        assertEquals(HttpResponse.CACHE_FRESH, second.getCacheStatus());
+        assertFalse(second.isStale());
+        assertEquals(1, route.getRequestCount());
+        assertEquals(1, mCache.getHitCount());
+        assertEquals(1, mCache.getMissCount());
+        //没有设置缓存策略的请求不使用缓存
+        HttpSession<String> session = mHttpHelper.doHttpGet(new HttpRequest("cache.test", "/config"), null, null);
+        assertEquals(HttpResponse.CACHE_NONE, session.getResponse().getCacheStatus());
+        assertEquals(2, route.getRequestCount());
+    }
+
+    @Test
+    public void testStaleWhileRevalidate() throws Exception {
+        LoopbackTransport.Route route = mTransport.addRoute("GET", "/feed");
+        route.setBody("v1");
+        get("/feed", 50, 60000, 0);
+        Thread.sleep(100);
+        route.setBody("v2");
+        route.setLatency(LoopbackTransport.fixedLatency(200));
+        long startTime = System.currentTimeMillis();
+        HttpResponse<String> stale = get("/feed", 50, 60000, 0);
+        assertTrue(System.currentTimeMillis() - startTime < 150);
+        assertEquals("v1", stale.getRawData());
+        assertTrue(stale.isStale());
+        assertTrue(stale.getCacheAgeMillis() >= 100);
+        //同一个键同时只有一个后台刷新
+        get("/feed", 50, 60000, 0);
+        assertEquals(2, mCache.getStaleHitCount());
+        long deadline = System.currentTimeMillis() + 5000;
+        while (route.getRequestCount() < 2 || !"v2".equals(get("/feed", 60000, 0, 0).getRawData())) {
+            assertTrue(System.currentTimeMillis() < deadline);
+            Thread.sleep(20);
+        }
+        assertEquals(2, route.getRequestCount());
+    }
+
+    @Test
+    public void testStaleIfError() throws Exception {
+        LoopbackTransport.Route route = mTransport.addRoute("GET", "/news");
+        route.setBody("v1");
+        get("/news", 50, 0, 60000);
+        Thread.sleep(100);
+        route.setResponse(503, "Service Unavailable");
+        HttpResponse<String> response = get("/news", 50, 0, 60000);
+        assertEquals(HttpResponse.SUCCESS, response.getCode());
+        assertEquals("v1", response.getRawData());
+        assertTrue(response.isStale());
+        route.setResponse(200, "OK");
+        route.setFailureRates(1.0, 0, 0);
+        response = get("/news", 50, 0, 60000);
+        assertEquals("v1", response.getRawData());
+        assertEquals(2, mCache.getStaleIfErrorCount());
+        //超出时间窗口时返回错误
+        response = get("/news", 50, 0, 0);
+        assertFalse(response.isSuccess());
+        assertNull(response.getRawData());
+    }
+
+    @Test
+    public void testEviction() {
+        HttpResponseCache cache = new HttpResponseCache(10);
+        cache.put("a", new HttpResponseCache.Entry("OK", null, new byte[4], 0));
+        cache.put("b", new HttpResponseCache.Entry("OK", null, new byte[4], 0));
+        cache.get("a");
+        cache.put("c", new HttpResponseCache.Entry("OK", null, new byte[4], 0));
+        assertEquals(2, cache.getEntryCount());
+        assertEquals(8, cache.getSize());
+        assertNull(cache.get("b"));
+        cache.put("d", new HttpResponseCache.Entry("OK", null, new byte[11], 0));
+        assertNull(cache.get("d"));
+        HttpRequest request = new HttpRequest("cache.test", "/list");
+        request.addRequestParam("b", "2");
+        request.addRequestParam("a", "1");
+        assertEquals("https://cache.test/list?a=1&b=2", HttpResponseCache.keyOf(request, true));
+    }
+
+    private HttpResponse<String> get(String path, long maxAge, long staleWhileRevalidate, long staleIfError) {
+        HttpRequest request = new HttpRequest("cache.test", path);
+        request.setCachePolicy(maxAge, staleWhileRevalidate, staleIfError);
+        HttpSession<String> session = mHttpHelper.doHttpGet(request, null, null);
+        return session.getResponse();
+    }
+}
@@ -0,0 +1,374 @@
+package com.seagle.net.android.httphelper;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 流式请求的测试：Server-Sent Events和NDJSON解析、重连、心跳超时以及有界缓冲.
+ * Created by seagle on 2018/4/10.
+ */
+public class HttpStreamTest {
+
+    private StreamServer mServer;
+    private HttpHelper mHttpHelper;
+    private ExecutorService mCallbackExecutor;
+
+    @Before
+    public void setUp() throws Exception {
+        mServer = new StreamServer();
+        mHttpHelper = new HttpHelper();
+        mCallbackExecutor = Executors.newSingleThreadExecutor();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mServer.close();
+        mCallbackExecutor.shutdownNow();
+    }
+
+    @Test
+    public void testParser() throws Exception {
+        final List<HttpStreamEvent> events = new ArrayList<>();
+        final long[] retry = new long[1];
+        HttpStreamParser.Listener listener = new HttpStreamParser.Listener() {
+            @Override
+            public void onEvent(HttpStreamEvent event) {
+                events.add(event);
+            }
+
+            @Override
+            public void onRetry(long retryMillis) {
+                retry[0] = retryMillis;
+            }
+        };
+        String body = "retry: 500\r\n: ping\r\nid: 1\ndata: a\ndata: b\n\nevent: tick\rdata:c\r\n\r\nid: 2\n\ndata: unfinished";
+        HttpStreamParser parser = new HttpStreamParser(true, null);
+        parser.parse(new ByteArrayInputStream(body.getBytes("UTF-8")), listener);
+        assertEquals(500, retry[0]);
+        assertEquals(2, events.size());
+        assertEquals("1", events.get(0).getId());
+        assertEquals(HttpStreamEvent.TYPE_MESSAGE, events.get(0).getType());
+        assertEquals("a\nb", events.get(0).getData());
+        assertEquals("tick", events.get(1).getType());
+        assertEquals("c", events.get(1).getData());
+        assertEquals("2", parser.getLastEventId());
+
+        events.clear();
+        parser = new HttpStreamParser(false, null);
+        parser.parse(new ByteArrayInputStream("{\"a\":1}\n\n{\"a\":2}\r\n".getBytes("UTF-8")), listener);
+        assertEquals(2, events.size());
+        assertEquals(HttpStreamEvent.TYPE_RECORD, events.get(1).getType());
+        assertEquals("{\"a\":2}", events.get(1).getData());
+    }
+
+    @Test
+    public void testEventStream() throws Exception {
+        mServer.setHandler(new Handler() {
+            @Override
+            public void handle(int index, Map<String, String> headers, OutputStream outStream) throws Exception {
+                writeHeader(outStream, "200 OK", "text/event-stream");
+                for (int i = 1; i <= 3; i++) {
+                    write(outStream, "id: " + i + "\ndata: event" + i + "\n\n");
+                    Thread.sleep(20);
+                }
+                Thread.sleep(5000);
+            }
+        });
+        RecordingCallback callback = new RecordingCallback(3);
+        HttpStream stream = mHttpHelper.doHttpStream(newRequest(), newPolicy(), callback);
+        assertTrue(callback.mEventLatch.await(5, TimeUnit.SECONDS));
+        assertEquals(1, callback.mOpenCount.get());
+        assertEquals(3, stream.getEventCount());
+        assertEquals("3", stream.getLastEventId());
+        assertEquals("text/event-stream, application/x-ndjson", mServer.getHeaders(0).get("accept"));
+        stream.close();
+        assertTrue(callback.mClosedLatch.await(5, TimeUnit.SECONDS));
+        assertEquals(HttpResponse.SUCCESS, callback.mClosedCode);
+        assertEquals(3, callback.mEvents.size());
+        for (int i = 0; i < 3; i++) {
+            assertEquals("event" + (i + 1), callback.mEvents.get(i).getData());
+        }
+        assertEquals(0, stream.getReconnectCount());
+    }
+
+    @Test
+    public void testReconnectWithLastEventId() throws Exception {
+        mServer.setHandler(new Handler() {
+            @Override
+            public void handle(int index, Map<String, String> headers, OutputStream outStream) throws Exception {
+                if (index == 0) {
+                    writeHeader(outStream, "200 OK", "text/event-stream");
+                    write(outStream, "retry: 10\nid: 7\ndata: first\n\n");
+                } else if (index == 1) {
+                    writeHeader(outStream, "503 Service Unavailable", "text/plain");
+                } else {
+                    writeHeader(outStream, "200 OK", "text/event-stream");
+                    write(outStream, "id: 8\ndata: second\n\n");
+                    Thread.sleep(5000);
+                }
+            }
+        });
+        RecordingCallback callback = new RecordingCallback(2);
+        HttpStream stream = mHttpHelper.doHttpStream(newRequest(), newPolicy(), callback);
+        assertTrue(callback.mEventLatch.await(5, TimeUnit.SECONDS));
+        assertEquals("7", mServer.getHeaders(1).get("last-event-id"));
+        assertEquals("7", mServer.getHeaders(2).get("last-event-id"));
+        assertEquals("second", callback.mEvents.get(1).getData());
+        assertEquals(2, stream.getReconnectCount());
+        assertEquals(2, callback.mOpenCount.get());
+        assertTrue(callback.mReasons.get(1).contains("503"));
+        stream.close();
+        assertTrue(callback.mClosedLatch.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testHeartbeatTimeout() throws Exception {
+        mServer.setHandler(new Handler() {
+            @Override
+            public void handle(int index, Map<String, String> headers, OutputStream outStream) throws Exception {
+                writeHeader(outStream, "200 OK", "text/event-stream");
+                write(outStream, "data: connection" + index + "\n\n");
+                //不再发送任何数据
+                Thread.sleep(5000);
+            }
+        });
+        HttpStreamPolicy policy = newPolicy();
+        policy.setHeartbeatTimeout(200);
+        RecordingCallback callback = new RecordingCallback(2);
+        HttpStream stream = mHttpHelper.doHttpStream(newRequest(), policy, callback);
+        assertTrue(callback.mEventLatch.await(5, TimeUnit.SECONDS));
+        assertEquals("Heartbeat timeout", callback.mReasons.get(0));
+        assertEquals("connection1", callback.mEvents.get(1).getData());
+        stream.close();
+        assertTrue(callback.mClosedLatch.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testBoundedBuffer() throws Exception {
+        final int count = 50;
+        mServer.setHandler(new Handler() {
+            @Override
+            public void handle(int index, Map<String, String> headers, OutputStream outStream) throws Exception {
+                if (index > 0) {
+                    writeHeader(outStream, "404 Not Found", "text/plain");
+                    return;
+                }
+                writeHeader(outStream, "200 OK", "application/x-ndjson");
+                for (int i = 0; i < count; i++) {
+                    write(outStream, "{\"seq\":" + i + "}\n");
+                }
+            }
+        });
+        final AtomicInteger maxBuffered = new AtomicInteger();
+        final HttpStream[] streamHolder = new HttpStream[1];
+        RecordingCallback callback = new RecordingCallback(count) {
+            @Override
+            protected void onEvent(HttpStreamEvent event) {
+                HttpStream stream = streamHolder[0];
+                if (stream != null) {
+                    maxBuffered.set(Math.max(maxBuffered.get(), stream.getBufferedCount()));
+                }
+                try {
+                    Thread.sleep(2);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+                super.onEvent(event);
+            }
+        };
+        HttpStreamPolicy policy = newPolicy();
+        policy.setBufferCapacity(2);
+        streamHolder[0] = mHttpHelper.doHttpStream(newRequest(), policy, callback);
+        assertTrue(callback.mEventLatch.await(5, TimeUnit.SECONDS));
+        assertTrue(maxBuffered.get() <= 2);
+        for (int i = 0; i < count; i++) {
+            assertEquals(HttpStreamEvent.TYPE_RECORD, callback.mEvents.get(i).getType());
+            assertEquals("{\"seq\":" + i + "}", callback.mEvents.get(i).getData());
+        }
+        //重连时服务器返回不可重试的错误
+        assertTrue(callback.mClosedLatch.await(5, TimeUnit.SECONDS));
+        assertEquals(HttpResponse.ERROR_CODE_HTTP, callback.mClosedCode);
+        assertTrue(streamHolder[0].isClosed());
+    }
+
+    private HttpRequest newRequest() {
+        return new HttpRequest("127.0.0.1:" + mServer.getPort(), "/events");
+    }
+
+    private HttpStreamPolicy newPolicy() {
+        HttpStreamPolicy policy = new HttpStreamPolicy();
+        policy.setRetry(10, 100, 5);
+        policy.setCallbackExecutor(mCallbackExecutor);
+        return policy;
+    }
+
+    private static void writeHeader(OutputStream outStream, String status, String contentType) throws IOException {
+        write(outStream, "HTTP/1.1 " + status + "\r\nContent-Type: " + contentType + "\r\nConnection: close\r\n\r\n");
+    }
+
+    private static void write(OutputStream outStream, String data) throws IOException {
+        outStream.write(data.getBytes("UTF-8"));
+        outStream.flush();
+    }
+
+    /**
+     * 记录回调
+     */
+    private static class RecordingCallback extends HttpStreamCallback {
+        private final List<HttpStreamEvent> mEvents = Collections.synchronizedList(new ArrayList<HttpStreamEvent>());
+        private final List<String> mReasons = Collections.synchronizedList(new ArrayList<String>());
+        private final AtomicInteger mOpenCount = new AtomicInteger();
+        private final CountDownLatch mEventLatch;
+        private final CountDownLatch mClosedLatch = new CountDownLatch(1);
+        private volatile int mClosedCode = Integer.MIN_VALUE;
+
+        private RecordingCallback(int eventCount) {
+            mEventLatch = new CountDownLatch(eventCount);
+        }
+
+        @Override
+        protected void onOpen(HttpStream stream) {
+            mOpenCount.incrementAndGet();
+        }
+
+        @Override
+        protected void onEvent(HttpStreamEvent event) {
+            mEvents.add(event);
+            mEventLatch.countDown();
+        }
+
+        @Override
+        protected void onReconnecting(int attempt, long delayMillis, String reason) {
+            mReasons.add(reason);
+        }
+
+        @Override
+        protected void onClosed(int code, String message) {
+            mClosedCode = code;
+            mClosedLatch.countDown();
+        }
+    }
+
+    /**
+     * 处理一个连接
+     */
+    private interface Handler {
+        void handle(int index, Map<String, String> headers, OutputStream outStream) throws Exception;
+    }
+
+    /**
+     * 本地服务器，按连接顺序记录请求头部，每个连接处理一个请求后关闭
+     */
+    private static final class StreamServer implements Runnable {
+        private final ServerSocket mServerSocket;
+        private final List<Map<String, String>> mHeaders = Collections.synchronizedList(new ArrayList<Map<String, String>>());
+        private final List<Socket> mSockets = Collections.synchronizedList(new ArrayList<Socket>());
+        private volatile Handler mHandler;
+
+        private StreamServer() throws IOException {
+            mServerSocket = new ServerSocket(0);
+            Thread thread = new Thread(this, "StreamServer");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        private void setHandler(Handler handler) {
+            mHandler = handler;
+        }
+
+        private int getPort() {
+            return mServerSocket.getLocalPort();
+        }
+
+        private Map<String, String> getHeaders(int index) {
+            return mHeaders.get(index);
+        }
+
+        @Override
+        public void run() {
+            int index = 0;
+            while (!mServerSocket.isClosed()) {
+                try {
+                    final Socket socket = mServerSocket.accept();
+                    mSockets.add(socket);
+                    final int connectionIndex = index++;
+                    final Map<String, String> headers = readHeaders(socket.getInputStream());
+                    mHeaders.add(headers);
+                    Thread thread = new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            try {
+                                mHandler.handle(connectionIndex, headers, socket.getOutputStream());
+                            } catch (Exception ex) {
+                                //连接被客户端断开
+                            } finally {
+                                try {
+                                    socket.close();
+                                } catch (IOException ex) {
+                                    //ignore
+                                }
+                            }
+                        }
+                    });
+                    thread.setDaemon(true);
+                    thread.start();
+                } catch (IOException ex) {
+                    return;
+                }
+            }
+        }
+
+        private static Map<String, String> readHeaders(InputStream inStream) throws IOException {
+            Map<String, String> headers = new HashMap<>();
+            StringBuilder line = new StringBuilder();
+            int b;
+            while ((b = inStream.read()) != -1) {
+                if (b == '\n') {
+                    String header = line.toString().trim();
+                    if (header.isEmpty()) {
+                        break;
+                    }
+                    int colonIndex = header.indexOf(':');
+                    if (colonIndex > 0) {
+                        headers.put(header.substring(0, colonIndex).trim().toLowerCase(Locale.US), header.substring(colonIndex + 1).trim());
+                    }
+                    line.setLength(0);
+                } else {
+                    line.append((char) b);
+                }
+            }
+            return headers;
+        }
+
+        private void close() throws IOException {
+            mServerSocket.close();
+            synchronized (mSockets) {
+                for (Socket socket : mSockets) {
+                    socket.close();
+                }
+            }
+        }
+    }
+}
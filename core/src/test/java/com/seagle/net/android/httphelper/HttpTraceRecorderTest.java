@@ -0,0 +1,128 @@
+package com.seagle.net.android.httphelper;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 流量轨迹记录和重放的测试.
+ * Created by seagle on 2018/4/10.
+ */
+public class HttpTraceRecorderTest {
+
+    private LoopbackTransport mTransport;
+    private HttpHelper mHttpHelper;
+    private File mTraceFile;
+
+    @Before
+    public void setUp() throws Exception {
+        mTransport = new LoopbackTransport();
+        mHttpHelper = new HttpHelper();
+        mHttpHelper.setTransport(mTransport);
+        mTraceFile = File.createTempFile("http", ".trace");
+    }
+
+    @After
+    public void tearDown() {
+        mTraceFile.delete();
+    }
+
+    @Test
+    public void testPathTemplate() {
+        assertEquals("/users/{id}/orders", HttpTraceRecorder.toPathTemplate("/users/123/orders?page=2"));
+        assertEquals("/items/{id}", HttpTraceRecorder.toPathTemplate("/items/3f2504e0-4f89-11d3-9a0c-0305e82c3301"));
+        assertEquals("/blobs/{id}", HttpTraceRecorder.toPathTemplate("/blobs/0123456789abcdef0123"));
+        assertEquals("/v2/search", HttpTraceRecorder.toPathTemplate("/v2/search"));
+        assertEquals("/", HttpTraceRecorder.toPathTemplate(""));
+    }
+
+    @Test
+    public void testRecordAndRead() throws Exception {
+        mTransport.addRoute("GET", "/users").setBody("hello");
+        mTransport.addRoute("POST", "/orders").setBody("created");
+        mTransport.addRoute("GET", "/missing").setResponse(404, "Not Found");
+        HttpTraceRecorder recorder = new HttpTraceRecorder(mTraceFile);
+        mHttpHelper.setTraceRecorder(recorder);
+
+        HttpRequest getRequest = new HttpRequest("api.example.com", "/users/42");
+        getRequest.addRequestParam("token", "secret");
+        mHttpHelper.doHttpGet(getRequest, null, null).getResponse();
+        HttpRequest postRequest = new HttpRequest("api.example.com", "/orders");
+        postRequest.addRequestParam("item", "abc");
+        mHttpHelper.doHttpPost(postRequest, null, null).getResponse();
+        mHttpHelper.doHttpGet(new HttpRequest("api.example.com", "/missing/7"), null, null).getResponse();
+        recorder.close();
+        assertEquals(3, recorder.getRecordCount());
+
+        List<HttpTraceRecorder.Entry> entries = HttpTraceRecorder.read(mTraceFile);
+        assertEquals(3, entries.size());
+        HttpTraceRecorder.Entry get = entries.get(0);
+        assertEquals("api.example.com", get.getHost());
+        assertEquals("/users/{id}", get.getPath());
+        assertEquals(HttpRequest.HTTP_GET, get.getMethod());
+        assertEquals(0, get.getRequestBytes());
+        assertEquals(5, get.getResponseBytes());
+        assertEquals(HttpResponse.SUCCESS, get.getCode());
+        assertEquals(200, get.getStatusCode());
+        assertTrue(get.getTotalMicros() >= get.getIoMicros());
+        HttpTraceRecorder.Entry post = entries.get(1);
+        assertEquals(HttpRequest.HTTP_POST, post.getMethod());
+        assertEquals("item=abc".length(), post.getRequestBytes());
+        assertEquals(7, post.getResponseBytes());
+        assertTrue(post.getTimestamp() >= get.getTimestamp());
+        assertEquals(404, entries.get(2).getStatusCode());
+        assertEquals("/missing/{id}", entries.get(2).getPath());
+        //不记录参数和响应内容
+        assertTrue(!new String(readBytes(mTraceFile), "ISO-8859-1").contains("secret"));
+    }
+
+    @Test
+    public void testReplay() throws Exception {
+        mTransport.addRoute("GET", "/feed").setBody("0123456789");
+        mTransport.addRoute("POST", "/upload").setBody("ok");
+        HttpTraceRecorder recorder = new HttpTraceRecorder(mTraceFile);
+        mHttpHelper.setTraceRecorder(recorder);
+        for (int i = 0; i < 10; i++) {
+            HttpRequest request = new HttpRequest("api.example.com", "/feed/" + i);
+            mHttpHelper.doHttpGet(request, null, null).getResponse();
+            HttpRequest upload = new HttpRequest("cdn.example.com", "/upload");
+            upload.addRequestParam("data", "0123456789012345678901234567890123456789");
+            mHttpHelper.doHttpPost(upload, null, null).getResponse();
+            Thread.sleep(20);
+        }
+        recorder.close();
+
+        List<HttpTraceRecorder.Entry> entries = HttpTraceRecorder.read(mTraceFile);
+        long traceMillis = entries.get(entries.size() - 1).getTimestamp() - entries.get(0).getTimestamp();
+        HttpLoadGenerator.Config config = HttpLoadGenerator.Config.parse(new String[]{"--executor", "fixed:4"});
+        long startTime = System.currentTimeMillis();
+        HttpLoadGenerator.Report report = HttpTraceReplayer.replay(entries, 4, config);
+        assertEquals(20, report.mSentCount);
+        assertEquals(20, report.mCompletedCount);
+        assertEquals(0, report.mErrorCount.get());
+        assertEquals(20, report.mQueueDelay.getCount());
+        //四倍速重放
+        assertTrue(System.currentTimeMillis() - startTime < traceMillis);
+    }
+
+    private static byte[] readBytes(File file) throws Exception {
+        FileInputStream inStream = new FileInputStream(file);
+        try {
+            byte[] data = new byte[(int) file.length()];
+            int offset = 0;
+            while (offset < data.length) {
+                offset += inStream.read(data, offset, data.length - offset);
+            }
+            return data;
+        } finally {
+            inStream.close();
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package com.seagle.net.android.httphelper;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 流量轨迹重放.
+ * 读取{@link HttpTraceRecorder}记录的文件，按原来的提交节奏（可以加速）重新发送相同形状的请求：
+ * 每个服务器对应一个本地{@link LoadTestServer}，路径模板中的{id}替换为1，请求体填充到原来的大小，
+ * 服务器按记录的I/O耗时延迟响应并返回原来大小的响应体。输出格式与{@link HttpLoadGenerator}相同的JSON报告。
+ * <p>
+ * 运行：gradle :core:replay -Pargs="--trace build/app.trace --speed 2 --executor fixed:64 --transport nio"
+ * Created by seagle on 2018/4/10.
+ */
+public final class HttpTraceReplayer {
+
+    private HttpTraceReplayer() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        String trace = null;
+        double speed = 1;
+        List<String> configArgs = new ArrayList<>();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if ("--trace".equals(args[i])) {
+                trace = args[i + 1];
+            } else if ("--speed".equals(args[i])) {
+                speed = Double.parseDouble(args[i + 1]);
+            } else {
+                configArgs.add(args[i]);
+                configArgs.add(args[i + 1]);
+            }
+        }
+        if (trace == null) {
+            throw new IllegalArgumentException("Missing option: --trace");
+        }
+        HttpLoadGenerator.Config config = HttpLoadGenerator.Config.parse(configArgs.toArray(new String[0]));
+        List<HttpTraceRecorder.Entry> entries = HttpTraceRecorder.read(new File(trace));
+        String json = replay(entries, speed, config).toJson("{\"trace\": \"" + trace + "\", \"requests\": "
+                + entries.size() + ", \"speed\": " + speed + ", \"config\": " + config.toJson() + "}");
+        System.out.println(json);
+        if (config.mOutput != null) {
+            OutputStream outStream = new FileOutputStream(new File(config.mOutput));
+            try {
+                outStream.write(json.getBytes("UTF-8"));
+            } finally {
+                outStream.close();
+            }
+        }
+    }
+
+    /**
+     * 重放流量轨迹
+     *
+     * @param entries 记录的请求
+     * @param speed   重放速度，2表示以两倍速度提交
+     * @param config  线程池、传输层等配置
+     * @return 统计
+     */
+    static HttpLoadGenerator.Report replay(List<HttpTraceRecorder.Entry> entries, double speed,
+                                           HttpLoadGenerator.Config config) throws Exception {
+        if (speed <= 0) {
+            throw new IllegalArgumentException("Speed must be positive");
+        }
+        List<HttpTraceRecorder.Entry> sorted = new ArrayList<>(entries);
+        Collections.sort(sorted, new Comparator<HttpTraceRecorder.Entry>() {
+            @Override
+            public int compare(HttpTraceRecorder.Entry lhs, HttpTraceRecorder.Entry rhs) {
+                return lhs.getTimestamp() < rhs.getTimestamp() ? -1 : (lhs.getTimestamp() == rhs.getTimestamp() ? 0 : 1);
+            }
+        });
+        Map<String, LoadTestServer> servers = new HashMap<>();
+        HttpHelper httpHelper = config.newHttpHelper();
+        HttpLoadGenerator.Report report = new HttpLoadGenerator.Report();
+        try {
+            for (HttpTraceRecorder.Entry entry : sorted) {
+                if (!servers.containsKey(entry.getHost())) {
+                    servers.put(entry.getHost(), new LoadTestServer(null, 0));
+                }
+            }
+            drive(sorted, speed, httpHelper, servers, report);
+            LatencyHistogram queueDelay = new LatencyHistogram();
+            for (LoadTestServer server : servers.values()) {
+                queueDelay.add(server.getQueueDelay());
+                report.mServerConnections += server.getConnectionCount();
+            }
+            report.mQueueDelay = queueDelay;
+            return report;
+        } finally {
+            for (LoadTestServer server : servers.values()) {
+                try {
+                    server.close();
+                } catch (IOException ex) {
+                    //忽略
+                }
+            }
+        }
+    }
+
+    /**
+     * 按记录的时间间隔提交请求，等待全部请求完成
+     */
+    private static void drive(List<HttpTraceRecorder.Entry> entries, double speed, HttpHelper httpHelper,
+                              Map<String, LoadTestServer> servers, HttpLoadGenerator.Report report)
+            throws InterruptedException {
+        CountDownLatch latch = new CountDownLatch(entries.size());
+        HttpLoadGenerator.Sampler sampler = HttpLoadGenerator.Sampler.start(httpHelper, report);
+        long firstTimestamp = entries.isEmpty() ? 0 : entries.get(0).getTimestamp();
+        long traceMillis = entries.isEmpty() ? 0 : entries.get(entries.size() - 1).getTimestamp() - firstTimestamp;
+
+        long startNanos = System.nanoTime();
+        for (HttpTraceRecorder.Entry entry : entries) {
+            long offsetNanos = (long) (TimeUnit.MILLISECONDS.toNanos(entry.getTimestamp() - firstTimestamp) / speed);
+            long intendedNanos = startNanos + offsetNanos;
+            long waitNanos;
+            while ((waitNanos = intendedNanos - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(waitNanos);
+            }
+            long submitNanos = System.nanoTime();
+            report.mSendLag.record(TimeUnit.NANOSECONDS.toMicros(submitNanos - intendedNanos));
+            HttpRequest request = newRequest(entry, servers.get(entry.getHost()).getHost());
+            request.addRequestHeaderProperty(LoadTestServer.HEADER_SUBMIT_NANOS, String.valueOf(submitNanos));
+            HttpCallback<String> callback = HttpLoadGenerator.newCallback(report, latch, intendedNanos, submitNanos);
+            if (HttpRequest.HTTP_POST.equals(entry.getMethod())) {
+                httpHelper.doHttpPost(request, null, callback);
+            } else {
+                httpHelper.doHttpGet(request, null, callback);
+            }
+            report.mSentCount++;
+        }
+        latch.await(Math.max(30, TimeUnit.MILLISECONDS.toSeconds(traceMillis) * 3), TimeUnit.SECONDS);
+        report.mElapsedNanos = System.nanoTime() - startNanos;
+        report.mCompletedCount = entries.size() - latch.getCount();
+        sampler.stop();
+    }
+
+    /**
+     * 按记录的形状构建请求
+     *
+     * @param entry 记录的请求
+     * @param host  本地服务器地址
+     * @return 请求
+     */
+    static HttpRequest newRequest(HttpTraceRecorder.Entry entry, String host) {
+        HttpRequest request = new HttpRequest(host, entry.getPath().replace("{id}", "1"));
+        if (entry.getResponseBytes() >= 0) {
+            request.addRequestHeaderProperty(LoadTestServer.HEADER_RESPONSE_SIZE, String.valueOf(entry.getResponseBytes()));
+        }
+        request.addRequestHeaderProperty(LoadTestServer.HEADER_RESPONSE_DELAY,
+                String.valueOf(TimeUnit.MICROSECONDS.toMillis(entry.getIoMicros())));
+        if (HttpRequest.HTTP_POST.equals(entry.getMethod()) && entry.getRequestBytes() > 4) {
+            //请求体为pad=xxx，填充到记录的大小
+            char[] pad = new char[(int) entry.getRequestBytes() - 4];
+            Arrays.fill(pad, 'x');
+            request.addRequestParam("pad", new String(pad));
+        }
+        return request;
+    }
+}
@@ -0,0 +1,404 @@
+package com.seagle.net.android.httphelper;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.security.KeyPairGenerator;
+import java.security.KeyStore;
+import java.security.PublicKey;
+import java.security.cert.Certificate;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLServerSocket;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.TrustManagerFactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 证书锁定的测试，使用内置的自签名证书（CN=localhost）.
+ * Created by seagle on 2018/4/10.
+ */
+public class HttpsPinningConfigTest {
+
+    /**
+     * PKCS12格式的密钥库，密码changeit，别名test
+     */
+    private static final String KEY_STORE_HEX =
+            "3082036c0201033082032506092a864886f70d010701a0820316048203123082030e3081db06092a864886f70d010701a081"
+            + "cd0481ca3081c73081c4060b2a864886f70d010c0a0102a07730753029060a2a864886f70d010c0103301b0414e460a48edf"
+            + "e6a75a7f612d06738a42ca5ea8eb5e020300c3500448188b635fa5a92fc9cb9c493d47685f4266016058b5d1db282bb74b4c"
+            + "bd22f94ad01aa64f35940511a864bff87ef2a7e0941cb284c0c1bd4a3e4da7ead51171d6f040537914a7dd5e313c30170609"
+            + "2a864886f70d010914310a1e080074006500730074302106092a864886f70d0109153114041254696d652031373932343032"
+            + "3334303138393082022c06092a864886f70d010706a082021d308202190201003082021206092a864886f70d010701302906"
+            + "0a2a864886f70d010c0106301b04140c3bc2d54f2c8f27492fd6967692a8c5777e92ad020300c350808201d8fded968bacdc"
+            + "5213d4e62d41f5c7df41953c1a08eff096f4a9ee41db8624c9e31a723194f4800c4b07d9c4b5805748e531a77983a6f46c7f"
+            + "58493bc883c3903661a3086b13819bfecb773ba309412f9e98d46c0677630da42c56af752fc4b2e9c67fb1a148d95180a2e7"
+            + "e993f8e2f0023e8350aa765764a99bc5751ab5047235f30e964e0aeeeb0e0c4c032757f6e5f35cba023ec3a80cc58ea6c946"
+            + "f1d839aefa0f20f3235bb4bbf392901bf134a45ea7503aa8ec647f98f2b0acb3d3826a291bedab6ca7415a98112cc8805409"
+            + "75dcbbb8acd1660f7f8d92b063d19b3257b43fb286cf11f420e6f0b04a88e8559fcb5c9e3abca85f993d4e3754586f15bd30"
+            + "21f59babca1bd4df6d5f730c7e999b0ff81a6522449503f6ae86845652ab0d7ac00c3e4852a8d190de71f38c4cb65f5a927b"
+            + "49ea2f6bf240ee8b20edab4039f1c836265d822596827a96cddd82df62e25ba371e9a0a6cc6409242b702028c5f834b4bbd7"
+            + "45e9755f8e1e426f4619c9cf4f725277aeea0f25824aaabc120242029b5cc471c4d3a52858b551d0b8c234a68b6c893b58a1"
+            + "29deb4d1541f1df9ed6ff746c766fc1aaddc0325c822bba3a630d73e42c04c3b8c68037d4a000c60d08534d8b6d132927c5b"
+            + "2a65c50d6f1fe5d057da362e28c66ca8303e3021300906052b0e03021a050004140efe50575a97574907cd2566181ea4d9b1"
+            + "cd633804140c163b23bdbc84bc2489b120b3316c6be04cb6e402030186a0";
+    private static final char[] PASSWORD = "changeit".toCharArray();
+    private static final String WRONG_PIN = "sha256/AAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAA=";
+    private static final HostnameVerifier ALLOW_ALL = new HostnameVerifier() {
+        @Override
+        public boolean verify(String hostname, SSLSession session) {
+            return true;
+        }
+    };
+
+    private KeyStore mKeyStore;
+    private Certificate mCertificate;
+    private String mPin;
+
+    @Before
+    public void setUp() throws Exception {
+        mKeyStore = KeyStore.getInstance("PKCS12");
+        mKeyStore.load(new ByteArrayInputStream(decodeHex(KEY_STORE_HEX)), PASSWORD);
+        mCertificate = mKeyStore.getCertificate("test");
+        mPin = HttpsPinningConfig.pinOf(mCertificate);
+    }
+
+    @Test
+    public void testPinOf() {
+        assertTrue(mPin.startsWith("sha256/"));
+        //SHA-256摘要32字节，Base64为44个字符
+        assertEquals("sha256/".length() + 44, mPin.length());
+        assertTrue(mPin.endsWith("="));
+    }
+
+    @Test
+    public void testVerifyPins() throws Exception {
+        HttpsPinningConfig config = new HttpsPinningConfig(SSLContext.getDefault(), ALLOW_ALL, 16);
+        SSLSession session = new StubSession(new byte[]{1}, mCertificate);
+        //没有锁定的域名只做正常的验证
+        assertTrue(config.verify("example.com", session));
+
+        config.setPins(Collections.singletonMap("example.com", Arrays.asList(WRONG_PIN, mPin)));
+        assertTrue(config.verify("example.com", session));
+        assertTrue(config.verify("EXAMPLE.com", session));
+        assertTrue(config.verify("other.com", session));
+        assertEquals(0, config.getFailureCount());
+
+        config.setPins(Collections.singletonMap("example.com", Collections.singleton(WRONG_PIN)));
+        assertFalse(config.verify("example.com", session));
+        assertEquals(1, config.getFailureCount());
+    }
+
+    @Test
+    public void testWildcardPins() throws Exception {
+        HttpsPinningConfig config = new HttpsPinningConfig(SSLContext.getDefault(), ALLOW_ALL, 16);
+        config.setPins(Collections.singletonMap("*.example.com", Collections.singleton(WRONG_PIN)));
+        SSLSession session = new StubSession(new byte[]{1}, mCertificate);
+        assertFalse(config.verify("api.example.com", session));
+        //只匹配一级子域名
+        assertTrue(config.verify("example.com", session));
+        assertTrue(config.verify("a.b.example.com", session));
+        assertNull(config.getPins("example.com"));
+    }
+
+    @Test
+    public void testVerificationCache() throws Exception {
+        HttpsPinningConfig config = new HttpsPinningConfig(SSLContext.getDefault(), ALLOW_ALL, 2);
+        config.setPins(Collections.singletonMap("example.com", Collections.singleton(mPin)));
+        SSLSession session = new StubSession(new byte[]{1}, mCertificate);
+        assertTrue(config.verify("example.com", session));
+        assertEquals(1, config.getCacheMissCount());
+        //同一个会话
+        assertTrue(config.verify("example.com", session));
+        //新的会话，相同的证书链
+        assertTrue(config.verify("example.com", new StubSession(new byte[]{2}, mCertificate)));
+        assertTrue(config.verify("example.com", new StubSession(new byte[0], mCertificate)));
+        assertEquals(3, config.getCacheHitCount());
+        assertEquals(1, config.getCacheMissCount());
+
+        //替换锁定值后缓存失效
+        Map<String, Set<String>> pins = new HashMap<>();
+        pins.put("example.com", new HashSet<>(Arrays.asList(mPin, WRONG_PIN)));
+        config.setPins(pins);
+        assertTrue(config.verify("example.com", new StubSession(new byte[]{1}, mCertificate)));
+        assertEquals(2, config.getCacheMissCount());
+    }
+
+    @Test
+    public void testReusedSessionIdNotTrusted() throws Exception {
+        HttpsPinningConfig config = new HttpsPinningConfig(SSLContext.getDefault(), ALLOW_ALL, 16);
+        config.setPins(Collections.singletonMap("example.com", Collections.singleton(mPin)));
+        assertTrue(config.verify("example.com", new StubSession(new byte[]{1}, mCertificate)));
+        //中间人在完整握手中使用已经验证过的会话ID，证书链不匹配锁定值
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(1024);
+        Certificate rogue = new StubCertificate(generator.generateKeyPair().getPublic());
+        assertFalse(config.verify("example.com", new StubSession(new byte[]{1}, rogue)));
+        assertEquals(1, config.getFailureCount());
+        assertEquals(2, config.getCacheMissCount());
+    }
+
+    @Test
+    public void testHttpsRequest() throws Exception {
+        SSLContext serverContext = SSLContext.getInstance("TLS");
+        KeyManagerFactory keyManagerFactory = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        keyManagerFactory.init(mKeyStore, PASSWORD);
+        serverContext.init(keyManagerFactory.getKeyManagers(), null, null);
+        HttpsServer server = new HttpsServer(serverContext);
+        try {
+            KeyStore trustStore = KeyStore.getInstance(KeyStore.getDefaultType());
+            trustStore.load(null, null);
+            trustStore.setCertificateEntry("test", mCertificate);
+            TrustManagerFactory trustManagerFactory = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+            trustManagerFactory.init(trustStore);
+            SSLContext clientContext = SSLContext.getInstance("TLS");
+            clientContext.init(null, trustManagerFactory.getTrustManagers(), null);
+            HttpsPinningConfig config = new HttpsPinningConfig(clientContext, null, 16);
+            config.setPins(Collections.singletonMap("localhost", Collections.singleton(mPin)));
+
+            HttpHelper httpHelper = new HttpHelper();
+            httpHelper.setHttpsSSLConfig(config);
+            HttpRequest request = new HttpRequest("localhost:" + server.getPort(), "/pin");
+            HttpSession<String> session = httpHelper.doHttpsGet(request, null, null);
+            HttpResponse<String> response = session.getResponse();
+            assertTrue(response.toString(), response.isSuccess());
+            assertEquals("ok", response.getRawData());
+
+            //运行时替换锁定值，SSLSocketFactory不变
+            javax.net.ssl.SSLSocketFactory socketFactory = config.getSSLSocketFactory();
+            config.setPins(Collections.singletonMap("localhost", Collections.singleton(WRONG_PIN)));
+            assertTrue(socketFactory == config.getSSLSocketFactory());
+            session = httpHelper.doHttpsGet(new HttpRequest("localhost:" + server.getPort(), "/pin"), null, null);
+            assertFalse(session.getResponse().isSuccess());
+            assertTrue(config.getFailureCount() > 0);
+        } finally {
+            server.close();
+        }
+    }
+
+    private static byte[] decodeHex(String hex) {
+        byte[] data = new byte[hex.length() / 2];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) Integer.parseInt(hex.substring(i * 2, i * 2 + 2), 16);
+        }
+        return data;
+    }
+
+    /**
+     * 每个连接返回"ok"后关闭
+     */
+    private static final class HttpsServer implements Runnable {
+        private final SSLServerSocket mServerSocket;
+
+        private HttpsServer(SSLContext sslContext) throws IOException {
+            mServerSocket = (SSLServerSocket) sslContext.getServerSocketFactory().createServerSocket(0, 16, InetAddress.getByName("127.0.0.1"));
+            Thread thread = new Thread(this, "HttpsServer");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        private int getPort() {
+            return mServerSocket.getLocalPort();
+        }
+
+        @Override
+        public void run() {
+            while (!mServerSocket.isClosed()) {
+                try {
+                    Socket socket = mServerSocket.accept();
+                    try {
+                        InputStream inStream = socket.getInputStream();
+                        int matched = 0;
+                        int b;
+                        while (matched < 4 && (b = inStream.read()) != -1) {
+                            matched = (b == '\r' || b == '\n') ? matched + 1 : 0;
+                        }
+                        OutputStream outStream = socket.getOutputStream();
+                        outStream.write("HTTP/1.1 200 OK\r\nContent-Type: text/plain\r\nContent-Length: 2\r\nConnection: close\r\n\r\nok".getBytes("UTF-8"));
+                        outStream.flush();
+                    } catch (IOException ignored) {
+                        //客户端锁定验证失败时关闭连接
+                    } finally {
+                        socket.close();
+                    }
+                } catch (IOException ex) {
+                    return;
+                }
+            }
+        }
+
+        private void close() throws IOException {
+            mServerSocket.close();
+        }
+    }
+
+    /**
+     * 只提供公钥的证书
+     */
+    private static final class StubCertificate extends Certificate {
+        private final PublicKey mPublicKey;
+
+        private StubCertificate(PublicKey publicKey) {
+            super("X.509");
+            mPublicKey = publicKey;
+        }
+
+        @Override
+        public byte[] getEncoded() {
+            return mPublicKey.getEncoded();
+        }
+
+        @Override
+        public void verify(PublicKey key) {
+        }
+
+        @Override
+        public void verify(PublicKey key, String sigProvider) {
+        }
+
+        @Override
+        public String toString() {
+            return "StubCertificate";
+        }
+
+        @Override
+        public PublicKey getPublicKey() {
+            return mPublicKey;
+        }
+    }
+
+    /**
+     * 只提供会话ID和证书链的会话
+     */
+    private static final class StubSession implements SSLSession {
+        private final byte[] mId;
+        private final Certificate[] mChain;
+
+        private StubSession(byte[] id, Certificate... chain) {
+            mId = id;
+            mChain = chain;
+        }
+
+        @Override
+        public byte[] getId() {
+            return mId;
+        }
+
+        @Override
+        public Certificate[] getPeerCertificates() {
+            return mChain;
+        }
+
+        @Override
+        public SSLSessionContext getSessionContext() {
+            return null;
+        }
+
+        @Override
+        public long getCreationTime() {
+            return 0;
+        }
+
+        @Override
+        public long getLastAccessedTime() {
+            return 0;
+        }
+
+        @Override
+        public void invalidate() {
+        }
+
+        @Override
+        public boolean isValid() {
+            return true;
+        }
+
+        @Override
+        public void putValue(String name, Object value) {
+        }
+
+        @Override
+        public Object getValue(String name) {
+            return null;
+        }
+
+        @Override
+        public void removeValue(String name) {
+        }
+
+        @Override
+        public String[] getValueNames() {
+            return new String[0];
+        }
+
+        @Override
+        public Certificate[] getLocalCertificates() {
+            return null;
+        }
+
+        @Override
+        public javax.security.cert.X509Certificate[] getPeerCertificateChain() {
+            return null;
+        }
+
+        @Override
+        public java.security.Principal getPeerPrincipal() {
+            return null;
+        }
+
+        @Override
+        public java.security.Principal getLocalPrincipal() {
+            return null;
+        }
+
+        @Override
+        public String getCipherSuite() {
+            return null;
+        }
+
+        @Override
+        public String getProtocol() {
+            return null;
+        }
+
+        @Override
+        public String getPeerHost() {
+            return null;
+        }
+
+        @Override
+        public int getPeerPort() {
+            return 0;
+        }
+
+        @Override
+        public int getPacketBufferSize() {
+            return 0;
+        }
+
+        @Override
+        public int getApplicationBufferSize() {
+            return 0;
+        }
+    }
+}
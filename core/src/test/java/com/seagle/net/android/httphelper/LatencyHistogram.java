@@ -0,0 +1,121 @@
+package com.seagle.net.android.httphelper;
+
+/**
+ * 对数线性分桶的延迟直方图，与HdrHistogram的分桶方式相同.
+ * 128以内的值精确记录，更大的值每个2的幂区间分成64个桶，相对误差不超过1/64。
+ * 记录的值一般是微秒，线程安全。
+ * Created by seagle on 2018/4/10.
+ */
+final class LatencyHistogram {
+
+    /**
+     * 精确记录的值的个数
+     */
+    private static final int LINEAR_BUCKETS = 128;
+
+    /**
+     * 每个2的幂区间的桶数
+     */
+    private static final int SUB_BUCKETS = 64;
+
+    private final long[] mCounts = new long[LINEAR_BUCKETS + 57 * SUB_BUCKETS];
+    private long mTotalCount;
+    private long mTotalValue;
+    private long mMaxValue;
+    private long mMinValue = Long.MAX_VALUE;
+
+    /**
+     * 记录一个值
+     *
+     * @param value 值，小于0时按0记录
+     */
+    synchronized void record(long value) {
+        value = Math.max(0, value);
+        mCounts[indexOf(value)]++;
+        mTotalCount++;
+        mTotalValue += value;
+        mMaxValue = Math.max(mMaxValue, value);
+        mMinValue = Math.min(mMinValue, value);
+    }
+
+    /**
+     * 合并另一个直方图
+     *
+     * @param other 直方图
+     */
+    synchronized void add(LatencyHistogram other) {
+        synchronized (other) {
+            for (int i = 0; i < mCounts.length; i++) {
+                mCounts[i] += other.mCounts[i];
+            }
+            mTotalCount += other.mTotalCount;
+            mTotalValue += other.mTotalValue;
+            mMaxValue = Math.max(mMaxValue, other.mMaxValue);
+            mMinValue = Math.min(mMinValue, other.mMinValue);
+        }
+    }
+
+    synchronized void reset() {
+        for (int i = 0; i < mCounts.length; i++) {
+            mCounts[i] = 0;
+        }
+        mTotalCount = 0;
+        mTotalValue = 0;
+        mMaxValue = 0;
+        mMinValue = Long.MAX_VALUE;
+    }
+
+    synchronized long getCount() {
+        return mTotalCount;
+    }
+
+    synchronized long getMax() {
+        return mMaxValue;
+    }
+
+    synchronized long getMin() {
+        return mTotalCount == 0 ? 0 : mMinValue;
+    }
+
+    synchronized double getMean() {
+        return mTotalCount == 0 ? 0 : (double) mTotalValue / mTotalCount;
+    }
+
+    /**
+     * 获取百分位的值
+     *
+     * @param percentile 百分位，0到100
+     * @return 所在桶的最大值，不超过记录过的最大值
+     */
+    synchronized long getValueAtPercentile(double percentile) {
+        if (mTotalCount == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(percentile / 100 * mTotalCount));
+        long count = 0;
+        for (int i = 0; i < mCounts.length; i++) {
+            count += mCounts[i];
+            if (count >= target) {
+                return Math.min(mMaxValue, highestValueOf(i));
+            }
+        }
+        return mMaxValue;
+    }
+
+    static int indexOf(long value) {
+        if (value < LINEAR_BUCKETS) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - 6;
+        return LINEAR_BUCKETS + (shift - 1) * SUB_BUCKETS + (int) ((value >> shift) - SUB_BUCKETS);
+    }
+
+    static long highestValueOf(int index) {
+        if (index < LINEAR_BUCKETS) {
+            return index;
+        }
+        int shift = (index - LINEAR_BUCKETS) / SUB_BUCKETS + 1;
+        long subBucket = (index - LINEAR_BUCKETS) % SUB_BUCKETS + SUB_BUCKETS;
+        return ((subBucket + 1) << shift) - 1;
+    }
+}
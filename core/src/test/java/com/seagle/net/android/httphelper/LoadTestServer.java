@@ -0,0 +1,198 @@
+package com.seagle.net.android.httphelper;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 负载测试用的本地HTTP/1.1服务器.
+ * 每个连接一个线程，支持keep-alive，按延迟分布延迟响应，响应体为固定长度。
+ * 请求带有{@link #HEADER_SUBMIT_NANOS}头时，记录请求从提交到到达服务器的排队时间；
+ * 请求可以通过{@link #HEADER_RESPONSE_SIZE}和{@link #HEADER_RESPONSE_DELAY}头指定响应体大小和延迟。
+ * 请求体支持Content-Length和分块传输，内容被丢弃。
+ * Created by seagle on 2018/4/10.
+ */
+final class LoadTestServer implements Runnable {
+
+    /**
+     * 请求提交时的System.nanoTime()，服务器与客户端在同一个进程中
+     */
+    static final String HEADER_SUBMIT_NANOS = "X-Submit-Nanos";
+
+    /**
+     * 指定这个请求的响应体大小，用于重放流量轨迹
+     */
+    static final String HEADER_RESPONSE_SIZE = "X-Response-Size";
+
+    /**
+     * 指定这个请求的服务器延迟，单位：ms，用于重放流量轨迹
+     */
+    static final String HEADER_RESPONSE_DELAY = "X-Response-Delay";
+
+    private final ServerSocket mServerSocket;
+    private final LoopbackTransport.LatencyModel mLatency;
+    private final Random mRandom = new Random(42);
+    private final byte[] mResponseHead;
+    private final byte[] mResponseBody;
+    private final AtomicInteger mConnectionCount = new AtomicInteger();
+
+    /**
+     * 排队时间，单位：us
+     */
+    private final LatencyHistogram mQueueDelay = new LatencyHistogram();
+
+    LoadTestServer(LoopbackTransport.LatencyModel latency, int bodySize) throws IOException {
+        mLatency = latency;
+        mResponseBody = new byte[bodySize];
+        mResponseHead = ("HTTP/1.1 200 OK\r\nContent-Type: text/plain\r\nContent-Length: " + bodySize + "\r\n\r\n").getBytes("UTF-8");
+        mServerSocket = new ServerSocket(0, 4096);
+        Thread thread = new Thread(this, "LoadTestServer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    String getHost() {
+        return "127.0.0.1:" + mServerSocket.getLocalPort();
+    }
+
+    int getConnectionCount() {
+        return mConnectionCount.get();
+    }
+
+    LatencyHistogram getQueueDelay() {
+        return mQueueDelay;
+    }
+
+    void close() throws IOException {
+        mServerSocket.close();
+    }
+
+    @Override
+    public void run() {
+        while (!mServerSocket.isClosed()) {
+            try {
+                final Socket socket = mServerSocket.accept();
+                mConnectionCount.incrementAndGet();
+                Thread thread = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        serve(socket);
+                    }
+                }, "LoadTestServer-Connection");
+                thread.setDaemon(true);
+                thread.start();
+            } catch (IOException ex) {
+                return;
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        try {
+            socket.setTcpNoDelay(true);
+            InputStream inStream = new BufferedInputStream(socket.getInputStream());
+            OutputStream outStream = socket.getOutputStream();
+            while (readLine(inStream) != null) {
+                int contentLength = 0;
+                boolean chunked = false;
+                int responseSize = -1;
+                long responseDelay = -1;
+                boolean close = false;
+                String header;
+                while ((header = readLine(inStream)) != null && header.length() > 0) {
+                    String lowerHeader = header.toLowerCase();
+                    if (lowerHeader.startsWith("content-length:")) {
+                        contentLength = Integer.parseInt(header.substring(15).trim());
+                    } else if (lowerHeader.startsWith("transfer-encoding:")) {
+                        chunked = lowerHeader.contains("chunked");
+                    } else if (lowerHeader.startsWith("connection:")) {
+                        close = lowerHeader.contains("close");
+                    } else if (lowerHeader.startsWith(HEADER_SUBMIT_NANOS.toLowerCase() + ":")) {
+                        long submitNanos = Long.parseLong(header.substring(HEADER_SUBMIT_NANOS.length() + 1).trim());
+                        mQueueDelay.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - submitNanos));
+                    } else if (lowerHeader.startsWith(HEADER_RESPONSE_SIZE.toLowerCase() + ":")) {
+                        responseSize = Integer.parseInt(header.substring(HEADER_RESPONSE_SIZE.length() + 1).trim());
+                    } else if (lowerHeader.startsWith(HEADER_RESPONSE_DELAY.toLowerCase() + ":")) {
+                        responseDelay = Long.parseLong(header.substring(HEADER_RESPONSE_DELAY.length() + 1).trim());
+                    }
+                }
+                if (chunked) {
+                    String chunkHeader;
+                    while ((chunkHeader = readLine(inStream)) != null) {
+                        int chunkSize = Integer.parseInt(chunkHeader.split(";")[0].trim(), 16);
+                        if (!skip(inStream, chunkSize) || readLine(inStream) == null) {
+                            return;
+                        }
+                        if (chunkSize == 0) {
+                            break;
+                        }
+                    }
+                } else if (!skip(inStream, contentLength)) {
+                    return;
+                }
+                long delayMillis = responseDelay;
+                if (delayMillis < 0) {
+                    synchronized (mRandom) {
+                        delayMillis = mLatency != null ? mLatency.nextDelayMillis(mRandom) : 0;
+                    }
+                }
+                if (delayMillis > 0) {
+                    Thread.sleep(delayMillis);
+                }
+                if (responseSize >= 0) {
+                    outStream.write(("HTTP/1.1 200 OK\r\nContent-Type: text/plain\r\nContent-Length: " + responseSize + "\r\n\r\n").getBytes("UTF-8"));
+                    outStream.write(new byte[responseSize]);
+                } else {
+                    outStream.write(mResponseHead);
+                    outStream.write(mResponseBody);
+                }
+                outStream.flush();
+                if (close) {
+                    return;
+                }
+            }
+        } catch (Exception ex) {
+            //连接关闭
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException ex) {
+                //忽略
+            }
+        }
+    }
+
+    private static boolean skip(InputStream inStream, long length) throws IOException {
+        long skipped = 0;
+        while (skipped < length) {
+            long bytes = inStream.skip(length - skipped);
+            if (bytes <= 0) {
+                return false;
+            }
+            skipped += bytes;
+        }
+        return true;
+    }
+
+    private static String readLine(InputStream inStream) throws IOException {
+        StringBuilder lineBuilder = new StringBuilder();
+        int c;
+        while ((c = inStream.read()) != -1) {
+            if (c == '\n') {
+                int length = lineBuilder.length();
+                if (length > 0 && lineBuilder.charAt(length - 1) == '\r') {
+                    lineBuilder.setLength(length - 1);
+                }
+                return lineBuilder.toString();
+            }
+            lineBuilder.append((char) c);
+        }
+        return lineBuilder.length() == 0 ? null : lineBuilder.toString();
+    }
+}
@@ -0,0 +1,171 @@
+package com.seagle.net.android.httphelper;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.ConnectException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * LoopbackTransport测试.
+ * Created by seagle on 2018/4/10.
+ */
+public class LoopbackTransportTest {
+
+    @Test
+    public void testRoutes() throws Exception {
+        LoopbackTransport transport = new LoopbackTransport();
+        LoopbackTransport.Route route = transport.addRoute("GET", "/user");
+        route.setBody("{\"name\":\"seagle\"}");
+        route.setHeader("Content-Type", "application/json");
+        transport.addRoute("POST", "/echo").setResponder(new LoopbackTransport.Responder() {
+            @Override
+            public byte[] respond(HttpTransportRequest request, byte[] requestBody) {
+                return requestBody;
+            }
+        });
+
+        HttpTransportResponse response = transport.execute(newRequest("GET", "/user?id=1"));
+        assertEquals(200, response.getCode());
+        assertEquals("application/json", response.getContentType());
+        assertEquals("{\"name\":\"seagle\"}", bodyOf(response));
+        assertEquals(1, route.getRequestCount());
+
+        HttpTransportRequest request = newRequest("POST", "/echo");
+        request.setBody(new HttpTransportRequest.BodyWriter() {
+            @Override
+            public void writeTo(OutputStream outStream) throws IOException {
+                outStream.write("a=1".getBytes("UTF-8"));
+            }
+        }, 3);
+        assertEquals("a=1", bodyOf(transport.execute(request)));
+
+        assertEquals(404, transport.execute(newRequest("GET", "/missing")).getCode());
+    }
+
+    @Test
+    public void testLatencyAndBandwidth() throws Exception {
+        LoopbackTransport transport = new LoopbackTransport();
+        LoopbackTransport.Route route = transport.addRoute(null, "/");
+        route.setLatency(LoopbackTransport.fixedLatency(50));
+        route.setBandwidth(100 * 1024);
+        route.setBody(new byte[10 * 1024]);
+
+        long start = System.nanoTime();
+        HttpTransportResponse response = transport.execute(newRequest("GET", "/file"));
+        assertEquals(10 * 1024, bodyOf(response).length());
+        long elapsedMillis = (System.nanoTime() - start) / 1000000;
+        //50ms延迟加上10KB按100KB/s传输的100ms
+        assertTrue("elapsed " + elapsedMillis, elapsedMillis >= 140);
+    }
+
+    @Test
+    public void testChunkedDrip() throws Exception {
+        LoopbackTransport transport = new LoopbackTransport();
+        LoopbackTransport.Route route = transport.addRoute(null, "/");
+        route.setChunkSize(4);
+        route.setBody("hello world");
+
+        HttpTransportResponse response = transport.execute(newRequest("GET", "/stream"));
+        assertEquals("chunked", response.getHeader("Transfer-Encoding"));
+        InputStream bodyStream = response.getBodyStream();
+        byte[] buffer = new byte[1024];
+        int reads = 0;
+        while (bodyStream.read(buffer) != -1) {
+            reads++;
+        }
+        assertEquals(3, reads);
+    }
+
+    @Test
+    public void testFailureInjection() throws Exception {
+        LoopbackTransport transport = new LoopbackTransport(42);
+        LoopbackTransport.Route route = transport.addRoute(null, "/");
+        route.setBody("hello world");
+
+        route.setFailureRates(1, 0, 0);
+        try {
+            transport.execute(newRequest("GET", "/"));
+            fail("Connect failure expected");
+        } catch (ConnectException ex) {
+            //注入的连接失败
+        }
+
+        route.setFailureRates(0, 0, 1);
+        HttpTransportResponse response = transport.execute(newRequest("GET", "/"));
+        try {
+            bodyOf(response);
+            fail("Connection reset expected");
+        } catch (IOException ex) {
+            //注入的连接重置
+        }
+        assertEquals(2, route.getFailureCount());
+
+        //相同种子得到相同的故障序列
+        String first = failurePattern(new LoopbackTransport(7), 32);
+        assertEquals(first, failurePattern(new LoopbackTransport(7), 32));
+    }
+
+    @Test
+    public void testAbort() throws Exception {
+        LoopbackTransport transport = new LoopbackTransport();
+        transport.addRoute(null, "/").setLatency(LoopbackTransport.fixedLatency(10000));
+        final HttpTransportRequest request = newRequest("GET", "/slow");
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException ignored) {
+                    //忽略
+                }
+                request.abort();
+            }
+        }).start();
+        long start = System.nanoTime();
+        try {
+            transport.execute(request);
+            fail("Abort expected");
+        } catch (InterruptedIOException ex) {
+            assertTrue((System.nanoTime() - start) / 1000000 < 5000);
+        }
+    }
+
+    private static String failurePattern(LoopbackTransport transport, int count) {
+        transport.addRoute(null, "/").setFailureRates(0.5, 0, 0);
+        StringBuilder pattern = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            try {
+                transport.execute(newRequest("GET", "/"));
+                pattern.append('.');
+            } catch (IOException ex) {
+                pattern.append('x');
+            }
+        }
+        return pattern.toString();
+    }
+
+    private static HttpTransportRequest newRequest(String method, String path) {
+        HttpTransportRequest request = new HttpTransportRequest(method, false, "loopback", path);
+        request.setTimeout(5000, 5000);
+        return request;
+    }
+
+    private static String bodyOf(HttpTransportResponse response) throws IOException {
+        InputStream bodyStream = response.getBodyStream();
+        ByteArrayOutputStream outStream = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int len;
+        while ((len = bodyStream.read(buffer)) != -1) {
+            outStream.write(buffer, 0, len);
+        }
+        return outStream.toString("UTF-8");
+    }
+}
@@ -0,0 +1,325 @@
+package com.seagle.net.android.httphelper;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * NioHttpTransport本地回环测试，以及与UrlConnectionTransport的简单对比.
+ * Created by seagle on 2018/4/10.
+ */
+public class NioHttpTransportTest {
+
+    private LoopbackServer mServer;
+    private NioHttpTransport mTransport;
+
+    @Before
+    public void setUp() throws Exception {
+        mServer = new LoopbackServer();
+        mTransport = new NioHttpTransport(2, 8);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mTransport.shutdown();
+        mServer.close();
+    }
+
+    @Test
+    public void testContentLengthResponse() throws Exception {
+        HttpTransportResponse response = mTransport.execute(newRequest("GET", "/hello"));
+        assertEquals(200, response.getCode());
+        assertEquals("hello", bodyOf(response));
+    }
+
+    @Test
+    public void testChunkedResponse() throws Exception {
+        HttpTransportResponse response = mTransport.execute(newRequest("GET", "/chunked"));
+        assertEquals(200, response.getCode());
+        assertEquals("hello world", bodyOf(response));
+    }
+
+    @Test
+    public void testPostBody() throws Exception {
+        HttpTransportRequest request = newRequest("POST", "/echo");
+        request.setBody(new HttpTransportRequest.BodyWriter() {
+            @Override
+            public void writeTo(OutputStream outStream) throws IOException {
+                outStream.write("name=seagle&age=18".getBytes("UTF-8"));
+            }
+        }, -1);
+        HttpTransportResponse response = mTransport.execute(request);
+        assertEquals("name=seagle&age=18", bodyOf(response));
+    }
+
+    @Test
+    public void testKeepAliveReuse() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            assertEquals("hello", bodyOf(mTransport.execute(newRequest("GET", "/hello"))));
+        }
+        assertEquals(1, mServer.getAcceptCount());
+    }
+
+    @Test
+    public void testReadTimeout() throws Exception {
+        HttpTransportRequest request = newRequest("GET", "/slow");
+        request.setTimeout(3000, 200);
+        try {
+            mTransport.execute(request);
+            fail("Read timeout expected");
+        } catch (java.net.SocketTimeoutException ex) {
+            //超时
+        }
+    }
+
+    @Test
+    public void testConcurrentRequests() throws Exception {
+        assertEquals(1000, enqueueAll(1000));
+    }
+
+    @Test
+    public void testPipelining() throws Exception {
+        mTransport.setPipelining(true, 8);
+        assertEquals(16, enqueueAll(16));
+        assertTrue(mServer.getAcceptCount() <= 2);
+        assertTrue(mTransport.getPipelinedRequestCount() > 0);
+        assertEquals(0, mTransport.getPipelineReplayCount());
+    }
+
+    @Test
+    public void testPipeliningFallback() throws Exception {
+        //服务器每个连接只响应一个请求，然后直接断开
+        mServer.setCloseAfterResponse(true);
+        mTransport.setPipelining(true, 8);
+        assertEquals(8, enqueueAll(8));
+        assertTrue(mTransport.getPipelineReplayCount() > 0);
+        assertTrue(mTransport.isPipeliningBlacklisted("127.0.0.1", mServer.getPort()));
+
+        long pipelinedCount = mTransport.getPipelinedRequestCount();
+        assertEquals(8, enqueueAll(8));
+        assertEquals(pipelinedCount, mTransport.getPipelinedRequestCount());
+    }
+
+    private int enqueueAll(int count) throws InterruptedException {
+        final CountDownLatch latch = new CountDownLatch(count);
+        final AtomicInteger success = new AtomicInteger();
+        for (int i = 0; i < count; i++) {
+            mTransport.enqueue(newRequest("GET", "/hello"), new NioHttpTransport.Callback() {
+                @Override
+                public void onResponse(HttpTransportRequest request, HttpTransportResponse response) {
+                    if (response.getCode() == 200) {
+                        success.incrementAndGet();
+                    }
+                    latch.countDown();
+                }
+
+                @Override
+                public void onFailure(HttpTransportRequest request, IOException ex) {
+                    latch.countDown();
+                }
+            });
+        }
+        assertTrue(latch.await(30, TimeUnit.SECONDS));
+        return success.get();
+    }
+
+    /**
+     * 相同并发下两种传输层的耗时对比，UrlConnectionTransport每个并发请求占用一个线程
+     */
+    @Test
+    public void testBenchmark() throws Exception {
+        int requests = 2000;
+        int concurrency = 64;
+        long urlConnectionNanos = runBlocking(new UrlConnectionTransport(), requests, concurrency);
+        long nioNanos = runBlocking(mTransport, requests, concurrency);
+        String result = "UrlConnectionTransport: " + TimeUnit.NANOSECONDS.toMillis(urlConnectionNanos) + "ms, "
+                + "NioHttpTransport: " + TimeUnit.NANOSECONDS.toMillis(nioNanos) + "ms, "
+                + requests + " requests, concurrency " + concurrency;
+        //单个选择器线程处理全部连接，耗时不应明显超过每个请求一个线程的传输层
+        assertTrue(result, nioNanos < urlConnectionNanos * 2);
+    }
+
+    private long runBlocking(final HttpTransport transport, int requests, int concurrency) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(concurrency);
+        final CountDownLatch latch = new CountDownLatch(requests);
+        final AtomicInteger success = new AtomicInteger();
+        long start = System.nanoTime();
+        for (int i = 0; i < requests; i++) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        HttpTransportResponse response = transport.execute(newRequest("GET", "/hello"));
+                        if ("hello".equals(bodyOf(response))) {
+                            success.incrementAndGet();
+                        }
+                        response.close();
+                    } catch (IOException ex) {
+                        ex.printStackTrace();
+                    } finally {
+                        latch.countDown();
+                    }
+                }
+            });
+        }
+        assertTrue(latch.await(60, TimeUnit.SECONDS));
+        long elapsed = System.nanoTime() - start;
+        executor.shutdown();
+        assertEquals(requests, success.get());
+        return elapsed;
+    }
+
+    private HttpTransportRequest newRequest(String method, String path) {
+        HttpTransportRequest request = new HttpTransportRequest(method, false, "127.0.0.1:" + mServer.getPort(), path);
+        request.setTimeout(5000, 5000);
+        return request;
+    }
+
+    private static String bodyOf(HttpTransportResponse response) throws IOException {
+        InputStream bodyStream = response.getBodyStream();
+        StringBuilder bodyBuilder = new StringBuilder();
+        byte[] buffer = new byte[1024];
+        int len;
+        while ((len = bodyStream.read(buffer)) != -1) {
+            bodyBuilder.append(new String(buffer, 0, len, "UTF-8"));
+        }
+        return bodyBuilder.toString();
+    }
+
+    /**
+     * 本地回环HTTP/1.1服务器，每个连接一个线程，支持keep-alive
+     */
+    static final class LoopbackServer implements Runnable {
+        private final ServerSocket mServerSocket;
+        private final AtomicInteger mAcceptCount = new AtomicInteger();
+        private volatile boolean mCloseAfterResponse;
+
+        LoopbackServer() throws IOException {
+            mServerSocket = new ServerSocket(0, 4096);
+            Thread thread = new Thread(this, "LoopbackServer");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        int getPort() {
+            return mServerSocket.getLocalPort();
+        }
+
+        /**
+         * 设置每个连接只响应一个请求，不发送Connection: close直接断开
+         */
+        void setCloseAfterResponse(boolean closeAfterResponse) {
+            mCloseAfterResponse = closeAfterResponse;
+        }
+
+        int getAcceptCount() {
+            return mAcceptCount.get();
+        }
+
+        void close() throws IOException {
+            mServerSocket.close();
+        }
+
+        @Override
+        public void run() {
+            while (!mServerSocket.isClosed()) {
+                try {
+                    final Socket socket = mServerSocket.accept();
+                    mAcceptCount.incrementAndGet();
+                    Thread thread = new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            serve(socket);
+                        }
+                    });
+                    thread.setDaemon(true);
+                    thread.start();
+                } catch (IOException ex) {
+                    return;
+                }
+            }
+        }
+
+        private void serve(Socket socket) {
+            try {
+                InputStream inStream = new BufferedInputStream(socket.getInputStream());
+                OutputStream outStream = socket.getOutputStream();
+                String requestLine;
+                while ((requestLine = readLine(inStream)) != null) {
+                    String path = requestLine.split(" ")[1];
+                    int contentLength = 0;
+                    String header;
+                    while ((header = readLine(inStream)) != null && header.length() > 0) {
+                        if (header.toLowerCase().startsWith("content-length:")) {
+                            contentLength = Integer.parseInt(header.substring(15).trim());
+                        }
+                    }
+                    byte[] body = new byte[contentLength];
+                    int offset = 0;
+                    while (offset < contentLength) {
+                        int len = inStream.read(body, offset, contentLength - offset);
+                        if (len < 0) {
+                            return;
+                        }
+                        offset += len;
+                    }
+                    if ("/slow".equals(path)) {
+                        Thread.sleep(2000);
+                    }
+                    if ("/chunked".equals(path)) {
+                        outStream.write(("HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\n"
+                                + "5\r\nhello\r\n6\r\n world\r\n0\r\n\r\n").getBytes("UTF-8"));
+                    } else {
+                        byte[] respBody = "/echo".equals(path) ? body : "hello".getBytes("UTF-8");
+                        outStream.write(("HTTP/1.1 200 OK\r\nContent-Length: " + respBody.length + "\r\n\r\n").getBytes("UTF-8"));
+                        outStream.write(respBody);
+                    }
+                    outStream.flush();
+                    if (mCloseAfterResponse) {
+                        return;
+                    }
+                }
+            } catch (Exception ex) {
+                //连接关闭
+            } finally {
+                try {
+                    socket.close();
+                } catch (IOException ex) {
+                    ex.printStackTrace();
+                }
+            }
+        }
+
+        private static String readLine(InputStream inStream) throws IOException {
+            StringBuilder lineBuilder = new StringBuilder();
+            int c;
+            while ((c = inStream.read()) != -1) {
+                if (c == '\n') {
+                    int length = lineBuilder.length();
+                    if (length > 0 && lineBuilder.charAt(length - 1) == '\r') {
+                        lineBuilder.setLength(length - 1);
+                    }
+                    return lineBuilder.toString();
+                }
+                lineBuilder.append((char) c);
+            }
+            return lineBuilder.length() == 0 ? null : lineBuilder.toString();
+        }
+    }
+}
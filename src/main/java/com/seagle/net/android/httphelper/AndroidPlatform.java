@@ -0,0 +1,42 @@
+package com.seagle.net.android.httphelper;
+
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Android平台.
+ * 回调在主线程执行；Android 4.0到4.3的HttpURLConnection复用连接时会出现EOFException，这些版本不复用连接。
+ * 由{@link HttpPlatform}通过反射创建。
+ *
+ * @author : yuanxiudong66@sina.com
+ */
+final class AndroidPlatform extends HttpPlatform {
+
+    private final Executor mMainThreadExecutor = new Executor() {
+        private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+        @Override
+        public void execute(Runnable command) {
+            mHandler.post(command);
+        }
+    };
+
+    @Override
+    Executor getCallbackExecutor() {
+        return mMainThreadExecutor;
+    }
+
+    @Override
+    boolean isKeepAliveSupported() {
+        return !(Build.VERSION.SDK_INT > 14 && Build.VERSION.SDK_INT < 19);
+    }
+
+    @Override
+    void log(String tag, String message) {
+        Log.i(tag, message);
+    }
+}
@@ -0,0 +1,273 @@
+package com.seagle.net.android.httphelper;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.view.Choreographer;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+
+/**
+ * <h1>按帧批量分发回调.</h1>
+ * 默认情况下每个完成的请求各自向主线程发送一条消息执行回调，大量请求同时完成时主线程连续处理几十条消息，容易掉帧。
+ * 设置了分发器后，请求完成时回调先进入分发器的队列，每一帧（与Choreographer对齐）集中执行一批；
+ * 一帧内回调的执行时间超过预算时，剩余的回调顺延到下一帧，每一帧至少执行一个回调。
+ * 通过{@link HttpHelper#setCallbackExecutor(Executor)}启用，回调方法仍然是{@link HttpCallback}中的方法。
+ * <p>
+ * 帧的来源和时钟可以替换，测试时使用手动驱动的帧和虚拟时钟即可在普通JVM上验证分帧行为。
+ *
+ * @author : yuanxiudong66@sina.com
+ */
+public final class HttpCallbackDispatcher implements Executor {
+
+    /**
+     * 默认每帧回调的时间预算，单位：ms
+     */
+    private static final long DEFAULT_FRAME_BUDGET_MILLIS = 4;
+
+    /**
+     * 不支持Choreographer时的帧间隔，单位：ms
+     */
+    private static final long FRAME_INTERVAL_MILLIS = 16;
+
+    /**
+     * 帧调度，在下一帧执行一次帧任务.
+     */
+    public interface FrameScheduler {
+
+        /**
+         * 在下一帧执行帧任务，可以在任意线程调用
+         *
+         * @param frame 帧任务
+         */
+        void scheduleFrame(Runnable frame);
+    }
+
+    /**
+     * 时钟.
+     */
+    public interface Clock {
+
+        /**
+         * 获取单调递增的时间，单位：ns
+         *
+         * @return 时间
+         */
+        long nanoTime();
+    }
+
+    private final FrameScheduler mScheduler;
+    private final Clock mClock;
+    private final long mFrameBudgetNanos;
+
+    /**
+     * 等待分发的回调
+     */
+    private final ArrayDeque<Runnable> mPending = new ArrayDeque<>();
+
+    /**
+     * 是否已经请求了下一帧
+     */
+    private boolean mFrameScheduled;
+
+    private long mFrameCount;
+    private long mDeliveredCount;
+    private long mOverBudgetFrameCount;
+
+    private final Runnable mFrame = new Runnable() {
+        @Override
+        public void run() {
+            doFrame();
+        }
+    };
+
+    public HttpCallbackDispatcher() {
+        this(DEFAULT_FRAME_BUDGET_MILLIS);
+    }
+
+    /**
+     * 构造在主线程按帧分发回调的分发器
+     *
+     * @param frameBudgetMillis 每帧回调的时间预算，单位：ms
+     */
+    public HttpCallbackDispatcher(long frameBudgetMillis) {
+        this(new MainThreadFrameScheduler(), new Clock() {
+            @Override
+            public long nanoTime() {
+                return System.nanoTime();
+            }
+        }, frameBudgetMillis * 1000000L);
+    }
+
+    /**
+     * 构造分发器
+     *
+     * @param scheduler        帧调度
+     * @param clock            时钟
+     * @param frameBudgetNanos 每帧回调的时间预算，单位：ns
+     */
+    public HttpCallbackDispatcher(FrameScheduler scheduler, Clock clock, long frameBudgetNanos) {
+        if (scheduler == null || clock == null) {
+            throw new IllegalArgumentException("Scheduler and clock must not be null");
+        }
+        mScheduler = scheduler;
+        mClock = clock;
+        mFrameBudgetNanos = Math.max(0, frameBudgetNanos);
+    }
+
+    /**
+     * 提交回调，在下一帧或者之后的帧中执行.
+     * 可以在任意线程调用，回调按提交的顺序执行。
+     *
+     * @param delivery 回调
+     */
+    @Override
+    public void execute(Runnable delivery) {
+        boolean schedule;
+        synchronized (mPending) {
+            mPending.add(delivery);
+            schedule = !mFrameScheduled;
+            mFrameScheduled = true;
+        }
+        if (schedule) {
+            mScheduler.scheduleFrame(mFrame);
+        }
+    }
+
+    /**
+     * 执行一帧.
+     * 只执行帧开始时已经在队列中的回调，帧内新提交的回调在下一帧执行。
+     */
+    private void doFrame() {
+        long start = mClock.nanoTime();
+        int batchSize;
+        synchronized (mPending) {
+            mFrameScheduled = false;
+            batchSize = mPending.size();
+            mFrameCount++;
+        }
+        int delivered = 0;
+        try {
+            while (delivered < batchSize) {
+                Runnable delivery;
+                synchronized (mPending) {
+                    delivery = mPending.poll();
+                    mDeliveredCount++;
+                }
+                delivered++;
+                delivery.run();
+                if (delivered < batchSize && mClock.nanoTime() - start >= mFrameBudgetNanos) {
+                    synchronized (mPending) {
+                        mOverBudgetFrameCount++;
+                    }
+                    break;
+                }
+            }
+        } finally {
+            boolean schedule;
+            synchronized (mPending) {
+                schedule = !mPending.isEmpty() && !mFrameScheduled;
+                if (schedule) {
+                    mFrameScheduled = true;
+                }
+            }
+            if (schedule) {
+                mScheduler.scheduleFrame(mFrame);
+            }
+        }
+    }
+
+    /**
+     * 获取等待分发的回调数
+     *
+     * @return 回调数
+     */
+    public int getPendingCount() {
+        synchronized (mPending) {
+            return mPending.size();
+        }
+    }
+
+    /**
+     * 获取执行过的帧数
+     *
+     * @return 帧数
+     */
+    public long getFrameCount() {
+        synchronized (mPending) {
+            return mFrameCount;
+        }
+    }
+
+    /**
+     * 获取已经分发的回调数
+     *
+     * @return 回调数
+     */
+    public long getDeliveredCount() {
+        synchronized (mPending) {
+            return mDeliveredCount;
+        }
+    }
+
+    /**
+     * 获取超出时间预算、把回调顺延到下一帧的帧数
+     *
+     * @return 帧数
+     */
+    public long getOverBudgetFrameCount() {
+        synchronized (mPending) {
+            return mOverBudgetFrameCount;
+        }
+    }
+
+    /**
+     * 主线程的帧调度.
+     * Android 4.1及以上使用Choreographer，之前的版本按16ms对齐发送消息。
+     */
+    private static final class MainThreadFrameScheduler implements FrameScheduler {
+        private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+        /**
+         * 主线程的Choreographer，只能在主线程获取
+         */
+        private volatile Object mChoreographer;
+
+        @Override
+        public void scheduleFrame(final Runnable frame) {
+            if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+                long uptime = SystemClock.uptimeMillis();
+                mHandler.postDelayed(frame, FRAME_INTERVAL_MILLIS - uptime % FRAME_INTERVAL_MILLIS);
+                return;
+            }
+            if (mChoreographer != null || Looper.myLooper() == Looper.getMainLooper()) {
+                postFrameCallback(frame);
+            } else {
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        postFrameCallback(frame);
+                    }
+                });
+            }
+        }
+
+        @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+        private void postFrameCallback(final Runnable frame) {
+            Choreographer choreographer = (Choreographer) mChoreographer;
+            if (choreographer == null) {
+                choreographer = Choreographer.getInstance();
+                mChoreographer = choreographer;
+            }
+            choreographer.postFrameCallback(new Choreographer.FrameCallback() {
+                @Override
+                public void doFrame(long frameTimeNanos) {
+                    frame.run();
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,632 @@
+package com.seagle.net.android.httphelper;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * <h1>离线请求队列.</h1>
+ * 网络不可用时，把请求持久化到磁盘上的追加日志中，网络恢复后再按照优先级批量提交。
+ * <ul>
+ * <li>日志只追加写入，删除的记录达到一定数量后自动压缩。</li>
+ * <li>提交时按照优先级从高到低、同优先级按照入队顺序，最多同时提交指定数量的请求。</li>
+ * <li>相同去重键的请求只保留最后一次入队的请求。</li>
+ * <li>网络错误、超时以及5xx错误的请求保留在队列中，等待下一次提交；其他结果都会移出队列并回调。</li>
+ * </ul>
+ * 请求回调只保存在内存中，进程重启后从日志恢复的请求通过{@link OutboxListener}通知结果。
+ *
+ * @author : yuanxiudong66@sina.com
+ */
+public final class HttpOutbox {
+
+    private static final String TAG = "HttpOutbox";
+
+    /**
+     * 日志记录类型：入队
+     */
+    private static final byte OP_ADD = 1;
+
+    /**
+     * 日志记录类型：出队
+     */
+    private static final byte OP_REMOVE = 2;
+
+    /**
+     * 触发压缩的最少无效记录数
+     */
+    private static final int COMPACT_THRESHOLD = 64;
+
+    /**
+     * 默认的最大并发提交数
+     */
+    private static final int DEFAULT_MAX_PARALLEL = 4;
+
+    /**
+     * 请求执行者
+     */
+    private final HttpHelper mHttpHelper;
+
+    /**
+     * 日志文件
+     */
+    private final File mJournalFile;
+
+    /**
+     * 最大并发提交数
+     */
+    private final int mMaxParallel;
+
+    /**
+     * 队列中的请求，按入队顺序
+     */
+    private final Map<Long, Entry> mEntries = new LinkedHashMap<>();
+
+    /**
+     * 去重键与请求的对应
+     */
+    private final Map<String, Entry> mDedupEntries = new HashMap<>();
+
+    /**
+     * 提交调度线程，队列状态只在这个线程修改
+     */
+    private final ExecutorService mFlushExecutor;
+
+    /**
+     * 日志文件流
+     */
+    private FileOutputStream mJournalFileStream;
+
+    /**
+     * 日志写入流
+     */
+    private DataOutputStream mJournalStream;
+
+    /**
+     * 日志中已经无效的记录数
+     */
+    private int mStaleRecords;
+
+    /**
+     * 下一个请求ID
+     */
+    private long mNextId;
+
+    /**
+     * 正在提交的请求数
+     */
+    private int mInFlight;
+
+    /**
+     * 是否处于提交过程中
+     */
+    private boolean mFlushing;
+
+    private volatile OutboxListener mListener;
+
+    private BroadcastReceiver mConnectivityReceiver;
+
+    public HttpOutbox(HttpHelper httpHelper, File journalFile) {
+        this(httpHelper, journalFile, DEFAULT_MAX_PARALLEL);
+    }
+
+    public HttpOutbox(HttpHelper httpHelper, File journalFile, int maxParallel) {
+        if (httpHelper == null || journalFile == null) {
+            throw new IllegalArgumentException("HttpHelper and journal file should not be null!");
+        }
+        mHttpHelper = httpHelper;
+        mJournalFile = journalFile;
+        mMaxParallel = Math.max(1, maxParallel);
+        mFlushExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "HttpOutbox");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        synchronized (this) {
+            loadJournal();
+        }
+    }
+
+    /**
+     * 设置结果监听，包括从日志恢复的请求.
+     *
+     * @param listener 监听
+     */
+    public void setOutboxListener(OutboxListener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * 请求入队，以POST方式提交.
+     * 调用返回时请求已经写入日志。
+     *
+     * @param request  请求
+     * @param https    是否走HTTPS
+     * @param priority 优先级，值越大越先提交
+     * @param dedupKey 去重键，可以为空。相同去重键的旧请求会被替换
+     * @param callback 回调，可以为空。只保存在内存中
+     * @return 请求ID
+     * @throws IOException 写入日志失败，或者日志无法打开
+     */
+    public synchronized long enqueue(HttpRequest request, boolean https, int priority, String dedupKey, HttpCallback<Void> callback) throws IOException {
+        ensureJournalStream();
+        request.setRequestMethod(HttpRequest.HTTP_POST);
+        Entry entry = new Entry(mNextId++, priority, https, dedupKey, request);
+        entry.mCallback = callback;
+        writeAddRecord(entry);
+        mJournalStream.flush();
+        mJournalFileStream.getFD().sync();
+        if (!HttpUtils.isEmpty(dedupKey)) {
+            Entry oldEntry = mDedupEntries.get(dedupKey);
+            if (oldEntry != null && !oldEntry.mSubmitted) {
+                removeEntry(oldEntry);
+            }
+        }
+        addEntry(entry);
+        return entry.mId;
+    }
+
+    /**
+     * 队列中请求的个数
+     *
+     * @return 个数
+     */
+    public synchronized int size() {
+        return mEntries.size();
+    }
+
+    /**
+     * 提交队列中的请求.
+     * 遇到网络错误时停止本次提交，剩余请求等待下一次提交。
+     */
+    public void flush() {
+        mFlushExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (HttpOutbox.this) {
+                    mFlushing = true;
+                    submitPending();
+                }
+            }
+        });
+    }
+
+    /**
+     * 注册网络状态监听，网络连接后自动提交.
+     * 需要android.permission.ACCESS_NETWORK_STATE权限。
+     *
+     * @param context 上下文
+     */
+    public synchronized void registerConnectivityReceiver(Context context) {
+        if (mConnectivityReceiver != null) {
+            return;
+        }
+        mConnectivityReceiver = new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                ConnectivityManager manager = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+                NetworkInfo networkInfo = manager != null ? manager.getActiveNetworkInfo() : null;
+                if (networkInfo != null && networkInfo.isConnected()) {
+                    flush();
+                }
+            }
+        };
+        context.getApplicationContext().registerReceiver(mConnectivityReceiver, new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION));
+    }
+
+    /**
+     * 取消网络状态监听
+     *
+     * @param context 上下文
+     */
+    public synchronized void unregisterConnectivityReceiver(Context context) {
+        if (mConnectivityReceiver != null) {
+            context.getApplicationContext().unregisterReceiver(mConnectivityReceiver);
+            mConnectivityReceiver = null;
+        }
+    }
+
+    /**
+     * 按照优先级提交请求，直到达到并发上限
+     */
+    private void submitPending() {
+        if (!mFlushing || mInFlight >= mMaxParallel) {
+            return;
+        }
+        List<Entry> pending = new ArrayList<>();
+        for (Entry entry : mEntries.values()) {
+            if (!entry.mSubmitted) {
+                pending.add(entry);
+            }
+        }
+        if (pending.isEmpty()) {
+            if (mInFlight == 0) {
+                mFlushing = false;
+            }
+            return;
+        }
+        Collections.sort(pending, new Comparator<Entry>() {
+            @Override
+            public int compare(Entry lhs, Entry rhs) {
+                if (lhs.mPriority != rhs.mPriority) {
+                    return lhs.mPriority > rhs.mPriority ? -1 : 1;
+                }
+                return lhs.mId < rhs.mId ? -1 : (lhs.mId == rhs.mId ? 0 : 1);
+            }
+        });
+        for (Entry entry : pending) {
+            if (mInFlight >= mMaxParallel) {
+                break;
+            }
+            entry.mSubmitted = true;
+            mInFlight++;
+            if (entry.mHttps) {
+                mHttpHelper.doHttpsPost(entry.mRequest, null, new EntryCallback(entry));
+            } else {
+                mHttpHelper.doHttpPost(entry.mRequest, null, new EntryCallback(entry));
+            }
+        }
+    }
+
+    /**
+     * 请求完成，决定是否出队并继续提交
+     *
+     * @param entry    请求
+     * @param response 响应
+     */
+    private void onEntryComplete(final Entry entry, final HttpResponse<Void> response) {
+        final boolean retry = isRetryable(response);
+        mFlushExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (HttpOutbox.this) {
+                    mInFlight--;
+                    entry.mSubmitted = false;
+                    if (retry) {
+                        //网络不可用，停止本次提交
+                        mFlushing = false;
+                    } else if (mEntries.get(entry.mId) == entry) {
+                        try {
+                            writeRemoveRecord(entry.mId);
+                            mStaleRecords++;
+                        } catch (IOException ex) {
+                            Log.w(TAG, "Write journal failed", ex);
+                        }
+                        removeEntry(entry);
+                        compactIfNeeded();
+                    }
+                    submitPending();
+                }
+            }
+        });
+        if (!retry) {
+            if (entry.mCallback != null) {
+                if (response.isSuccess()) {
+                    entry.mCallback.onResponseSuccess(response);
+                } else {
+                    entry.mCallback.onResponseFailure(response);
+                }
+            }
+            OutboxListener listener = mListener;
+            if (listener != null) {
+                listener.onEntryComplete(entry.mDedupKey, response);
+            }
+        }
+    }
+
+    /**
+     * 是否需要保留在队列中稍后重试
+     *
+     * @param response 响应
+     * @return true or false
+     */
+    private static boolean isRetryable(HttpResponse<Void> response) {
+        switch (response.getCode()) {
+            case HttpResponse.ERROR_CODE_REQUEST_FAILED:
+            case HttpResponse.ERROR_CODE_TIME_OUT:
+                return true;
+            case HttpResponse.ERROR_CODE_HTTP:
+                return response.getResultCode() >= 500;
+            default:
+                return false;
+        }
+    }
+
+    private void addEntry(Entry entry) {
+        mEntries.put(entry.mId, entry);
+        if (!HttpUtils.isEmpty(entry.mDedupKey)) {
+            mDedupEntries.put(entry.mDedupKey, entry);
+        }
+    }
+
+    private void removeEntry(Entry entry) {
+        mEntries.remove(entry.mId);
+        if (!HttpUtils.isEmpty(entry.mDedupKey) && mDedupEntries.get(entry.mDedupKey) == entry) {
+            mDedupEntries.remove(entry.mDedupKey);
+        }
+        mStaleRecords++;
+    }
+
+    /**
+     * 从日志恢复队列，日志尾部不完整的记录会被截掉
+     */
+    private void loadJournal() {
+        long validLength = 0;
+        if (mJournalFile.exists()) {
+            DataInputStream inStream = null;
+            try {
+                CountingInputStream countingStream = new CountingInputStream(new BufferedInputStream(new FileInputStream(mJournalFile)));
+                inStream = new DataInputStream(countingStream);
+                while (true) {
+                    byte op = inStream.readByte();
+                    long id = inStream.readLong();
+                    if (op == OP_ADD) {
+                        int priority = inStream.readInt();
+                        boolean https = inStream.readBoolean();
+                        String dedupKey = inStream.readUTF();
+                        byte[] requestData = new byte[inStream.readInt()];
+                        inStream.readFully(requestData);
+                        HttpRequest request = readRequest(requestData);
+                        Entry entry = new Entry(id, priority, https, HttpUtils.isEmpty(dedupKey) ? null : dedupKey, request);
+                        Entry oldEntry = entry.mDedupKey != null ? mDedupEntries.get(entry.mDedupKey) : null;
+                        if (oldEntry != null) {
+                            removeEntry(oldEntry);
+                        }
+                        addEntry(entry);
+                    } else if (op == OP_REMOVE) {
+                        Entry entry = mEntries.get(id);
+                        if (entry != null) {
+                            removeEntry(entry);
+                        }
+                        mStaleRecords++;
+                    } else {
+                        throw new IOException("Unknown journal record: " + op);
+                    }
+                    mNextId = Math.max(mNextId, id + 1);
+                    validLength = countingStream.mCount;
+                }
+            } catch (EOFException ex) {
+                //日志读取完毕
+            } catch (IOException | ClassNotFoundException ex) {
+                Log.w(TAG, "Journal corrupted, truncate at " + validLength, ex);
+            } finally {
+                closeQuietly(inStream);
+            }
+        }
+        try {
+            if (mJournalFile.exists() && mJournalFile.length() != validLength) {
+                RandomAccessFile randomAccessFile = new RandomAccessFile(mJournalFile, "rw");
+                try {
+                    randomAccessFile.setLength(validLength);
+                } finally {
+                    randomAccessFile.close();
+                }
+            }
+            openJournalStream(true);
+            compactIfNeeded();
+        } catch (IOException ex) {
+            Log.e(TAG, "Open journal failed", ex);
+        }
+    }
+
+    /**
+     * 无效记录过多时重写日志
+     */
+    private void compactIfNeeded() {
+        if (mStaleRecords < COMPACT_THRESHOLD || mStaleRecords < mEntries.size()) {
+            return;
+        }
+        File tmpFile = new File(mJournalFile.getPath() + ".tmp");
+        try {
+            closeQuietly(mJournalStream);
+            mJournalFileStream = new FileOutputStream(tmpFile, false);
+            mJournalStream = new DataOutputStream(mJournalFileStream);
+            for (Entry entry : mEntries.values()) {
+                writeAddRecord(entry);
+            }
+            mJournalStream.flush();
+            mJournalFileStream.getFD().sync();
+            closeQuietly(mJournalStream);
+            if (!tmpFile.renameTo(mJournalFile)) {
+                throw new IOException("Rename journal failed");
+            }
+            mStaleRecords = 0;
+        } catch (IOException ex) {
+            Log.w(TAG, "Compact journal failed", ex);
+            tmpFile.delete();
+        } finally {
+            try {
+                openJournalStream(true);
+            } catch (IOException ex) {
+                Log.e(TAG, "Open journal failed", ex);
+            }
+        }
+    }
+
+    private void openJournalStream(boolean append) throws IOException {
+        closeQuietly(mJournalStream);
+        mJournalStream = null;
+        mJournalFileStream = null;
+        mJournalFileStream = new FileOutputStream(mJournalFile, append);
+        mJournalStream = new DataOutputStream(mJournalFileStream);
+    }
+
+    /**
+     * 日志在启动或者压缩时打开失败的话，重新打开一次
+     *
+     * @throws IOException 日志无法打开
+     */
+    private void ensureJournalStream() throws IOException {
+        if (mJournalStream != null) {
+            return;
+        }
+        try {
+            openJournalStream(true);
+        } catch (IOException ex) {
+            throw new IOException("Outbox journal unavailable: " + mJournalFile, ex);
+        }
+    }
+
+    private void writeAddRecord(Entry entry) throws IOException {
+        ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
+        ObjectOutputStream objectStream = new ObjectOutputStream(byteStream);
+        objectStream.writeObject(entry.mRequest);
+        objectStream.close();
+        byte[] requestData = byteStream.toByteArray();
+
+        //先在内存中拼好整条记录，保证一次写入
+        ByteArrayOutputStream recordStream = new ByteArrayOutputStream(requestData.length + 64);
+        DataOutputStream record = new DataOutputStream(recordStream);
+        record.writeByte(OP_ADD);
+        record.writeLong(entry.mId);
+        record.writeInt(entry.mPriority);
+        record.writeBoolean(entry.mHttps);
+        record.writeUTF(entry.mDedupKey == null ? "" : entry.mDedupKey);
+        record.writeInt(requestData.length);
+        record.write(requestData);
+        mJournalStream.write(recordStream.toByteArray());
+    }
+
+    private void writeRemoveRecord(long id) throws IOException {
+        ensureJournalStream();
+        mJournalStream.writeByte(OP_REMOVE);
+        mJournalStream.writeLong(id);
+        mJournalStream.flush();
+    }
+
+    private static HttpRequest readRequest(byte[] data) throws IOException, ClassNotFoundException {
+        ObjectInputStream objectStream = new ObjectInputStream(new ByteArrayInputStream(data));
+        try {
+            return (HttpRequest) objectStream.readObject();
+        } finally {
+            objectStream.close();
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException ex) {
+                ex.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * 统计已读取字节数的输入流，用于定位最后一条完整的日志记录
+     */
+    private static final class CountingInputStream extends FilterInputStream {
+        private long mCount;
+
+        private CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                mCount++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            int bytes = super.read(buffer, offset, count);
+            if (bytes > 0) {
+                mCount += bytes;
+            }
+            return bytes;
+        }
+    }
+
+    /**
+     * 队列中的请求
+     */
+    private static final class Entry {
+        private final long mId;
+        private final int mPriority;
+        private final boolean mHttps;
+        private final String mDedupKey;
+        private final HttpRequest mRequest;
+        private HttpCallback<Void> mCallback;
+        private boolean mSubmitted;
+
+        private Entry(long id, int priority, boolean https, String dedupKey, HttpRequest request) {
+            mId = id;
+            mPriority = priority;
+            mHttps = https;
+            mDedupKey = dedupKey;
+            mRequest = request;
+        }
+    }
+
+    /**
+     * 请求回调，运行在主线程
+     */
+    private final class EntryCallback extends HttpCallback<Void> {
+        private final Entry mEntry;
+
+        private EntryCallback(Entry entry) {
+            mEntry = entry;
+        }
+
+        @Override
+        protected void onResponseSuccess(HttpResponse<Void> response) {
+            onEntryComplete(mEntry, response);
+        }
+
+        @Override
+        protected void onResponseFailure(HttpResponse<Void> response) {
+            onEntryComplete(mEntry, response);
+        }
+    }
+
+    /**
+     * 队列请求结果监听，运行在主线程.
+     */
+    public interface OutboxListener {
+        /**
+         * 请求已经提交并移出队列
+         *
+         * @param dedupKey 去重键，可能为空
+         * @param response 响应
+         */
+        void onEntryComplete(String dedupKey, HttpResponse<Void> response);
+    }
+}
@@ -0,0 +1,167 @@
+package com.seagle.net.android.httphelper;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * HttpCallbackDispatcher测试，使用手动驱动的帧和虚拟时钟.
+ * Created by seagle on 2018/4/10.
+ */
+public class HttpCallbackDispatcherTest {
+
+    private static final long MILLIS = 1000000L;
+
+    private FakeFrames mFrames;
+    private FakeClock mClock;
+    private HttpCallbackDispatcher mDispatcher;
+    private List<Integer> mDelivered;
+
+    @Before
+    public void setUp() {
+        mFrames = new FakeFrames();
+        mClock = new FakeClock();
+        mDispatcher = new HttpCallbackDispatcher(mFrames, mClock, 4 * MILLIS);
+        mDelivered = new ArrayList<>();
+    }
+
+    @Test
+    public void testBatchInOneFrame() {
+        for (int i = 0; i < 50; i++) {
+            mDispatcher.execute(delivery(i, 0));
+        }
+        //50个回调只请求一帧
+        assertEquals(1, mFrames.pendingCount());
+        assertEquals(0, mDelivered.size());
+
+        mFrames.runFrame();
+        assertEquals(50, mDelivered.size());
+        for (int i = 0; i < 50; i++) {
+            assertEquals(i, (int) mDelivered.get(i));
+        }
+        assertEquals(0, mFrames.pendingCount());
+        assertEquals(1, mDispatcher.getFrameCount());
+        assertEquals(0, mDispatcher.getOverBudgetFrameCount());
+    }
+
+    @Test
+    public void testBudgetSpillsToNextFrame() {
+        //每个回调1ms，4ms预算每帧执行4个
+        for (int i = 0; i < 10; i++) {
+            mDispatcher.execute(delivery(i, 1));
+        }
+        mFrames.runFrame();
+        assertEquals(4, mDelivered.size());
+        assertEquals(6, mDispatcher.getPendingCount());
+        assertEquals(1, mFrames.pendingCount());
+
+        mFrames.runFrame();
+        assertEquals(8, mDelivered.size());
+        mFrames.runFrame();
+        assertEquals(10, mDelivered.size());
+        assertEquals(0, mFrames.pendingCount());
+        assertEquals(3, mDispatcher.getFrameCount());
+        assertEquals(2, mDispatcher.getOverBudgetFrameCount());
+    }
+
+    @Test
+    public void testSlowCallbackStillProgresses() {
+        //单个回调超出预算时每帧至少执行一个
+        mDispatcher.execute(delivery(0, 20));
+        mDispatcher.execute(delivery(1, 20));
+        mFrames.runFrame();
+        assertEquals(1, mDelivered.size());
+        mFrames.runFrame();
+        assertEquals(2, mDelivered.size());
+    }
+
+    @Test
+    public void testPostDuringFrameGoesToNextFrame() {
+        mDispatcher.execute(new Runnable() {
+            @Override
+            public void run() {
+                mDelivered.add(0);
+                mDispatcher.execute(delivery(1, 0));
+            }
+        });
+        mFrames.runFrame();
+        assertEquals(1, mDelivered.size());
+        assertEquals(1, mFrames.pendingCount());
+        mFrames.runFrame();
+        assertEquals(2, mDelivered.size());
+    }
+
+    @Test
+    public void testCallbackExceptionKeepsQueue() {
+        mDispatcher.execute(new Runnable() {
+            @Override
+            public void run() {
+                throw new IllegalStateException("callback failed");
+            }
+        });
+        mDispatcher.execute(delivery(1, 0));
+        try {
+            mFrames.runFrame();
+        } catch (IllegalStateException ex) {
+            //回调异常
+        }
+        assertEquals(1, mFrames.pendingCount());
+        mFrames.runFrame();
+        assertEquals(1, mDelivered.size());
+        assertEquals(2, mDispatcher.getDeliveredCount());
+    }
+
+    private Runnable delivery(final int index, final long costMillis) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                mDelivered.add(index);
+                mClock.advance(costMillis * MILLIS);
+            }
+        };
+    }
+
+    /**
+     * 手动驱动的帧
+     */
+    private static final class FakeFrames implements HttpCallbackDispatcher.FrameScheduler {
+        private final List<Runnable> mFrames = new ArrayList<>();
+
+        @Override
+        public void scheduleFrame(Runnable frame) {
+            mFrames.add(frame);
+        }
+
+        int pendingCount() {
+            return mFrames.size();
+        }
+
+        void runFrame() {
+            List<Runnable> frames = new ArrayList<>(mFrames);
+            mFrames.clear();
+            for (Runnable frame : frames) {
+                frame.run();
+            }
+        }
+    }
+
+    /**
+     * 虚拟时钟，只在回调中手动前进
+     */
+    private static final class FakeClock implements HttpCallbackDispatcher.Clock {
+        private long mNanos;
+
+        @Override
+        public long nanoTime() {
+            return mNanos;
+        }
+
+        void advance(long nanos) {
+            mNanos += nanos;
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package com.seagle.net.android.httphelper;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * 离线请求队列的测试：日志恢复、压缩、去重以及提交顺序.
+ * Created by seagle on 2018/4/10.
+ */
+public class HttpOutboxTest {
+
+    private File mJournalFile;
+    private LoopbackTransport mTransport;
+    private LoopbackTransport.Route mRoute;
+    private List<String> mReceived;
+
+    @Before
+    public void setUp() throws Exception {
+        mJournalFile = File.createTempFile("outbox", ".journal");
+        mJournalFile.delete();
+        mReceived = Collections.synchronizedList(new ArrayList<String>());
+        mTransport = new LoopbackTransport();
+        mRoute = mTransport.addRoute("POST", "/outbox/");
+        mRoute.setResponder(new LoopbackTransport.Responder() {
+            @Override
+            public byte[] respond(HttpTransportRequest request, byte[] requestBody) {
+                mReceived.add(request.getPath().substring("/outbox/".length()));
+                return null;
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        mJournalFile.delete();
+        new File(mJournalFile.getPath() + ".tmp").delete();
+    }
+
+    @Test
+    public void testReplayAfterRestart() throws Exception {
+        HttpOutbox outbox = newOutbox(4);
+        outbox.enqueue(newRequest("1"), false, 0, null, null);
+        outbox.enqueue(newRequest("2"), false, 0, "profile", null);
+        outbox.enqueue(newRequest("3"), false, 0, null, null);
+        //进程在写入下一条记录时退出，日志尾部的记录不完整
+        FileOutputStream outStream = new FileOutputStream(mJournalFile, true);
+        outStream.write(new byte[]{1, 0, 0, 0});
+        outStream.close();
+        long validLength = mJournalFile.length() - 4;
+
+        HttpOutbox restored = newOutbox(4);
+        assertEquals(3, restored.size());
+        assertEquals(validLength, mJournalFile.length());
+        final List<String> completedKeys = Collections.synchronizedList(new ArrayList<String>());
+        restored.setOutboxListener(new HttpOutbox.OutboxListener() {
+            @Override
+            public void onEntryComplete(String dedupKey, HttpResponse<Void> response) {
+                if (response.isSuccess()) {
+                    completedKeys.add(dedupKey);
+                }
+            }
+        });
+        restored.flush();
+        awaitSize(restored, 0);
+        Collections.sort(mReceived);
+        assertEquals(Arrays.asList("1", "2", "3"), mReceived);
+        assertEquals(3, completedKeys.size());
+        assertTrue(completedKeys.contains("profile"));
+        //已经提交的请求不会再次恢复
+        assertEquals(0, newOutbox(4).size());
+    }
+
+    @Test
+    public void testJournalUnavailable() throws Exception {
+        //日志路径被目录占用，启动时无法打开日志
+        assertTrue(mJournalFile.mkdir());
+        HttpOutbox outbox = newOutbox(4);
+        try {
+            outbox.enqueue(newRequest("1"), false, 0, null, null);
+            fail("enqueue without journal");
+        } catch (IOException ex) {
+            assertTrue(ex.getMessage(), ex.getMessage().startsWith("Outbox journal unavailable"));
+        }
+        assertEquals(0, outbox.size());
+        //日志恢复可写后重新打开
+        assertTrue(mJournalFile.delete());
+        outbox.enqueue(newRequest("2"), false, 0, null, null);
+        assertEquals(1, outbox.size());
+        assertEquals(1, newOutbox(4).size());
+    }
+
+    @Test
+    public void testCompaction() throws Exception {
+        HttpOutbox outbox = newOutbox(4);
+        for (int i = 0; i < 70; i++) {
+            outbox.enqueue(newRequest(Integer.toString(i)), false, 0, null, null);
+        }
+        long enqueuedLength = mJournalFile.length();
+        outbox.flush();
+        awaitSize(outbox, 0);
+        assertEquals(70, mReceived.size());
+        //出队记录达到阈值后日志被重写，只保留队列中剩余的请求
+        long journalLength = mJournalFile.length();
+        assertTrue("journal " + journalLength + " of " + enqueuedLength, journalLength < enqueuedLength / 4);
+        assertEquals(0, newOutbox(4).size());
+    }
+
+    @Test
+    public void testDedup() throws Exception {
+        HttpOutbox outbox = newOutbox(4);
+        outbox.enqueue(newRequest("profile-v1"), false, 0, "profile", null);
+        outbox.enqueue(newRequest("avatar"), false, 0, "avatar", null);
+        outbox.enqueue(newRequest("profile-v2"), false, 0, "profile", null);
+        assertEquals(2, outbox.size());
+        //重启后同样只保留最后一次入队的请求
+        HttpOutbox restored = newOutbox(4);
+        assertEquals(2, restored.size());
+        restored.flush();
+        awaitSize(restored, 0);
+        Collections.sort(mReceived);
+        assertEquals(Arrays.asList("avatar", "profile-v2"), mReceived);
+    }
+
+    @Test
+    public void testFlushOrder() throws Exception {
+        HttpOutbox outbox = newOutbox(1);
+        outbox.enqueue(newRequest("low-1"), false, 0, null, null);
+        outbox.enqueue(newRequest("high-1"), false, 5, null, null);
+        outbox.enqueue(newRequest("low-2"), false, 0, null, null);
+        outbox.enqueue(newRequest("high-2"), false, 5, null, null);
+        outbox.enqueue(newRequest("middle"), false, 1, null, null);
+        outbox.flush();
+        awaitSize(outbox, 0);
+        //优先级从高到低，同优先级按入队顺序
+        assertEquals(Arrays.asList("high-1", "high-2", "middle", "low-1", "low-2"), mReceived);
+    }
+
+    @Test
+    public void testServerErrorKeepsEntry() throws Exception {
+        mRoute.setResponse(503, "Service Unavailable");
+        HttpOutbox outbox = newOutbox(1);
+        final List<HttpResponse<Void>> responses = Collections.synchronizedList(new ArrayList<HttpResponse<Void>>());
+        HttpCallback<Void> callback = new HttpCallback<Void>() {
+            @Override
+            protected void onResponseSuccess(HttpResponse<Void> response) {
+                responses.add(response);
+            }
+        };
+        outbox.enqueue(newRequest("1"), false, 0, null, callback);
+        outbox.enqueue(newRequest("2"), false, 0, null, null);
+        outbox.flush();
+        awaitReceived(1);
+        Thread.sleep(100);
+        //5xx保留在队列中，并停止本次提交
+        assertEquals(1, mReceived.size());
+        assertEquals(2, outbox.size());
+        assertEquals(0, responses.size());
+
+        mRoute.setResponse(200, "OK");
+        outbox.flush();
+        awaitSize(outbox, 0);
+        assertEquals(Arrays.asList("1", "1", "2"), mReceived);
+        assertEquals(1, responses.size());
+    }
+
+    private HttpOutbox newOutbox(int maxParallel) {
+        HttpHelper httpHelper = new HttpHelper();
+        httpHelper.setTransport(mTransport);
+        return new HttpOutbox(httpHelper, mJournalFile, maxParallel);
+    }
+
+    private static HttpRequest newRequest(String name) {
+        HttpRequest request = new HttpRequest("outbox.test", "/outbox/" + name);
+        request.addRequestParam("name", name);
+        return request;
+    }
+
+    private static void awaitSize(HttpOutbox outbox, int size) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (outbox.size() != size) {
+            assertTrue(System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    private void awaitReceived(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (mReceived.size() < count) {
+            assertTrue(System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+}